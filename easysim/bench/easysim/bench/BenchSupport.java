@@ -0,0 +1,96 @@
+
+package easysim.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+
+import easysim.Simulator;
+import easysim.config.Configuration;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Builds the configuration used by the benchmarks. The configuration can only
+ * be set once per JVM, so each benchmark sets it in its trial setup, and the
+ * benchmarks must be run forked (which is the JMH default). JMH may run the
+ * trial setup of a state more than once in a fork (e.g. for a state that is
+ * also used by other states): the same configuration is then reused.
+ */
+final class BenchSupport
+{
+
+  static final long       SEED       = 1234567890L;
+
+  /** The configuration set in this JVM, if any. */
+  private static Properties configured = null;
+
+  /** Disable instance construction */
+  private BenchSupport()
+  {
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the configuration of a network of the given size running the given
+   * protocol class under the name <code>protocol.name</code>, with all
+   * messages sent and received at each cycle. Latencies are drawn uniformly in
+   * [1, 4].
+   */
+  static Properties protocol(String name, String className, int size)
+  {
+    Properties p = new Properties();
+    p.setProperty("random.seed", "" + SEED);
+    p.setProperty("simulation.cycles", "20");
+    p.setProperty("network.size", "" + size);
+    p.setProperty("protocol." + name, className);
+    p.setProperty("protocol." + name + ".latencyRange", "4");
+    p.setProperty("protocol." + name + ".maxMessagesToSend", "-1");
+    p.setProperty("protocol." + name + ".maxMessagesToReceive", "-1");
+    p.setProperty("protocol." + name + ".maxMessagesToDeliver", "-1");
+    return p;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Sets the configuration and the random source of the simulator. The
+   * configuration is only set once per JVM: it is kept if it is set again to
+   * the same properties.
+   */
+  static void configure(Properties p)
+  {
+    if (configured == null)
+    {
+      Configuration.setConfig(p);
+      configured = p;
+    }
+    else if (!configured.equals(p))
+      throw new IllegalStateException(
+          "The configuration can only be set once: run benchmarks forked");
+    Simulator.setRandom(new ExtendedRandom(SEED));
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Discards the standard output (wiring prints every link it creates, and
+   * examples print reports), so that the terminal is not part of the
+   * measurement. The original stream is returned.
+   */
+  static PrintStream muteStdout()
+  {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream()
+    {
+      public void write(int b)
+      {
+      }
+
+      public void write(byte[] b, int off, int len)
+      {
+      }
+    }));
+    return out;
+  }
+}
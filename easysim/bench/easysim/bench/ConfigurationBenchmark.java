@@ -0,0 +1,78 @@
+
+package easysim.bench;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import easysim.config.Configuration;
+import easysim.config.IntParam;
+
+/**
+ * Measures the lookup of numeric parameters, as done by the example protocols
+ * at every cycle (for instance
+ * <code>Configuration.getInt("simulation.cycles")</code>), and through an
+ * {@link IntParam} handle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConfigurationBenchmark
+{
+
+  private IntParam cycles;
+
+  @Setup
+  public void setup()
+  {
+    Properties p = BenchSupport.protocol("ubtobcast",
+        "example.ubtobcast.Broadcast", 100);
+    p.setProperty("bench.half", "network.size / 2");
+    p.setProperty("bench.nested", "bench.half + simulation.cycles");
+    BenchSupport.configure(p);
+    cycles = Configuration.intParam("simulation.cycles");
+  }
+
+  @Benchmark
+  public int getIntConstant()
+  {
+    return Configuration.getInt("simulation.cycles");
+  }
+
+  @Benchmark
+  public int getIntProtocolParameter()
+  {
+    return Configuration.getInt("protocol.ubtobcast.maxMessagesToDeliver");
+  }
+
+  @Benchmark
+  public int getIntExpression()
+  {
+    return Configuration.getInt("bench.nested");
+  }
+
+  @Benchmark
+  public int getIntDefault()
+  {
+    return Configuration.getInt("bench.missing", -1);
+  }
+
+  @Benchmark
+  public int intParam()
+  {
+    return cycles.get();
+  }
+}
@@ -0,0 +1,90 @@
+
+package easysim.bench;
+
+import java.io.PrintStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import easysim.Simulator;
+
+/**
+ * Runs whole experiments ({@link Simulator#nextExperiment()}: reset, wiring,
+ * then 20 cycles) of the example protocols:
+ * <ul>
+ * <li><code>ring</code>: {@link example.ring.Ring} on a ring;</li>
+ * <li><code>multicast</code>: {@link example.multicast.Multicast} on a
+ * complete graph;</li>
+ * <li><code>ubtobcast</code>: {@link example.ubtobcast.Broadcast} on a
+ * complete graph.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CycleBenchmark
+{
+
+  @Param({ "ring", "multicast", "ubtobcast" })
+  public String       protocol;
+
+  @Param({ "100", "400" })
+  public int          size;
+
+  @Param({ "1" })
+  public int          threads;
+
+  private PrintStream out;
+
+  @Setup
+  public void setup()
+  {
+    Properties p;
+    if (protocol.equals("ring"))
+    {
+      p = BenchSupport.protocol(protocol, "example.ring.Ring", size);
+      p.setProperty("init.0_wire", "easysim.topology.WireRing");
+    }
+    else if (protocol.equals("multicast"))
+    {
+      p = BenchSupport.protocol(protocol, "example.multicast.Multicast", size);
+      p.setProperty("init.0_wire", "easysim.topology.WireEntireNetwork");
+    }
+    else
+    {
+      p = BenchSupport.protocol(protocol, "example.ubtobcast.Broadcast", size);
+      p.setProperty("init.0_wire", "easysim.topology.WireEntireNetwork");
+    }
+    p.setProperty("simulation.threads", "" + threads);
+    BenchSupport.configure(p);
+    out = BenchSupport.muteStdout();
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    System.setOut(out);
+  }
+
+  @Benchmark
+  public int nextExperiment()
+  {
+    Simulator.nextExperiment();
+    return Simulator.getMessageCount();
+  }
+}
@@ -0,0 +1,96 @@
+
+package easysim.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import easysim.topology.EdgeList;
+
+/**
+ * Measures the loading of an {@link EdgeList} of <code>links</code> random
+ * links between 100000 nodes, from a text file with one thread or with all
+ * the processors, and from the equivalent binary file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class EdgeListBenchmark
+{
+
+  private static final int NODES = 100000;
+
+  @Param({ "1000000", "10000000" })
+  public int               links;
+
+  private File             text;
+
+  private File             binary;
+
+  @Setup
+  public void setup() throws IOException
+  {
+    text = File.createTempFile("edges", ".txt");
+    binary = File.createTempFile("edges", ".bin");
+    Random r = new Random(BenchSupport.SEED);
+    PrintWriter out = new PrintWriter(text);
+    // Lines of 10 links
+    for (int i = 0; i < links / 10; ++i)
+    {
+      StringBuilder line = new StringBuilder().append(r.nextInt(NODES));
+      for (int j = 0; j < 10; ++j)
+        line.append(' ').append(r.nextInt(NODES));
+      out.println(line);
+    }
+    out.close();
+    EdgeList.read(text.getPath(), NODES, 1).write(binary.getPath());
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    text.delete();
+    binary.delete();
+  }
+
+  /** Parses the text file in a single thread. */
+  @Benchmark
+  public EdgeList textSequential() throws IOException
+  {
+    return EdgeList.read(text.getPath(), NODES, 1);
+  }
+
+  /** Parses the text file with one thread per processor. */
+  @Benchmark
+  public EdgeList textParallel() throws IOException
+  {
+    return EdgeList.read(text.getPath(), NODES, Runtime.getRuntime()
+        .availableProcessors());
+  }
+
+  /** Reads the binary file. */
+  @Benchmark
+  public EdgeList binary() throws IOException
+  {
+    return EdgeList.read(binary.getPath(), NODES, Runtime.getRuntime()
+        .availableProcessors());
+  }
+}
@@ -0,0 +1,117 @@
+
+package easysim.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import easysim.core.Network;
+import easysim.latency.LatencyModel;
+import easysim.latency.MatrixLatency;
+import easysim.latency.RangeLatency;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Measures the {@link LatencyModel}s: the latencies of a multicast from node 0
+ * to <code>fanOut</code> nodes are drawn in one call, or one destination at a
+ * time. The <code>matrix</code> model reads a matrix of 64 sites.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LatencyBenchmark
+{
+
+  /**
+   * The model and the destinations.
+   */
+  @State(Scope.Thread)
+  public static class Model
+  {
+
+    @Param({ "10", "100", "1000" })
+    public int     fanOut;
+
+    @Param({ "range", "matrix" })
+    public String  model;
+
+    LatencyModel   latency;
+
+    int[]          destinations;
+
+    int[]          latencies;
+
+    ExtendedRandom random;
+
+    /**
+     * The matrix file, written once per JVM so that the configuration is the
+     * same at each setup (see {@link BenchSupport#configure(Properties)}).
+     */
+    static File    matrix;
+
+    @Setup
+    public void setup() throws IOException
+    {
+      Properties p = BenchSupport.protocol("multicast",
+          "example.multicast.Multicast", fanOut + 1);
+      if (matrix == null)
+      {
+        File file = File.createTempFile("latency", ".txt");
+        file.deleteOnExit();
+        PrintWriter out = new PrintWriter(file);
+        for (int i = 0; i < 64; ++i)
+        {
+          StringBuilder row = new StringBuilder();
+          for (int j = 0; j < 64; ++j)
+            row.append(' ').append(1 + (i * 7 + j * 13) % 50);
+          out.println(row);
+        }
+        out.close();
+        matrix = file;
+      }
+      p.setProperty("matrix.file", matrix.getPath());
+      BenchSupport.configure(p);
+      Network.reset();
+      latency = model.equals("matrix") ? new MatrixLatency("matrix")
+          : new RangeLatency("protocol.multicast");
+      destinations = new int[fanOut];
+      for (int i = 0; i < fanOut; ++i)
+        destinations[i] = i + 1;
+      latencies = new int[fanOut];
+      random = new ExtendedRandom(BenchSupport.SEED);
+    }
+  }
+
+  /** Draws the latencies of the whole multicast in one call. */
+  @Benchmark
+  public int[] bulk(Model m)
+  {
+    m.latency.next(0, m.destinations, 0, m.fanOut, m.latencies, m.random);
+    return m.latencies;
+  }
+
+  /** Draws the latencies one destination at a time. */
+  @Benchmark
+  public int[] perDestination(Model m)
+  {
+    for (int i = 0; i < m.fanOut; ++i)
+      m.latencies[i] = m.latency.next(0, m.destinations[i], m.random);
+    return m.latencies;
+  }
+}
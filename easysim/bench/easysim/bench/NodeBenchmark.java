@@ -0,0 +1,215 @@
+
+package easysim.bench;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import easysim.core.Network;
+import easysim.core.Node;
+import example.multicast.Multicast;
+import example.multicast.MulticastMessage;
+
+/**
+ * Measures the messaging primitives of {@link Node} with
+ * {@link example.multicast.Multicast} nodes: node 0 sends one message to the
+ * <code>fanOut</code> other nodes, which are its neighbors.
+ * <p>
+ * The simulator is not running, so the current cycle is 0: messages are sent
+ * with a latency of 0 so that they can be received right away.
+ * <p>
+ * With <code>pool=release</code>, node 0 pools its messages (see
+ * {@link easysim.core.MessagePool}), and the received messages are released
+ * to its pool, as in a simulation in which each node sends as many messages
+ * as it receives.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class NodeBenchmark
+{
+
+  /**
+   * The network: node 0 and its destinations.
+   */
+  @State(Scope.Thread)
+  public static class Net
+  {
+
+    @Param({ "10", "100", "1000" })
+    public int          fanOut;
+
+    @Param({ "none", "release" })
+    public String       pool;
+
+    Multicast           sender;
+
+    Node<MulticastMessage>[] destinations;
+
+    int[]               latencies;
+
+    @Setup
+    public void setup()
+    {
+      Properties p = BenchSupport.protocol("multicast",
+          "example.multicast.Multicast", fanOut + 1);
+      if (!pool.equals("none"))
+        p.setProperty("protocol.multicast.pool", pool);
+      BenchSupport.configure(p);
+      Network.reset();
+      sender = (Multicast) Network.get(0);
+      destinations = new Node[fanOut];
+      for (int i = 0; i < fanOut; ++i)
+        destinations[i] = Network.get(i + 1);
+      latencies = new int[fanOut];
+      for (int i = 0; i < fanOut; ++i)
+        sender.addNeighbor(destinations[i]);
+    }
+
+    /** Sends one message with latency 0 to all destinations. */
+    void sendAll()
+    {
+      sender.send(new MulticastMessage(), destinations, latencies);
+    }
+
+    /** Empties the inQueues of the destinations. */
+    void drain()
+    {
+      for (int i = 0; i < fanOut; ++i)
+        while (destinations[i].receive() != null)
+          ;
+    }
+
+    /** Receives all the messages of the destinations. */
+    void receiveAll(Blackhole bh)
+    {
+      for (int i = 0; i < fanOut; ++i)
+      {
+        MulticastMessage m;
+        while ((m = destinations[i].receive()) != null)
+        {
+          bh.consume(m);
+          sender.release(m);
+        }
+      }
+    }
+  }
+
+  /**
+   * Puts one message in the inQueue of each destination before each call.
+   */
+  @State(Scope.Thread)
+  public static class Delivered
+  {
+    @Setup(Level.Invocation)
+    public void setup(Net net)
+    {
+      net.sendAll();
+      net.sender.outQueueUpdate();
+    }
+  }
+
+  /**
+   * Puts one message in the outQueue of node 0 before each call.
+   */
+  @State(Scope.Thread)
+  public static class Sent
+  {
+    @Setup(Level.Invocation)
+    public void setup(Net net)
+    {
+      net.drain();
+      net.sendAll();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+  // send
+  // ------------------------------------------------------------------------
+
+  @Benchmark
+  public void sendArrayWithLatencies(Net net)
+  {
+    net.sender.send(new MulticastMessage(), net.destinations, net.latencies);
+    net.sender.getOutQueue().clear();
+  }
+
+  @Benchmark
+  public void sendArray(Net net)
+  {
+    net.sender.send(new MulticastMessage(), net.destinations);
+    net.sender.getOutQueue().clear();
+  }
+
+  @Benchmark
+  public void sendEachWithLatency(Net net)
+  {
+    for (int i = 0; i < net.fanOut; ++i)
+      net.sender.send(new MulticastMessage(), net.destinations[i], 0);
+    net.sender.getOutQueue().clear();
+  }
+
+  @Benchmark
+  public void sendEach(Net net)
+  {
+    for (int i = 0; i < net.fanOut; ++i)
+      net.sender.send(new MulticastMessage(), net.destinations[i]);
+    net.sender.getOutQueue().clear();
+  }
+
+  @Benchmark
+  public void sendEachBatched(Net net)
+  {
+    net.sender.beginBatch();
+    for (int i = 0; i < net.fanOut; ++i)
+      net.sender.add(net.destinations[i], new MulticastMessage());
+    net.sender.commit();
+    net.sender.getOutQueue().clear();
+  }
+
+  @Benchmark
+  public void sendToNeighbors(Net net)
+  {
+    net.sender.sendToNeighbors(new MulticastMessage());
+    net.sender.getOutQueue().clear();
+  }
+
+  // ------------------------------------------------------------------------
+  // outQueueUpdate / receive
+  // ------------------------------------------------------------------------
+
+  @Benchmark
+  public void outQueueUpdate(Net net, Sent sent)
+  {
+    net.sender.outQueueUpdate();
+  }
+
+  @Benchmark
+  public void receive(Net net, Delivered delivered, Blackhole bh)
+  {
+    net.receiveAll(bh);
+  }
+
+  @Benchmark
+  public void fanOut(Net net, Blackhole bh)
+  {
+    net.sendAll();
+    net.sender.outQueueUpdate();
+    net.receiveAll(bh);
+  }
+}
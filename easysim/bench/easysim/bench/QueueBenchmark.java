@@ -0,0 +1,183 @@
+
+package easysim.bench;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import easysim.core.InQueue;
+import easysim.core.Message;
+import easysim.core.Node;
+import easysim.util.RingBuffer;
+
+/**
+ * Compares the queues of a node with the <code>java.util.LinkedList</code>
+ * based queues they replaced, for a given number of queued messages.
+ * <p>
+ * Each invocation fills a queue and empties it, as done in one cycle: the
+ * outQueue is drained in order, and the inQueue receives messages due within
+ * the next {@link #LATENCY_RANGE} cycles and is then polled until empty.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueueBenchmark
+{
+
+  private static final int LATENCY_RANGE = 4;
+
+  @Param({ "10", "100", "1000" })
+  public int               queued;
+
+  private BenchMessage[]   messages;
+
+  private Emission[] emissions;
+
+  @Setup
+  public void setup()
+  {
+    Random r = new Random(1234567890L);
+    messages = new BenchMessage[queued];
+    emissions = new Emission[queued];
+    for (int i = 0; i < queued; ++i)
+    {
+      messages[i] = new BenchMessage();
+      messages[i].sendingCycle = 0;
+      messages[i].latency = r.nextInt(LATENCY_RANGE) + 1;
+      emissions[i] = new Emission(messages[i], new Node[0], new int[0]);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+  // outQueue
+  // ------------------------------------------------------------------------
+
+  @Benchmark
+  public void outQueueLinkedList(Blackhole bh)
+  {
+    LinkedList<Emission> q = new LinkedList<Emission>();
+    for (int i = 0; i < queued; ++i)
+      q.addLast(emissions[i]);
+    Iterator<Emission> iter = q.iterator();
+    while (iter.hasNext())
+    {
+      bh.consume(iter.next());
+      iter.remove();
+    }
+  }
+
+  @Benchmark
+  public void outQueueRingBuffer(Blackhole bh)
+  {
+    RingBuffer<Emission> q = new RingBuffer<Emission>();
+    for (int i = 0; i < queued; ++i)
+      q.addLast(emissions[i]);
+    for (int i = 0; i < queued; ++i)
+      bh.consume(q.pollFirst());
+  }
+
+  // ------------------------------------------------------------------------
+  // inQueue
+  // ------------------------------------------------------------------------
+
+  @Benchmark
+  public void inQueueLinkedList(Blackhole bh)
+  {
+    LinkedList<BenchMessage> q = new LinkedList<BenchMessage>();
+    for (int i = 0; i < queued; ++i)
+      q.addLast(messages[i]);
+    for (int cycle = 1; cycle <= LATENCY_RANGE; ++cycle)
+    {
+      BenchMessage m;
+      while ((m = pollLinkedList(q, cycle)) != null)
+        bh.consume(m);
+    }
+  }
+
+  @Benchmark
+  public void inQueueFifo(Blackhole bh)
+  {
+    drain(InQueue.<BenchMessage> create(InQueue.FIFO), bh);
+  }
+
+  @Benchmark
+  public void inQueueWheel(Blackhole bh)
+  {
+    drain(InQueue.<BenchMessage> create(InQueue.WHEEL), bh);
+  }
+
+  // ------------------------------------------------------------------------
+
+  private void drain(InQueue<BenchMessage> q, Blackhole bh)
+  {
+    for (int i = 0; i < queued; ++i)
+      q.add(messages[i]);
+    for (int cycle = 1; cycle <= LATENCY_RANGE; ++cycle)
+    {
+      BenchMessage m;
+      while ((m = q.poll(cycle)) != null)
+        bh.consume(m);
+    }
+  }
+
+  /**
+   * The scan performed by Node.receive() before the inQueue was introduced.
+   */
+  private static BenchMessage pollLinkedList(LinkedList<BenchMessage> q,
+      int cycle)
+  {
+    Iterator<BenchMessage> iter = q.iterator();
+    while (iter.hasNext())
+    {
+      BenchMessage m = iter.next();
+      if (m.sendingCycle + m.latency <= cycle)
+      {
+        iter.remove();
+        return m;
+      }
+    }
+    return null;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * An entry of the outQueue before it stored its emissions in arrays.
+   */
+  static class Emission
+  {
+    final BenchMessage message;
+
+    final Node[]       destinations;
+
+    final int[]        latencies;
+
+    Emission(BenchMessage message, Node[] destinations, int[] latencies)
+    {
+      this.message = message;
+      this.destinations = destinations;
+      this.latencies = latencies;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  static class BenchMessage extends Message
+  {
+    public int getType()
+    {
+      return Message.TYPE.UNDEFINED;
+    }
+  }
+}
@@ -0,0 +1,76 @@
+
+package easysim.bench;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import easysim.config.Configuration;
+import easysim.core.Network;
+import easysim.topology.RandomWire;
+
+/**
+ * Measures the wiring of a freshly reset network by each {@link RandomWire}
+ * topology, with an average degree of about 8, with one thread or with all
+ * the processors. The links are not printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class RandomWireBenchmark
+{
+
+  @Param({ "WireRandomRegular", "WireErdosRenyi", "WireScaleFreeBA", "WireWS" })
+  public String      wire;
+
+  @Param({ "100000", "1000000" })
+  public int         size;
+
+  @Param({ "1", "0" })
+  public int         threads;
+
+  private RandomWire control;
+
+  @Setup
+  public void setup()
+  {
+    Properties p = BenchSupport.protocol("ring", "example.ring.Ring", size);
+    p.setProperty("init.0_wire", "easysim.topology." + wire);
+    p.setProperty("init.0_wire.undirected", "");
+    p.setProperty("init.0_wire.k", "4");
+    p.setProperty("init.0_wire.p", String.valueOf(8.0 / size));
+    p.setProperty("init.0_wire.beta", "0.1");
+    p.setProperty("init.0_wire.log", "false");
+    if (threads > 0)
+      p.setProperty("init.0_wire.threads", String.valueOf(threads));
+    BenchSupport.configure(p);
+    control = (RandomWire) Configuration.getInstance("init.0_wire");
+  }
+
+  @Setup(Level.Invocation)
+  public void reset()
+  {
+    Network.reset();
+  }
+
+  @Benchmark
+  public boolean wire()
+  {
+    return control.execute();
+  }
+}
@@ -0,0 +1,83 @@
+
+package easysim.bench;
+
+import java.io.PrintStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import easysim.config.Configuration;
+import easysim.core.Network;
+import easysim.topology.AbstractWire;
+
+/**
+ * Measures the wiring of a freshly reset network by each
+ * {@link AbstractWire} topology, with and without printing the links. The
+ * standard output is discarded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class WireBenchmark
+{
+
+  @Param({ "WireRing", "WireHypercube", "WireRegRootedTree",
+      "WireEntireNetwork" })
+  public String        wire;
+
+  @Param({ "100", "500", "2000" })
+  public int           size;
+
+  @Param({ "true", "false" })
+  public boolean       log;
+
+  private AbstractWire control;
+
+  private PrintStream  out;
+
+  @Setup
+  public void setup()
+  {
+    Properties p = BenchSupport.protocol("ring", "example.ring.Ring", size);
+    p.setProperty("init.0_wire", "easysim.topology." + wire);
+    p.setProperty("init.0_wire.k", "2");
+    p.setProperty("init.0_wire.log", String.valueOf(log));
+    BenchSupport.configure(p);
+    control = (AbstractWire) Configuration.getInstance("init.0_wire");
+    out = BenchSupport.muteStdout();
+  }
+
+  @Setup(Level.Invocation)
+  public void reset()
+  {
+    Network.reset();
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    System.setOut(out);
+  }
+
+  @Benchmark
+  public boolean wire()
+  {
+    return control.execute();
+  }
+}
@@ -0,0 +1,102 @@
+
+package easysim;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.io.PrintWriter;
+
+/**
+ * The drawing primitives used by {@link TimeDiagram}, so that the time
+ * diagram can be drawn on screen, in an image, or in an SVG document.
+ */
+interface DiagramCanvas {
+
+    void setColor(Color c);
+
+    void drawLine(int x1, int y1, int x2, int y2);
+
+    void drawString(String s, int x, int y);
+
+    void fillRect(int x, int y, int width, int height);
+
+    /**
+     * Draws on a {@link Graphics2D}.
+     */
+    final class OnGraphics implements DiagramCanvas {
+
+        private final Graphics2D g;
+
+        OnGraphics(Graphics2D g) {
+            this.g = g;
+        }
+
+        public void setColor(Color c) {
+            g.setColor(c);
+        }
+
+        public void drawLine(int x1, int y1, int x2, int y2) {
+            g.drawLine(x1, y1, x2, y2);
+        }
+
+        public void drawString(String s, int x, int y) {
+            g.drawString(s, x, y);
+        }
+
+        public void fillRect(int x, int y, int width, int height) {
+            g.fillRect(x, y, width, height);
+        }
+    }
+
+    /**
+     * Writes SVG elements, as they are drawn, to a stream.
+     */
+    final class Svg implements DiagramCanvas {
+
+        private final PrintWriter out;
+
+        private String color = "#000000";
+
+        Svg(PrintWriter out) {
+            this.out = out;
+        }
+
+        /** Writes the start of a document of the given size. */
+        void begin(int width, int height) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width
+                    + "\" height=\"" + height + "\" viewBox=\"0 0 " + width + " " + height + "\">");
+            out.println("<rect width=\"100%\" height=\"100%\" fill=\"#ffffff\"/>");
+            out.println("<g font-family=\"sans-serif\" font-size=\"12\" stroke-width=\"1\">");
+        }
+
+        /** Writes the end of the document. */
+        void end() {
+            out.println("</g>");
+            out.println("</svg>");
+        }
+
+        /** Writes a comment, for instance to separate tiles. */
+        void comment(String s) {
+            out.println("<!-- " + s + " -->");
+        }
+
+        public void setColor(Color c) {
+            color = String.format("#%06x", c.getRGB() & 0xffffff);
+        }
+
+        public void drawLine(int x1, int y1, int x2, int y2) {
+            out.println("<line x1=\"" + x1 + "\" y1=\"" + y1 + "\" x2=\"" + x2 + "\" y2=\"" + y2
+                    + "\" stroke=\"" + color + "\"/>");
+        }
+
+        public void drawString(String s, int x, int y) {
+            out.println("<text x=\"" + x + "\" y=\"" + y + "\" fill=\"" + color + "\">"
+                    + s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;") + "</text>");
+        }
+
+        public void fillRect(int x, int y, int width, int height) {
+            out.println("<rect x=\"" + x + "\" y=\"" + y + "\" width=\"" + width + "\" height=\""
+                    + height + "\" fill=\"" + color + "\"/>");
+        }
+    }
+}
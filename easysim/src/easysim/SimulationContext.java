@@ -0,0 +1,238 @@
+
+package easysim;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * The state of a simulation: configuration, network, current cycle, random
+ * source, time diagram...
+ * <p>
+ * The classes of the simulator keep their state through the static methods
+ * of {@link easysim.config.Configuration}, {@link easysim.core.Network},
+ * {@link Simulator}, etc. This state is not stored in static fields, but in
+ * {@link Slot}s of the <em>current</em> context. By default, all the threads
+ * share a single global context, so a simulation run by
+ * {@link Simulator#main} behaves as if the state were static.
+ * <p>
+ * Several simulations can be run concurrently in the same JVM by running
+ * each of them within its own context (see {@link #run(Runnable)}): the
+ * context is then bound to the running thread. Threads started by a
+ * simulation do not inherit its context, and must run their tasks within it
+ * too (as done by {@link easysim.core.CycleExecutor}).
+ */
+public final class SimulationContext {
+
+    /** Maximum number of slots. */
+    private static final int MAX_SLOTS = 16;
+
+    /** The context of the threads not bound to a context. */
+    private static final SimulationContext global = new SimulationContext();
+
+    /** The context bound to each thread, if any. */
+    private static final ThreadLocal<SimulationContext> bound = new ThreadLocal<SimulationContext>();
+
+    /** The stream to which the output of each thread is staged, if any. */
+    private static final ThreadLocal<PrintStream> staged = new ThreadLocal<PrintStream>();
+
+    /**
+     * Set once a context has been bound to a thread. Until then, all threads
+     * use the global context, without looking up their bound context.
+     */
+    private static boolean isolated = false;
+
+    private static int nbSlots = 0;
+
+    private final AtomicReferenceArray<Object> values = new AtomicReferenceArray<Object>(MAX_SLOTS);
+
+    /** The standard output of the simulation, if it is redirected. */
+    private volatile PrintStream out;
+
+    /**
+     * Creates an empty context: all the slots have their initial value.
+     */
+    public SimulationContext() {
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * A piece of state of each context. Slots are static fields of the classes
+     * that own the state.
+     */
+    public static final class Slot<T> {
+
+        private final int index;
+
+        private final Supplier<T> initial;
+
+        private Slot(int index, Supplier<T> initial) {
+            this.index = index;
+            this.initial = initial;
+        }
+
+        /**
+         * Returns the value of this slot in the current context, creating it
+         * on first access.
+         */
+        public T get() {
+            return current().get(this);
+        }
+    }
+
+    /**
+     * Creates a new slot, whose value in each context is created on first
+     * access by <code>initial</code>.
+     */
+    public static synchronized <T> Slot<T> slot(Supplier<T> initial) {
+        if (nbSlots == MAX_SLOTS) {
+            throw new IllegalStateException("Too many context slots");
+        }
+        return new Slot<T>(nbSlots++, initial);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(Slot<T> slot) {
+        Object value = values.get(slot.index);
+        if (value == null) {
+            values.compareAndSet(slot.index, null, slot.initial.get());
+            value = values.get(slot.index);
+        }
+        return (T) value;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the context of the calling thread.
+     */
+    public static SimulationContext current() {
+        if (!isolated) {
+            return global;
+        }
+        SimulationContext context = bound.get();
+        return context != null ? context : global;
+    }
+
+    /**
+     * Runs the given task within this context, on the calling thread.
+     */
+    public void run(final Runnable task) {
+        call(new Callable<Void>() {
+            public Void call() {
+                task.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Calls the given task within this context, on the calling thread, and
+     * returns its result. Exceptions are wrapped in a RuntimeException if
+     * they are not one.
+     */
+    public <V> V call(Callable<V> task) {
+        if (this != global) {
+            isolated = true;
+        }
+        SimulationContext previous = bound.get();
+        bound.set(this);
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (previous != null) {
+                bound.set(previous);
+            } else {
+                bound.remove();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets the stream to which the standard output of this context is sent
+     * when {@link System#out} is a stream returned by {@link #routingStream}.
+     * If null, the standard output is not redirected.
+     */
+    public void setOut(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Sets the stream to which the standard output of the calling thread is
+     * sent when {@link System#out} is a stream returned by
+     * {@link #routingStream}, whatever its context. If null, the output of
+     * the thread is sent to the output of its context again. This lets the
+     * worker threads of a simulation stage their output, and print it in a
+     * deterministic order (see {@link easysim.core.CycleExecutor}).
+     */
+    public static void setThreadOut(PrintStream out) {
+        if (out != null) {
+            staged.set(out);
+        } else {
+            staged.remove();
+        }
+    }
+
+    /**
+     * Returns a stream which sends what is printed to the output of the
+     * calling thread (see {@link #setThreadOut}), or else to the output of the
+     * current context (see {@link #setOut}), or else to
+     * <code>defaultOut</code>. It is meant to be installed as
+     * {@link System#out}, so that the output of simulations run concurrently
+     * is not mixed up.
+     */
+    public static PrintStream routingStream(final PrintStream defaultOut) {
+        return new RoutingStream(new OutputStream() {
+            private PrintStream target() {
+                PrintStream out = staged.get();
+                if (out != null) {
+                    return out;
+                }
+                out = current().out;
+                return out != null ? out : defaultOut;
+            }
+
+            @Override
+            public void write(int b) {
+                target().write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                target().write(b, off, len);
+            }
+
+            @Override
+            public void flush() {
+                target().flush();
+            }
+        });
+    }
+
+    /**
+     * Returns whether the given stream has been returned by
+     * {@link #routingStream}.
+     */
+    public static boolean isRoutingStream(PrintStream stream) {
+        return stream instanceof RoutingStream;
+    }
+
+    /**
+     * The streams returned by {@link #routingStream}.
+     */
+    private static final class RoutingStream extends PrintStream {
+
+        RoutingStream(OutputStream out) {
+            super(out, true);
+        }
+    }
+}
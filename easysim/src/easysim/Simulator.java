@@ -18,6 +18,7 @@
 
 package easysim;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
 
@@ -27,9 +28,18 @@ import easysim.config.Configuration;
 import easysim.config.IllegalParameterException;
 import easysim.config.MissingParameterException;
 import easysim.config.ParsedProperties;
+import easysim.core.ActiveSet;
+import easysim.core.Checkpoint;
 import easysim.core.Control;
+import easysim.core.CycleExecutor;
+import easysim.core.EventEngine;
 import easysim.core.Network;
+import easysim.core.Node;
+import easysim.core.ShardExecutor;
+import easysim.core.ShardPartitioner;
+import easysim.topology.AbstractWire;
 import easysim.util.ExtendedRandom;
+import easysim.util.StringListParser;
 
 /**
  * This is the main entry point to peersim. This class loads configuration and
@@ -49,6 +59,47 @@ import easysim.util.ExtendedRandom;
  * <p>
  * Finally, any control can interrupt an experiment at any time it is executed
  * by returning true in method {@link Control#execute}.
+ * <p>
+ * If {@value #PAR_EVENT_DRIVEN} is specified, the nodes are only run at the
+ * cycles at which at least one node has something to do: a message to send or
+ * to receive, a wake-up requested with {@link Node#wakeUpAt}, or if it is
+ * always active (see {@link Node#setAlwaysActive}). At the other cycles, only
+ * the controls are run. This is only correct for protocols whose nodes act on
+ * the reception of messages, at the cycles at which they asked to be woken up,
+ * or are always active. Cycles are only skipped while no node is always
+ * active.
+ * <p>
+ * If {@value #PAR_ACTIVE_SET} is specified, only the nodes that have something
+ * to do at a cycle are run, in addition to the nodes that are always active
+ * (see {@link Node#setAlwaysActive}), as tracked by an {@link ActiveSet}. All
+ * the nodes are run at the first cycle. The cost of a cycle then depends on the
+ * number of active nodes, not on the size of the network. The same restriction
+ * as with {@value #PAR_EVENT_DRIVEN} applies to the nodes that are not always
+ * active.
+ * <p>
+ * If {@value #PAR_ENGINE} is <code>event</code>, the nodes are run in
+ * continuous time by an {@link EventEngine} instead. The latencies of messages
+ * are the latencies in cycles of the nodes, unless the latency model of the
+ * protocol draws them in nanoseconds (see
+ * {@link easysim.latency.ContinuousLatency}).
+ * Each cycle lasts {@value #PAR_CYCLE_LENGTH} nanoseconds of simulated time,
+ * and the controls are still run at the start of each cycle.
+ * <p>
+ * The simulation can be saved at the end of some cycles (see
+ * {@value #PAR_CHECKPOINT}), and later experiments can resume from such a
+ * checkpoint instead of running the initializers and the first cycles again
+ * (see {@value #PAR_RESUME}). The controls are created again when resuming.
+ * An experiment can also be run up to some cycle and saved in memory (see
+ * {@link #runUntil(int)}), to be continued by several experiments.
+ * <p>
+ * If {@value #PAR_SHARDS} is more than 1, the nodes are split between several
+ * processes, each of them running the nodes of its shard (see
+ * {@link ShardExecutor}). The initializers must then only wire the topology:
+ * they are run before the nodes are created, on placeholders of the nodes.
+ * Each process only creates the nodes of its shard, and runs the controls on
+ * its own network, in which the nodes of the other shards are placeholders:
+ * the observers must only report on the nodes of their shard (see
+ * {@link Network#isLocal(int)}).
  * 
  * @see Configuration
  */
@@ -117,33 +168,196 @@ public class Simulator
    * 
    * @config
    */
-  private static final String  TIME_DIAGRAM       = "simulation.timeDiagram";
+  public static final String   TIME_DIAGRAM       = "simulation.timeDiagram";
+
+  /**
+   * Number of threads used to run the cycles. Defaults to 1, in which case the
+   * nodes are run sequentially by this class. Otherwise, the cycles are run by
+   * a {@link CycleExecutor}, which delivers the messages and prints the
+   * standard output of the nodes in the same order as with one thread.
+   * 
+   * @config
+   */
+  private static final String  PAR_THREADS        = "simulation.threads";
+
+  /**
+   * If present, the cycles at which no node has anything to do are skipped
+   * (only the controls are run).
+   * 
+   * @config
+   */
+  private static final String  PAR_EVENT_DRIVEN   = "simulation.eventDriven";
+
+  /**
+   * If present, only the nodes that have something to do are run at each
+   * cycle.
+   * 
+   * @config
+   */
+  private static final String  PAR_ACTIVE_SET     = "simulation.activeSet";
+
+  /**
+   * The engine running the nodes: <code>cycle</code> (default) for the
+   * round-based engine, or <code>event</code> for the continuous-time one.
+   * 
+   * @config
+   */
+  private static final String  PAR_ENGINE         = "simulation.engine";
+
+  /**
+   * The length of a cycle, in nanoseconds of simulated time. Defaults to
+   * 1000000 (1 ms).
+   * 
+   * @config
+   */
+  private static final String  PAR_CYCLE_LENGTH   = "simulation.cycleLength";
+
+  /**
+   * If present, the simulation is saved in the given file at the end of the
+   * cycles given by {@value #PAR_CHECKPOINT_CYCLES} (see {@link Checkpoint}).
+   * If there are several such cycles, the cycle is appended to the name of the
+   * file (as in <code>file.cycle</code>).
+   * 
+   * @config
+   */
+  private static final String  PAR_CHECKPOINT     = "simulation.checkpoint";
+
+  /**
+   * The cycles at the end of which the simulation is saved, in the syntax of
+   * {@link StringListParser}. Defaults to the last cycle.
+   * 
+   * @config
+   */
+  private static final String  PAR_CHECKPOINT_CYCLES = "simulation.checkpoint.cycles";
+
+  /**
+   * If present, the experiments resume from the given checkpoint file, instead
+   * of initializing the network: the network, the random source, the message
+   * ids and the cycle are restored, and the simulation goes on from the cycle
+   * following the checkpoint.
+   * 
+   * @config
+   */
+  private static final String  PAR_RESUME         = "simulation.resume";
+
+  /**
+   * The number of processes (workers) between which the nodes are split (see
+   * {@link ShardExecutor}). Defaults to 1. The workers are usually started by
+   * {@link easysim.shard.ShardLauncher}.
+   * 
+   * @config
+   */
+  public static final String   PAR_SHARDS         = "simulation.shards";
+
+  /**
+   * The shard run by this process, from 0 to {@value #PAR_SHARDS} - 1.
+   * Required if there are several shards.
+   * 
+   * @config
+   */
+  public static final String   PAR_SHARD          = "simulation.shard";
+
+  /**
+   * The port on which worker 0 listens for the other workers. Worker k
+   * listens on this port plus k. Defaults to 7400.
+   * 
+   * @config
+   */
+  private static final String  PAR_SHARD_PORT     = "simulation.shard.port";
+
+  /**
+   * The hosts of the workers, separated by spaces or commas; the last one is
+   * used for the remaining workers. Defaults to localhost.
+   * 
+   * @config
+   */
+  private static final String  PAR_SHARD_HOSTS    = "simulation.shard.hosts";
+
+  /**
+   * How the nodes are split between the shards: <code>graph</code> (the
+   * default) keeps linked nodes together (see {@link ShardPartitioner}),
+   * <code>blocks</code> gives contiguous blocks of ids to the shards.
+   * 
+   * @config
+   */
+  private static final String  PAR_SHARD_PARTITION = "simulation.shard.partition";
 
   // ========================== fields ===================================
   // ======================================================================
 
-  /** The maximum number of cycles to be performed in each simulation. */
-  private static int           cycles;
+  /**
+   * The state of the simulator in a simulation context.
+   */
+  private static final class State
+  {
+    /** The maximum number of cycles to be performed in each simulation. */
+    int            cycles;
+
+    /** Holds the modifiers of each simulation. */
+    Control[]      controls           = null;
+
+    /**
+     * Current cycle.
+     */
+    int            currentCycle       = 0;
+
+    /** See {@link Simulator#getRandom()}. */
+    ExtendedRandom r                  = null;
 
-  /** Holds the modifiers of each simulation. */
-  private static Control[]     controls           = null;
+    int            messageIdGenerator = 0;
+
+    /**
+     * The message ids are given as messageIdGenerator * idStride + idOffset,
+     * so that the shards give distinct ids.
+     */
+    int            idOffset           = 0;
+
+    int            idStride           = 1;
+
+    /** The next cycle at which the nodes must be run, if event driven. */
+    int            nextEvent          = 0;
+
+    /** Whether the nodes are being run. */
+    boolean        nodePhase          = false;
+
+    /** The length of a cycle, in nanoseconds. */
+    long           cycleLength;
+
+    /** The continuous-time engine, if used. */
+    EventEngine    events             = null;
+  }
 
   /**
-   * Current cycle.
+   * The state of the simulator in each simulation context (see
+   * {@link SimulationContext}).
    */
-  private static int           currentCycle       = 0;
+  private static final SimulationContext.Slot<State> state = SimulationContext
+                                                               .slot(State::new);
 
   /**
-   * This source of randomness should be used by all nodes. This field is public
-   * because it doesn't matter if it changes during an experiment (although it
-   * shouldn't) until no other sources of randomness are used within the system.
+   * The source of randomness last set by {@link #setRandom}.
+   * 
+   * @deprecated use {@link #getRandom()}, which returns the source of the
+   *             current simulation context. This field is set by
+   *             {@link #setRandom} whatever the context, and assigning it
+   *             has no effect on the simulation.
    */
+  @Deprecated
   public static ExtendedRandom r                  = null;
 
-  public static TimeDiagram    timeDiagram;
-
+  /**
+   * The number of message ids given so far by the last simulation that gave
+   * one.
+   * 
+   * @deprecated use {@link #nextMessageId()} and {@link #getMessageCount()},
+   *             which use the counter of the current simulation context.
+   *             Assigning this field has no effect on the ids given.
+   */
+  @Deprecated
   public static int            messageIdGenerator = 0;
 
+  public static TimeDiagram    timeDiagram;
+
   // ========================== methods ===================================
   // ======================================================================
 
@@ -172,7 +386,7 @@ public class Simulator
     Configuration.setConfig(new ParsedProperties(args));
 
     long seed = Configuration.getLong(PAR_SEED, System.currentTimeMillis());
-    r = new ExtendedRandom(seed);
+    setRandom(new ExtendedRandom(seed));
 
     PrintStream newout = (PrintStream) Configuration.getInstance(PAR_REDIRECT,
         System.out);
@@ -188,11 +402,11 @@ public class Simulator
         if (k > 0)
         {
           // Generate a new seed.
-          seed = r.nextLong();
-          r = new ExtendedRandom(seed);
+          seed = getRandom().nextLong();
+          setRandom(new ExtendedRandom(seed));
         }
         System.err.print("Simulator: starting experiment " + k);
-        System.err.println("Random seed: " + r.getLastSeed());
+        System.err.println("Random seed: " + getRandom().getLastSeed());
         System.out.println("\n\n");
 
         Simulator.nextExperiment();
@@ -219,7 +433,103 @@ public class Simulator
    */
   public static int getCycle()
   {
-    return currentCycle;
+    return state.get().currentCycle;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns the length of a cycle, in nanoseconds of simulated time.
+   */
+  public static long getCycleLength()
+  {
+    return state.get().cycleLength;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns the current simulated time, in nanoseconds. With the round-based
+   * engine, it is the start of the current cycle.
+   */
+  public static long getTime()
+  {
+    State s = state.get();
+    if (s.events != null)
+    {
+      return s.events.getTime();
+    }
+    return s.currentCycle * s.cycleLength;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns the source of randomness of the simulation. It should be used by
+   * initializers and controls. Nodes should use their own stream instead (see
+   * {@link easysim.core.Node#getRandom()}), which is derived from the seed of
+   * this one.
+   */
+  public static ExtendedRandom getRandom()
+  {
+    return state.get().r;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Sets the source of randomness of the simulation. It must be set before
+   * running an experiment.
+   */
+  @SuppressWarnings("deprecation")
+  public static void setRandom(ExtendedRandom r)
+  {
+    state.get().r = r;
+    Simulator.r = r;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns a new message id. Ids are given in sequence from 0, and are not
+   * reset between experiments. When the nodes are split between several
+   * shards, shard k gives the ids k, k + n, k + 2n... where n is the number of
+   * shards.
+   */
+  @SuppressWarnings("deprecation")
+  public static int nextMessageId()
+  {
+    State s = state.get();
+    int id = s.messageIdGenerator++ * s.idStride + s.idOffset;
+    messageIdGenerator = s.messageIdGenerator;
+    return id;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns the number of message ids given so far.
+   */
+  public static int getMessageCount()
+  {
+    return state.get().messageIdGenerator;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Tells the simulator that a node has something to do at the given cycle.
+   * It is called by {@link Node#send} and {@link Node#wakeUpAt} for the events
+   * caused by controls; the events caused by the nodes themselves are found by
+   * {@link Node#nextEventCycle} after each cycle.
+   */
+  public static void schedule(int cycle)
+  {
+    State s = state.get();
+    if (!s.nodePhase && cycle < s.nextEvent)
+    {
+      s.nextEvent = cycle;
+    }
   }
 
   // =============== private methods =====================================
@@ -228,7 +538,7 @@ public class Simulator
   /**
    * Load and run initializers.
    */
-  private static void runInitializers()
+  private static void runInitializers(boolean sharded)
   {
 
     Object[] inits = Configuration.getInstanceArray(PAR_INIT);
@@ -236,6 +546,11 @@ public class Simulator
 
     for (int i = 0; i < inits.length; ++i)
     {
+      if (sharded && !(inits[i] instanceof AbstractWire))
+      {
+        throw new IllegalParameterException(names[i],
+            "Only wires are supported with " + PAR_SHARDS);
+      }
       System.err.println("- Running initializer " + names[i] + ": "
           + inits[i].getClass());
       ((Control) inits[i]).execute();
@@ -248,7 +563,8 @@ public class Simulator
   {
 
     String[] names = Configuration.getNames(PAR_CTRL);
-    controls = new Control[names.length];
+    Control[] controls = new Control[names.length];
+    state.get().controls = controls;
 
     for (int i = 0; i < names.length; ++i)
     {
@@ -258,6 +574,216 @@ public class Simulator
     return names;
   }
 
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns the first cycle after the given one at which a node has something
+   * to do.
+   */
+  private static int nextEventCycle(int cycle)
+  {
+    Node[] nodes = Network.nodes();
+    int size = Network.size();
+    int next = Integer.MAX_VALUE;
+    for (int j = 0; j < size; ++j)
+    {
+      next = Math.min(next, nodes[j].nextEventCycle(cycle));
+    }
+    return next;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Runs the given cycle on the active nodes only.
+   */
+  private static void runActive(ActiveSet activeSet, CycleExecutor executor,
+      int cycle)
+  {
+    if (activeSet.begin(cycle) > 0)
+    {
+      if (executor != null)
+      {
+        executor.cycle(activeSet);
+      }
+      else
+      {
+        Node[] nodes = Network.nodes();
+        int[] ids = activeSet.ids(0);
+        int count = activeSet.count(0);
+        for (int k = 0; k < count; ++k)
+        {
+          nodes[ids[k]].cycleHandler();
+        }
+
+        for (int k = 0; k < count; k++)
+        {
+          nodes[ids[k]].outQueueUpdate();
+        }
+      }
+    }
+    activeSet.end();
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Returns the sorted cycles at the end of which the simulation is saved.
+   */
+  private static int[] checkpointCycles(int cycles)
+  {
+    String[] values = StringListParser.parseList(Configuration.getString(
+        PAR_CHECKPOINT_CYCLES, Integer.toString(cycles - 1)));
+    int[] result = new int[values.length];
+    try
+    {
+      for (int i = 0; i < values.length; ++i)
+      {
+        result[i] = Integer.parseInt(values[i]);
+      }
+    }
+    catch (NumberFormatException e)
+    {
+      throw new IllegalParameterException(PAR_CHECKPOINT_CYCLES, e + "");
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Checks that the options of the experiment can be used when the nodes are
+   * split between several shards.
+   */
+  private static void checkShardable(int threads, boolean eventDriven,
+      String engine, String checkpointFile, String resumeFile,
+      boolean snapshot)
+  {
+    String unsupported = null;
+    if (threads > 1)
+      unsupported = PAR_THREADS;
+    else if (eventDriven)
+      unsupported = PAR_EVENT_DRIVEN;
+    else if (Configuration.contains(PAR_ACTIVE_SET))
+      unsupported = PAR_ACTIVE_SET;
+    else if (engine.equals("event"))
+      unsupported = PAR_ENGINE;
+    else if (checkpointFile != null)
+      unsupported = PAR_CHECKPOINT;
+    else if (resumeFile != null)
+      unsupported = PAR_RESUME;
+    if (unsupported != null)
+    {
+      throw new IllegalParameterException(unsupported,
+          "Not supported with " + PAR_SHARDS);
+    }
+    if (snapshot)
+    {
+      throw new IllegalParameterException(PAR_SHARDS,
+          "Snapshots are not supported with several shards");
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Splits the nodes between the given number of shards, and connects to the
+   * workers running the other shards.
+   */
+  private static ShardExecutor startShard(int shards)
+  {
+    State s = state.get();
+    int shard = Configuration.getInt(PAR_SHARD);
+    if (shard < 0 || shard >= shards)
+    {
+      throw new IllegalParameterException(PAR_SHARD, "Should be between 0 and "
+          + (shards - 1));
+    }
+    String[] names = Configuration.getString(PAR_SHARD_HOSTS, "localhost")
+        .trim().split("[\\s,]+");
+    String[] hosts = new String[shards];
+    for (int k = 0; k < shards; ++k)
+    {
+      hosts[k] = names[Math.min(k, names.length - 1)];
+    }
+    int port = Configuration.getInt(PAR_SHARD_PORT, 7400);
+    String partition = Configuration.getString(PAR_SHARD_PARTITION, "graph");
+    int[] owner;
+    if (partition.equals("graph"))
+    {
+      owner = ShardPartitioner.partition(shards);
+    }
+    else if (partition.equals("blocks"))
+    {
+      owner = ShardPartitioner.blocks(Network.size(), shards);
+    }
+    else
+    {
+      throw new IllegalParameterException(PAR_SHARD_PARTITION,
+          "Possible values: graph, blocks");
+    }
+    System.err.println("Simulator: shard " + shard + " of " + shards + ", "
+        + ShardPartitioner.cut(owner) + " links between shards");
+    Network.createShard(owner, shard);
+    s.idOffset = shard;
+    s.idStride = shards;
+    try
+    {
+      return new ShardExecutor(shard, owner, shards, hosts, port);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("Shard " + shard
+          + ": cannot connect to the other workers", e);
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  private static void writeCheckpoint(String file, int cycle)
+  {
+    System.err.println("Simulator: saving cycle " + cycle + " to " + file);
+    try
+    {
+      Checkpoint.write(file, cycle);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("Cannot write the checkpoint " + file, e);
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Restores the state saved in the given checkpoint, and returns the cycle
+   * at the end of which it was saved.
+   */
+  private static int resume(String file)
+  {
+    System.err.println("Simulator: resuming from " + file);
+    try
+    {
+      return resume(Checkpoint.read(file));
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("Cannot read the checkpoint " + file, e);
+    }
+  }
+
+  // --------------------------------------------------------------------
+
+  private static int resume(Checkpoint c)
+  {
+    State s = state.get();
+    setRandom(c.random);
+    s.messageIdGenerator = c.messageCount;
+    s.currentCycle = c.cycle;
+    return c.cycle;
+  }
+
   // ---------------------------------------------------------------------
   public static JFrame f;
 
@@ -266,6 +792,71 @@ public class Simulator
    */
   public static final void nextExperiment()
   {
+    run(null, -1);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Runs an experiment up to the end of the given cycle only, and returns a
+   * snapshot of the simulation at that time (see {@link Checkpoint#save}).
+   * The controls are not run after the last cycle. The experiment can then be
+   * continued any number of times, possibly with different parameters, by
+   * {@link #nextExperiment(byte[])}. Returns null if the experiment ends
+   * before the given cycle.
+   */
+  public static final byte[] runUntil(int cycle)
+  {
+    return run(null, cycle);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Continues an experiment from a snapshot returned by
+   * {@link #runUntil(int)}, as if resuming from a checkpoint file (see
+   * {@value #PAR_RESUME}): the nodes and the random source are copies of the
+   * saved ones, and the controls are created from the current configuration.
+   */
+  public static final void nextExperiment(byte[] snapshot)
+  {
+    run(snapshot, -1);
+  }
+
+  // --------------------------------------------------------------------
+
+  /**
+   * Runs an experiment, from the given snapshot if not null, and stops at the
+   * end of cycle <code>until</code> if not negative, returning the snapshot
+   * of that cycle.
+   */
+  private static byte[] run(byte[] snapshot, int until)
+  {
+    byte[] saved;
+    try
+    {
+      saved = runExperiment(snapshot, until);
+    }
+    finally
+    {
+      // Also if the experiment fails, so that the events recorded so far can
+      // be read
+      TimeDiagram.closeTrace();
+    }
+    if (until < 0)
+    {
+      // Display the TimeDiagram
+      TimeDiagram.display();
+    }
+    return saved;
+  }
+
+  // --------------------------------------------------------------------
+
+  private static byte[] runExperiment(byte[] snapshot, int until)
+  {
+    State s = state.get();
+
     // Activate or not the time diagram functionality
     if (Configuration.contains(TIME_DIAGRAM))
     {
@@ -273,45 +864,198 @@ public class Simulator
     }
 
     // Reading parameter
-    cycles = Configuration.getInt(PAR_CYCLES);
+    s.cycles = Configuration.getInt(PAR_CYCLES);
+    int threads = Configuration.getInt(PAR_THREADS, 1);
+    boolean eventDriven = Configuration.contains(PAR_EVENT_DRIVEN);
+    String engine = Configuration.getString(PAR_ENGINE, "cycle");
+    if (!engine.equals("cycle") && !engine.equals("event"))
+    {
+      throw new IllegalParameterException(PAR_ENGINE,
+          "Possible values: cycle, event");
+    }
+    s.cycleLength = Configuration.getLong(PAR_CYCLE_LENGTH, 1000000);
+    String checkpointFile = Configuration.getString(PAR_CHECKPOINT, null);
+    int[] checkpoints = null;
+    if (checkpointFile != null)
+    {
+      checkpoints = checkpointCycles(s.cycles);
+    }
+    String resumeFile = Configuration.getString(PAR_RESUME, null);
+    if (engine.equals("event") && checkpointFile != null)
+    {
+      throw new IllegalParameterException(PAR_CHECKPOINT,
+          "Not supported by the event engine");
+    }
+    if (engine.equals("event") && resumeFile != null)
+    {
+      throw new IllegalParameterException(PAR_RESUME,
+          "Not supported by the event engine");
+    }
+    if (engine.equals("event") && (snapshot != null || until >= 0))
+    {
+      throw new IllegalParameterException(PAR_ENGINE,
+          "Snapshots are not supported by the event engine");
+    }
+    int shards = Configuration.getInt(PAR_SHARDS, 1);
+    if (shards > 1)
+    {
+      checkShardable(threads, eventDriven, engine, checkpointFile, resumeFile,
+          snapshot != null || until >= 0);
+    }
 
     // initialization
-    currentCycle = 0;
-    System.err.println("Simulator: resetting");
-    controls = null;
-    Network.reset();
-    System.err.println("Simulator: running initializers");
-    runInitializers();
+    s.currentCycle = 0;
+    s.nextEvent = 0;
+    s.events = null;
+    s.controls = null;
+    int first = 0;
+    if (snapshot != null)
+    {
+      System.err.println("Simulator: resuming from a snapshot");
+      first = resume(Checkpoint.load(snapshot)) + 1;
+      s.nextEvent = first;
+    }
+    else if (resumeFile != null)
+    {
+      first = resume(resumeFile) + 1;
+      s.nextEvent = first;
+    }
+    else
+    {
+      System.err.println("Simulator: resetting");
+      if (shards > 1)
+      {
+        Network.resetPlaceholders();
+      }
+      else
+      {
+        Network.reset();
+      }
+      System.err.println("Simulator: running initializers");
+      runInitializers(shards > 1);
+    }
 
     // main cycle
     loadControls();
-    System.err.println("Simulator: starting simulation");
-    for (int i = 0; i < cycles; ++i)
+    CycleExecutor executor = null;
+    ShardExecutor sharded = null;
+    Control[] controls = s.controls;
+    byte[] saved = null;
+    try
     {
-      currentCycle = i;
-
-      boolean stop = false;
-      for (int j = 0; j < controls.length; ++j)
+      if (shards > 1)
       {
-        stop = stop || controls[j].execute();
+        sharded = startShard(shards);
       }
-
-      if (stop)
+      else if (engine.equals("event"))
       {
-        break;
+        System.err.println("Simulator: running in continuous time");
+        s.events = new EventEngine(s.cycleLength);
       }
-
-      for (int j = 0; j < Network.size(); ++j)
+      else if (threads > 1)
       {
-        Network.get(j).cycleHandler();
+        System.err.println("Simulator: using " + threads + " threads");
+        executor = new CycleExecutor(threads);
       }
-
-      for (int j = 0; j < Network.size(); j++)
+      ActiveSet activeSet = null;
+      if (Configuration.contains(PAR_ACTIVE_SET) && s.events == null)
       {
-        Network.get(j).outQueueUpdate();
+        activeSet = new ActiveSet(executor != null ? executor
+            .getPartitionSize() : Math.max(1, Network.size()));
       }
+      System.err.println("Simulator: starting simulation");
+      for (int i = first; i < s.cycles; ++i)
+      {
+        s.currentCycle = i;
+
+        boolean stop = false;
+        for (int j = 0; j < controls.length; ++j)
+        {
+          stop = stop || controls[j].execute();
+        }
+
+        if (stop)
+        {
+          break;
+        }
+
+        if (s.events != null)
+        {
+          s.events.run(i);
+        }
+        else if (sharded != null)
+        {
+          s.nodePhase = true;
+          sharded.cycle();
+          s.nodePhase = false;
+        }
+        else if (activeSet != null)
+        {
+          runActive(activeSet, executor, i);
+        }
+        else if (!eventDriven || i >= s.nextEvent)
+        {
+          s.nodePhase = true;
+          if (executor != null)
+          {
+            executor.cycle();
+          }
+          else
+          {
+            Node[] nodes = Network.nodes();
+            int size = Network.size();
+            for (int j = 0; j < size; ++j)
+            {
+              nodes[j].cycleHandler();
+            }
+
+            for (int j = 0; j < size; j++)
+            {
+              nodes[j].outQueueUpdate();
+            }
+          }
+          s.nodePhase = false;
+
+          if (eventDriven)
+          {
+            s.nextEvent = nextEventCycle(i);
+          }
+        }
+        // Otherwise, no node has anything to do
+
+        if (checkpoints != null && Arrays.binarySearch(checkpoints, i) >= 0)
+        {
+          writeCheckpoint(checkpoints.length == 1 ? checkpointFile
+              : checkpointFile + "." + i, i);
+        }
+
+        if (i == until)
+        {
+          System.err.println("Simulator: saving cycle " + i);
+          saved = Checkpoint.save(i);
+          break;
+        }
 
-      // System.err.println("Simulator: cycle " + i + " done");
+        // System.err.println("Simulator: cycle " + i + " done");
+      }
+    }
+    finally
+    {
+      // Also if a node or a control fails, so that the worker threads and
+      // the connections are released and the standard output is restored
+      s.nodePhase = false;
+      if (executor != null)
+      {
+        executor.shutdown();
+      }
+      if (sharded != null)
+      {
+        sharded.shutdown();
+      }
+    }
+    if (until >= 0)
+    {
+      return saved;
     }
 
     // analysis after the simulation
@@ -319,8 +1063,6 @@ public class Simulator
     {
       controls[j].execute();
     }
-
-    // Display the TimeDiagram
-    TimeDiagram.display();
+    return null;
   }
 }
@@ -4,46 +4,127 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
+import java.awt.Toolkit;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.JApplet;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
+import javax.swing.JScrollPane;
 
 import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
 import easysim.core.Message;
 import easysim.core.Network;
 import easysim.core.Node;
+import easysim.trace.TraceReader;
+import easysim.trace.TraceWriter;
 
 public class TimeDiagram extends JApplet {
 
-    private static final int INTER_PROCESSES_SPACE = 80;
+    /**
+     * If present, the events of the time diagram are streamed to this file
+     * (see {@link TraceWriter}) instead of being kept in memory, and the time
+     * diagram only reads the events it has to draw.
+     *
+     * @config
+     */
+    public static final String PAR_FILE = "simulation.timeDiagram.file";
+
+    /**
+     * If present, the time diagram is not displayed but exported, which does
+     * not require a display. The format is either <code>svg</code> or
+     * <code>png</code>. The diagram is drawn by tiles of cycles, each tile
+     * only drawing the events it contains.
+     *
+     * @config
+     */
+    public static final String PAR_EXPORT = "simulation.timeDiagram.export";
+
+    /**
+     * The file to which the time diagram is exported. Defaults to
+     * <code>timeDiagram.svg</code> or <code>timeDiagram.png</code>.
+     *
+     * @config
+     */
+    public static final String PAR_EXPORT_FILE = "simulation.timeDiagram.exportFile";
+
+    /**
+     * Number of events above which the exported time diagram is a heatmap of
+     * the number of messages received by each node at each cycle, instead of
+     * the events themselves. Defaults to 100000.
+     *
+     * @config
+     */
+    public static final String PAR_HEATMAP = "simulation.timeDiagram.heatmap";
+
+    static final int INTER_PROCESSES_SPACE = 80;
+
+    static final int INTER_CYCLES_SPACE = 80;
+
+    static final int TOP_MARGIN = 40;
+
+    static final int LEFT_MARGIN = 40;
 
-    private static final int INTER_CYCLES_SPACE = 80;
+    private static final long serialVersionUID = 1L;
 
-    private static final int TOP_MARGIN = 40;
+    /**
+     * The time diagram of a simulation context.
+     */
+    private static final class State {
 
-    private static final int LEFT_MARGIN = 40;
+        // List of arrows (synchronized, since nodes may run on several threads)
+        final List<int[]> arrows = Collections.synchronizedList(new ArrayList<int[]>());
 
-    // List of arrows
-    private static List<int[]> arrows = new ArrayList<int[]>();
+        final List<int[]> circles = Collections.synchronizedList(new ArrayList<int[]>());
 
-    private static List<int[]> circles = new ArrayList<int[]>();
+        final List<int[]> acks = Collections.synchronizedList(new ArrayList<int[]>());
 
-    private static List<int[]> acks = new ArrayList<int[]>();
-    private static final long serialVersionUID = 1L;
+        boolean activated = false;
 
-    private static boolean activated = false;
+        // Set when the events are streamed to a file: the writer during an
+        // experiment, the reader once it is over
+        TraceWriter writer;
 
-    public static int NB_COLORS = 12;
+        TraceReader reader;
+
+        boolean traced = false;
+
+        int currentColor = 0;
 
-    private static int currentColor = 0;
+        List<int[]> events(int kind) {
+            switch (kind) {
+                case TraceWriter.ARROW:
+                    return arrows;
+                case TraceWriter.CIRCLE:
+                    return circles;
+                default:
+                    return acks;
+            }
+        }
+    }
 
-    Color[] colors = new Color[]{Color.black,
+    // The time diagram of each simulation context (see SimulationContext)
+    private static final SimulationContext.Slot<State> state = SimulationContext.slot(State::new);
+
+    // Definition of the event being added by each thread
+    private static final ThreadLocal<int[]> eventDef = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[TraceWriter.MAX_LENGTH];
+        }
+    };
+
+    public static int NB_COLORS = 12;
+
+    static final Color[] colors = new Color[]{Color.black,
         Color.blue, Color.cyan, Color.darkGray, Color.green, Color.gray,
         Color.magenta, Color.lightGray, Color.orange, Color.pink, Color.red,
         Color.yellow};
@@ -54,17 +135,144 @@ public class TimeDiagram extends JApplet {
     }
 
     public void drawDemo(int w, int h, Graphics2D g2) {
-        int networkSize = Configuration.getInt("network.size");
+        drawDemo(new Rectangle(0, 0, w, h), g2);
+    }
+
+    /**
+     * Draws the part of the time diagram within the given bounds: only the
+     * events visible within these bounds are drawn (and read, when they are
+     * streamed to a file).
+     */
+    public void drawDemo(Rectangle bounds, Graphics2D g2) {
+        draw(new DiagramCanvas.OnGraphics(g2), bounds, false);
+    }
+
+    /**
+     * Returns the size of the whole time diagram.
+     */
+    static Dimension diagramSize() {
+        return new Dimension(LEFT_MARGIN + Simulator.getCycle()
+                * INTER_CYCLES_SPACE + 10, TOP_MARGIN + Network.size()
+                * INTER_PROCESSES_SPACE);
+    }
+
+    /**
+     * Returns the number of events recorded so far.
+     */
+    static int eventCount() {
+        State s = state.get();
+        if (s.reader != null) {
+            return s.reader.getEvents();
+        }
+        return s.arrows.size() + s.circles.size() + s.acks.size();
+    }
+
+    /**
+     * Visits the recorded events that intersect the given window of cycles
+     * and nodes (see {@link TraceReader#read(int, int, int, int, TraceReader.Visitor)}).
+     */
+    static void visit(int fromCycle, int toCycle, int fromNode, int toNode,
+            TraceReader.Visitor visitor) {
+        State s = state.get();
+        if (s.reader != null) {
+            s.reader.read(fromCycle, toCycle, fromNode, toNode, visitor);
+        } else {
+            visit(TraceWriter.ARROW, s.arrows, fromCycle, toCycle, fromNode, toNode, visitor);
+            visit(TraceWriter.CIRCLE, s.circles, fromCycle, toCycle, fromNode, toNode, visitor);
+            visit(TraceWriter.ACK, s.acks, fromCycle, toCycle, fromNode, toNode, visitor);
+        }
+    }
+
+    private static void visit(int kind, List<int[]> list, int fromCycle, int toCycle,
+            int fromNode, int toNode, TraceReader.Visitor visitor) {
+        synchronized (list) {
+            for (int[] def : list) {
+                if (Math.min(def[2], def[3]) <= toCycle && Math.max(def[2], def[3]) >= fromCycle
+                        && Math.min(def[0], def[1]) <= toNode && Math.max(def[0], def[1]) >= fromNode) {
+                    visitor.event(kind, def, def.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the first cycle whose line is at or after the given abscissa.
+     */
+    static int cycleAt(int x) {
+        return (int) Math.ceil((x - LEFT_MARGIN) / (double) INTER_CYCLES_SPACE);
+    }
+
+    /**
+     * Returns the first node whose line is at or below the given ordinate.
+     */
+    static int nodeAt(int y) {
+        return (int) Math.ceil((y - TOP_MARGIN) / (double) INTER_PROCESSES_SPACE);
+    }
+
+    /**
+     * Draws the part of the time diagram within the given bounds.
+     * <p>
+     * If <code>owned</code> is false, all the events visible within the
+     * bounds are drawn, as needed when drawing is clipped. Otherwise, the
+     * bounds are a tile of whole cycles (from the line of its first cycle to
+     * the line of the cycle after its last one, or from 0 for the first tile)
+     * and an event is only drawn by the tile of its receiving cycle, so that
+     * drawing the tiles one after the other draws each event once.
+     */
+    static void draw(DiagramCanvas g2, Rectangle bounds, final boolean owned) {
+        final int fromCycle = bounds.x <= 0 ? 0 : cycleAt(bounds.x);
+        final int toCycle = cycleAt(bounds.x + bounds.width) - 1;
+        int fromNode = Math.max(0, nodeAt(bounds.y));
+        int toNode = Math.min(Network.size() - 1, nodeAt(bounds.y + bounds.height) - 1);
+
+        // Labels are drawn up to one cycle on the left of their event, and
+        // below or above the line of its node
+        // Events read from the file are visited in a reused array
+        final boolean copy = state.get().reader != null;
+        final List<int[]> arrows = new ArrayList<int[]>();
+        final List<int[]> circles = new ArrayList<int[]>();
+        final List<int[]> acks = new ArrayList<int[]>();
+        visit(owned ? fromCycle : fromCycle - 1, owned ? toCycle : toCycle + 1,
+                owned ? 0 : fromNode - 1, owned ? Integer.MAX_VALUE : toNode + 1,
+                new TraceReader.Visitor() {
+                    public void event(int kind, int[] def, int length) {
+                        if (owned && (def[3] < fromCycle || def[3] > toCycle)) {
+                            return;
+                        }
+                        if (copy) {
+                            def = Arrays.copyOf(def, length);
+                        }
+                        switch (kind) {
+                            case TraceWriter.ARROW:
+                                arrows.add(def);
+                                break;
+                            case TraceWriter.CIRCLE:
+                                circles.add(def);
+                                break;
+                            default:
+                                acks.add(def);
+                        }
+                    }
+                });
+        if (owned) {
+            fromNode = 0;
+            toNode = Network.size() - 1;
+        }
         g2.setColor(Color.black);
 
         // Draw process lines
         {
-            int x1 = LEFT_MARGIN;
-            int x2 = (int) (x1 + INTER_CYCLES_SPACE * Simulator.getCycle());
-            for (int i = 0; i < Network.size(); i++) {
+            int x1 = Math.max(LEFT_MARGIN, bounds.x);
+            int x2 = Math.min(LEFT_MARGIN + INTER_CYCLES_SPACE * Simulator.getCycle(),
+                    bounds.x + bounds.width);
+            for (int i = fromNode; i <= toNode; i++) {
                 int y = INTER_PROCESSES_SPACE * i + TOP_MARGIN;
-                g2.drawString("p" + i, 10, y);
-                g2.drawLine(LEFT_MARGIN, y, x2, y);
+                if (bounds.x < LEFT_MARGIN) {
+                    g2.drawString("p" + i, 10, y);
+                }
+                if (x1 < x2) {
+                    g2.drawLine(x1, y, x2, y);
+                }
             }
         }
 
@@ -72,7 +280,7 @@ public class TimeDiagram extends JApplet {
         {
             int y1 = TOP_MARGIN;
             int y2 = y1 + INTER_PROCESSES_SPACE * (Network.size() - 1);
-            for (int i = 0; i < Simulator.getCycle() + 1; i++) {
+            for (int i = Math.max(0, fromCycle); i <= Math.min(Simulator.getCycle(), toCycle); i++) {
                 int x = INTER_CYCLES_SPACE * i + LEFT_MARGIN;
                 g2.drawLine(x, y1, x, y2);
             }
@@ -193,7 +401,7 @@ public class TimeDiagram extends JApplet {
         }
     }
 
-    private String messageTypeToString(int mt) {
+    private static String messageTypeToString(int mt) {
         switch (mt) {
             case Message.TYPE.ACK:
                 return "Ack";
@@ -217,106 +425,206 @@ public class TimeDiagram extends JApplet {
                 RenderingHints.VALUE_ANTIALIAS_ON);
         g2.setBackground(getBackground());
         g2.clearRect(0, 0, d.width, d.height);
-        drawDemo(d.width, d.height, g2);
+        Rectangle clip = g2.getClipBounds();
+        drawDemo(clip != null ? clip : new Rectangle(0, 0, d.width, d.height), g2);
     }
 
     public static void activate() {
-        activated = true;
+        State s = state.get();
+        s.activated = true;
+        String file = Configuration.getString(PAR_FILE, null);
+        if (file != null && s.writer == null) {
+            // Events of the next experiments are appended to the same file,
+            // as they are appended to the same lists otherwise
+            try {
+                s.writer = new TraceWriter(file, s.traced);
+                s.traced = true;
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot create the time diagram file " + file, e);
+            }
+        }
     }
 
-    private static int[] constructArrayDef(Message m, Node receiver) {
-        int[] arrayDef;
+    /**
+     * Fills <code>arrayDef</code> with the definition of the event of the
+     * reception of <code>m</code> by <code>receiver</code>, and returns its
+     * length.
+     */
+    private static int defineEvent(Message m, Node receiver, int[] arrayDef) {
+        arrayDef[0] = m.sendingNode;
+        arrayDef[1] = receiver.id;
+        arrayDef[2] = m.sendingCycle;
+        arrayDef[3] = Simulator.getCycle();
+        arrayDef[4] = m.getRelId();
+        arrayDef[6] = m.getType();
         switch (m.getType()) {
             case Message.TYPE.ACK:
-                arrayDef = new int[]{m.sendingNode, receiver.id, m.sendingCycle,
-                    Simulator.getCycle(), m.getRelId(), 5, m.getType(), m.getSeqNb()}; // 5 = Grey (GG guys)
-                break;
+                arrayDef[5] = 5; // 5 = Grey (GG guys)
+                arrayDef[7] = m.getSeqNb();
+                return 8;
             case Message.TYPE.DATA:
-                arrayDef = new int[]{m.sendingNode, receiver.id, m.sendingCycle,
-                    Simulator.getCycle(), m.getRelId(), m.color, m.getType(), m.getSeqNb()};
-                break;
+                arrayDef[5] = m.color;
+                arrayDef[7] = m.getSeqNb();
+                return 8;
             case Message.TYPE.BBSEQUENCE:
                 example.mstobcast.SequenceMessage sm = (example.mstobcast.SequenceMessage) m;
-                arrayDef = new int[]{sm.sendingNode, receiver.id, sm.sendingCycle,
-                    Simulator.getCycle(), sm.getRelId(), 5, sm.getType(), sm.getToFindNodeFrom(),
-                    sm.getToFindRelId(), sm.getToAssociateSeqNb()}; // 5 = Grey (GG guys)
-                break;
+                arrayDef[5] = 5; // 5 = Grey (GG guys)
+                arrayDef[7] = sm.getToFindNodeFrom();
+                arrayDef[8] = sm.getToFindRelId();
+                arrayDef[9] = sm.getToAssociateSeqNb();
+                return 10;
             case Message.TYPE.UNDEFINED:
             case Message.TYPE.REQ:
             default:
-                arrayDef = new int[]{m.sendingNode, receiver.id, m.sendingCycle,
-                    Simulator.getCycle(), m.getRelId(), m.color, m.getType()};
+                arrayDef[5] = m.color;
+                return 7;
         }
-        return arrayDef;
     }
 
-    public static void addArrow(Message m, Node receiver) {
-        if (activated) {
+    private static void add(int kind, Message m, Node receiver) {
+        State s = state.get();
+        if (s.activated) {
+            int[] arrayDef = eventDef.get();
+            int length = defineEvent(m, receiver, arrayDef);
+            if (s.writer != null) {
+                s.writer.add(kind, arrayDef, length);
+            } else {
+                s.events(kind).add(Arrays.copyOf(arrayDef, length));
+            }
+        }
+    }
 
-            arrows.add(constructArrayDef(m, receiver));
+    private static void add(int kind, int nodeFrom, int nodeTo,
+            int sendingRound, int receivingRound, int id, int color) {
+        State s = state.get();
+        if (s.activated) {
+            int[] arrayDef = new int[]{nodeFrom, nodeTo, sendingRound, receivingRound, id,
+                color, Message.TYPE.UNDEFINED};
+            if (s.writer != null) {
+                s.writer.add(kind, arrayDef, arrayDef.length);
+            } else {
+                s.events(kind).add(arrayDef);
+            }
         }
     }
 
+    public static void addArrow(Message m, Node receiver) {
+        add(TraceWriter.ARROW, m, receiver);
+    }
+
     @Deprecated
     public static void addArrow(int nodeFrom, int nodeTo, int sendingRound,
             int receivingRound, int id, int color) {
-        if (activated) {
-            arrows.add(new int[]{nodeFrom, nodeTo, sendingRound, receivingRound, id,
-                color, Message.TYPE.UNDEFINED});
-        }
+        add(TraceWriter.ARROW, nodeFrom, nodeTo, sendingRound, receivingRound, id, color);
     }
 
     public static void addCircle(Message m, Node receiver) {
-        if (activated) {
-            circles.add(constructArrayDef(m, receiver));
-        }
+        add(TraceWriter.CIRCLE, m, receiver);
     }
 
     @Deprecated
     public static void addCircle(int nodeFrom, int nodeTo, int sendingRound,
             int receivingRound, int id, int color) {
-        if (activated) {
-            circles.add(new int[]{nodeFrom, nodeTo, sendingRound, receivingRound, id,
-                color, Message.TYPE.UNDEFINED});
-        }
+        add(TraceWriter.CIRCLE, nodeFrom, nodeTo, sendingRound, receivingRound, id, color);
     }
 
     public static void addAck(Message m, Node receiver) {
-        if (activated) {
-            acks.add(constructArrayDef(m, receiver));
-        }
+        add(TraceWriter.ACK, m, receiver);
     }
 
     @Deprecated
     public static void addAck(int nodeFrom, int nodeTo, int sendingRound,
             int receivingRound, int id, int color) {
-        if (activated) {
-            acks.add(new int[]{nodeFrom, nodeTo, sendingRound, receivingRound, id,
-                color, Message.TYPE.UNDEFINED});
+        add(TraceWriter.ACK, nodeFrom, nodeTo, sendingRound, receivingRound, id, color);
+    }
+
+    /**
+     * Closes the file the events of the experiment are streamed to, if any.
+     * Called at the end of each experiment, even if it fails.
+     */
+    static void closeTrace() {
+        State s = state.get();
+        if (s.writer != null) {
+            try {
+                s.writer.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot close the time diagram file", e);
+            } finally {
+                s.writer = null;
+            }
         }
     }
 
     public static void display() {
-        if (activated) {
-            TimeDiagram td = new TimeDiagram();
+        State s = state.get();
+        if (s.activated) {
+            if (s.traced) {
+                try {
+                    if (s.reader != null) {
+                        s.reader.close();
+                    }
+                    s.reader = new TraceReader(Configuration.getString(PAR_FILE));
+                } catch (IOException e) {
+                    throw new RuntimeException("Cannot read the time diagram file", e);
+                }
+            }
+            String format = Configuration.getString(PAR_EXPORT, null);
+            if (format != null) {
+                if (!format.equals("svg") && !format.equals("png")) {
+                    throw new IllegalParameterException(PAR_EXPORT,
+                            "Unknown format " + format + ", expected svg or png");
+                }
+                String file = Configuration.getString(PAR_EXPORT_FILE, "timeDiagram." + format);
+                try {
+                    TimeDiagramExport.export(format, file,
+                            Configuration.getInt(PAR_HEATMAP, 100000));
+                } catch (IOException e) {
+                    throw new RuntimeException("Cannot export the time diagram to " + file, e);
+                }
+                System.err.println("TimeDiagram: exported to " + file);
+                return;
+            }
+            final TimeDiagram td = new TimeDiagram();
             td.init();
             JFrame f = new JFrame("Time Diagram");
-            f.addWindowListener(new WindowAdapter() {
-                public void windowClosing(WindowEvent e) {
-                    System.exit(0);
-                }
-            });
-            f.getContentPane().add(td);
+            // The JVM exits once all the windows are closed, after the end of
+            // the simulation
+            f.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            Dimension size = diagramSize();
+            if (s.reader != null) {
+                // Draw through a scroll pane, so that only the visible part of
+                // the diagram is read from the file
+                JComponent view = new JComponent() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected void paintComponent(Graphics g) {
+                        Graphics2D g2 = (Graphics2D) g;
+                        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                RenderingHints.VALUE_ANTIALIAS_ON);
+                        Rectangle clip = g2.getClipBounds();
+                        g2.setColor(td.getBackground());
+                        g2.fill(clip);
+                        td.drawDemo(clip, g2);
+                    }
+                };
+                view.setPreferredSize(size);
+                f.getContentPane().add(new JScrollPane(view));
+                Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+                size = new Dimension(Math.min(size.width + 20, screen.width),
+                        Math.min(size.height + 20, screen.height));
+            } else {
+                f.getContentPane().add(td);
+            }
             f.pack();
-            f.setSize(new Dimension(LEFT_MARGIN + Simulator.getCycle()
-                    * INTER_CYCLES_SPACE + 10, TOP_MARGIN + Network.size()
-                    * INTER_PROCESSES_SPACE));
+            f.setSize(size);
             f.setVisible(true);
         }
     }
 
     public static int chooseColor() {
-        currentColor = (currentColor + 1) % NB_COLORS;
-        return currentColor;
+        State s = state.get();
+        s.currentColor = (s.currentColor + 1) % NB_COLORS;
+        return s.currentColor;
     }
 }
@@ -0,0 +1,208 @@
+
+package easysim;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.imageio.ImageIO;
+
+import easysim.core.Network;
+import easysim.trace.TraceReader;
+import easysim.trace.TraceWriter;
+
+/**
+ * Exports the time diagram to an SVG or PNG file, without a display.
+ * <p>
+ * The diagram is drawn by tiles of {@link #TILE_CYCLES} cycles, and each tile
+ * only reads and draws the events it contains. SVG elements are written as
+ * the tiles are drawn. PNG images are scaled down so that they have at most
+ * {@link #MAX_PIXELS} pixels.
+ * <p>
+ * When there are more events than a threshold, the events are not drawn:
+ * each (node, cycle) cell is filled with a color depending on the number of
+ * messages received by the node at that cycle.
+ */
+final class TimeDiagramExport {
+
+    static final int TILE_CYCLES = 50;
+
+    static final long MAX_PIXELS = 1L << 26;
+
+    // Colors of the heatmap, from white to red
+    private static final Color[] HEAT_LEVELS = new Color[64];
+
+    static {
+        for (int l = 0; l < HEAT_LEVELS.length; l++) {
+            int v = 255 - 255 * (l + 1) / HEAT_LEVELS.length;
+            HEAT_LEVELS[l] = new Color(255, v, v / 2);
+        }
+    }
+
+    /** Disable instance construction */
+    private TimeDiagramExport() {
+    }
+
+    /**
+     * Exports the time diagram in the given format (<code>svg</code> or
+     * <code>png</code>), as a heatmap if there are more than
+     * <code>heatmapThreshold</code> events.
+     */
+    static void export(String format, String file, int heatmapThreshold) throws IOException {
+        int[][] counts = null;
+        int max = 0;
+        if (TimeDiagram.eventCount() > heatmapThreshold) {
+            counts = countMessages();
+            max = max(counts);
+        }
+        if (format.equals("svg")) {
+            exportSvg(file, counts, max);
+        } else {
+            exportPng(file, counts, max);
+        }
+    }
+
+    private static void exportSvg(String file, int[][] counts, int max) throws IOException {
+        Dimension size = TimeDiagram.diagramSize();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"), 1 << 16));
+        try {
+            DiagramCanvas.Svg svg = new DiagramCanvas.Svg(out);
+            svg.begin(size.width, size.height);
+            int nbCycles = Simulator.getCycle() + 1;
+            for (int c = 0; c < nbCycles; c += TILE_CYCLES) {
+                svg.comment("cycles " + c + " to " + (Math.min(c + TILE_CYCLES, nbCycles) - 1));
+                Rectangle tile = tile(c, size);
+                if (counts != null) {
+                    drawHeatmap(svg, tile, counts, max, true);
+                } else {
+                    TimeDiagram.draw(svg, tile, true);
+                }
+            }
+            svg.end();
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    private static void exportPng(String file, int[][] counts, int max) throws IOException {
+        Dimension size = TimeDiagram.diagramSize();
+        double scale = Math.min(1, Math.sqrt(MAX_PIXELS / ((double) size.width * size.height)));
+        BufferedImage image = new BufferedImage(Math.max(1, (int) (size.width * scale)),
+                Math.max(1, (int) (size.height * scale)), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        g2.setColor(Color.white);
+        g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.scale(scale, scale);
+        DiagramCanvas canvas = new DiagramCanvas.OnGraphics(g2);
+        int nbCycles = Simulator.getCycle() + 1;
+        for (int c = 0; c < nbCycles; c += TILE_CYCLES) {
+            Rectangle tile = tile(c, size);
+            g2.setClip(tile);
+            if (counts != null) {
+                drawHeatmap(canvas, tile, counts, max, false);
+            } else {
+                TimeDiagram.draw(canvas, tile, false);
+            }
+        }
+        g2.dispose();
+        if (!ImageIO.write(image, "png", new File(file))) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+
+    /**
+     * Returns the tile of the cycles starting at <code>cycle</code>.
+     */
+    private static Rectangle tile(int cycle, Dimension size) {
+        int x1 = cycle == 0 ? 0 : TimeDiagram.LEFT_MARGIN + cycle * TimeDiagram.INTER_CYCLES_SPACE;
+        int x2 = Math.min(size.width,
+                TimeDiagram.LEFT_MARGIN + (cycle + TILE_CYCLES) * TimeDiagram.INTER_CYCLES_SPACE);
+        return new Rectangle(x1, 0, x2 - x1, size.height);
+    }
+
+    // ------------------------------------------------------------------------
+    // Heatmap
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of messages received by each node at each cycle.
+     */
+    private static int[][] countMessages() {
+        final int[][] counts = new int[Network.size()][Simulator.getCycle() + 1];
+        TimeDiagram.visit(Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                new TraceReader.Visitor() {
+                    public void event(int kind, int[] def, int length) {
+                        if (kind == TraceWriter.ARROW && def[1] >= 0 && def[1] < counts.length
+                                && def[3] >= 0 && def[3] < counts[def[1]].length) {
+                            counts[def[1]][def[3]]++;
+                        }
+                    }
+                });
+        return counts;
+    }
+
+    private static int max(int[][] counts) {
+        int max = 1;
+        for (int[] node : counts) {
+            for (int count : node) {
+                max = Math.max(max, count);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Draws the cells of the cycles of the given tile, centered on the
+     * reception points of the messages. As for
+     * {@link TimeDiagram#draw(DiagramCanvas, Rectangle, boolean)}, if
+     * <code>owned</code> is false the cells overlapping the tile from the
+     * neighbouring cycles are drawn too.
+     */
+    private static void drawHeatmap(DiagramCanvas canvas, Rectangle tile, int[][] counts, int max,
+            boolean owned) {
+        int fromCycle = tile.x <= 0 ? 0 : TimeDiagram.cycleAt(tile.x);
+        int toCycle = TimeDiagram.cycleAt(tile.x + tile.width) - 1;
+        if (!owned) {
+            fromCycle = Math.max(0, fromCycle - 1);
+            toCycle++;
+        }
+        toCycle = Math.min(toCycle, Simulator.getCycle());
+        int w = TimeDiagram.INTER_CYCLES_SPACE;
+        int h = TimeDiagram.INTER_PROCESSES_SPACE;
+        for (int n = 0; n < counts.length; n++) {
+            int y = TimeDiagram.TOP_MARGIN + n * h - h / 2;
+            for (int c = fromCycle; c <= toCycle; c++) {
+                int count = counts[n][c];
+                if (count > 0) {
+                    // Square root scale, so that sparse cells remain visible
+                    int l = (int) (Math.sqrt(count / (double) max) * (HEAT_LEVELS.length - 1));
+                    canvas.setColor(HEAT_LEVELS[l]);
+                    canvas.fillRect(TimeDiagram.LEFT_MARGIN + c * w - w / 2, y, w, h);
+                }
+            }
+        }
+
+        canvas.setColor(Color.black);
+        if (tile.x < TimeDiagram.LEFT_MARGIN) {
+            for (int n = 0; n < counts.length; n++) {
+                canvas.drawString("p" + n, 10, TimeDiagram.TOP_MARGIN + n * h);
+            }
+            canvas.drawString("Messages received per node and cycle (max " + max + ")",
+                    TimeDiagram.LEFT_MARGIN, 15);
+        }
+    }
+}
@@ -20,6 +20,8 @@ package easysim.config;
 
 import java.lang.reflect.*;
 import java.util.*;
+
+import easysim.SimulationContext;
 import org.lsmp.djep.groupJep.*;
 
 /**
@@ -177,11 +179,12 @@ import org.lsmp.djep.groupJep.*;
   arithmetics (double precision) and the result is a 
   floating point value. So, for example, 5.0/2 returns 2.5.
 
-  <p>Expressions are parsed recursively. Note that no optimization is
-  done, so expression F is evaluated three times here (due to the
-  fact that appears twice in C and once in B). But since properties
-  are read just once at initialization, this is not a performance
-  problem.
+  <p>Expressions are parsed recursively. Since the configuration is read
+  only, all the numeric properties are evaluated once, when the
+  configuration is set, and numeric reads then simply look up the
+  value. Components that read a value very often (e.g. at every cycle)
+  can also keep a handle on it, see {@link #intParam} and
+  {@link #doubleParam}.
 
   <p>Finally, recursive definitions are not allowed (and without
   function definitions, they make no sense). Since it is
@@ -303,28 +306,49 @@ private static final String PAR_INCLUDE = "include";
 static final String PAR_PROT = "protocol"; 
 
 
+/**
+ * The configuration of a simulation context.
+ */
+private static final class State
+{
+
 /**
 * The properties object that stores all configuration information.
 */
-private static Properties config = null;
-
+Properties config = null;
 
 /**
  * Map associating string protocol names to the numeric protocol
  * identifiers. The protocol names are understood without prefix.
  */
-private static Map<String,Integer> protocols;
-
+Map<String,Integer> protocols;
 
 /**
  *  The maximum depth that can be reached when analyzing expressions.
  *  This value can be substituted by setting the configuration parameter
  *  PAR_MAXDEPTH.
  */
-private static int maxdepth = DEFAULT_MAXDEPTH;
+int maxdepth = DEFAULT_MAXDEPTH;
 
 /** Debug level */
-private static int debugLevel = DEBUG_NO;
+int debugLevel = DEBUG_NO;
+
+/**
+ * Values of all the properties that evaluate to a number, computed once by
+ * {@link #setConfig}. Properties that are not numeric are not present.
+ */
+Map<String,Number> numbers;
+}
+
+/**
+ * The configuration of each simulation context (see
+ * {@link SimulationContext}).
+ */
+private static final SimulationContext.Slot<State> state =
+	SimulationContext.slot(State::new);
+
+/** Marks the properties found not to be numeric while compiling. */
+private static final Object NOT_NUMERIC = new Object();
 
 // =================== initialization ================================
 // ===================================================================
@@ -337,35 +361,39 @@ private Configuration() {}
 
 
 /** 
-* Sets the system-wide configuration in Properties format. It can be called
-* only once. After that the configuration becomes unmodifiable (read only).
+* Sets the configuration of the current simulation context (see
+* {@link SimulationContext}) in Properties format. It can be called
+* only once per context. After that the configuration becomes unmodifiable (read only).
 * If modification is attempted, a RuntimeException is thrown and no change is
 * made.
 * @param p The Properties object containing configuration info
 */
 public static void setConfig( Properties p ) {
 
-	if( config != null )
+	State s = state.get();
+	if( s.config != null )
 	{
 		throw new RuntimeException(
 			"Setting configuration was attempted twice.");
 	}
 	
-	config = p;
-	maxdepth = Configuration.getInt(PAR_MAXDEPTH, DEFAULT_MAXDEPTH);
+	s.config = p;
+	s.numbers = new HashMap<String,Number>();
+	s.maxdepth = Configuration.getInt(PAR_MAXDEPTH, DEFAULT_MAXDEPTH);
+	s.numbers = compile();
 	
 	// initialize protocol id-s
-	protocols = new HashMap<String,Integer>();
+	s.protocols = new HashMap<String,Integer>();
 	String[] prots = getNames(PAR_PROT);//they're returned in correct order
 	for(int i=0; i<prots.length; ++i)
 	{
-		protocols.put(  prots[i].substring(PAR_PROT.length()+1),
+		s.protocols.put(  prots[i].substring(PAR_PROT.length()+1),
 				new Integer(i));
 	}
 
-	String debug = config.getProperty(PAR_DEBUG);
+	String debug = s.config.getProperty(PAR_DEBUG);
 	if (DEBUG_EXTENDED.equals(debug))
-	  debugLevel = DEBUG_CONTEXT;
+	  s.debugLevel = DEBUG_CONTEXT;
 	else if (DEBUG_FULL.equals(debug)) {
 		Map<String,String> map = new TreeMap<String,String>();
 		Enumeration e = p.propertyNames();
@@ -383,7 +411,7 @@ public static void setConfig( Properties p ) {
 		}
 	}
 	else if (debug != null)
-		debugLevel = DEBUG_REG;
+		s.debugLevel = DEBUG_REG;
 }
 
 // -------------------------------------------------------------------
@@ -393,7 +421,7 @@ public static void setConfig( Properties p ) {
 */
 public static boolean contains(String name) {
 	
-	boolean ret = config.containsKey(name); 
+	boolean ret = state.get().config.containsKey(name); 
 	debug(name, "" +ret);
 	return ret;
 }
@@ -433,16 +461,16 @@ public static boolean getBoolean(String name, boolean def) {
 */
 public static boolean getBoolean(String name) {
 
-	if( config.getProperty(name) == null ) {
+	if( state.get().config.getProperty(name) == null ) {
 		throw new MissingParameterException(name,
 				"\nPossibly incorrect property: " +
 				getSimilarProperty(name));
 	}
-	if( config.getProperty(name).matches("\\p{Blank}*") )
+	if( state.get().config.getProperty(name).matches("\\p{Blank}*") )
 		throw new MissingParameterException(name,
 		"Blank value is not accepted when parsing Boolean.");
 
-	boolean ret = (new Boolean(config.getProperty(name))).booleanValue(); 
+	boolean ret = (new Boolean(state.get().config.getProperty(name))).booleanValue(); 
 	debug(name, "" +ret);
 	
 	return ret;
@@ -457,6 +485,11 @@ public static boolean getBoolean(String name) {
 */
 public static int getInt( String name, int def ) {
 
+	if( !state.get().config.containsKey(name) )
+	{
+		debug(name, ""+def+" (DEFAULT)");
+		return def;
+	}
 	try
 	{
 		return Configuration.getInt(name);
@@ -491,6 +524,11 @@ public static int getInt( String name )
 */
 public static long getLong( String name, long def ) {
 
+	if( !state.get().config.containsKey(name) )
+	{
+		debug(name, ""+def+" (DEFAULT)");
+		return def;
+	}
 	try
 	{
 		return Configuration.getLong(name);
@@ -525,6 +563,11 @@ public static long getLong( String name )
 */
 public static double getDouble( String name, double def ) {
 
+	if( !state.get().config.containsKey(name) )
+	{
+		debug(name, ""+def+" (DEFAULT)");
+		return def;
+	}
 	try
 	{
 		return Configuration.getDouble(name);
@@ -552,6 +595,69 @@ public static double getDouble( String name )
 
 //-------------------------------------------------------------------
 
+/**
+ * Returns the value of the given property if it is a numeric expression, as
+ * evaluated when the configuration was set, or null if it is not (a class
+ * name, for example) or if it is missing.
+ * @param name Name of configuration property
+ */
+public static Number getNumber( String name )
+{
+	return state.get().numbers.get(name);
+}
+
+//-------------------------------------------------------------------
+
+/**
+ * Returns a handle on the given integer property. If not found, throws a
+ * {@link MissingParameterException}.
+ * @param name Name of configuration property
+ */
+public static IntParam intParam( String name )
+{
+	return new IntParam(name, getInt(name));
+}
+
+// -------------------------------------------------------------------
+
+/**
+ * Returns a handle on the given integer property. If not found, the handle
+ * returns the default value.
+ * @param name Name of configuration property
+ * @param def default value
+ */
+public static IntParam intParam( String name, int def )
+{
+	return new IntParam(name, getInt(name, def));
+}
+
+// -------------------------------------------------------------------
+
+/**
+ * Returns a handle on the given floating point property. If not found, throws
+ * a {@link MissingParameterException}.
+ * @param name Name of configuration property
+ */
+public static DoubleParam doubleParam( String name )
+{
+	return new DoubleParam(name, getDouble(name));
+}
+
+// -------------------------------------------------------------------
+
+/**
+ * Returns a handle on the given floating point property. If not found, the
+ * handle returns the default value.
+ * @param name Name of configuration property
+ * @param def default value
+ */
+public static DoubleParam doubleParam( String name, double def )
+{
+	return new DoubleParam(name, getDouble(name, def));
+}
+
+//-------------------------------------------------------------------
+
 /**
  * Read numeric property values, parsing expression if necessary.
  * 
@@ -562,13 +668,17 @@ public static double getDouble( String name )
  */
 private static Number getVal(String initial, String property, int depth)
 {
-	if (depth > maxdepth) {
+	Number compiled = state.get().numbers.get(property);
+	if (compiled != null)
+		return compiled;
+
+	if (depth > state.get().maxdepth) {
 		throw new IllegalParameterException(initial, 
 		"Probable recursive definition - exceeded maximum depth " + 
-		maxdepth);
+		state.get().maxdepth);
 	}
 
-	String s = config.getProperty(property);
+	String s = state.get().config.getProperty(property);
 	if (s == null || s.equals("")) {
 		throw new MissingParameterException(property, 
 				" when evaluating property " + initial +
@@ -593,6 +703,72 @@ private static Number getVal(String initial, String property, int depth)
 
 //-------------------------------------------------------------------
 
+/**
+ * Evaluates all the properties that are numeric expressions. Properties whose
+ * evaluation fails are left out, so that reading them goes through
+ * {@link #getVal}, which reports the error.
+ * 
+ * @return the map from property names to their numeric value
+ */
+private static Map<String,Number> compile()
+{
+	Map<String,Object> done = new HashMap<String,Object>();
+	Map<String,Number> result = new HashMap<String,Number>();
+	Enumeration e = state.get().config.propertyNames();
+	while (e.hasMoreElements()) {
+		String name = (String) e.nextElement();
+		Object value = compile(name, done, 0);
+		if (value != NOT_NUMERIC)
+			result.put(name, (Number) value);
+	}
+	return result;
+}
+
+//-------------------------------------------------------------------
+
+/**
+ * Evaluates a property like {@link #getVal}, but silently.
+ * 
+ * @param property the property to evaluate
+ * @param done the properties already evaluated
+ * @param depth the depth reached so far
+ * @return the value of the property, or {@link #NOT_NUMERIC}
+ */
+private static Object compile(String property, Map<String,Object> done,
+		int depth)
+{
+	if (done.containsKey(property))
+		return done.get(property);
+	if (depth > state.get().maxdepth)
+		return NOT_NUMERIC;
+
+	Object ret = NOT_NUMERIC;
+	String s = state.get().config.getProperty(property);
+	if (s != null && !s.equals("")) {
+		GroupJep jep = new GroupJep(new Operators());
+		jep.setAllowUndeclared(true);
+		jep.parseExpression(s);
+		if (!jep.hasError()) {
+			String[] symbols = getSymbols(jep);
+			boolean numeric = true;
+			for (int i=0; i < symbols.length && numeric; i++) {
+				Object d = compile(symbols[i], done, depth+1);
+				numeric = (d != NOT_NUMERIC);
+				jep.addVariable(symbols[i], d);
+			}
+			if (numeric) {
+				Object value = jep.getValueAsObject();
+				if (!jep.hasError() && value instanceof Number)
+					ret = value;
+			}
+		}
+	}
+	done.put(property, ret);
+	return ret;
+}
+
+//-------------------------------------------------------------------
+
 /**
  * Returns an array of string, containing the symbols contained
  * in the expression parsed by the specified JEP parser.
@@ -622,6 +798,11 @@ private static String[] getSymbols(org.nfunk.jep.JEP jep)
 */
 public static String getString( String name, String def ) {
 
+	if( !state.get().config.containsKey(name) )
+	{
+		debug(name, "" +def + " (DEFAULT)");
+		return def;
+	}
 	try
 	{
 		return Configuration.getString(name);
@@ -643,7 +824,7 @@ public static String getString( String name, String def ) {
 */
 public static String getString( String property ) {
 
-	String result = config.getProperty(property);
+	String result = state.get().config.getProperty(property);
 	if( result == null ) 
 		throw new MissingParameterException(property, 
 				"\nPossibly incorrect property: " +
@@ -705,7 +886,7 @@ public static int getPid( String name, int pid ) {
  */
 public static int lookupPid( String protname ) {
 	
-	Integer ret = protocols.get(protname); 
+	Integer ret = state.get().protocols.get(protname); 
 	if (ret == null) {
 		throw new MissingParameterException(PAR_PROT+"."+protname, 
 				"\nPossibly incorrect property: " +
@@ -729,8 +910,8 @@ public static int lookupPid( String protname ) {
  */
 public static String lookupPid( int pid ) {
 	
-	if(!protocols.containsValue(pid))  return null;
-	for(Map.Entry<String,Integer> i : protocols.entrySet())
+	if(!state.get().protocols.containsValue(pid))  return null;
+	for(Map.Entry<String,Integer> i : state.get().protocols.entrySet())
 	{
 		if(i.getValue().intValue()==pid)
 			return i.getKey();
@@ -751,7 +932,7 @@ public static String lookupPid( int pid ) {
 */
 public static Class getClass(String name)
 {
-	String classname = config.getProperty(name);
+	String classname = state.get().config.getProperty(name);
 	if (classname == null) 
 		throw new MissingParameterException(name, 
 				"\nPossibly incorrect property: " +
@@ -949,7 +1130,7 @@ public static String[] getNames( String name )
 	ArrayList<String> ll = new ArrayList<String>();
 	final String pref = name+".";
 
-	Enumeration e = config.propertyNames();
+	Enumeration e = state.get().config.propertyNames();
 	while (e.hasMoreElements()) {
 		String key = (String) e.nextElement();
 		if (key.startsWith(pref) && key.indexOf(".", pref.length())<0)
@@ -1042,7 +1223,7 @@ private static String[] order(String[] names, String type)
  */
 private static void debug(String name, String result)
 {
-	if (debugLevel == DEBUG_NO)
+	if (state.get().debugLevel == DEBUG_NO)
 		return;
 	StringBuffer buffer = new StringBuffer();
 	buffer.append("DEBUG ");
@@ -1051,7 +1232,7 @@ private static void debug(String name, String result)
 	buffer.append(result);
 
 	// Additional info
-	if (debugLevel == DEBUG_CONTEXT) {
+	if (state.get().debugLevel == DEBUG_CONTEXT) {
 		
 	  buffer.append("\n  at ");
 		// Obtain the stack trace
@@ -1156,7 +1337,7 @@ private static String getSimilarProperty(String property)
 {
 	String bestProperty = null;
 	double bestValue = 0.0;
-	Enumeration e = config.keys();
+	Enumeration e = state.get().config.keys();
 	while (e.hasMoreElements()) {
 		String key = (String) e.nextElement();
 		double compare = compareStrings(key, property);
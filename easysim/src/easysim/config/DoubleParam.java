@@ -0,0 +1,58 @@
+
+package easysim.config;
+
+import java.io.Serializable;
+
+/**
+ * A handle on a floating point configuration property, obtained through
+ * {@link Configuration#doubleParam}. Since the configuration is read only, the
+ * value is read once when the handle is created, and {@link #get} costs a
+ * field read. Handles are meant to be kept by components that read a
+ * property very often (e.g. at every cycle).
+ * <p>
+ * Handles are serializable, so that they can be kept by nodes saved in
+ * checkpoints. A restored handle reads the property again from the current
+ * configuration, if it is defined there.
+ */
+public final class DoubleParam implements Serializable {
+
+private static final long serialVersionUID = 1L;
+
+// ======================= fields ====================================
+// ===================================================================
+
+/** The name of the property. */
+public final String name;
+
+private final double value;
+
+// ======================= initialization ============================
+// ===================================================================
+
+DoubleParam(String name, double value) {
+
+	this.name = name;
+	this.value = value;
+}
+
+// ======================= methods ===================================
+// ===================================================================
+
+/**
+ * Returns the value of the property.
+ */
+public double get() { return value; }
+
+// -------------------------------------------------------------------
+
+public String toString() { return name + "=" + value; }
+
+// -------------------------------------------------------------------
+
+/**
+ * Reads the property again when the handle is deserialized.
+ */
+private Object readResolve() {
+	return Configuration.contains(name) ? Configuration.doubleParam(name) : this;
+}
+}
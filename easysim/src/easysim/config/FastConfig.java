@@ -18,13 +18,15 @@
 
 package easysim.config;
 
+import easysim.SimulationContext;
+
 /**
  * Reads configuration regarding relations between protocols. Technically, this
  * class is not necessary because protocols could access the configuration
  * directly. However, it provides much faster access to "linkable" and
- * "transport" information, enhancing runtime speed. This class is a static
- * singleton and is initialized only when first accessed. During initialization
- * it reads and caches the configuration info it handles.
+ * "transport" information, enhancing runtime speed. The configuration info
+ * it handles is read and cached when first accessed, once per simulation
+ * context (see {@link easysim.SimulationContext}).
  */
 public class FastConfig
 {
@@ -42,16 +44,18 @@ public class FastConfig
   private static final String    PAR_LINKABLE = "linkable";
 
   /**
-   * This array stores the protocol ids of the {@link easysim.core.Linkable}
-   * protocols that are linked to the protocol given by the array index.
+   * The arrays of each simulation context, which store the protocol ids of
+   * the {@link easysim.core.Linkable} protocols that are linked to the
+   * protocol given by the array index.
    */
-  protected static final int[][] links;
+  private static final SimulationContext.Slot<int[][]> links = SimulationContext
+                                                               .slot(FastConfig::readLinks);
 
   // ======================= initialization ===================================
   // ==========================================================================
 
   /**
-   * This static initialization block reads the configuration for information
+   * Reads the configuration of the current context for information
    * that it understands. Currently it understands property
    * {@value #PAR_LINKABLE}. Protocols' linkable and transport definitions are
    * prefetched and stored in arrays, to enable fast access during simulation.
@@ -60,10 +64,10 @@ public class FastConfig
    * by providing a fast alternative to reading directly from the
    * <code>Configuration</code> class.
    */
-  static
+  private static int[][] readLinks()
   {
     String[] names = Configuration.getNames(Configuration.PAR_PROT);
-    links = new int[names.length][];
+    int[][] links = new int[names.length][];
     for (int i = 0; i < names.length; ++i)
     {
       if (Configuration.contains(names[i] + "." + PAR_LINKABLE))
@@ -80,6 +84,7 @@ public class FastConfig
         links[i] = new int[0]; // empty set
 
     }
+    return links;
   }
 
   // ---------------------------------------------------------------------
@@ -108,7 +113,7 @@ public class FastConfig
    */
   public static int numLinkables(int pid)
   {
-    return links[pid].length;
+    return links.get()[pid].length;
   }
 
   // ---------------------------------------------------------------------
@@ -127,7 +132,7 @@ public class FastConfig
       throw new IllegalParameterException(names[pid], "Protocol " + pid
           + " has no " + PAR_LINKABLE + " parameter with index" + linkIndex);
     }
-    return links[pid][linkIndex];
+    return links.get()[pid][linkIndex];
   }
 
   // ---------------------------------------------------------------------
@@ -0,0 +1,58 @@
+
+package easysim.config;
+
+import java.io.Serializable;
+
+/**
+ * A handle on an integer configuration property, obtained through
+ * {@link Configuration#intParam}. Since the configuration is read only, the
+ * value is read once when the handle is created, and {@link #get} costs a
+ * field read. Handles are meant to be kept by components that read a
+ * property very often (e.g. at every cycle).
+ * <p>
+ * Handles are serializable, so that they can be kept by nodes saved in
+ * checkpoints. A restored handle reads the property again from the current
+ * configuration, if it is defined there.
+ */
+public final class IntParam implements Serializable {
+
+private static final long serialVersionUID = 1L;
+
+// ======================= fields ====================================
+// ===================================================================
+
+/** The name of the property. */
+public final String name;
+
+private final int value;
+
+// ======================= initialization ============================
+// ===================================================================
+
+IntParam(String name, int value) {
+
+	this.name = name;
+	this.value = value;
+}
+
+// ======================= methods ===================================
+// ===================================================================
+
+/**
+ * Returns the value of the property.
+ */
+public int get() { return value; }
+
+// -------------------------------------------------------------------
+
+public String toString() { return name + "=" + value; }
+
+// -------------------------------------------------------------------
+
+/**
+ * Reads the property again when the handle is deserialized.
+ */
+private Object readResolve() {
+	return Configuration.contains(name) ? Configuration.intParam(name) : this;
+}
+}
@@ -0,0 +1,38 @@
+
+package easysim.core;
+
+import java.io.Serializable;
+
+/**
+ * The set of nodes that acknowledged a message, stored as a bitset indexed by
+ * node id. The bitset is allocated on the first acknowledgement. Since all the
+ * copies of a message share the same set, and copies may be handled by
+ * different threads, accesses are synchronized.
+ *
+ * @author Vivien Quema
+ */
+class AckSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long[] bits = null;
+
+    synchronized void set(int id) {
+        if (bits == null) {
+            bits = new long[(Network.size() + 63) >>> 6];
+        }
+        bits[id >>> 6] |= 1L << id;
+    }
+
+    synchronized boolean get(int id) {
+        return bits != null && (bits[id >>> 6] & (1L << id)) != 0;
+    }
+
+    synchronized boolean[] toArray() {
+        boolean[] result = new boolean[Network.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = get(i);
+        }
+        return result;
+    }
+}
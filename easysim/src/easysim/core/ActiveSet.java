@@ -0,0 +1,305 @@
+package easysim.core;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The nodes that have something to do at each cycle, when only those are run
+ * (see {@link easysim.Simulator}). A node is scheduled for a cycle:
+ * <ul>
+ * <li>when a message becomes due for it at that cycle;</li>
+ * <li>when a control sends a message from it (at the current cycle);</li>
+ * <li>when it asked to be woken up at that cycle (see
+ * {@link Node#wakeUpAt});</li>
+ * <li>at the cycle following one at which it has been run, if it still has
+ * messages to send, due messages it did not receive, or if it is always
+ * active (see {@link Node#setAlwaysActive}).</li>
+ * </ul>
+ * All the nodes are scheduled for the first cycle. A node that has been run is
+ * also scheduled for its next event (see {@link Node#nextEventCycle}), so that
+ * the messages and wake-ups pending in nodes restored from a checkpoint are not
+ * missed.
+ * <p>
+ * The nodes are split in the same partitions as in the {@link CycleExecutor},
+ * and each partition has its own calendar: a timing wheel of node ids indexed
+ * by cycle, of at most {@link TimingWheelInQueue#MAX_SLOTS} slots, and a heap
+ * of the ids scheduled too far away for the wheel. During the cycles, a
+ * partition is only written by the thread running its nodes or flushing the
+ * messages sent to them. The nodes of each partition are run in increasing id
+ * order, so that the nodes that are run do so in the same order as when all
+ * the nodes are run.
+ *
+ * @author Vivien Quema
+ */
+public class ActiveSet {
+
+    private static final int INITIAL_SLOTS = 8;
+
+    private final Node[]     nodes;
+
+    // Number of consecutive node ids per partition
+    private final int        partitionSize;
+
+    private final Calendar[] calendars;
+
+    // Ids of the nodes of each partition run at the current cycle
+    private final int[][]    active;
+
+    private final int[]      counts;
+
+    // The current cycle
+    private int              cycle   = 0;
+
+    // Whether the nodes of the current cycle are being run
+    private boolean          running = false;
+
+    /**
+     * Creates the active set of the current network, with the given number of
+     * consecutive node ids per partition, and schedules all the nodes for
+     * cycle 0.
+     */
+    public ActiveSet(int partitionSize) {
+        this.partitionSize = partitionSize;
+        nodes = Network.nodes();
+        int size = Network.size();
+        int nbPartitions = (size + partitionSize - 1) / partitionSize;
+        calendars = new Calendar[nbPartitions];
+        active = new int[nbPartitions][];
+        counts = new int[nbPartitions];
+        for (int p = 0; p < nbPartitions; p++) {
+            calendars[p] = new Calendar();
+            active[p] = new int[16];
+        }
+        for (int i = 0; i < size; i++) {
+            nodes[i].activeSet = this;
+            calendars[i / partitionSize].add(0, i);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods used by the simulator
+    // ------------------------------------------------------------------------
+
+    /**
+     * Collects the nodes scheduled for the given cycle (or before), and returns
+     * their number. The nodes are then being run until {@link #end()}.
+     */
+    public int begin(int cycle) {
+        this.cycle = cycle;
+        running = true;
+        int total = 0;
+        for (int p = 0; p < calendars.length; p++) {
+            active[p] = calendars[p].poll(cycle, active[p]);
+            counts[p] = dedup(active[p], calendars[p].polled);
+            total += counts[p];
+        }
+        return total;
+    }
+
+    /**
+     * Schedules the nodes that have been run for their next event: the next
+     * cycle if they still have something to do.
+     */
+    public void end() {
+        for (int p = 0; p < calendars.length; p++) {
+            int[] ids = active[p];
+            for (int k = 0; k < counts[p]; k++) {
+                int next = nodes[ids[k]].nextEventCycle(cycle);
+                if (next != Integer.MAX_VALUE) {
+                    calendars[p].add(next, ids[k]);
+                }
+            }
+        }
+        running = false;
+    }
+
+    /**
+     * Returns the number of partitions.
+     */
+    public int partitions() {
+        return calendars.length;
+    }
+
+    /**
+     * Returns the ids of the nodes of partition p run at the current cycle, in
+     * increasing order. Only the first {@link #count(int)} ids are valid.
+     */
+    public int[] ids(int p) {
+        return active[p];
+    }
+
+    /**
+     * Returns the number of nodes of partition p run at the current cycle.
+     */
+    public int count(int p) {
+        return counts[p];
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods used by the nodes
+    // ------------------------------------------------------------------------
+
+    /**
+     * Schedules the node for the given cycle. While the nodes are being run,
+     * the node must belong to the partition of the calling thread, and cycles
+     * that are not after the current one are ignored (the nodes that have been
+     * run are scheduled again by {@link #end()}). Otherwise, cycles before the
+     * current one are taken as the current one.
+     */
+    void schedule(Node node, int at) {
+        if (at <= cycle) {
+            if (running) {
+                return;
+            }
+            at = cycle;
+        }
+        calendars[node.id / partitionSize].add(at, node.id);
+    }
+
+    /**
+     * Schedules the node for the reception of a message due at the given cycle,
+     * and delivered during the current one.
+     */
+    void delivered(Node node, int due) {
+        calendars[node.id / partitionSize].add(Math.max(due, cycle + 1), node.id);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sorts the first n ids and removes the duplicates. Returns the number of
+     * remaining ids.
+     */
+    private static int dedup(int[] ids, int n) {
+        if (n == 0) {
+            return 0;
+        }
+        Arrays.sort(ids, 0, n);
+        int m = 1;
+        for (int k = 1; k < n; k++) {
+            if (ids[k] != ids[m - 1]) {
+                ids[m++] = ids[k];
+            }
+        }
+        return m;
+    }
+
+    /**
+     * A timing wheel of node ids: ids are stored in the slot of their cycle
+     * (modulo the size of the wheel), which is grown whenever the scheduled
+     * cycles do not fit in it anymore (as in {@link TimingWheelInQueue}), up to
+     * {@link TimingWheelInQueue#MAX_SLOTS} slots. The ids scheduled outside of
+     * the wheel are kept in an overflow heap, as <code>cycle << 32 | id</code>.
+     */
+    private static final class Calendar {
+
+        private int[][] slots = new int[INITIAL_SLOTS][];
+
+        private int[]   sizes = new int[INITIAL_SLOTS];
+
+        private int     mask  = INITIAL_SLOTS - 1;
+
+        // Lowest cycle that may still hold ids
+        private int     cursor;
+
+        // Highest cycle holding ids
+        private int     last;
+
+        // Number of ids in the wheel
+        private int     count = 0;
+
+        // Ids scheduled outside of the wheel (null if none so far)
+        private PriorityQueue<Long> overflow;
+
+        // Number of ids returned by the last poll
+        int             polled;
+
+        void add(int cycle, int id) {
+            if (count == 0) {
+                cursor = cycle;
+                last = cycle;
+            } else {
+                int low = Math.min(cursor, cycle);
+                int high = Math.max(last, cycle);
+                if ((long) high - low >= TimingWheelInQueue.MAX_SLOTS) {
+                    if (overflow == null) {
+                        overflow = new PriorityQueue<Long>();
+                    }
+                    overflow.add((long) cycle << 32 | id);
+                    return;
+                }
+                if (high - low > mask) {
+                    grow(high - low + 1);
+                }
+                cursor = low;
+                last = high;
+            }
+            int s = cycle & mask;
+            int[] slot = slots[s];
+            if (slot == null) {
+                slot = new int[4];
+                slots[s] = slot;
+            } else if (sizes[s] == slot.length) {
+                slot = Arrays.copyOf(slot, slot.length * 2);
+                slots[s] = slot;
+            }
+            slot[sizes[s]++] = id;
+            count++;
+        }
+
+        /**
+         * Removes the ids of the cycles up to the given one, and appends them
+         * to <code>out</code>, which is grown if needed and returned. Their
+         * number is set in {@link #polled}.
+         */
+        int[] poll(int cycle, int[] out) {
+            int n = 0;
+            while (count > 0 && cursor <= cycle) {
+                int s = cursor & mask;
+                int size = sizes[s];
+                if (size > 0) {
+                    if (n + size > out.length) {
+                        out = Arrays.copyOf(out, Math.max(out.length * 2, n + size));
+                    }
+                    System.arraycopy(slots[s], 0, out, n, size);
+                    n += size;
+                    sizes[s] = 0;
+                    count -= size;
+                }
+                cursor++;
+            }
+            if (overflow != null) {
+                while (!overflow.isEmpty() && (int) (overflow.peek() >> 32) <= cycle) {
+                    if (n == out.length) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                    out[n++] = (int) overflow.poll().longValue();
+                }
+            }
+            polled = n;
+            return out;
+        }
+
+        private void grow(int minSlots) {
+            int n = slots.length;
+            while (n < minSlots) {
+                n <<= 1;
+            }
+            int[][] newSlots = new int[n][];
+            int[] newSizes = new int[n];
+            // Each slot holds the ids of a single cycle of [cursor, last]
+            for (int c = cursor; c <= last; c++) {
+                int s = c & mask;
+                if (sizes[s] > 0) {
+                    newSlots[c & (n - 1)] = slots[s];
+                    newSizes[c & (n - 1)] = sizes[s];
+                }
+            }
+            slots = newSlots;
+            sizes = newSizes;
+            mask = n - 1;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package easysim.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The links of the network in compressed sparse row form: the neighbors of
+ * node <code>i</code> are the ids <code>targets[offsets[i]]</code> to
+ * <code>targets[offsets[i + 1] - 1]</code>, in the order in which they were
+ * added. Adjacencies are built by {@link EdgeBuilder}, and the nodes read
+ * their neighbors directly from the arrays of the adjacency (see
+ * {@link Node#getNeighbor(int)}), which must not be modified.
+ * <p>
+ * An adjacency can be saved to a file (see {@link #write(File, String)}) and
+ * read back, e.g. to reuse a topology in later simulations. The file holds
+ * the characters <code>ADJC</code>, then as little-endian values the version
+ * of the format (1), the length of the key and the key in UTF-8, the number of
+ * nodes, the number of links (a long), the offsets and the targets.
+ *
+ * @author Vivien Quema
+ */
+public final class Adjacency {
+
+    // "ADJC", read as a big-endian int
+    private static final int  MAGIC   = 0x41444A43;
+
+    private static final int  VERSION = 1;
+
+    // Files are mapped by windows of at most this size
+    private static final long WINDOW  = 1 << 30;
+
+    private final int[] offsets;
+
+    private final int[] targets;
+
+    /**
+     * Creates an adjacency from its arrays, which are not copied.
+     *
+     * @param offsets the start of the neighbors of each node, followed by the
+     *          number of links
+     * @param targets the ids of the neighbors of all the nodes
+     */
+    public Adjacency(int[] offsets, int[] targets) {
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Returns the number of nodes.
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the number of links.
+     */
+    public int links() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Returns the number of neighbors of node <code>i</code>.
+     */
+    public int degree(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * Returns the id of the k-th neighbor of node <code>i</code>.
+     */
+    public int target(int i, int k) {
+        return targets[offsets[i] + k];
+    }
+
+    /**
+     * Returns the start of the neighbors of each node, followed by the number
+     * of links. The array must not be modified.
+     */
+    public int[] offsets() {
+        return offsets;
+    }
+
+    /**
+     * Returns the ids of the neighbors of all the nodes. The array must not be
+     * modified.
+     */
+    public int[] targets() {
+        return targets;
+    }
+
+    /**
+     * Makes the neighbors of the nodes of the network their neighbors in this
+     * adjacency.
+     */
+    public void install() {
+        Node[] nodes = Network.nodes();
+        if (size() != Network.size()) {
+            throw new IllegalStateException("Adjacency of " + size()
+                    + " nodes installed in a network of " + Network.size());
+        }
+        for (int i = 0; i < size(); i++) {
+            nodes[i].setNeighbors(this, nodes);
+        }
+    }
+
+    /**
+     * Writes this adjacency to the given file, with the given key (e.g. a
+     * description of the topology). The file is replaced.
+     */
+    public void write(File file, String key) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 16, k.length + 20));
+            buffer.putInt(MAGIC);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(VERSION);
+            buffer.putInt(k.length);
+            buffer.put(k);
+            buffer.putInt(size());
+            buffer.putLong(links());
+            writeInts(channel, buffer, offsets, offsets.length);
+            writeInts(channel, buffer, targets, links());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads an adjacency written by {@link #write(File, String)} with the
+     * given key from the given file, which is memory-mapped. Returns null if
+     * the file was written with another key.
+     */
+    public static Adjacency read(File file, String key) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(length, k.length + 28));
+            if (header.remaining() < 12 || header.getInt() != MAGIC) {
+                throw new IOException(file + ": not an adjacency file");
+            }
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": unknown version " + version);
+            }
+            if (header.getInt() != k.length) {
+                return null;
+            }
+            if (header.remaining() < k.length + 12) {
+                throw new IOException(file + ": truncated adjacency file");
+            }
+            byte[] stored = new byte[k.length];
+            header.get(stored);
+            if (!Arrays.equals(stored, k)) {
+                return null;
+            }
+            int size = header.getInt();
+            long links = header.getLong();
+            long position = header.position();
+            if (size < 0 || links < 0 || links > Integer.MAX_VALUE - 8
+                    || length != position + 4L * (size + 1 + links)) {
+                throw new IOException(file + ": truncated adjacency file");
+            }
+            int[] offsets = new int[size + 1];
+            int[] targets = new int[(int) links];
+            readInts(channel, position, offsets);
+            readInts(channel, position + 4L * offsets.length, targets);
+            if (offsets[size] != links) {
+                throw new IOException(file + ": corrupted adjacency file");
+            }
+            return new Adjacency(offsets, targets);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the adjacency of the given nodes, whose ids must be their
+     * indexes.
+     */
+    public static Adjacency of(Node[] nodes, int size) {
+        int[] offsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            offsets[i + 1] = offsets[i] + nodes[i].getNeighborCount();
+        }
+        int[] targets = new int[offsets[size]];
+        for (int i = 0; i < size; i++) {
+            nodes[i].copyNeighborIds(targets, offsets[i]);
+        }
+        return new Adjacency(offsets, targets);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends the first <code>count</code> ints of the given array to the
+     * buffer, writing the buffer to the channel whenever it is full.
+     */
+    private static void writeInts(FileChannel channel, ByteBuffer buffer,
+            int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < 4) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+            buffer.putInt(values[i]);
+        }
+    }
+
+    /**
+     * Fills the given array with the ints of the channel from the given
+     * position, mapping the file by windows.
+     */
+    private static void readInts(FileChannel channel, long position,
+            int[] values) throws IOException {
+        int done = 0;
+        while (done < values.length) {
+            int n = (int) Math.min(values.length - done, WINDOW / 4);
+            channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * done,
+                    4L * n).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
+                    .get(values, done, n);
+            done += n;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package easysim.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import easysim.Simulator;
+import easysim.util.ExtendedRandom;
+
+/**
+ * The state of a simulation at the end of a cycle, saved in a file so that the
+ * simulation can be resumed from it (see {@link Simulator}): the cycle, the
+ * number of message ids given, the random source of the simulator and the
+ * nodes of the network, with their inQueues, outQueues and random sources.
+ * <p>
+ * The file starts with a header (magic number, version, cycle, number of
+ * message ids and number of nodes), followed by the random source and the
+ * nodes, written by Java serialization and deflated. The controls, and the
+ * time diagram, are not saved.
+ * <p>
+ * A checkpoint can also be kept in memory (see {@link #save(int)}), to start
+ * several simulations from the same state.
+ *
+ * @author Vivien Quema
+ */
+public final class Checkpoint
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  private static final int     MAGIC   = 0x45534350;        // "ESCP"
+
+  private static final int     VERSION = 1;
+
+  /** The cycle at the end of which the checkpoint was taken. */
+  public final int             cycle;
+
+  /** The number of message ids given at that time. */
+  public final int             messageCount;
+
+  /** The random source of the simulator at that time. */
+  public final ExtendedRandom random;
+
+  // ====================== initialization ===========================
+  // =================================================================
+
+  private Checkpoint(int cycle, int messageCount, ExtendedRandom random)
+  {
+    this.cycle = cycle;
+    this.messageCount = messageCount;
+    this.random = random;
+  }
+
+  // =============== public methods ===================================
+  // ==================================================================
+
+  /**
+   * Saves the current simulation, at the end of the given cycle. The file is
+   * written next to its final location, and renamed once complete.
+   */
+  public static void write(String file, int cycle) throws IOException
+  {
+    File tmp = new File(file + ".tmp");
+    OutputStream out = new FileOutputStream(tmp);
+    try
+    {
+      write(out, cycle);
+    }
+    finally
+    {
+      out.close();
+    }
+    Files.move(tmp.toPath(), new File(file).toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Reads a checkpoint, and replaces the nodes of the network by the ones it
+   * holds. The other parts of the state are returned, to be restored by the
+   * simulator.
+   */
+  public static Checkpoint read(String file) throws IOException
+  {
+    InputStream in = new FileInputStream(file);
+    try
+    {
+      return read(in, file);
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Saves the current simulation in memory, at the end of the given cycle.
+   * The returned snapshot is never modified, and can be loaded any number of
+   * times, concurrently, by {@link #load(byte[])}.
+   */
+  public static byte[] save(int cycle)
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+    try
+    {
+      write(out, cycle);
+    }
+    catch (IOException e)
+    {
+      // Not thrown by a ByteArrayOutputStream
+      throw new RuntimeException(e);
+    }
+    return out.toByteArray();
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Loads a snapshot returned by {@link #save(int)}, as {@link #read(String)}
+   * does: the nodes of the network of the current simulation context are
+   * replaced by new copies of the saved nodes.
+   */
+  public static Checkpoint load(byte[] snapshot)
+  {
+    try
+    {
+      return read(new ByteArrayInputStream(snapshot), "snapshot");
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // =============== private methods ==================================
+  // ==================================================================
+
+  private static void write(OutputStream stream, int cycle) throws IOException
+  {
+    Node[] nodes = Network.nodes();
+    int size = Network.size();
+    DataOutputStream header = new DataOutputStream(new BufferedOutputStream(
+        stream, 1 << 16));
+    header.writeInt(MAGIC);
+    header.writeInt(VERSION);
+    header.writeInt(cycle);
+    header.writeInt(Simulator.getMessageCount());
+    header.writeInt(size);
+    header.flush();
+    DeflaterOutputStream deflater = new DeflaterOutputStream(header,
+        new Deflater(Deflater.BEST_SPEED), 1 << 16);
+    ObjectOutputStream out = new ObjectOutputStream(deflater);
+    out.writeObject(Simulator.getRandom());
+    // One node at a time, so that other nodes are never written while
+    // writing a node
+    for (int i = 0; i < size; ++i)
+    {
+      out.writeObject(nodes[i]);
+    }
+    out.flush();
+    deflater.finish();
+    header.flush();
+  }
+
+  // ------------------------------------------------------------------
+
+  private static Checkpoint read(InputStream stream, String name)
+      throws IOException
+  {
+    DataInputStream header = new DataInputStream(new BufferedInputStream(
+        stream, 1 << 16));
+    if (header.readInt() != MAGIC)
+      throw new IOException(name + " is not a checkpoint");
+    int version = header.readInt();
+    if (version != VERSION)
+      throw new IOException(name + ": unsupported version " + version);
+    int cycle = header.readInt();
+    int messageCount = header.readInt();
+    int size = header.readInt();
+    ObjectInputStream in = new ObjectInputStream(new InflaterInputStream(
+        header, new Inflater(), 1 << 16));
+    ExtendedRandom random;
+    Node[] nodes = new Node[size];
+    try
+    {
+      random = (ExtendedRandom) in.readObject();
+      for (int i = 0; i < size; ++i)
+      {
+        nodes[i] = (Node) in.readObject();
+      }
+    }
+    catch (ClassNotFoundException e)
+    {
+      throw new IOException(name + ": " + e);
+    }
+    for (int i = 0; i < size; ++i)
+    {
+      nodes[i].resolve(nodes);
+    }
+    Network.restore(nodes);
+    return new Checkpoint(cycle, messageCount, random);
+  }
+}
@@ -0,0 +1,319 @@
+
+package easysim.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import easysim.SimulationContext;
+
+/**
+ * Executes the cycles of the network on several threads. The nodes are split
+ * in contiguous partitions of ids, and a cycle runs as follows:
+ * <ol>
+ * <li>the {@link Node#cycleHandler()} of all nodes are run, one task per
+ * partition;</li>
+ * <li>barrier; the messages about to be sent for the first time are given
+ * their color and id, sequentially in node order;</li>
+ * <li>the {@link Node#outQueueUpdate()} of all nodes are run, one task per
+ * partition. Each task stages the messages it sends in its own
+ * {@link DeliveryBuffer};</li>
+ * <li>barrier; each destination partition appends the staged messages to its
+ * inQueues, reading the buffers in partition order.</li>
+ * </ol>
+ * No inQueue is ever written by two threads, and each inQueue receives its
+ * messages in the same order as with the sequential engine.
+ * <p>
+ * What the nodes print on {@link System#out} during the cycleHandler and
+ * outQueueUpdate phases is staged per partition, and printed at the end of
+ * each phase in partition order, so that the output of a cycle is the same
+ * as with the sequential engine. To do so, the executor replaces
+ * {@link System#out} with a {@link SimulationContext#routingStream} until it
+ * is shut down, unless it already is one. What the nodes print on
+ * {@link System#err} is not staged.
+ * <p>
+ * The cycleHandler of a node must only access the node itself (as done by
+ * {@link Node#receive()} and {@link Node#send}).
+ * <p>
+ * The tasks run within the {@link SimulationContext} of the thread that
+ * created the executor.
+ * <p>
+ * When only the active nodes are run (see {@link #cycle(ActiveSet)}), each
+ * task only goes through the active nodes of its partition.
+ */
+public class CycleExecutor
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  private final ForkJoinPool           pool;
+
+  private final SimulationContext      context;
+
+  /** The nodes of the network. */
+  private final Node[]                 nodes;
+
+  /** Number of nodes of the network. */
+  private final int                    size;
+
+  /** Number of consecutive node ids per partition. */
+  private final int                    partitionSize;
+
+  /** The nodes to run at the current cycle, or null to run all of them. */
+  private ActiveSet                    active;
+
+  /** One staging buffer per (source) partition. */
+  private final DeliveryBuffer[]       buffers;
+
+  /** The output of the nodes of each partition during the current phase. */
+  private final ByteArrayOutputStream[] outputs;
+
+  private final PrintStream[]          staging;
+
+  /** The standard output replaced by this executor, if any. */
+  private PrintStream                  stdout;
+
+  private final List<Callable<Object>> handlerTasks  = new ArrayList<Callable<Object>>();
+
+  private final List<Callable<Object>> deliveryTasks = new ArrayList<Callable<Object>>();
+
+  private final List<Callable<Object>> flushTasks    = new ArrayList<Callable<Object>>();
+
+  // ====================== initialization ===========================
+  // =================================================================
+
+  /**
+   * Creates an executor for the current network.
+   *
+   * @param threads the number of worker threads
+   */
+  public CycleExecutor(int threads)
+  {
+    context = SimulationContext.current();
+    nodes = Network.nodes();
+    size = Network.size();
+    partitionSize = (size + threads - 1) / threads;
+    final int nbPartitions = (size + partitionSize - 1) / partitionSize;
+    pool = new ForkJoinPool(threads);
+    buffers = new DeliveryBuffer[nbPartitions];
+    outputs = new ByteArrayOutputStream[nbPartitions];
+    staging = new PrintStream[nbPartitions];
+    for (int p = 0; p < nbPartitions; ++p)
+    {
+      buffers[p] = new DeliveryBuffer(nbPartitions, partitionSize);
+      outputs[p] = new ByteArrayOutputStream();
+      staging[p] = new PrintStream(outputs[p]);
+    }
+    if (!SimulationContext.isRoutingStream(System.out))
+    {
+      stdout = System.out;
+      System.setOut(SimulationContext.routingStream(stdout));
+    }
+
+    for (int p = 0; p < nbPartitions; ++p)
+    {
+      final int partition = p;
+      final int from = p * partitionSize;
+      final int to = Math.min(size, from + partitionSize);
+      handlerTasks.add(inContext(partition, new Callable<Object>()
+      {
+        public Object call()
+        {
+          if (active == null)
+          {
+            for (int j = from; j < to; ++j)
+              nodes[j].cycleHandler();
+          }
+          else
+          {
+            int[] ids = active.ids(partition);
+            for (int k = 0; k < active.count(partition); ++k)
+              nodes[ids[k]].cycleHandler();
+          }
+          return null;
+        }
+      }));
+      deliveryTasks.add(inContext(partition, new Callable<Object>()
+      {
+        public Object call()
+        {
+          if (active == null)
+          {
+            for (int j = from; j < to; ++j)
+              nodes[j].outQueueUpdate(buffers[partition]);
+          }
+          else
+          {
+            int[] ids = active.ids(partition);
+            for (int k = 0; k < active.count(partition); ++k)
+              nodes[ids[k]].outQueueUpdate(buffers[partition]);
+          }
+          return null;
+        }
+      }));
+      flushTasks.add(inContext(-1, new Callable<Object>()
+      {
+        public Object call()
+        {
+          for (int q = 0; q < buffers.length; ++q)
+            buffers[q].flush(partition);
+          return null;
+        }
+      }));
+    }
+  }
+
+  // =============== public methods ===================================
+  // ==================================================================
+
+  /**
+   * Runs one cycle on all the nodes of the network.
+   */
+  public void cycle()
+  {
+    active = null;
+    invokeAll(handlerTasks);
+    for (int j = 0; j < size; ++j)
+    {
+      nodes[j].stampOutQueue();
+    }
+    invokeAll(deliveryTasks);
+    invokeAll(flushTasks);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Runs one cycle on the nodes collected by the given active set, which must
+   * have been created with the partition size of this executor.
+   */
+  public void cycle(ActiveSet activeSet)
+  {
+    active = activeSet;
+    invokeAll(handlerTasks);
+    for (int p = 0; p < activeSet.partitions(); ++p)
+    {
+      int[] ids = activeSet.ids(p);
+      for (int k = 0; k < activeSet.count(p); ++k)
+      {
+        nodes[ids[k]].stampOutQueue();
+      }
+    }
+    invokeAll(deliveryTasks);
+    invokeAll(flushTasks);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the number of consecutive node ids per partition.
+   */
+  public int getPartitionSize()
+  {
+    return partitionSize;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Stops the worker threads, and restores the standard output.
+   */
+  public void shutdown()
+  {
+    pool.shutdown();
+    if (stdout != null)
+    {
+      System.setOut(stdout);
+      stdout = null;
+    }
+  }
+
+  // =============== private methods ==================================
+  // ==================================================================
+
+  /**
+   * Returns a task running the given one within the context of this executor,
+   * with its output staged in the buffer of the given partition (if not -1).
+   */
+  private Callable<Object> inContext(final int partition,
+      final Callable<Object> task)
+  {
+    return new Callable<Object>()
+    {
+      public Object call()
+      {
+        if (partition < 0)
+          return context.call(task);
+        SimulationContext.setThreadOut(staging[partition]);
+        try
+        {
+          return context.call(task);
+        }
+        finally
+        {
+          SimulationContext.setThreadOut(null);
+        }
+      }
+    };
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Prints the output staged by the partitions, in partition order.
+   */
+  private void printStaged()
+  {
+    for (int p = 0; p < outputs.length; ++p)
+    {
+      if (outputs[p].size() > 0)
+      {
+        staging[p].flush();
+        byte[] b = outputs[p].toByteArray();
+        System.out.write(b, 0, b.length);
+        outputs[p].reset();
+      }
+    }
+    System.out.flush();
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Runs the given tasks and waits for all of them to complete, then prints
+   * their staged output. Any exception thrown by a task is rethrown.
+   */
+  private void invokeAll(List<Callable<Object>> tasks)
+  {
+    List<Future<Object>> futures = pool.invokeAll(tasks);
+    try
+    {
+      for (Future<Object> f : futures)
+      {
+        f.get();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+    finally
+    {
+      printStaged();
+    }
+  }
+}
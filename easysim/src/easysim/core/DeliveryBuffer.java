@@ -0,0 +1,116 @@
+
+package easysim.core;
+
+import java.util.Arrays;
+
+/**
+ * Messages staged by the nodes of one partition during a parallel delivery
+ * phase. Messages are grouped by the partition of their destination, so that
+ * each destination partition can later be flushed by a single thread, without
+ * locking the inQueues.
+ *
+ * @author Vivien Quema
+ */
+class DeliveryBuffer {
+
+    // Number of consecutive node ids per partition
+    private final int        partitionSize;
+
+    // Partition of each node id, if the partitions are not contiguous
+    private final int[]      partitionOf;
+
+    // destinations[p] and messages[p] hold the messages staged for partition p
+    private final Node[][]   destinations;
+
+    private final Message[][] messages;
+
+    private final int[]      sizes;
+
+    /**
+     * Creates a buffer for the given number of destination partitions.
+     */
+    DeliveryBuffer(int nbPartitions, int partitionSize) {
+        this(nbPartitions, partitionSize, null);
+    }
+
+    /**
+     * Creates a buffer for the given number of destination partitions, where
+     * the partition of each node id is given by <code>partitionOf</code>.
+     */
+    DeliveryBuffer(int nbPartitions, int[] partitionOf) {
+        this(nbPartitions, 0, partitionOf);
+    }
+
+    private DeliveryBuffer(int nbPartitions, int partitionSize, int[] partitionOf) {
+        this.partitionSize = partitionSize;
+        this.partitionOf = partitionOf;
+        destinations = new Node[nbPartitions][16];
+        messages = new Message[nbPartitions][16];
+        sizes = new int[nbPartitions];
+    }
+
+    /**
+     * Stages a message for the given destination.
+     */
+    void add(Node destination, Message message) {
+        int p = (partitionOf != null) ? partitionOf[destination.id]
+                : destination.id / partitionSize;
+        int size = sizes[p];
+        if (size == destinations[p].length) {
+            Node[] d = new Node[size * 2];
+            System.arraycopy(destinations[p], 0, d, 0, size);
+            destinations[p] = d;
+            Message[] m = new Message[size * 2];
+            System.arraycopy(messages[p], 0, m, 0, size);
+            messages[p] = m;
+        }
+        destinations[p][size] = destination;
+        messages[p][size] = message;
+        sizes[p] = size + 1;
+    }
+
+    /**
+     * Returns the number of messages staged for partition p.
+     */
+    int size(int p) {
+        return sizes[p];
+    }
+
+    /**
+     * Returns the destination of the i-th message staged for partition p.
+     */
+    Node destination(int p, int i) {
+        return destinations[p][i];
+    }
+
+    /**
+     * Returns the i-th message staged for partition p.
+     */
+    Message message(int p, int i) {
+        return messages[p][i];
+    }
+
+    /**
+     * Forgets the messages staged for partition p.
+     */
+    void clear(int p) {
+        Arrays.fill(destinations[p], 0, sizes[p], null);
+        Arrays.fill(messages[p], 0, sizes[p], null);
+        sizes[p] = 0;
+    }
+
+    /**
+     * Puts the messages staged for partition p in the inQueues of their
+     * destinations, in the order they were staged, and forgets them.
+     */
+    void flush(int p) {
+        Node[] d = destinations[p];
+        Message[] m = messages[p];
+        for (int i = 0; i < sizes[p]; i++) {
+            d[i].deliver(m[i]);
+            d[i] = null;
+            m[i] = null;
+        }
+        sizes[p] = 0;
+    }
+}
@@ -0,0 +1,202 @@
+package easysim.core;
+
+import java.util.Arrays;
+
+/**
+ * Collects links between the nodes of the network, and then sets them all at
+ * once (see {@link #wire(boolean)}): the links are sorted by source node,
+ * duplicates are removed, and the result is frozen into an {@link Adjacency}
+ * that the nodes read their neighbors from. This avoids adding the links one
+ * by one with {@link Node#addNeighbor(Node)}, which checks for duplicates in
+ * linear time.
+ * <p>
+ * The neighbors of each node keep the order in which they were added, after
+ * the neighbors it already had. While links are added in increasing order of
+ * source node (as most wires do), they are stored in their final order
+ * directly, and take 4 bytes each.
+ *
+ * @author Vivien Quema
+ */
+public final class EdgeBuilder {
+
+    private final int size;
+
+    // Number of links added per source node
+    private final int[] degrees;
+
+    // Targets of the links, in order of addition
+    private int[]       to      = new int[16];
+
+    // Sources of the links, only kept once they are not sorted
+    private int[]       from    = null;
+
+    private int         nbLinks = 0;
+
+    private int         last    = 0;
+
+    /**
+     * Creates a builder for the links of the current network.
+     */
+    public EdgeBuilder() {
+        size = Network.size();
+        degrees = new int[size];
+    }
+
+    /**
+     * Returns the number of links added, duplicates included.
+     */
+    public int size() {
+        return nbLinks;
+    }
+
+    /**
+     * Adds a link from node <code>i</code> to node <code>j</code>.
+     */
+    public void add(int i, int j) {
+        if (i < 0 || i >= size || j < 0 || j >= size) {
+            throw new IndexOutOfBoundsException("Link " + i + " -> " + j + ", Size: " + size);
+        }
+        if (from == null && i < last) {
+            unsort();
+        }
+        if (nbLinks == to.length) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, 2L * nbLinks);
+            if (capacity == nbLinks) {
+                throw new IllegalStateException("Too many links");
+            }
+            to = Arrays.copyOf(to, capacity);
+            if (from != null) {
+                from = Arrays.copyOf(from, capacity);
+            }
+        }
+        to[nbLinks] = j;
+        if (from != null) {
+            from[nbLinks] = i;
+        }
+        nbLinks++;
+        degrees[i]++;
+        last = i;
+    }
+
+    /**
+     * Adds the links to the neighbors of the nodes, and returns the resulting
+     * adjacency. Duplicate links, and links that a node already had, are
+     * ignored. If <code>log</code> is true, each link actually added is
+     * printed as in <code>i linked to j</code>, in order of addition. The
+     * builder cannot be used afterwards.
+     */
+    public Adjacency wire(boolean log) {
+        Node[] nodes = Network.nodes();
+        int[] offsets = new int[size + 1];
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            offsets[i] = (int) total;
+            total += nodes[i].getNeighborCount() + degrees[i];
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many links: " + total);
+        }
+        offsets[size] = (int) total;
+
+        // Existing neighbors first, then the new links of each node in order
+        int[] targets = new int[(int) total];
+        int[] cursor = new int[size];
+        for (int i = 0; i < size; i++) {
+            nodes[i].copyNeighborIds(targets, offsets[i]);
+            cursor[i] = offsets[i] + nodes[i].getNeighborCount();
+        }
+        // Position of each new link, to print them in order of addition
+        int[] position = log ? new int[nbLinks] : null;
+        if (from == null) {
+            int e = 0;
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(to, e, targets, cursor[i], degrees[i]);
+                if (log) {
+                    for (int k = 0; k < degrees[i]; k++) {
+                        position[e + k] = cursor[i] + k;
+                    }
+                }
+                e += degrees[i];
+            }
+        } else {
+            for (int e = 0; e < nbLinks; e++) {
+                int p = cursor[from[e]]++;
+                targets[p] = to[e];
+                if (log) {
+                    position[e] = p;
+                }
+            }
+        }
+
+        // Remove the duplicates of each row, keeping the first occurrence
+        boolean[] kept = log ? new boolean[targets.length] : null;
+        int[] stamp = new int[size];
+        Arrays.fill(stamp, -1);
+        int w = 0;
+        for (int i = 0; i < size; i++) {
+            int start = offsets[i];
+            int end = offsets[i + 1];
+            offsets[i] = w;
+            for (int p = start; p < end; p++) {
+                int t = targets[p];
+                if (stamp[t] != i) {
+                    stamp[t] = i;
+                    targets[w++] = t;
+                    if (log) {
+                        kept[p] = true;
+                    }
+                }
+            }
+        }
+        offsets[size] = w;
+        if (w < targets.length) {
+            targets = Arrays.copyOf(targets, w);
+        }
+
+        if (log) {
+            printLinks(position, kept);
+        }
+        to = null;
+        from = null;
+        Adjacency adjacency = new Adjacency(offsets, targets);
+        adjacency.install();
+        return adjacency;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Keeps the sources of the links, which are no longer added in increasing
+     * order of source.
+     */
+    private void unsort() {
+        from = new int[to.length];
+        int e = 0;
+        for (int i = 0; i < size; i++) {
+            Arrays.fill(from, e, e + degrees[i], i);
+            e += degrees[i];
+        }
+    }
+
+    /**
+     * Prints the new links that were kept, in order of addition.
+     */
+    private void printLinks(int[] position, boolean[] kept) {
+        int row = 0;
+        int rowEnd = 0;
+        for (int e = 0; e < nbLinks; e++) {
+            int source;
+            if (from != null) {
+                source = from[e];
+            } else {
+                while (e >= rowEnd) {
+                    rowEnd += degrees[row++];
+                }
+                source = row - 1;
+            }
+            if (kept[position[e]]) {
+                System.out.println(source + " linked to " + to[e]);
+            }
+        }
+    }
+}
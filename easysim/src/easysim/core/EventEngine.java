@@ -0,0 +1,230 @@
+package easysim.core;
+
+import easysim.Simulator;
+import easysim.latency.ContinuousLatency;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Runs the nodes of the network in continuous time. The simulated time is in
+ * nanoseconds, and cycle <code>c</code> is the interval
+ * <code>[c * cycleLength, (c + 1) * cycleLength)</code>, so that
+ * {@link Simulator#getCycle()} keeps its meaning.
+ * <p>
+ * The pending events are kept in a single {@link EventQueue}. An event is
+ * either the arrival of a message at a node, or the activation of a node. For
+ * each event, the message (if any) is put in the inQueue of the node, its
+ * {@link Node#cycleHandler()} is run, and the messages it sent are scheduled
+ * to arrive after their latency. Latencies are drawn in nanoseconds by the
+ * latency model of the protocol if it is a {@link ContinuousLatency}, and are
+ * otherwise the latencies in cycles of {@link Node#send}, multiplied by the
+ * cycle length.
+ * <p>
+ * The limits of messages received and sent apply to each run of the
+ * cycleHandler. A node is activated at most once at the start of a cycle:
+ * <ul>
+ * <li>for all nodes, at the first cycle;</li>
+ * <li>when it asked for it (see {@link Node#wakeUpAt}), or when a control sent a
+ * message from it (at the current cycle);</li>
+ * <li>at the cycle following the one of one of its runs, if it still has
+ * messages to send or to receive, or if it is always active (see
+ * {@link Node#setAlwaysActive}).</li>
+ * </ul>
+ * Note that the cycleHandler of a node is run once per event, and not once per
+ * cycle: protocols that act at each run of their cycleHandler (rather than when
+ * activated) behave differently than with the round-based engine. A node that
+ * must act once per cycle, e.g. draw whether to send a message or print a
+ * report at the last cycle, does it at the first run of the cycle only, by
+ * recording the last cycle at which it has been run (with the round-based
+ * engine, it is the only run). The nodes must then be always active, or ask to
+ * be woken up, to be run at the cycles at which they receive nothing.
+ *
+ * @author Vivien Quema
+ */
+public class EventEngine
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  private final EventQueue          queue = new EventQueue();
+
+  /** The length of a cycle, in nanoseconds. */
+  private final long                cycleLength;
+
+  /** For each node, the last cycle for which it has been activated. */
+  private final int[]               activations;
+
+  /**
+   * For each node, the time of its last activation that has been run. A node
+   * may be activated several times for the same cycle (e.g. for cycles a, b,
+   * then a again): the duplicates are dropped when polled.
+   */
+  private final long[]              activated;
+
+  /** The current time, in nanoseconds. */
+  private long                      time  = 0;
+
+  /** The current cycle. */
+  private int                       cycle = 0;
+
+  /** Whether the events of the current cycle are being run. */
+  private boolean                   running;
+
+  // ====================== initialization ===========================
+  // =================================================================
+
+  /**
+   * Creates an engine for the current network, and activates all the nodes
+   * at time 0.
+   *
+   * @param cycleLength the length of a cycle, in nanoseconds
+   */
+  public EventEngine(long cycleLength)
+  {
+    this.cycleLength = cycleLength;
+    Node[] nodes = Network.nodes();
+    int size = Network.size();
+    activations = new int[size];
+    activated = new long[size];
+    for (int i = 0; i < size; ++i)
+    {
+      nodes[i].engine = this;
+      activations[i] = -1;
+      activated[i] = -1;
+      activate(nodes[i], 0);
+    }
+  }
+
+  // =============== public methods ===================================
+  // ==================================================================
+
+  /**
+   * Runs the events of the given cycle, in time order.
+   */
+  public void run(int cycle)
+  {
+    this.cycle = cycle;
+    running = true;
+    long end = (cycle + 1) * cycleLength;
+    while (queue.peekTime() < end)
+    {
+      EventQueue.Event e = queue.poll();
+      time = e.time;
+      Node node = e.node;
+      if (e.message == null)
+      {
+        if (activated[node.id] == time)
+        {
+          // Already activated at this time
+          continue;
+        }
+        activated[node.id] = time;
+      }
+      else
+      {
+        // The message is due at the current cycle
+        e.message.latency = cycle - e.message.sendingCycle;
+        node.deliver(e.message);
+      }
+      node.cycleHandler();
+      node.sendOutQueue(this);
+      if (node.isAlwaysActive() || node.getOutQueue().size() > 0
+          || node.hasDueMessages(cycle))
+      {
+        activate(node, cycle + 1);
+      }
+    }
+    time = end;
+    running = false;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the current time, in nanoseconds.
+   */
+  public long getTime()
+  {
+    return time;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the number of pending events.
+   */
+  public int pending()
+  {
+    return queue.size();
+  }
+
+  // =============== methods used by the nodes ========================
+  // ==================================================================
+
+  /**
+   * Returns whether the latencies of the messages sent by the given node are
+   * drawn by the engine when they are sent, in which case the node does not
+   * draw latencies in cycles.
+   */
+  boolean drawsLatencies(Node node)
+  {
+    return node.latencyModel instanceof ContinuousLatency;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the latency in nanoseconds of a message, given its latency in
+   * cycles, or -1 if the message is lost.
+   */
+  long latency(int cycles)
+  {
+    return (cycles == -1) ? -1 : cycles * cycleLength;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Draws the latency in nanoseconds of a message sent from node
+   * <code>from</code> to node <code>to</code>, or returns -1 if the message
+   * is lost.
+   */
+  long latency(Node from, Node to, ExtendedRandom r)
+  {
+    long latency = ((ContinuousLatency) from.latencyModel).nextTime(from.id,
+        to.id, r);
+    return (latency < 0) ? -1 : latency;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Schedules the arrival of a message after the given latency.
+   */
+  void send(Message message, Node to, long latency)
+  {
+    queue.add(time + latency, to, message);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Activates the node at the start of the given cycle. While the events are
+   * being run, cycles that are not after the current one are ignored.
+   * Otherwise, cycles before the current one are taken as the current one.
+   */
+  void activate(Node node, int at)
+  {
+    if (at <= cycle)
+    {
+      if (running)
+        return;
+      at = cycle;
+    }
+    if (activations[node.id] != at)
+    {
+      activations[node.id] = at;
+      queue.add(Math.max(time, at * cycleLength), node, null);
+    }
+  }
+}
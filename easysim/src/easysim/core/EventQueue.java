@@ -0,0 +1,136 @@
+package easysim.core;
+
+/**
+ * The pending events of the continuous-time engine, ordered by time, and by
+ * insertion order for the events of the same time. It is a pairing heap:
+ * insertion is in constant time, and removal of the first event in amortized
+ * logarithmic time.
+ *
+ * @author Vivien Quema
+ */
+final class EventQueue {
+
+    /**
+     * An event: the arrival of a message at a node, or the activation of a
+     * node if there is no message.
+     */
+    static final class Event {
+
+        final long    time;
+
+        // Insertion number, to order the events of the same time
+        final long    seq;
+
+        final Node    node;
+
+        final Message message;
+
+        // First child and next sibling in the heap
+        private Event child;
+
+        private Event next;
+
+        Event(long time, long seq, Node node, Message message) {
+            this.time = time;
+            this.seq = seq;
+            this.node = node;
+            this.message = message;
+        }
+    }
+
+    private Event root = null;
+
+    private int   size = 0;
+
+    private long  seq  = 0;
+
+    /**
+     * Adds an event.
+     */
+    void add(long time, Node node, Message message) {
+        Event e = new Event(time, seq++, node, message);
+        root = (root == null) ? e : meld(root, e);
+        size++;
+    }
+
+    /**
+     * Returns the time of the first event, or <code>Long.MAX_VALUE</code> if
+     * there is none.
+     */
+    long peekTime() {
+        return (root == null) ? Long.MAX_VALUE : root.time;
+    }
+
+    /**
+     * Removes and returns the first event, or <code>null</code> if there is
+     * none.
+     */
+    Event poll() {
+        Event first = root;
+        if (first != null) {
+            root = mergePairs(first.child);
+            first.child = null;
+            size--;
+        }
+        return first;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private methods
+    // ------------------------------------------------------------------------
+
+    private static boolean before(Event a, Event b) {
+        return a.time < b.time || (a.time == b.time && a.seq < b.seq);
+    }
+
+    /**
+     * Melds two heaps whose roots have no sibling.
+     */
+    private static Event meld(Event a, Event b) {
+        if (before(b, a)) {
+            Event t = a;
+            a = b;
+            b = t;
+        }
+        b.next = a.child;
+        a.child = b;
+        return a;
+    }
+
+    /**
+     * Melds the given list of siblings in two passes: pairs from left to
+     * right, then the results from right to left. It is iterative, so that
+     * long lists of siblings do not overflow the stack.
+     */
+    private static Event mergePairs(Event first) {
+        // Melded pairs, in reverse order
+        Event pairs = null;
+        while (first != null) {
+            Event a = first;
+            Event b = a.next;
+            if (b == null) {
+                a.next = pairs;
+                pairs = a;
+                break;
+            }
+            first = b.next;
+            a.next = null;
+            b.next = null;
+            Event m = meld(a, b);
+            m.next = pairs;
+            pairs = m;
+        }
+        Event result = null;
+        while (pairs != null) {
+            Event p = pairs;
+            pairs = p.next;
+            p.next = null;
+            result = (result == null) ? p : meld(result, p);
+        }
+        return result;
+    }
+}
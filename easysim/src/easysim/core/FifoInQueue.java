@@ -0,0 +1,138 @@
+
+package easysim.core;
+
+/**
+ * The original inQueue: messages are kept in insertion order, and the first
+ * inserted message that is due is delivered first.
+ * <p>
+ * The queue is a circular array, with the due cycles and the messages stored
+ * in two parallel arrays, so that the scan only reads the (contiguous) due
+ * cycles. Received messages leave a hole that is reclaimed when it reaches the
+ * head of the queue, or when the array is full. Since a message that is not
+ * due at a cycle stays so during the whole cycle, successive receptions within
+ * a cycle resume the scan where the previous one stopped.
+ *
+ * @author Vivien Quema
+ */
+public class FifoInQueue<T extends Message> extends InQueue<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    // Due cycle of each message (same indices as messages)
+    private int[]            due              = new int[INITIAL_CAPACITY];
+
+    // Messages, or null for holes. messages.length is a power of two
+    private Object[]         messages         = new Object[INITIAL_CAPACITY];
+
+    // Index of the first slot
+    private int              head             = 0;
+
+    // Number of slots in use, holes included
+    private int              used             = 0;
+
+    // Number of messages
+    private int              size             = 0;
+
+    // Cycle of the last scan, and the offset from head where it stopped
+    private int              scanCycle        = -1;
+
+    private int              scanOffset       = 0;
+
+    public void add(T message) {
+        if (used == messages.length) {
+            resize();
+        }
+        int i = (head + used) & (messages.length - 1);
+        due[i] = dueCycle(message);
+        messages[i] = message;
+        used++;
+        size++;
+    }
+
+    public T poll(int cycle) {
+        int mask = messages.length - 1;
+        int k = (cycle == scanCycle) ? scanOffset : 0;
+        scanCycle = cycle;
+        for (; k < used; k++) {
+            int i = (head + k) & mask;
+            if (messages[i] != null && due[i] <= cycle) {
+                T message = (T) messages[i];
+                messages[i] = null;
+                size--;
+                scanOffset = k + 1;
+                // Reclaim the holes at the head of the queue
+                while (used > 0 && messages[head] == null) {
+                    head = (head + 1) & mask;
+                    used--;
+                    if (scanOffset > 0) {
+                        scanOffset--;
+                    }
+                }
+                return message;
+            }
+        }
+        scanOffset = used;
+        // All messages have a latency such that they cannot be delivered
+        return null;
+    }
+
+    public int nextDue() {
+        int mask = messages.length - 1;
+        int min = Integer.MAX_VALUE;
+        for (int k = 0; k < used; k++) {
+            int i = (head + k) & mask;
+            if (messages[i] != null && due[i] < min) {
+                min = due[i];
+            }
+        }
+        return min;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        for (int k = 0; k < used; k++) {
+            messages[(head + k) & (messages.length - 1)] = null;
+        }
+        head = 0;
+        used = 0;
+        size = 0;
+        scanCycle = -1;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Moves the messages at the start of new arrays, without the holes. The
+     * capacity is doubled if more than half of the slots hold messages.
+     */
+    private void resize() {
+        int capacity = messages.length;
+        if (size * 2 > capacity) {
+            capacity <<= 1;
+        }
+        int[] d = new int[capacity];
+        Object[] m = new Object[capacity];
+        int n = 0;
+        for (int k = 0; k < used; k++) {
+            int i = (head + k) & (messages.length - 1);
+            if (messages[i] != null) {
+                d[n] = due[i];
+                m[n] = messages[i];
+                n++;
+            }
+        }
+        due = d;
+        messages = m;
+        head = 0;
+        used = n;
+        // Offsets changed, the next scan starts over
+        scanCycle = -1;
+    }
+}
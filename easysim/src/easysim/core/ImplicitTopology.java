@@ -0,0 +1,31 @@
+package easysim.core;
+
+import java.io.Serializable;
+
+/**
+ * A topology whose links are computed from the ids of the nodes instead of
+ * being stored, e.g. a complete graph or a ring (see
+ * {@link easysim.topology.AbstractWire}). A single topology is shared by all
+ * the nodes (see {@link Node#setTopology(ImplicitTopology)}), which then keep
+ * no neighbor array: for a complete graph of <code>n</code> nodes, this saves
+ * <code>n * n</code> ids.
+ * <p>
+ * A topology is read by all the threads running nodes, and must not change
+ * once installed. It must not have duplicate links, and it is saved with the
+ * nodes by a {@link Checkpoint}.
+ *
+ * @author Vivien Quema
+ */
+public interface ImplicitTopology extends Serializable {
+
+    /**
+     * Returns the number of neighbors of node <code>i</code>.
+     */
+    int degree(int i);
+
+    /**
+     * Returns the id of the k-th neighbor of node <code>i</code>, with
+     * <code>0 &lt;= k &lt; degree(i)</code>.
+     */
+    int neighbor(int i, int k);
+}
@@ -0,0 +1,83 @@
+
+package easysim.core;
+
+import java.io.Serializable;
+
+/**
+ * The inQueue of a node. It stores the messages that have been put in transit
+ * towards the node, and hands them back once their latency has elapsed.
+ * <p>
+ * Two implementations are available, and are selected by the
+ * <code>inQueue</code> parameter of the protocol (see {@link Node}):
+ * <ul>
+ * <li><code>fifo</code> (default): {@link FifoInQueue}, the first inserted
+ * message that is due is delivered (original behavior, linear in the number
+ * of pending messages).</li>
+ * <li><code>wheel</code>: {@link TimingWheelInQueue}, messages are delivered
+ * by increasing due cycle, in insertion order within one cycle.</li>
+ * </ul>
+ * Both modes deliver the same messages in the same order as long as nodes
+ * receive all their due messages at every cycle (i.e. when
+ * <code>maxMessagesToReceive</code> is -1). Otherwise, the wheel may deliver
+ * other messages first, and thus change the results of a simulation.
+ *
+ * @author Vivien Quema
+ */
+public abstract class InQueue<T extends Message> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Value of the <code>inQueue</code> parameter selecting a timing wheel. */
+    public static final String WHEEL = "wheel";
+
+    /** Value of the <code>inQueue</code> parameter selecting the FIFO scan. */
+    public static final String FIFO  = "fifo";
+
+    /**
+     * Creates an inQueue of the given kind.
+     *
+     * @param kind either {@link #WHEEL} or {@link #FIFO}
+     */
+    public static <T extends Message> InQueue<T> create(String kind) {
+        if (WHEEL.equals(kind)) {
+            return new TimingWheelInQueue<T>();
+        } else if (FIFO.equals(kind)) {
+            return new FifoInQueue<T>();
+        }
+        throw new IllegalArgumentException("Unknown inQueue kind: " + kind);
+    }
+
+    /**
+     * Cycle at which a message becomes candidate for being received.
+     */
+    public static int dueCycle(Message m) {
+        return m.sendingCycle + m.latency;
+    }
+
+    /**
+     * Puts a message in transit. Its sendingCycle and latency must be set.
+     */
+    public abstract void add(T message);
+
+    /**
+     * Removes and returns one message whose due cycle is lower than or equal to
+     * the given cycle, or <code>null</code> if there is none.
+     */
+    public abstract T poll(int cycle);
+
+    /**
+     * Returns the lowest due cycle of the messages in transit, or
+     * <code>Integer.MAX_VALUE</code> if there is none.
+     */
+    public abstract int nextDue();
+
+    /**
+     * Returns the number of messages in transit (due or not).
+     */
+    public abstract int size();
+
+    /**
+     * Removes all messages.
+     */
+    public abstract void clear();
+}
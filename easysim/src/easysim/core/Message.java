@@ -1,8 +1,10 @@
 package easysim.core;
 
-import easysim.config.Configuration;
+import java.io.Serializable;
 
-public abstract class Message implements Cloneable {
+public abstract class Message implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public final class TYPE {
         public static final int UNDEFINED = -1;
@@ -14,18 +16,37 @@ public abstract class Message implements Cloneable {
     
     public abstract int getType();
     
-    int networkSize = Configuration.getInt("network.size");
-
-    private boolean[] ackedBy = new boolean[networkSize];
+    // The nodes that acknowledged this message. It is shared by all the copies
+    // of the message, and created when the message is first sent (or
+    // acknowledged), so that building a message allocates nothing else.
+    private AckSet ackedBy = null;
 
     private boolean isEmpty = false;
 
     public void setAckedBy(int id) {
-        ackedBy[id] = true;
+        shareAcks();
+        ackedBy.set(id);
     }
 
+    /**
+     * Returns, for each node, whether it acknowledged this message. The
+     * returned array is a copy of the acknowledgements at the time of the
+     * call: setting its elements does not acknowledge the message (see
+     * {@link #setAckedBy(int)}), and later acknowledgements do not show in it.
+     */
     public boolean[] getAckedBy() {
-        return ackedBy;
+        shareAcks();
+        return ackedBy.toArray();
+    }
+
+    /**
+     * Creates the set of acknowledgements, if needed. It must be called before
+     * the message is copied for the copies to share it.
+     */
+    synchronized void shareAcks() {
+        if (ackedBy == null) {
+            ackedBy = new AckSet();
+        }
     }
 
     public int getSeqNb() {
@@ -62,6 +83,12 @@ public abstract class Message implements Cloneable {
     // when it is forwarded)
     public int id = -1;
 
+    // Number of emissions of the outQueue of a node that refer to this message
+    transient int uses = 0;
+
+    // Whether this message was released to a MessagePool
+    transient byte poolState = MessagePool.LIVE;
+
     /**
      * Returns a clone of the message.
      *
@@ -76,4 +103,23 @@ public abstract class Message implements Cloneable {
         }
         return m;
     }
+
+    /**
+     * Makes this message, of the same class as the given message, a copy of
+     * it. It is used instead of {@link #clone()} when a {@link Poolable}
+     * message is reused from the {@link MessagePool} of a node: the classes
+     * that declare fields must override it to copy them, after calling
+     * <code>super.copyFrom(m)</code>.
+     *
+     * @param m the message to copy
+     */
+    protected void copyFrom(Message m) {
+        ackedBy = m.ackedBy;
+        isEmpty = m.isEmpty;
+        sendingNode = m.sendingNode;
+        sendingCycle = m.sendingCycle;
+        latency = m.latency;
+        color = m.color;
+        id = m.id;
+    }
 }
@@ -0,0 +1,160 @@
+package easysim.core;
+
+/**
+ * The messages released by a node (see {@link Node#release(Message)}), kept to
+ * be reused as the copies the node sends instead of cloning its messages.
+ * There is one free list per message class. Only the classes marked
+ * {@link Poolable} are pooled, a released message being made a copy of the
+ * message to send by {@link Message#copyFrom(Message)}; the messages of the
+ * other classes are cloned as usual, and dropped when released.
+ * <p>
+ * A pool is only used by the thread running its node, so that it needs no
+ * synchronization. Messages move between pools: a copy is taken from the pool
+ * of its sender, and released to the pool of its receiver.
+ * <p>
+ * In debug mode, released messages are never reused, and stay marked as
+ * released: the nodes then report a message that is sent or released again
+ * by throwing an <code>IllegalStateException</code>.
+ *
+ * @author Vivien Quema
+ */
+public final class MessagePool {
+
+    // States of a message
+    static final byte                    LIVE     = 0;
+
+    // Released while referred to by the outQueue, recycled once sent
+    static final byte                    PENDING  = 1;
+
+    static final byte                    RELEASED = 2;
+
+    // Highest number of free messages per class
+    private final int                    capacity;
+
+    private final boolean                debug;
+
+    // The free lists, per class (few classes are used by a protocol)
+    private Class<?>[]                   types    = new Class<?>[0];
+
+    private Message[][]                  free     = new Message[0][];
+
+    private int[]                        sizes    = new int[0];
+
+    /**
+     * Creates a pool keeping at most <code>capacity</code> free messages of
+     * each class.
+     */
+    MessagePool(int capacity, boolean debug) {
+        this.capacity = capacity;
+        this.debug = debug;
+    }
+
+    /**
+     * Returns whether the pool runs in debug mode.
+     */
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Returns the number of free messages of the given class.
+     */
+    public int available(Class<? extends Message> type) {
+        int t = indexOf(type);
+        return (t == -1) ? 0 : sizes[t];
+    }
+
+    /**
+     * Returns a copy of the given message, taken from the pool if possible.
+     */
+    Message copy(Message message) {
+        Class<?> type = message.getClass();
+        int t = indexOf(type);
+        if (t != -1 && sizes[t] > 0) {
+            Message copy = free[t][--sizes[t]];
+            free[t][sizes[t]] = null;
+            copy.copyFrom(message);
+            copy.poolState = LIVE;
+            return copy;
+        }
+        Message copy = (Message) message.clone();
+        copy.uses = 0;
+        copy.poolState = LIVE;
+        return copy;
+    }
+
+    /**
+     * Releases the given message, which is recycled now if no emission of the
+     * outQueue refers to it, and once the last one is sent otherwise.
+     */
+    void release(Message message) {
+        if (message.poolState != LIVE) {
+            throw new IllegalStateException("Message " + message.id + " released twice");
+        }
+        if (message.uses > 0) {
+            message.poolState = PENDING;
+        } else {
+            recycle(message);
+        }
+    }
+
+    /**
+     * Recycles a released message, which is no longer referred to.
+     */
+    void recycle(Message message) {
+        message.poolState = RELEASED;
+        if (debug) {
+            return;
+        }
+        if (!(message instanceof Poolable)) {
+            return;
+        }
+        Class<?> type = message.getClass();
+        int t = indexOf(type);
+        if (t == -1) {
+            t = addType(type);
+        }
+        if (sizes[t] < capacity) {
+            if (sizes[t] == free[t].length) {
+                Message[] grown = new Message[Math.min(capacity, Math.max(8, 2 * sizes[t]))];
+                System.arraycopy(free[t], 0, grown, 0, sizes[t]);
+                free[t] = grown;
+            }
+            free[t][sizes[t]++] = message;
+        }
+    }
+
+    /**
+     * Throws an exception if the given message was released, in debug mode.
+     */
+    void check(Message message) {
+        if (debug && message.poolState != LIVE) {
+            throw new IllegalStateException("Message " + message.id + " used after release");
+        }
+    }
+
+    private int indexOf(Class<?> type) {
+        for (int t = 0; t < types.length; t++) {
+            if (types[t] == type) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    private int addType(Class<?> type) {
+        int t = types.length;
+        Class<?>[] newTypes = new Class<?>[t + 1];
+        System.arraycopy(types, 0, newTypes, 0, t);
+        newTypes[t] = type;
+        Message[][] newFree = new Message[t + 1][];
+        System.arraycopy(free, 0, newFree, 0, t);
+        newFree[t] = new Message[0];
+        int[] newSizes = new int[t + 1];
+        System.arraycopy(sizes, 0, newSizes, 0, t);
+        types = newTypes;
+        free = newFree;
+        sizes = newSizes;
+        return t;
+    }
+}
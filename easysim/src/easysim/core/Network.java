@@ -18,7 +18,12 @@
 
 package easysim.core;
 
+import easysim.SimulationContext;
+import easysim.Simulator;
 import easysim.config.Configuration;
+import easysim.latency.LatencyModel;
+import easysim.latency.RangeLatency;
+import easysim.util.SplitRandom;
 
 /**
  * This class forms the basic framework of all simulations. The network is a set
@@ -53,60 +58,177 @@ public class Network
   public static final String  PAR_PROT  = "protocol";
 
   /**
-   * The node array. This is not a private array which is not nice but
-   * efficiency has the highest priority here. The main purpose is to allow the
-   * package quick reading of the contents in a maximally flexible way.
-   * Nevertheless, methods of this class should be used instead of the array
-   * when modifiying the contents. Because this array is not private, it is
-   * necessary to know that the actual node set is only the first
-   * {@link #size()} items of the array.
+   * Suffix of the parameter that defines the {@link LatencyModel} of the
+   * protocol, as in <code>protocol.name.latency</code>. Defaults to
+   * {@link RangeLatency}.
+   * 
+   * @config
    */
-  public static Node[]        node      = null;
+  private static final String PAR_LATENCY = "latency";
 
   /**
-   * Actual size of the network.
+   * The network of a simulation context.
    */
-  private static int len;
+  private static final class State
+  {
+    /**
+     * The node array. The actual node set is only the first {@link #size()}
+     * items of the array.
+     */
+    Node[] node = null;
+
+    /**
+     * Actual size of the network.
+     */
+    int    len;
+  }
 
   /**
-   * The prototype node which is used to populate the simulation via cloning.
-   * After all the nodes have been cloned, {@link Control} components can be
-   * applied to perform any further initialization.
+   * The placeholder of a node run by another shard, which is never run.
    */
-  public static Node prototype = null;
+  private static final class Placeholder extends Node<Message>
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void cycleHandler()
+    {
+      throw new IllegalStateException("Node " + id
+          + " is run by another shard");
+    }
+  }
+
+  /**
+   * The network of each simulation context (see {@link SimulationContext}).
+   */
+  private static final SimulationContext.Slot<State> state = SimulationContext
+                                                               .slot(State::new);
+
+  /**
+   * The node array of the last network reset or restored.
+   * 
+   * @deprecated use {@link #nodes()} or {@link #get(int)}, which return the
+   *             nodes of the current simulation context. This field is set
+   *             by {@link #reset()} and {@link #restore(Node[])} whatever
+   *             the context, and assigning it has no effect on the
+   *             simulation. Only its first {@link #size()} items are nodes.
+   */
+  @Deprecated
+  public static Node[]        node      = null;
+
+  /**
+   * Formerly the prototype node cloned to populate the network.
+   * 
+   * @deprecated the nodes are created from the configuration of the protocol
+   *             (see {@link #reset()}), and this field is always null.
+   */
+  @Deprecated
+  public static Node          prototype = null;
 
   // ====================== initialization ===========================
   // =================================================================
 
   /**
-   * Reads configuration parameters, constructs the prototype node, and
-   * populates the network by cloning the prototype.
+   * Reads configuration parameters, and populates the network with new
+   * instances of the class of the protocol. Each node is given its
+   * own source of randomness, derived from the seed of {@link Simulator#getRandom()}
+   * and the id of the node.
    */
+  @SuppressWarnings("deprecation")
   public static void reset()
   {
+    State s = state.get();
+    s.node = null;
+    node = null;
+    int len = Configuration.getInt(PAR_SIZE);
+    s.len = len;
+    if (len > 0)
+    {
+      Node[] node = new Node[len];
+      s.node = node;
+      Network.node = node;
+      long seed = Simulator.getRandom().getLastSeed();
+      String name = protocol();
+      LatencyModel latency = latencyModel(name);
+      for (int i = 0; i < len; ++i)
+      {
+        node[i] = create(name, i, seed, latency, node);
+//        if ( i == 0 ) node[i].setToken(new Token(i));  // TODO give the token to node 0 at start
+      }
+    }
+  }
 
-    if (prototype != null)
+  /**
+   * Populates the network with placeholders, which only hold the id of each
+   * node and the links set by the initializers, so that the topology can be
+   * wired (and split between shards, see {@link ShardPartitioner}) before
+   * any node is created. The nodes run by this process are then created by
+   * {@link #createShard(int[], int)}: this is how each worker of a sharded
+   * simulation (see {@link ShardExecutor}) only creates its own nodes.
+   */
+  @SuppressWarnings("deprecation")
+  public static void resetPlaceholders()
+  {
+    State s = state.get();
+    int len = Configuration.getInt(PAR_SIZE);
+    Node[] node = new Node[len];
+    for (int i = 0; i < len; ++i)
     {
-      // not first experiment
-      prototype = null;
-      node = null;
+      node[i] = new Placeholder();
+      node[i].id = i;
+      node[i].nodes = node;
     }
+    s.node = node;
+    s.len = len;
+    Network.node = node;
+  }
 
-    len = Configuration.getInt(PAR_SIZE);
-    if (len > 0)
+  /**
+   * Replaces the placeholders of the nodes of the given shard by nodes of the
+   * protocol, as created by {@link #reset()}, which take their links. The
+   * other placeholders are kept, as the destinations of the messages sent to
+   * their nodes, but their links are dropped: the links of the nodes of the
+   * shard are copied to an adjacency of their own (the implicit topologies
+   * are kept as they are).
+   * 
+   * @param owner the shard of each node
+   * @param shard the shard run by this process
+   */
+  public static void createShard(int[] owner, int shard)
+  {
+    State s = state.get();
+    Node[] node = s.node;
+    int len = s.len;
+    int[] offsets = new int[len + 1];
+    for (int i = 0; i < len; ++i)
     {
-      node = new Node[len];
-      String[] names = Configuration.getNames(PAR_PROT);
-      if (names.length > 1)
-      {
-        throw new InternalError("More than one protocol specified.");
-      }
-      for (int i = 0; i < len; ++i)
+      offsets[i + 1] = offsets[i];
+      if (owner[i] == shard && node[i].getTopology() == null)
+        offsets[i + 1] += node[i].getNeighborCount();
+    }
+    int[] targets = new int[offsets[len]];
+    for (int i = 0; i < len; ++i)
+    {
+      if (offsets[i + 1] > offsets[i])
+        node[i].copyNeighborIds(targets, offsets[i]);
+    }
+    Adjacency adjacency = new Adjacency(offsets, targets);
+    long seed = Simulator.getRandom().getLastSeed();
+    String name = protocol();
+    LatencyModel latency = latencyModel(name);
+    for (int i = 0; i < len; ++i)
+    {
+      Node placeholder = node[i];
+      if (owner[i] != shard)
       {
-        node[i] = (Node) Configuration.getInstance(names[0]);
-//        if ( i == 0 ) node[i].setToken(new Token(i));  // TODO give the token to node 0 at start
-        node[i].id = i;
+        placeholder.detach();
+        continue;
       }
+      node[i] = create(name, i, seed, latency, node);
+      if (placeholder.getTopology() != null)
+        node[i].setTopology(placeholder.getTopology());
+      else
+        node[i].setNeighbors(adjacency, node);
     }
   }
 
@@ -121,7 +243,7 @@ public class Network
   /** Number of nodes in the network */
   public static int size()
   {
-    return len;
+    return state.get().len;
   }
 
   // ------------------------------------------------------------------
@@ -131,6 +253,100 @@ public class Network
    */
   public static Node get(int ID)
   {
-    return node[ID];
+    return state.get().node[ID];
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Replaces the nodes of the network, e.g. by nodes restored from a
+   * {@link Checkpoint}. The id of each node must be its index.
+   */
+  @SuppressWarnings("deprecation")
+  public static void restore(Node[] nodes)
+  {
+    State s = state.get();
+    s.node = nodes;
+    node = nodes;
+    s.len = nodes.length;
+    if (nodes.length > 0)
+    {
+      LatencyModel latency = latencyModel(Configuration.getNames(PAR_PROT)[0]);
+      for (int i = 0; i < nodes.length; ++i)
+      {
+        nodes[i].latencyModel = latency;
+        nodes[i].nodes = nodes;
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns whether the node with the given id is run by this process, i.e.
+   * it is not the placeholder of a node run by another shard (see
+   * {@link #createShard(int[], int)}). Observers of a sharded simulation
+   * must skip the other nodes.
+   */
+  public static boolean isLocal(int ID)
+  {
+    return !(state.get().node[ID] instanceof Placeholder);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the name of the protocol of the nodes.
+   */
+  private static String protocol()
+  {
+    String[] names = Configuration.getNames(PAR_PROT);
+    if (names.length > 1)
+    {
+      throw new InternalError("More than one protocol specified.");
+    }
+    return names[0];
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Creates the node of the given protocol with the given id.
+   */
+  private static Node create(String name, int id, long seed,
+      LatencyModel latency, Node[] nodes)
+  {
+    Node n = (Node) Configuration.getInstance(name);
+    n.id = id;
+    n.random = SplitRandom.split(seed, id);
+    n.latencyModel = latency;
+    n.nodes = nodes;
+    return n;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Creates the latency model of the given protocol, shared by all the nodes.
+   */
+  private static LatencyModel latencyModel(String prefix)
+  {
+    String name = prefix + "." + PAR_LATENCY;
+    if (Configuration.contains(name))
+    {
+      return (LatencyModel) Configuration.getInstance(name);
+    }
+    return new RangeLatency(prefix);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the node array, whose first {@link #size()} items are the nodes,
+   * for loops that go through all the nodes. It must not be modified.
+   */
+  public static Node[] nodes()
+  {
+    return state.get().node;
   }
 }
@@ -1,42 +1,55 @@
 
 package easysim.core;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.IntBuffer;
 
 import easysim.Simulator;
 import easysim.TimeDiagram;
 import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.latency.LatencyModel;
+import easysim.util.ExtendedRandom;
 
 /**
  * This class defines an abstract Node.
+ * <p>
+ * Nodes are serializable, so that they can be saved in checkpoints (see
+ * {@link Checkpoint}): the fields of sub-classes must be serializable too. The
+ * neighbors of the node and the destinations of the messages of its outQueue
+ * are saved as node ids, so that saving a node does not save the nodes it is
+ * linked to.
  * 
  * @author Vivien Quema
  */
-public abstract class Node<T extends Message> {
+public abstract class Node<T extends Message> implements Serializable {
+
+    private static final long                serialVersionUID        = 1L;
 
     // ------------------------------------------------------------------------
     // Configuration fields
     // ------------------------------------------------------------------------
 
-    private static final String            LATENCY_RANGE           = "latencyRange";
+    private static final String            MAX_MESSAGES_TO_RECEIVE = "maxMessagesToReceive";
 
-    private static final String            PER_MESSAGE_LATENCY     = "perMessageLatency";
+    private static final String            MAX_MESSAGES_TO_SEND    = "maxMessagesToSend";
 
-    private static final String            CONSTANT_LATENCY        = "constantLatency";
+    private static final String            IN_QUEUE                = "inQueue";
 
-    private static final String            MAX_MESSAGES_TO_RECEIVE = "maxMessagesToReceive";
+    private static final String            POOL                    = "pool";
 
-    private static final String            MAX_MESSAGES_TO_SEND    = "maxMessagesToSend";
+    private static final String            POOL_SIZE               = "pool.size";
 
-    // In which range does the latency varies?
-    private final int                      latencyRange;
+    private static final String            POOL_DEBUG              = "pool.debug";
 
-    // Is the latency varying per message (or per destination)?
-    private final boolean                  perMessageLatency;
+    // Values of the pool parameter: released messages, or all the received
+    // messages at the end of the cycle of the node, are reused
+    private static final String            POOL_RELEASE            = "release";
 
-    // Is the latency constant for all messages?
-    private final boolean                  constantLatency;
+    private static final String            POOL_AUTO               = "auto";
 
     // How many messages can the node receive at the end of each round?
     private final int                      maxMessagesToReceive;
@@ -45,29 +58,98 @@ public abstract class Node<T extends Message> {
     // Note that a multicast counts one emission
     private final int                      maxMessagesToSend;
 
+    // Are messages pooled (null if not, see MessagePool)?
+    private final String                   pooling;
+
+    // Highest number of free messages per class in the pool
+    private final int                      poolSize;
+
+    // Does the pool detect the use of released messages?
+    private final boolean                  poolDebug;
+
     // ------------------------------------------------------------------------
     // Fields
     // ------------------------------------------------------------------------
 
     // inQueue of the node (stores Message objects)
-    private LinkedList<T>                  inQueue                 = new LinkedList<T>();
+    private final InQueue<T>               inQueue;
+
+    // outQueue of the node
+    private transient OutQueue<T>          outQueue;
 
-    // outQueue of the node (stores MessageEmission objects)
-    private LinkedList<MessageEmission<T>> outQueue                = new LinkedList<MessageEmission<T>>();
+    // Ids of the neighbors: neighborTargets[neighborOffset] and the next
+    // ones, in the targets of the adjacency of the network (see
+    // EdgeBuilder), or in an array of this node once neighbors are added one
+    // by one (see addNeighbor())
+    private transient int[]                neighborTargets         = new int[0];
 
-    // Array of neighbors
-    protected Node<T>[]                    neighbors               = new Node[0];
+    private transient int                  neighborOffset          = 0;
+
+    // Is neighborTargets shared with the other nodes?
+    private transient boolean              sharedNeighbors         = false;
 
     // Current number of nodes in the neighbors list
     private int                            nbNeighbors             = 0;
 
+    // The topology the neighbors are computed from, if they are not stored
+    private ImplicitTopology               topology;
+
+    // The nodes of the network, indexed by id (set by the Network)
+    transient Node[]                       nodes;
+
     // Id of this node
     public int                             id                      = -1;
 
+    // Source of randomness of this node (set by the Network, see getRandom())
+    ExtendedRandom                         random;
+
+    // Latency model of the protocol, shared by all the nodes (set by the
+    // Network)
+    transient LatencyModel                 latencyModel;
+
+    // Latencies of the last multicast, filled by the latency model, and ids
+    // of its destinations if they are given as nodes
+    private transient int[]                latencyBuffer;
+
+    private transient int[]                idBuffer;
+
+    // Pool of released messages, if messages are pooled
+    private transient MessagePool          pool;
+
+    // Poolable messages received in the current cycle, released automatically
+    // at its end if the pool is automatic
+    private transient Message[]            received;
+
+    private transient int                  nbReceived;
+
 
     // Nb of messages received in the current round
     private int                            nbReceivedMessagesInCurrentRound;
 
+    // Earliest cycle at which the node asked to be run (see wakeUpAt())
+    private int                            wakeUpCycle             = Integer.MAX_VALUE;
+
+    // Must the node be run at every cycle (see setAlwaysActive())?
+    private boolean                        alwaysActive            = false;
+
+    // The active set of the simulation, if only active nodes are run
+    transient ActiveSet                    activeSet;
+
+    // The engine of the simulation, if it runs in continuous time
+    transient EventEngine                  engine;
+
+    // Ids of the neighbors and of the destinations of the outQueue, read from
+    // a checkpoint until they are resolved (see resolve())
+    private transient int[]                neighborIds;
+
+    private transient int[][]              destinationIds;
+
+    // Messages and latencies of the outQueue, read from a checkpoint until
+    // they are resolved
+    private transient Message[]            pendingMessages;
+
+    private transient int[][]              pendingLatencies;
+
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
@@ -79,18 +161,46 @@ public abstract class Node<T extends Message> {
      */
     public Node(String prefix)
     {
-        latencyRange = Configuration.getInt(prefix + "." + LATENCY_RANGE);
-
-        perMessageLatency = Configuration.contains(prefix + "."
-                + PER_MESSAGE_LATENCY);
-
-        constantLatency = Configuration.contains(prefix + "." + CONSTANT_LATENCY);
-
         maxMessagesToSend = Configuration.getInt(prefix + "."
                 + MAX_MESSAGES_TO_SEND);
 
         maxMessagesToReceive = Configuration.getInt(prefix + "."
                 + MAX_MESSAGES_TO_RECEIVE);
+
+        // fifo (original linear scan) or wheel (delivery by due cycle)
+        inQueue = InQueue.create(Configuration.getString(prefix + "."
+                + IN_QUEUE, InQueue.FIFO));
+
+        // release (explicit release()) or auto (the Poolable messages received,
+        // at the end of each cycle)
+        pooling = Configuration.getString(prefix + "." + POOL, null);
+        if (pooling != null && !pooling.equals(POOL_RELEASE)
+                && !pooling.equals(POOL_AUTO)) {
+            throw new IllegalParameterException(prefix + "." + POOL,
+                    "should be " + POOL_RELEASE + " or " + POOL_AUTO);
+        }
+        poolSize = Configuration.getInt(prefix + "." + POOL_SIZE, 1024);
+        if (poolSize < 1) {
+            throw new IllegalParameterException(prefix + "." + POOL_SIZE,
+                    "should be positive");
+        }
+        poolDebug = Configuration.contains(prefix + "." + POOL_DEBUG);
+        outQueue = new OutQueue<T>();
+        createPool();
+    }
+
+    /**
+     * Creates the placeholder of a node run by another shard of a sharded
+     * simulation, which only holds the id and the links of the node (see
+     * {@link Network#resetPlaceholders()}).
+     */
+    Node() {
+        maxMessagesToSend = 0;
+        maxMessagesToReceive = 0;
+        inQueue = null;
+        pooling = null;
+        poolSize = 0;
+        poolDebug = false;
     }
 
     // ------------------------------------------------------------------------
@@ -132,7 +242,12 @@ public abstract class Node<T extends Message> {
      *          that if a latency equals -1, then the message is not sent)
      */
     public void send(T message, Node<T>[] destinations, int[] latencies) {
-        outQueue.addLast(new MessageEmission<T>(message, destinations, latencies));
+        int offset = outQueue.latencyPosition();
+        for (int i = 0; i < destinations.length; i++) {
+            outQueue.addLatency(latencies[i]);
+        }
+        enqueue(message, null, destinations, destinations.length, offset);
+        schedule(Simulator.getCycle());
     }
 
 
@@ -146,35 +261,169 @@ public abstract class Node<T extends Message> {
      *          equals -1, then the message is not sent)
      */
     public void send(T message, Node<T> destination, int latency) {
-        outQueue.addLast(new MessageEmission<T>(message, new Node[]{destination}, new int[]{latency}));
+        int offset = outQueue.latencyPosition();
+        outQueue.addLatency(latency);
+        enqueue(message, destination, null, 1, offset);
+        schedule(Simulator.getCycle());
     }
 
     /**
      * Sends the given message to the specified destinations (latencies of message
-     * transfer are returned by the getLatency function)
+     * transfer are drawn by the latency model of the protocol). The array must not be
+     * modified until the message is sent.
      * 
      * @param message the message to send
      * @param destinations an array containing the destinations to which the
      *          message must be sent
      */
     public void send(T message, Node<T>[] destinations) {
-        outQueue.addLast(new MessageEmission<T>(message, destinations,
-                getLatency(destinations)));
+        enqueue(message, null, destinations, destinations.length,
+                addLatencies(null, destinations, null, 0, destinations.length));
+        schedule(Simulator.getCycle());
     }
 
     /**
      * Sends the given message to the specified destination (the latency of the
-     * transfer is returned by the getLatency function).
+     * transfer is drawn by the latency model of the protocol).
      * 
      * @param message the message to send
      * @param destination the destination to which the message must be sent
      */
     public void send(T message, Node<T> destination) {
-        Node[] destinations = new Node[]{destination};
-        outQueue.addLast(new MessageEmission<T>(message, destinations, getLatency(destinations)));
+        enqueue(message, destination, null, 1, addLatencies(destination, null, null, 0, 1));
+        schedule(Simulator.getCycle());
     }
 
-    public LinkedList<MessageEmission<T>> getOutQueue (){
+    /**
+     * Sends the given message to all the neighbors of this node, without
+     * copying them: the emission refers to the ids of the neighbors in the
+     * adjacency of the network (see {@link #getNeighbor(int)}), or to the
+     * implicit topology of this node.
+     * 
+     * @param message the message to send
+     */
+    public void sendToNeighbors(T message) {
+        if (pool != null) {
+            pool.check(message);
+        }
+        if (topology != null) {
+            outQueue.add(message, nodes, topology, id, nbNeighbors,
+                    addLatencies(null, null, null, 0, nbNeighbors));
+        } else {
+            outQueue.add(message, nodes, neighborTargets, neighborOffset,
+                    nbNeighbors, addLatencies(null, null, neighborTargets,
+                            neighborOffset, nbNeighbors));
+        }
+        schedule(Simulator.getCycle());
+    }
+
+    /**
+     * Starts a batch of emissions, which are added by {@link #add(Node, Message)}
+     * and only sent once the batch is committed by {@link #commit()}. Each
+     * emission of a batch counts as one message to send, as if sent by
+     * {@link #send(Message, Node)}, but the node is only scheduled once for
+     * the whole batch. The other send methods can be used within a batch,
+     * their messages being committed with it.
+     */
+    public void beginBatch() {
+        outQueue.begin();
+    }
+
+    /**
+     * Adds the emission of the given message to the given destination to the
+     * current batch (the latency of the transfer is drawn by the latency model
+     * of the protocol).
+     * 
+     * @param destination the destination to which the message must be sent
+     * @param message the message to send
+     */
+    public void add(Node<T> destination, T message) {
+        enqueue(message, destination, null, 1, addLatencies(destination, null, null, 0, 1));
+    }
+
+    /**
+     * Adds the emission of the given message to the given destination, with
+     * the given latency, to the current batch.
+     * 
+     * @param destination the destination to which the message must be sent
+     * @param message the message to send
+     * @param latency the latency of the message transfer (-1 if the message is
+     *          not sent)
+     */
+    public void add(Node<T> destination, T message, int latency) {
+        int offset = outQueue.latencyPosition();
+        outQueue.addLatency(latency);
+        enqueue(message, destination, null, 1, offset);
+    }
+
+    /**
+     * Commits the emissions of the current batch.
+     */
+    public void commit() {
+        int size = outQueue.size();
+        outQueue.commit();
+        if (outQueue.size() > size) {
+            schedule(Simulator.getCycle());
+        }
+    }
+
+    /**
+     * Asks for the cycleHandler of this node to be run at the given cycle. This
+     * is only needed when the simulation is event driven or only runs the
+     * active nodes (see {@link Simulator}), by nodes that act at a cycle without having received
+     * a message. When called from the cycleHandler, the cycle must be after the
+     * current one.
+     * <p>
+     * Only the earliest requested cycle is kept: a node that must be woken up
+     * several times asks for its next wake-up each time it is run.
+     * 
+     * @param cycle the cycle at which the node must be run
+     */
+    public void wakeUpAt(int cycle) {
+        // The wake-ups until the current cycle have been served
+        if (cycle < wakeUpCycle || wakeUpCycle <= Simulator.getCycle()) {
+            wakeUpCycle = cycle;
+        }
+        schedule(cycle);
+    }
+
+    /**
+     * Sets whether the cycleHandler of this node must be run at every cycle,
+     * even when only the active nodes are run, or only the cycles at which some
+     * node has something to do (see {@link Simulator}). This is needed by nodes
+     * that act at every cycle without having received a message, such as load
+     * generators. It can be called by the constructor.
+     * 
+     * @param alwaysActive true if the node must be run at every cycle
+     */
+    public void setAlwaysActive(boolean alwaysActive) {
+        this.alwaysActive = alwaysActive;
+        if (alwaysActive) {
+            schedule(Simulator.getCycle());
+        }
+    }
+
+    /**
+     * Returns whether the cycleHandler of this node must be run at every cycle
+     * (see {@link #setAlwaysActive}).
+     */
+    public boolean isAlwaysActive() {
+        return alwaysActive;
+    }
+
+    /**
+     * Returns the source of randomness of this node. Each node has its own
+     * stream, derived from the random seed and the id of the node, so that its
+     * draws do not depend on the number of threads running the simulation.
+     * Protocols should use it instead of {@link Simulator#getRandom()}.
+     * 
+     * @return the source of randomness of this node.
+     */
+    public ExtendedRandom getRandom() {
+        return random;
+    }
+
+    public OutQueue<T> getOutQueue() {
         return outQueue;
     }
 
@@ -188,32 +437,36 @@ public abstract class Node<T extends Message> {
     public T receive() {
         if (inQueue.size() > 0
                 && (maxMessagesToReceive == -1 || nbReceivedMessagesInCurrentRound < maxMessagesToReceive)) {
-            Iterator<T> iter = inQueue.iterator();
-            while (iter.hasNext()) {
-                T message = iter.next();
-                if (message.sendingCycle + message.latency <= Simulator.getCycle()) {
-                    iter.remove();
-                    if ( !message.getIsEmpty() ) {
-                        TimeDiagram.addArrow(message, this);
-
-                        TimeDiagram.addCircle(message, this);
-
-                        /*message.setAckedBy(id);
-
-                        boolean[] ackedBy = message.getAckedBy();
-                        if (ackedByAll(ackedBy)) {
-                            TimeDiagram.addAck(message.sendingNode, id, message.sendingCycle,
-                                    Simulator.getCycle(), message.id, message.color, seqNb);
-                        }
-                        */
-                        nbReceivedMessagesInCurrentRound++;        
+            T message = inQueue.poll(Simulator.getCycle());
+            if (message != null) {
+                if (received != null && message instanceof Poolable) {
+                    if (nbReceived == received.length) {
+                        Message[] temp = new Message[2 * nbReceived];
+                        System.arraycopy(received, 0, temp, 0, nbReceived);
+                        received = temp;
                     }
-                    else {
-                        TimeDiagram.addCircle(message, this);
+                    received[nbReceived++] = message;
+                }
+                if ( !message.getIsEmpty() ) {
+                    TimeDiagram.addArrow(message, this);
+
+                    TimeDiagram.addCircle(message, this);
+
+                    /*message.setAckedBy(id);
 
+                    boolean[] ackedBy = message.getAckedBy();
+                    if (ackedByAll(ackedBy)) {
+                        TimeDiagram.addAck(message.sendingNode, id, message.sendingCycle,
+                                Simulator.getCycle(), message.id, message.color, seqNb);
                     }
-                    return message;
+                    */
+                    nbReceivedMessagesInCurrentRound++;        
                 }
+                else {
+                    TimeDiagram.addCircle(message, this);
+
+                }
+                return message;
             }
             // All messages have a latency such that they cannot be delivered
             return null;
@@ -223,6 +476,29 @@ public abstract class Node<T extends Message> {
         }
     }
 
+    /**
+     * Releases a message that this node received and has handled, so that it
+     * can be reused if messages are pooled and it is {@link Poolable} (see
+     * {@link MessagePool}), and does nothing otherwise. The message must not
+     * be used by the node after that, but it may still be in the outQueue: it
+     * is then reused once sent.
+     * 
+     * @param message the message to release
+     */
+    public void release(T message) {
+        if (pool != null) {
+            pool.release(message);
+        }
+    }
+
+    /**
+     * Returns the pool of the messages released by this node, or
+     * <code>null</code> if messages are not pooled.
+     */
+    public MessagePool getPool() {
+        return pool;
+    }
+
     // ------------------------------------------------------------------------
     // Private methods
     // ------------------------------------------------------------------------
@@ -234,21 +510,110 @@ public abstract class Node<T extends Message> {
         return true;
     }
 
-    private int[] getLatency(Node[] destinations) {
-        int[] latencies = new int[destinations.length];
-        int latency = -1;
+    /**
+     * Asks for this node to be run at the given cycle, when the simulation only
+     * runs the nodes that have something to do.
+     */
+    private void schedule(int cycle) {
+        Simulator.schedule(cycle);
+        if (activeSet != null) {
+            activeSet.schedule(this, cycle);
+        }
+        if (engine != null) {
+            engine.activate(this, cycle);
+        }
+    }
+
+    private void stamp(T message) {
+        message.shareAcks();
+        message.color = TimeDiagram.chooseColor();
+        message.id = Simulator.nextMessageId();
+    }
+
+    /**
+     * Appends an emission to the outQueue (see
+     * {@link OutQueue#add(Message, Node, Node[], int, int)}).
+     */
+    private void enqueue(T message, Node<T> target, Node<T>[] group, int count,
+            int offset) {
+        if (pool != null) {
+            pool.check(message);
+        }
+        outQueue.add(message, target, group, count, offset);
+    }
+
+    /**
+     * Creates the pool of messages of this node, if messages are pooled.
+     */
+    private void createPool() {
+        if (pooling != null) {
+            pool = new MessagePool(poolSize, poolDebug);
+            if (pooling.equals(POOL_AUTO)) {
+                received = new Message[8];
+            }
+        }
+    }
+
+    /**
+     * Recycles the given message, which was removed from the outQueue, if it
+     * was released and is no longer in the outQueue.
+     */
+    private void unpin(T message) {
+        if (message.poolState == MessagePool.PENDING && message.uses == 0) {
+            pool.recycle(message);
+        }
+    }
 
-        if (constantLatency) {
-            latency = 1;
-        } else if (perMessageLatency) {
-            latency = Simulator.r.nextInt(latencyRange);
+    /**
+     * Releases the Poolable messages received in the current cycle, if the pool
+     * is automatic. This is done before sending the outQueue, so that none of
+     * them can have been reused yet.
+     */
+    private void releaseReceived() {
+        for (int i = 0; i < nbReceived; i++) {
+            if (received[i].poolState == MessagePool.LIVE) {
+                pool.release(received[i]);
+            }
+            received[i] = null;
         }
+        nbReceived = 0;
+    }
 
-        for (int i = 0; i < latencies.length; i++) {
-            latencies[i] = (latency != -1) ? latency : Simulator.r
-                    .nextInt(latencyRange) + 1;
+    /**
+     * Adds the latencies of an emission to the given destination, to the first
+     * <code>count</code> destinations of <code>group</code>, to the
+     * <code>count</code> nodes whose ids are given from <code>ids[start]</code>,
+     * or else to the neighbors of the implicit topology, to the outQueue, and
+     * returns the position of the first one. Returns -1 if they are drawn by
+     * the engine when the message is sent.
+     */
+    private int addLatencies(Node<T> target, Node<T>[] group, int[] ids,
+            int start, int count) {
+        if (engine != null && engine.drawsLatencies(this)) {
+            return -1;
         }
-        return latencies;
+        int offset = outQueue.latencyPosition();
+        if (target != null) {
+            outQueue.addLatency(latencyModel.next(id, target.id, random));
+            return offset;
+        }
+        if (latencyBuffer == null || latencyBuffer.length < count) {
+            latencyBuffer = new int[Math.max(count, 8)];
+        }
+        if (ids == null) {
+            if (idBuffer == null || idBuffer.length < count) {
+                idBuffer = new int[latencyBuffer.length];
+            }
+            for (int i = 0; i < count; i++) {
+                idBuffer[i] = (group != null) ? group[i].id : topology
+                        .neighbor(id, i);
+            }
+            ids = idBuffer;
+            start = 0;
+        }
+        latencyModel.next(id, ids, start, count, latencyBuffer, random);
+        outQueue.addLatencies(latencyBuffer, count);
+        return offset;
     }
 
     // ------------------------------------------------------------------------
@@ -261,60 +626,394 @@ public abstract class Node<T extends Message> {
     }
 
     public void outQueueUpdate() {
+        outQueueUpdate(null);
+    }
+
+    /**
+     * Returns the first cycle after the given one, which has just been run, at
+     * which this node has something to do: messages left in its outQueue,
+     * messages to receive, or a wake-up. That is the next cycle if the node is
+     * always active (see {@link #setAlwaysActive}). Returns <code>Integer.MAX_VALUE</code>
+     * if there is none.
+     */
+    public int nextEventCycle(int cycle) {
+        // The wake-ups until this cycle have been served
+        if (wakeUpCycle <= cycle) {
+            wakeUpCycle = Integer.MAX_VALUE;
+        }
+        if (alwaysActive || outQueue.size() > 0) {
+            return cycle + 1;
+        }
+        if (hasDueMessages(cycle)) {
+            // Due messages that have not been received yet
+            return cycle + 1;
+        }
+        return Math.min(inQueue.nextDue(), wakeUpCycle);
+    }
+
+    /**
+     * Sends the messages of the outQueue that need to be sent. If a buffer is
+     * given, the messages are staged in it instead of being put directly in the
+     * inQueues of their destinations (see {@link CycleExecutor}).
+     */
+    void outQueueUpdate(DeliveryBuffer buffer) {
         // Reset nbReceivedMessagesInCurrentRound
         nbReceivedMessagesInCurrentRound = 0;
 
+        // Before any copy is taken from the pool
+        if (nbReceived > 0) {
+            releaseReceived();
+        }
+
         // Send messages that need to be sent
         int nbMessagesToHandle = getNbMessagesToHandle();
-        Iterator<MessageEmission<T>> iter = outQueue.iterator();
-
-        int nbSentMessages = 0;
-        while ((nbSentMessages < nbMessagesToHandle) && (iter.hasNext())) {
-            MessageEmission<T> message = iter.next();
-            // Should the message be removed?
-            for (int j = 0; j < message.destinations.length; j++) {
-                if (message.latencies[j] != -1) {
-                    // message.latencies[j] == -1 --> the message is not sent (simulate
+
+        for (int i = 0; i < nbMessagesToHandle; i++) {
+            T message = outQueue.message(0);
+            int count = outQueue.count(0);
+            for (int j = 0; j < count; j++) {
+                int latency = outQueue.latency(0, j);
+                if (latency != -1) {
+                    // latency == -1 --> the message is not sent (simulate
                     // lost message)
-                    T toSend = (T) message.message.clone();
-                    toSend.sendingCycle = Simulator.getCycle();
-                    toSend.sendingNode = id;
-                    toSend.latency = message.latencies[j];
-                    if (message.message.color == -1) {
-                        message.message.color = TimeDiagram.chooseColor();
-                        message.message.id = Simulator.messageIdGenerator++;
+                    T toSend = copy(message, latency);
+                    if (buffer == null) {
+                        outQueue.destination(0, j).deliver(toSend);
+                    } else {
+                        buffer.add(outQueue.destination(0, j), toSend);
                     }
-                    toSend.color = message.message.color;
-                    toSend.id = message.message.id;
-                    message.destinations[j].inQueue.addLast(toSend);
                 }
             }
-            iter.remove();
-            nbSentMessages++;
+            outQueue.poll();
+            unpin(message);
+        }
+    }
+
+    /**
+     * Sends the messages of the outQueue that need to be sent, through the
+     * given continuous-time engine.
+     */
+    void sendOutQueue(EventEngine engine) {
+        nbReceivedMessagesInCurrentRound = 0;
+
+        if (nbReceived > 0) {
+            releaseReceived();
+        }
+
+        int nbMessagesToHandle = getNbMessagesToHandle();
+
+        for (int i = 0; i < nbMessagesToHandle; i++) {
+            T message = outQueue.message(0);
+            boolean given = outQueue.hasLatencies(0);
+            int count = outQueue.count(0);
+            for (int j = 0; j < count; j++) {
+                Node<T> destination = outQueue.destination(0, j);
+                long latency = given ? engine.latency(outQueue.latency(0, j))
+                        : engine.latency(this, destination, random);
+                if (latency >= 0) {
+                    // The latency in cycles is set on arrival
+                    engine.send(copy(message, -1), destination, latency);
+                }
+            }
+            outQueue.poll();
+            unpin(message);
         }
     }
 
+    /**
+     * Returns the copy of a message sent by this node at the current cycle,
+     * with the given latency. The message is given its color and id if it is
+     * sent for the first time. The copy is taken from the pool of this node,
+     * if messages are pooled.
+     */
+    private T copy(T message, int latency) {
+        if (message.color == -1) {
+            stamp(message);
+        }
+        T toSend;
+        if (pool != null) {
+            toSend = (T) pool.copy(message);
+        } else {
+            toSend = (T) message.clone();
+            toSend.uses = 0;
+            toSend.poolState = MessagePool.LIVE;
+        }
+        toSend.sendingCycle = Simulator.getCycle();
+        toSend.sendingNode = id;
+        toSend.latency = latency;
+        return toSend;
+    }
+
+    /**
+     * Assigns a color and an id to the messages that are about to be sent for
+     * the first time by {@link #outQueueUpdate()}. This is done sequentially
+     * before a parallel delivery phase, so that ids do not depend on the
+     * scheduling of threads.
+     */
+    void stampOutQueue() {
+        int nbMessagesToHandle = getNbMessagesToHandle();
+        for (int i = 0; i < nbMessagesToHandle; i++) {
+            T message = outQueue.message(i);
+            if (message.color != -1) {
+                continue;
+            }
+            boolean given = outQueue.hasLatencies(i);
+            for (int j = 0; j < outQueue.count(i); j++) {
+                if (!given || outQueue.latency(i, j) != -1) {
+                    stamp(message);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts a message in the inQueue of this node.
+     */
+    void deliver(T message) {
+        inQueue.add(message);
+        if (activeSet != null) {
+            activeSet.delivered(this, InQueue.dueCycle(message));
+        }
+    }
+
+    /**
+     * Returns whether messages due at the given cycle (or before) are still
+     * in the inQueue.
+     */
+    boolean hasDueMessages(int cycle) {
+        return inQueue.nextDue() <= cycle;
+    }
+
     /**
      * Adds given node if it is not already in the neighbor list. There is no
-     * limit to the number of nodes that can be added.
+     * limit to the number of nodes that can be added. The neighbor list is
+     * searched for the node, so adding many links should rather be done at
+     * once by an {@link EdgeBuilder}.
      */
     public boolean addNeighbor(Node<T> n) {
+        if (topology != null) {
+            materialize();
+        }
         for (int i = 0; i < nbNeighbors; i++) {
-            if (neighbors[i] == n)
+            if (neighborTargets[neighborOffset + i] == n.id)
                 return false;
         }
 
-        if (nbNeighbors == neighbors.length) {
-            Node<T>[] temp = new Node[neighbors.length + 1];
-            System.arraycopy(neighbors, 0, temp, 0, neighbors.length);
-            neighbors = temp;
+        if (sharedNeighbors || nbNeighbors == neighborTargets.length) {
+            // Copy the neighbors out of the adjacency, or grow the array
+            int[] temp = new int[Math.max(4, 2 * nbNeighbors)];
+            System.arraycopy(neighborTargets, neighborOffset, temp, 0,
+                    nbNeighbors);
+            neighborTargets = temp;
+            neighborOffset = 0;
+            sharedNeighbors = false;
         }
-        neighbors[nbNeighbors] = n;
+        neighborTargets[nbNeighbors] = n.id;
         nbNeighbors++;
-        System.out.println(id + " linked to " + n.id);
         return true;
     }
 
+    /**
+     * Returns the number of neighbors of this node.
+     */
+    public int getNeighborCount() {
+        return nbNeighbors;
+    }
+
+    /**
+     * Returns the k-th neighbor of this node. This replaces
+     * <code>neighbors[k]</code>: the neighbors are no longer stored in an
+     * array of each node, but read from the adjacency of the network.
+     */
+    @SuppressWarnings("unchecked")
+    public Node<T> getNeighbor(int k) {
+        return nodes[getNeighborId(k)];
+    }
+
+    /**
+     * Returns the id of the k-th neighbor of this node.
+     */
+    public int getNeighborId(int k) {
+        if (k < 0 || k >= nbNeighbors) {
+            throw new IndexOutOfBoundsException("Index: " + k + ", Size: "
+                    + nbNeighbors);
+        }
+        if (topology != null) {
+            return topology.neighbor(id, k);
+        }
+        return neighborTargets[neighborOffset + k];
+    }
+
+    /**
+     * Returns a read-only view of the ids of the neighbors of this node, which
+     * does not copy them, unless they are computed by an implicit topology.
+     * The view is not updated when neighbors are added.
+     */
+    public IntBuffer getNeighborIds() {
+        if (topology != null) {
+            int[] ids = new int[nbNeighbors];
+            copyNeighborIds(ids, 0);
+            return IntBuffer.wrap(ids).asReadOnlyBuffer();
+        }
+        return IntBuffer.wrap(neighborTargets, neighborOffset, nbNeighbors)
+                .slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the implicit topology the neighbors of this node are computed
+     * from, or null if they are stored.
+     */
+    public ImplicitTopology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Makes the neighbors of this node computed by the given topology, instead
+     * of being stored, and forgets its previous neighbors. The neighbors are
+     * stored again once a neighbor is added.
+     */
+    public void setTopology(ImplicitTopology topology) {
+        detach();
+        this.topology = topology;
+        nbNeighbors = topology.degree(id);
+    }
+
+    /**
+     * Copies the ids of the neighbors of this node to the given array, from
+     * the given position.
+     */
+    void copyNeighborIds(int[] to, int position) {
+        if (topology != null) {
+            for (int k = 0; k < nbNeighbors; k++) {
+                to[position + k] = topology.neighbor(id, k);
+            }
+            return;
+        }
+        System.arraycopy(neighborTargets, neighborOffset, to, position,
+                nbNeighbors);
+    }
+
+    /**
+     * Makes the neighbors of this node its neighbors in the given adjacency.
+     */
+    void setNeighbors(Adjacency adjacency, Node[] nodes) {
+        this.nodes = nodes;
+        topology = null;
+        neighborTargets = adjacency.targets();
+        neighborOffset = adjacency.offsets()[id];
+        nbNeighbors = adjacency.degree(id);
+        sharedNeighbors = true;
+    }
+
+    /**
+     * Stores the neighbors computed by the implicit topology of this node.
+     */
+    private void materialize() {
+        int[] ids = new int[Math.max(4, nbNeighbors + 1)];
+        copyNeighborIds(ids, 0);
+        topology = null;
+        neighborTargets = ids;
+        neighborOffset = 0;
+        sharedNeighbors = false;
+    }
+
+    /**
+     * Forgets the neighbors of this node, which is run by another shard of a
+     * sharded simulation (see {@link ShardExecutor}).
+     */
+    void detach() {
+        topology = null;
+        neighborTargets = new int[0];
+        neighborOffset = 0;
+        sharedNeighbors = false;
+        nbNeighbors = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    // Serialization
+    // ------------------------------------------------------------------------
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (int i = 0; topology == null && i < nbNeighbors; i++) {
+            out.writeInt(neighborTargets[neighborOffset + i]);
+        }
+        out.writeInt(outQueue.size());
+        for (int i = 0; i < outQueue.size(); i++) {
+            int count = outQueue.count(i);
+            int[] latencies = null;
+            if (outQueue.hasLatencies(i)) {
+                latencies = new int[count];
+                for (int j = 0; j < count; j++) {
+                    latencies[j] = outQueue.latency(i, j);
+                }
+            }
+            out.writeObject(outQueue.message(i));
+            out.writeObject(latencies);
+            out.writeInt(count);
+            for (int j = 0; j < count; j++) {
+                out.writeInt(outQueue.destination(i, j).id);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        if (topology == null) {
+            neighborIds = new int[nbNeighbors];
+            for (int i = 0; i < nbNeighbors; i++) {
+                neighborIds[i] = in.readInt();
+            }
+        }
+        outQueue = new OutQueue<T>();
+        createPool();
+        int size = in.readInt();
+        pendingMessages = new Message[size];
+        pendingLatencies = new int[size][];
+        destinationIds = new int[size][];
+        for (int i = 0; i < size; i++) {
+            pendingMessages[i] = (Message) in.readObject();
+            pendingLatencies[i] = (int[]) in.readObject();
+            destinationIds[i] = new int[in.readInt()];
+            for (int j = 0; j < destinationIds[i].length; j++) {
+                destinationIds[i][j] = in.readInt();
+            }
+        }
+    }
+
+    /**
+     * Links a node read from a checkpoint to its neighbors and to the
+     * destinations of its outQueue, once all the nodes have been read.
+     */
+    void resolve(Node[] nodes) {
+        this.nodes = nodes;
+        neighborTargets = (topology == null) ? neighborIds : new int[0];
+        neighborOffset = 0;
+        sharedNeighbors = false;
+        for (int i = 0; i < destinationIds.length; i++) {
+            Node<T>[] destinations = new Node[destinationIds[i].length];
+            for (int j = 0; j < destinations.length; j++) {
+                destinations[j] = nodes[destinationIds[i][j]];
+            }
+            int[] latencies = pendingLatencies[i];
+            int offset = -1;
+            if (latencies != null) {
+                offset = outQueue.latencyPosition();
+                for (int j = 0; j < latencies.length; j++) {
+                    outQueue.addLatency(latencies[j]);
+                }
+            }
+            outQueue.add((T) pendingMessages[i], null, destinations,
+                    destinations.length, offset);
+        }
+        neighborIds = null;
+        destinationIds = null;
+        pendingMessages = null;
+        pendingLatencies = null;
+    }
+
     // ------------------------------------------------------------------------
     // Overriden methods
     // ------------------------------------------------------------------------
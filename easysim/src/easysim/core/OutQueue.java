@@ -0,0 +1,330 @@
+package easysim.core;
+
+/**
+ * The outQueue of a node: the messages it sent and which have not been put in
+ * the inQueues of their destinations yet (see {@link Node#outQueueUpdate()}).
+ * Each entry (emission) is a message with its destinations and their
+ * latencies; a multicast is a single emission.
+ * <p>
+ * Emissions are stored in parallel circular arrays, and their latencies in a
+ * circular array of ints shared by all emissions, so adding and removing
+ * emissions allocates nothing once the arrays are large enough. An emission
+ * to a single destination stores it directly, and an emission to several
+ * destinations stores the array it is given, or the node array of the network
+ * and the ids of the destinations in an array (e.g. the targets of the
+ * {@link Adjacency} of the network), which must not be modified until the
+ * emission is sent. An emission to the neighbors of a node in an
+ * {@link ImplicitTopology} only stores the topology and the id of the node.
+ * <p>
+ * Emissions added between {@link #begin()} and {@link #commit()} are only
+ * counted once committed.
+ *
+ * @author Vivien Quema
+ */
+public final class OutQueue<T extends Message> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    // ------------------------------------------------------------------------
+    // Emissions (capacity is a power of two)
+    // ------------------------------------------------------------------------
+
+    private Object[]         messages         = new Object[INITIAL_CAPACITY];
+
+    // The destination of single-destination emissions
+    private Node[]           targets          = new Node[INITIAL_CAPACITY];
+
+    // The destinations of the other emissions, or the nodes that the ids of
+    // their destinations refer to
+    private Node[][]         groups           = new Node[INITIAL_CAPACITY][];
+
+    // The ids of the destinations, from the given start, if not null
+    private int[][]          ids              = new int[INITIAL_CAPACITY][];
+
+    // The topology the destinations are the neighbors of node start in, if
+    // not null
+    private ImplicitTopology[] topologies     = new ImplicitTopology[INITIAL_CAPACITY];
+
+    private int[]            starts           = new int[INITIAL_CAPACITY];
+
+    // Number of destinations
+    private int[]            counts           = new int[INITIAL_CAPACITY];
+
+    // Position of the first latency in the latency ring, or -1 if the
+    // latencies are not given (they are drawn by the event engine)
+    private int[]            offsets          = new int[INITIAL_CAPACITY];
+
+    private int              head             = 0;
+
+    // Number of emissions, committed or not
+    private int              size             = 0;
+
+    private int              committed        = 0;
+
+    private boolean          batching         = false;
+
+    // ------------------------------------------------------------------------
+    // Latencies (positions grow forever, and are taken modulo the capacity)
+    // ------------------------------------------------------------------------
+
+    private int[]            latencies        = new int[INITIAL_CAPACITY];
+
+    private int              latencyHead      = 0;
+
+    private int              latencyTail      = 0;
+
+    // ------------------------------------------------------------------------
+    // Public methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of committed emissions.
+     */
+    public int size() {
+        return committed;
+    }
+
+    /**
+     * Returns the message of the i-th emission.
+     */
+    @SuppressWarnings("unchecked")
+    public T message(int i) {
+        return (T) messages[index(i)];
+    }
+
+    /**
+     * Returns the number of destinations of the i-th emission.
+     */
+    public int count(int i) {
+        return counts[index(i)];
+    }
+
+    /**
+     * Returns the j-th destination of the i-th emission.
+     */
+    @SuppressWarnings("unchecked")
+    public Node<T> destination(int i, int j) {
+        int k = index(i);
+        if (ids[k] != null) {
+            return groups[k][ids[k][starts[k] + j]];
+        }
+        if (topologies[k] != null) {
+            return groups[k][topologies[k].neighbor(starts[k], j)];
+        }
+        return (groups[k] == null) ? targets[k] : groups[k][j];
+    }
+
+    /**
+     * Returns whether the latencies of the i-th emission are given.
+     */
+    public boolean hasLatencies(int i) {
+        return offsets[index(i)] != -1;
+    }
+
+    /**
+     * Returns the latency of the j-th destination of the i-th emission, which
+     * is -1 if the message is not sent to it.
+     */
+    public int latency(int i, int j) {
+        return latencies[(offsets[index(i)] + j) & (latencies.length - 1)];
+    }
+
+    /**
+     * Removes all the emissions, committed or not.
+     */
+    public void clear() {
+        while (size > 0) {
+            int k = head;
+            ((Message) messages[k]).uses--;
+            messages[k] = null;
+            targets[k] = null;
+            groups[k] = null;
+            ids[k] = null;
+            topologies[k] = null;
+            head = (head + 1) & (messages.length - 1);
+            size--;
+        }
+        committed = 0;
+        batching = false;
+        latencyHead = latencyTail;
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods used by the nodes
+    // ------------------------------------------------------------------------
+
+    /**
+     * Starts a batch: the emissions added until {@link #commit()} are not
+     * counted before.
+     */
+    void begin() {
+        if (batching) {
+            throw new IllegalStateException("A batch is already started");
+        }
+        batching = true;
+    }
+
+    /**
+     * Commits the emissions of the current batch.
+     */
+    void commit() {
+        batching = false;
+        committed = size;
+    }
+
+    /**
+     * Returns the position of the next latency, to be given to
+     * {@link #add(Message, Node, Node[], int, int)}.
+     */
+    int latencyPosition() {
+        // Never -1, and still right modulo the capacity
+        return latencyTail & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Appends a latency to the latency ring.
+     */
+    void addLatency(int latency) {
+        if (latencyTail - latencyHead == latencies.length) {
+            growLatencies();
+        }
+        latencies[latencyTail & (latencies.length - 1)] = latency;
+        latencyTail++;
+    }
+
+    /**
+     * Appends the first <code>count</code> latencies of the given array to
+     * the latency ring.
+     */
+    void addLatencies(int[] from, int count) {
+        while (latencyTail - latencyHead + count > latencies.length) {
+            growLatencies();
+        }
+        int n = latencies.length;
+        int start = latencyTail & (n - 1);
+        int first = Math.min(count, n - start);
+        System.arraycopy(from, 0, latencies, start, first);
+        System.arraycopy(from, first, latencies, 0, count - first);
+        latencyTail += count;
+    }
+
+    /**
+     * Appends an emission, to the given destination if <code>group</code> is
+     * null, to the first <code>count</code> destinations of
+     * <code>group</code> otherwise. Its latencies must have been added from
+     * position <code>offset</code>, or <code>offset</code> is -1.
+     */
+    void add(T message, Node<T> target, Node<T>[] group, int count, int offset) {
+        if (size == messages.length) {
+            grow();
+        }
+        int k = (head + size) & (messages.length - 1);
+        message.uses++;
+        messages[k] = message;
+        targets[k] = target;
+        groups[k] = group;
+        counts[k] = count;
+        offsets[k] = offset;
+        size++;
+        if (!batching) {
+            committed = size;
+        }
+    }
+
+    /**
+     * Appends an emission to the <code>count</code> nodes of
+     * <code>nodes</code> whose ids are given from <code>destinations[start]</code>.
+     * Its latencies must have been added from position <code>offset</code>, or
+     * <code>offset</code> is -1.
+     */
+    void add(T message, Node[] nodes, int[] destinations, int start, int count,
+            int offset) {
+        add(message, null, nodes, count, offset);
+        int k = (head + size - 1) & (messages.length - 1);
+        ids[k] = destinations;
+        starts[k] = start;
+    }
+
+    /**
+     * Appends an emission to the <code>count</code> neighbors of node
+     * <code>source</code> in the given topology, among <code>nodes</code>. Its
+     * latencies must have been added from position <code>offset</code>, or
+     * <code>offset</code> is -1.
+     */
+    void add(T message, Node[] nodes, ImplicitTopology topology, int source,
+            int count, int offset) {
+        add(message, null, nodes, count, offset);
+        int k = (head + size - 1) & (messages.length - 1);
+        topologies[k] = topology;
+        starts[k] = source;
+    }
+
+    /**
+     * Removes the first emission, which must be committed.
+     */
+    void poll() {
+        int k = head;
+        ((Message) messages[k]).uses--;
+        if (offsets[k] != -1) {
+            latencyHead += counts[k];
+        }
+        messages[k] = null;
+        targets[k] = null;
+        groups[k] = null;
+        ids[k] = null;
+        topologies[k] = null;
+        head = (head + 1) & (messages.length - 1);
+        size--;
+        committed--;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private methods
+    // ------------------------------------------------------------------------
+
+    private int index(int i) {
+        if (i < 0 || i >= committed) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + committed);
+        }
+        return (head + i) & (messages.length - 1);
+    }
+
+    private void grow() {
+        int n = messages.length;
+        messages = unwrap(messages, new Object[2 * n]);
+        targets = unwrap(targets, new Node[2 * n]);
+        groups = unwrap(groups, new Node[2 * n][]);
+        ids = unwrap(ids, new int[2 * n][]);
+        topologies = unwrap(topologies, new ImplicitTopology[2 * n]);
+        int[] c = new int[2 * n];
+        int[] o = new int[2 * n];
+        int[] s = new int[2 * n];
+        for (int i = 0; i < size; i++) {
+            c[i] = counts[(head + i) & (n - 1)];
+            o[i] = offsets[(head + i) & (n - 1)];
+            s[i] = starts[(head + i) & (n - 1)];
+        }
+        counts = c;
+        offsets = o;
+        starts = s;
+        head = 0;
+    }
+
+    private <E> E[] unwrap(E[] from, E[] to) {
+        int n = from.length;
+        for (int i = 0; i < size; i++) {
+            to[i] = from[(head + i) & (n - 1)];
+        }
+        return to;
+    }
+
+    private void growLatencies() {
+        int n = latencies.length;
+        int[] l = new int[2 * n];
+        // Each position keeps its place modulo the new capacity
+        for (int p = latencyHead; p != latencyTail; p++) {
+            l[p & (2 * n - 1)] = latencies[p & (n - 1)];
+        }
+        latencies = l;
+    }
+}
@@ -0,0 +1,18 @@
+package easysim.core;
+
+/**
+ * Marks the message classes whose instances can be reused by a
+ * {@link MessagePool}, as the copies sent by the nodes that pool messages.
+ * The messages of the other classes are always cloned, and are never released
+ * automatically.
+ * <p>
+ * A released message is made a copy of the message to send by
+ * {@link Message#copyFrom(Message)}, which must then be overridden by the
+ * classes that declare fields. A class must only be marked if the protocols
+ * using it with the <code>auto</code> pool do not keep the messages they
+ * receive after the cycle in which they received them.
+ *
+ * @author Vivien Quema
+ */
+public interface Poolable {
+}
@@ -0,0 +1,475 @@
+package easysim.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Executes the cycles of one shard of a simulation split between several
+ * processes (workers). Each worker wires the whole topology between
+ * placeholders of the nodes, with the same configuration and random seed, and
+ * computes the same partition of the nodes (see {@link ShardPartitioner}). It
+ * then only creates and runs the nodes of its own shard, which keep their own
+ * links, the nodes of the other shards remaining placeholders (see
+ * {@link Network#createShard(int[], int)}).
+ * <p>
+ * A cycle runs as follows:
+ * <ol>
+ * <li>the {@link Node#cycleHandler()} of the nodes of the shard are run;</li>
+ * <li>the {@link Node#outQueueUpdate()} of the nodes of the shard are run. The
+ * messages are staged by destination shard;</li>
+ * <li>barrier: each worker sends to every other worker the batch of the
+ * messages staged for its shard, and receives the batch of every other
+ * worker. A batch is sent even if it is empty;</li>
+ * <li>the staged and received messages for the nodes of the shard are put in
+ * their inQueues, in increasing order of sending node, i.e. in the same order
+ * as with the sequential engine.</li>
+ * </ol>
+ * A message sent at a cycle cannot be received before the next one, so the
+ * exchange at the end of each cycle is enough for the workers to stay in step.
+ * <p>
+ * Workers are connected by TCP, the batches being exchanged with non-blocking
+ * NIO channels. Messages are sent by Java serialization, so the copies of a
+ * message received by different shards do not share their acknowledgements.
+ * The cycleHandler of a node must only access the node itself (as with the
+ * {@link CycleExecutor}).
+ */
+public class ShardExecutor
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  /** How long to wait for the other workers to start, in milliseconds. */
+  private static final long     CONNECT_TIMEOUT = 60000;
+
+  /** The shard run by this worker. */
+  private final int             shard;
+
+  private final Node[]          nodes;
+
+  /** Ids of the nodes of this shard, in increasing order. */
+  private final int[]           local;
+
+  /** The messages sent by the nodes of this shard, by destination shard. */
+  private final DeliveryBuffer  buffer;
+
+  /** Channel to each other worker (null for this shard). */
+  private final SocketChannel[] peers;
+
+  private final Selector        selector;
+
+  /** Destination ids of the messages received from each shard. */
+  private final int[][]         receivedIds;
+
+  /** Messages received from each shard. */
+  private final Message[][]     received;
+
+  private final int[]           receivedSizes;
+
+  // ====================== initialization ===========================
+  // =================================================================
+
+  /**
+   * Creates the executor of the given shard of the current network, and
+   * connects to the other workers: worker k listens on
+   * <code>port + k</code> of <code>hosts[k]</code>. Returns once all the
+   * workers are connected.
+   *
+   * @param shard the shard of this worker
+   * @param owner the shard of each node
+   * @param shards the number of shards
+   * @param hosts the host of each worker
+   * @param port the port of worker 0
+   */
+  public ShardExecutor(int shard, int[] owner, int shards, String[] hosts,
+      int port) throws IOException
+  {
+    this.shard = shard;
+    nodes = Network.nodes();
+    int size = Network.size();
+    int n = 0;
+    for (int i = 0; i < size; ++i)
+    {
+      if (owner[i] == shard)
+        n++;
+    }
+    local = new int[n];
+    n = 0;
+    for (int i = 0; i < size; ++i)
+    {
+      if (owner[i] == shard)
+        local[n++] = i;
+    }
+    buffer = new DeliveryBuffer(shards, owner);
+    receivedIds = new int[shards][0];
+    received = new Message[shards][0];
+    receivedSizes = new int[shards];
+
+    peers = new SocketChannel[shards];
+    selector = Selector.open();
+    connect(hosts, port);
+  }
+
+  // =============== public methods ===================================
+  // ==================================================================
+
+  /**
+   * Runs one cycle on the nodes of this shard, and waits for the messages
+   * sent to them by the other shards.
+   */
+  public void cycle()
+  {
+    for (int k = 0; k < local.length; ++k)
+    {
+      nodes[local[k]].cycleHandler();
+    }
+    for (int k = 0; k < local.length; ++k)
+    {
+      nodes[local[k]].outQueueUpdate(buffer);
+    }
+    try
+    {
+      exchange();
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("Shard " + shard
+          + ": cannot exchange messages", e);
+    }
+    deliver();
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the ids of the nodes of this shard, in increasing order. It must
+   * not be modified.
+   */
+  public int[] getLocalNodes()
+  {
+    return local;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Closes the connections to the other workers.
+   */
+  public void shutdown()
+  {
+    try
+    {
+      for (int p = 0; p < peers.length; ++p)
+      {
+        if (peers[p] != null)
+          peers[p].close();
+      }
+      selector.close();
+    }
+    catch (IOException e)
+    {
+      // Nothing left to exchange
+    }
+  }
+
+  // =============== private methods ==================================
+  // ==================================================================
+
+  /**
+   * Connects to the workers of the lower shards, and accepts the connections
+   * of the workers of the higher shards. Each worker first sends its shard.
+   */
+  private void connect(String[] hosts, int port) throws IOException
+  {
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    server.bind(new InetSocketAddress(port + shard));
+    try
+    {
+      for (int p = 0; p < shard; ++p)
+      {
+        SocketChannel channel = open(new InetSocketAddress(hosts[p], port + p));
+        ByteBuffer hello = ByteBuffer.allocate(4).putInt(0, shard);
+        while (hello.hasRemaining())
+          channel.write(hello);
+        peers[p] = channel;
+      }
+      for (int k = shard + 1; k < peers.length; ++k)
+      {
+        SocketChannel channel = server.accept();
+        ByteBuffer hello = ByteBuffer.allocate(4);
+        while (hello.hasRemaining())
+        {
+          if (channel.read(hello) < 0)
+            throw new IOException("Connection closed by a worker");
+        }
+        peers[hello.getInt(0)] = channel;
+      }
+    }
+    finally
+    {
+      server.close();
+    }
+    for (int p = 0; p < peers.length; ++p)
+    {
+      if (peers[p] == null)
+        continue;
+      peers[p].setOption(StandardSocketOptions.TCP_NODELAY, true);
+      peers[p].configureBlocking(false);
+      peers[p].register(selector, 0, new Frame(p));
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Connects to a worker, retrying until it listens.
+   */
+  private static SocketChannel open(InetSocketAddress address)
+      throws IOException
+  {
+    long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+    while (true)
+    {
+      try
+      {
+        return SocketChannel.open(address);
+      }
+      catch (IOException e)
+      {
+        if (System.currentTimeMillis() > deadline)
+          throw e;
+      }
+      try
+      {
+        Thread.sleep(100);
+      }
+      catch (InterruptedException e)
+      {
+        throw new IOException("Interrupted while connecting to " + address);
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Sends the staged batch of each other shard, and receives the batch of
+   * each other shard, all at once so that no worker blocks on a full socket
+   * buffer.
+   */
+  private void exchange() throws IOException
+  {
+    int pending = 0;
+    for (SelectionKey key : selector.keys())
+    {
+      Frame frame = (Frame) key.attachment();
+      frame.start(encode(frame.peer));
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      pending += 2;
+    }
+    while (pending > 0)
+    {
+      selector.select();
+      Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+      while (it.hasNext())
+      {
+        SelectionKey key = it.next();
+        it.remove();
+        Frame frame = (Frame) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (key.isWritable() && frame.write(channel))
+        {
+          key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+          pending--;
+        }
+        if (key.isReadable() && frame.read(channel))
+        {
+          key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+          decode(frame.peer, frame.payload.array());
+          pending--;
+        }
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the messages staged for the given shard, as a batch, and forgets
+   * them.
+   */
+  private byte[] encode(int p) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(bytes);
+    int n = buffer.size(p);
+    header.writeInt(n);
+    if (n > 0)
+    {
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      for (int i = 0; i < n; ++i)
+      {
+        out.writeInt(buffer.destination(p, i).id);
+        out.writeObject(buffer.message(p, i));
+      }
+      out.close();
+    }
+    buffer.clear(p);
+    return bytes.toByteArray();
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Reads the batch received from the given shard.
+   */
+  private void decode(int p, byte[] batch) throws IOException
+  {
+    ByteArrayInputStream bytes = new ByteArrayInputStream(batch);
+    int n = new DataInputStream(bytes).readInt();
+    if (received[p].length < n)
+    {
+      receivedIds[p] = new int[n];
+      received[p] = new Message[n];
+    }
+    if (n > 0)
+    {
+      ObjectInputStream in = new ObjectInputStream(bytes);
+      try
+      {
+        for (int i = 0; i < n; ++i)
+        {
+          receivedIds[p][i] = in.readInt();
+          received[p][i] = (Message) in.readObject();
+        }
+      }
+      catch (ClassNotFoundException e)
+      {
+        throw new IOException("Shard " + p + ": " + e);
+      }
+    }
+    receivedSizes[p] = n;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Puts the messages sent to the nodes of this shard in their inQueues,
+   * merging the batches of all the shards (each one being sorted by sending
+   * node) by sending node.
+   */
+  private void deliver()
+  {
+    int shards = peers.length;
+    int[] next = new int[shards];
+    while (true)
+    {
+      int best = -1;
+      int bestSender = Integer.MAX_VALUE;
+      for (int p = 0; p < shards; ++p)
+      {
+        int sender = sender(p, next[p]);
+        if (sender < bestSender)
+        {
+          best = p;
+          bestSender = sender;
+        }
+      }
+      if (best == -1)
+        break;
+      int i = next[best]++;
+      if (best == shard)
+      {
+        buffer.destination(shard, i).deliver(buffer.message(shard, i));
+      }
+      else
+      {
+        nodes[receivedIds[best][i]].deliver(received[best][i]);
+        received[best][i] = null;
+      }
+    }
+    buffer.clear(shard);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the sending node of the i-th message for this shard from shard p,
+   * or <code>Integer.MAX_VALUE</code> if there is none.
+   */
+  private int sender(int p, int i)
+  {
+    if (p == shard)
+      return i < buffer.size(shard) ? buffer.message(shard, i).sendingNode
+          : Integer.MAX_VALUE;
+    return i < receivedSizes[p] ? received[p][i].sendingNode
+        : Integer.MAX_VALUE;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * The batch being sent to, and the batch being received from, a worker.
+   * Each batch is preceded by its length.
+   */
+  private static final class Frame
+  {
+    final int  peer;
+
+    ByteBuffer out;
+
+    final ByteBuffer length = ByteBuffer.allocate(4);
+
+    ByteBuffer payload;
+
+    Frame(int peer)
+    {
+      this.peer = peer;
+    }
+
+    void start(byte[] batch)
+    {
+      out = ByteBuffer.allocate(4 + batch.length);
+      out.putInt(batch.length).put(batch).flip();
+      length.clear();
+      payload = null;
+    }
+
+    /** Writes what it can of the batch, and returns whether it is sent. */
+    boolean write(SocketChannel channel) throws IOException
+    {
+      channel.write(out);
+      return !out.hasRemaining();
+    }
+
+    /** Reads what it can of the batch, and returns whether it is received. */
+    boolean read(SocketChannel channel) throws IOException
+    {
+      if (payload == null)
+      {
+        if (channel.read(length) < 0)
+          throw new IOException("Connection closed by shard " + peer);
+        if (length.hasRemaining())
+          return false;
+        payload = ByteBuffer.allocate(length.getInt(0));
+      }
+      if (payload.hasRemaining() && channel.read(payload) < 0)
+        throw new IOException("Connection closed by shard " + peer);
+      return !payload.hasRemaining();
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package easysim.core;
+
+import java.util.Arrays;
+
+/**
+ * Splits the nodes of the network between the shards of a sharded simulation
+ * (see {@link ShardExecutor}), using the wired topology to keep the linked
+ * nodes in the same shard, so that few messages have to be sent to other
+ * shards.
+ * <p>
+ * The links are taken as undirected. Two initial partitions are built: one in
+ * which each shard is grown from the lowest unassigned id, in breadth-first
+ * order, until it holds its share of the nodes, and one made of contiguous
+ * blocks of ids (the wires often give close ids to linked nodes). Then, a few
+ * passes move each node to the shard holding most of its neighbors, as long
+ * as that shard does not exceed its share by more than a few percent, and the
+ * partition with fewer links between shards is kept. The result only depends
+ * on the topology, so all the workers compute the same partition.
+ *
+ * @author Vivien Quema
+ */
+public final class ShardPartitioner {
+
+    // Number of refinement passes
+    private static final int PASSES    = 4;
+
+    // Allowed imbalance of the refined shards, in 1/IMBALANCE of their share
+    private static final int IMBALANCE = 32;
+
+    private ShardPartitioner() {
+    }
+
+    /**
+     * Returns the shard of each node id, in contiguous blocks of ids.
+     */
+    public static int[] blocks(int size, int shards) {
+        int[] owner = new int[size];
+        int share = (size + shards - 1) / shards;
+        for (int i = 0; i < size; i++) {
+            owner[i] = i / share;
+        }
+        return owner;
+    }
+
+    /**
+     * Returns the shard of each node of the current network, following its
+     * links.
+     */
+    public static int[] partition(int shards) {
+        int size = Network.size();
+        int[][] adj = undirected(Network.nodes(), size);
+        int[] grown = refine(adj, grow(adj, shards), shards);
+        int[] blocks = refine(adj, blocks(size, shards), shards);
+        return (cut(grown) < cut(blocks)) ? grown : blocks;
+    }
+
+    /**
+     * Returns the number of links of the current network between nodes of
+     * different shards.
+     */
+    public static long cut(int[] owner) {
+        Node[] nodes = Network.nodes();
+        int size = Network.size();
+        long cut = 0;
+        for (int i = 0; i < size; i++) {
+            Node n = nodes[i];
+            for (int k = 0; k < n.getNeighborCount(); k++) {
+                if (owner[n.getNeighborId(k)] != owner[i]) {
+                    cut++;
+                }
+            }
+        }
+        return cut;
+    }
+
+    /**
+     * Grows each shard in breadth-first order.
+     */
+    private static int[] grow(int[][] adj, int shards) {
+        int size = adj.length;
+        int share = (size + shards - 1) / shards;
+        int[] owner = new int[size];
+        Arrays.fill(owner, -1);
+        int[] counts = new int[shards];
+        int[] queue = new int[size];
+        int next = 0;
+        for (int s = 0; s < shards; s++) {
+            int head = 0;
+            int tail = 0;
+            while (counts[s] < share) {
+                if (head == tail) {
+                    // Start again from the lowest unassigned node
+                    while (next < size && owner[next] != -1) {
+                        next++;
+                    }
+                    if (next == size) {
+                        break;
+                    }
+                    owner[next] = s;
+                    counts[s]++;
+                    queue[tail++] = next;
+                    continue;
+                }
+                int[] neighbors = adj[queue[head++]];
+                for (int k = 0; k < neighbors.length && counts[s] < share; k++) {
+                    int n = neighbors[k];
+                    if (owner[n] == -1) {
+                        owner[n] = s;
+                        counts[s]++;
+                        queue[tail++] = n;
+                    }
+                }
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Moves the nodes to the shard holding most of their neighbors, and
+     * returns the given partition.
+     */
+    private static int[] refine(int[][] adj, int[] owner, int shards) {
+        int size = adj.length;
+        int share = (size + shards - 1) / shards;
+        int[] counts = new int[shards];
+        for (int i = 0; i < size; i++) {
+            counts[owner[i]]++;
+        }
+        int max = share + Math.max(1, share / IMBALANCE);
+        int[] links = new int[shards];
+        for (int pass = 0; pass < PASSES; pass++) {
+            int moved = 0;
+            for (int i = 0; i < size; i++) {
+                int[] neighbors = adj[i];
+                for (int k = 0; k < neighbors.length; k++) {
+                    links[owner[neighbors[k]]]++;
+                }
+                int best = owner[i];
+                for (int s = 0; s < shards; s++) {
+                    if (links[s] > links[best] && counts[s] < max) {
+                        best = s;
+                    }
+                }
+                Arrays.fill(links, 0);
+                if (best != owner[i] && counts[owner[i]] > 1) {
+                    counts[owner[i]]--;
+                    counts[best]++;
+                    owner[i] = best;
+                    moved++;
+                }
+            }
+            if (moved == 0) {
+                break;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Returns the neighbors of each node, the links being taken in both
+     * directions (without removing duplicates).
+     */
+    private static int[][] undirected(Node[] nodes, int size) {
+        int[] degrees = new int[size];
+        for (int i = 0; i < size; i++) {
+            Node n = nodes[i];
+            degrees[i] += n.getNeighborCount();
+            for (int k = 0; k < n.getNeighborCount(); k++) {
+                degrees[n.getNeighborId(k)]++;
+            }
+        }
+        int[][] adj = new int[size][];
+        for (int i = 0; i < size; i++) {
+            adj[i] = new int[degrees[i]];
+            degrees[i] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            Node n = nodes[i];
+            for (int k = 0; k < n.getNeighborCount(); k++) {
+                int j = n.getNeighborId(k);
+                adj[i][degrees[i]++] = j;
+                adj[j][degrees[j]++] = i;
+            }
+        }
+        return adj;
+    }
+}
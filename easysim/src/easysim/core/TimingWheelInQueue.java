@@ -0,0 +1,169 @@
+package easysim.core;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An inQueue implemented as a hashed timing wheel. Messages are stored in the
+ * slot of their due cycle (modulo the size of the wheel), so that receiving a
+ * message only touches the messages that are due, instead of scanning all the
+ * messages in transit.
+ * <p>
+ * The wheel covers the due cycles <code>[base, base + slots.length)</code>,
+ * so that each slot holds messages of a single due cycle, in insertion order.
+ * It is grown (doubled) to fit the due cycles of new messages, up to
+ * {@link #MAX_SLOTS} slots. The messages due outside of the wheel, i.e. too
+ * far in the future or before <code>base</code>, are kept in an overflow map
+ * sorted by due cycle, and delivered before the messages of the wheel with
+ * the same due cycle (they were added first).
+ *
+ * @author Vivien Quema
+ */
+public class TimingWheelInQueue<T extends Message> extends InQueue<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int  INITIAL_SLOTS    = 8;
+
+    /** Maximum number of slots of the wheel. */
+    public static final int   MAX_SLOTS        = 1024;
+
+    // Slots of the wheel, allocated lazily
+    private ArrayDeque<T>[]   slots            = new ArrayDeque[INITIAL_SLOTS];
+
+    // slots.length - 1 (slots.length is a power of two)
+    private int               mask             = INITIAL_SLOTS - 1;
+
+    // Lowest due cycle covered by the wheel
+    private int               base;
+
+    // Number of messages in the wheel
+    private int               wheelCount       = 0;
+
+    // Messages due outside of the wheel, by due cycle (null if none so far)
+    private TreeMap<Integer, ArrayDeque<T>> overflow;
+
+    // Number of messages in the overflow map
+    private int               overflowCount    = 0;
+
+    public void add(T message) {
+        int due = dueCycle(message);
+        if (wheelCount == 0) {
+            // Any window fits an empty wheel
+            base = due;
+        }
+        long offset = (long) due - base;
+        if (offset >= slots.length && offset < MAX_SLOTS) {
+            grow((int) offset + 1);
+        }
+        if (offset >= 0 && offset < slots.length) {
+            ArrayDeque<T> slot = slots[due & mask];
+            if (slot == null) {
+                slot = new ArrayDeque<T>();
+                slots[due & mask] = slot;
+            }
+            slot.addLast(message);
+            wheelCount++;
+        } else {
+            if (overflow == null) {
+                overflow = new TreeMap<Integer, ArrayDeque<T>>();
+            }
+            ArrayDeque<T> list = overflow.get(due);
+            if (list == null) {
+                list = new ArrayDeque<T>();
+                overflow.put(due, list);
+            }
+            list.addLast(message);
+            overflowCount++;
+        }
+    }
+
+    public T poll(int cycle) {
+        int next = nextWheelDue();
+        if (wheelCount > 0) {
+            // The slots before next are empty
+            base = next;
+        }
+        if (overflowCount > 0) {
+            Map.Entry<Integer, ArrayDeque<T>> first = overflow.firstEntry();
+            if (first.getKey() <= next && first.getKey() <= cycle) {
+                T message = first.getValue().pollFirst();
+                if (first.getValue().isEmpty()) {
+                    overflow.remove(first.getKey());
+                }
+                overflowCount--;
+                return message;
+            }
+        }
+        // If the wheel is empty, next is not the due cycle of a message
+        if (wheelCount == 0 || next > cycle) {
+            return null;
+        }
+        wheelCount--;
+        return slots[next & mask].pollFirst();
+    }
+
+    public int nextDue() {
+        int next = nextWheelDue();
+        if (overflowCount > 0) {
+            next = Math.min(next, overflow.firstKey());
+        }
+        return next;
+    }
+
+    public int size() {
+        return wheelCount + overflowCount;
+    }
+
+    public void clear() {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                slots[i].clear();
+            }
+        }
+        wheelCount = 0;
+        overflow = null;
+        overflowCount = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the lowest due cycle of the messages of the wheel, or
+     * <code>Integer.MAX_VALUE</code> if there is none.
+     */
+    private int nextWheelDue() {
+        if (wheelCount == 0) {
+            return Integer.MAX_VALUE;
+        }
+        // Some slot of the window holds messages
+        int due = base;
+        while (slots[due & mask] == null || slots[due & mask].isEmpty()) {
+            due++;
+        }
+        return due;
+    }
+
+    /**
+     * Rehashes the messages of the wheel in a wheel with at least the given
+     * number of slots.
+     */
+    private void grow(int minSlots) {
+        int n = slots.length;
+        while (n < minSlots) {
+            n <<= 1;
+        }
+        ArrayDeque<T>[] newSlots = new ArrayDeque[n];
+        for (int i = 0; i < slots.length; i++) {
+            ArrayDeque<T> slot = slots[i];
+            if (slot != null && !slot.isEmpty()) {
+                newSlots[dueCycle(slot.peekFirst()) & (n - 1)] = slot;
+            }
+        }
+        slots = newSlots;
+        mask = n - 1;
+    }
+}
@@ -0,0 +1,51 @@
+
+package easysim.latency;
+
+import easysim.Simulator;
+import easysim.util.ExtendedRandom;
+
+/**
+ * A latency model drawing the latencies of messages in nanoseconds, from a
+ * continuous distribution. The continuous-time engine (see
+ * {@link easysim.core.EventEngine}) uses the latencies as drawn. Otherwise,
+ * they are rounded to whole cycles of <code>simulation.cycleLength</code>
+ * nanoseconds, and are at least 1 cycle.
+ */
+public abstract class ContinuousLatency implements LatencyModel {
+
+    // The length of a cycle, in nanoseconds
+    private final long cycleLength;
+
+    protected ContinuousLatency() {
+        cycleLength = Simulator.getCycleLength();
+    }
+
+    /**
+     * Draws the latency of a message sent from node <code>from</code> to node
+     * <code>to</code>. A negative latency means that the message is lost.
+     * 
+     * @param from the id of the sending node
+     * @param to the id of the destination node
+     * @param r the source of randomness of the sending node
+     * @return the latency in nanoseconds
+     */
+    public abstract long nextTime(int from, int to, ExtendedRandom r);
+
+    public int next(int from, int to, ExtendedRandom r) {
+        return cycles(nextTime(from, to, r));
+    }
+
+    public void next(int from, int[] to, int offset, int count, int[] latencies, ExtendedRandom r) {
+        for (int i = 0; i < count; i++) {
+            latencies[i] = cycles(nextTime(from, to[offset + i], r));
+        }
+    }
+
+    private int cycles(long time) {
+        if (time < 0) {
+            return -1;
+        }
+        long cycles = (time + cycleLength / 2) / cycleLength;
+        return (int) Math.max(1, Math.min(cycles, Integer.MAX_VALUE / 2));
+    }
+}
@@ -0,0 +1,78 @@
+
+package easysim.latency;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Latencies following the distribution of measured samples. The samples are
+ * read from a file, one latency in nanoseconds per line (empty lines and lines
+ * starting with <code>#</code> are ignored). Latencies are drawn by inverting
+ * the empirical cumulative distribution, interpolated linearly between
+ * consecutive samples.
+ */
+public class EmpiricalLatency extends ContinuousLatency {
+
+    /**
+     * The file of samples.
+     * 
+     * @config
+     */
+    private static final String PAR_FILE = "file";
+
+    // The samples, sorted
+    private final double[]      samples;
+
+    public EmpiricalLatency(String prefix) {
+        String file = Configuration.getString(prefix + "." + PAR_FILE);
+        try {
+            samples = read(file);
+        } catch (IOException e) {
+            throw new IllegalParameterException(prefix + "." + PAR_FILE, e.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalParameterException(prefix + "." + PAR_FILE, e.toString());
+        }
+        if (samples.length == 0) {
+            throw new IllegalParameterException(prefix + "." + PAR_FILE, "No sample in " + file);
+        }
+    }
+
+    public long nextTime(int from, int to, ExtendedRandom r) {
+        double x = r.nextDouble() * (samples.length - 1);
+        int i = (int) x;
+        if (i == samples.length - 1) {
+            return (long) samples[i];
+        }
+        return (long) (samples[i] + (x - i) * (samples[i + 1] - samples[i]));
+    }
+
+    private static double[] read(String file) throws IOException {
+        double[] values = new double[1024];
+        int n = 0;
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                if (n == values.length) {
+                    values = Arrays.copyOf(values, n * 2);
+                }
+                values[n++] = Double.parseDouble(line);
+            }
+        } finally {
+            in.close();
+        }
+        values = Arrays.copyOf(values, n);
+        Arrays.sort(values);
+        return values;
+    }
+}
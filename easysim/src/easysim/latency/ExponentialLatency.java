@@ -0,0 +1,41 @@
+
+package easysim.latency;
+
+import easysim.config.Configuration;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Latencies following an exponential distribution, shifted by a minimum
+ * latency (e.g. the propagation delay).
+ */
+public class ExponentialLatency extends ContinuousLatency {
+
+    /**
+     * The mean of the exponential part, in nanoseconds.
+     * 
+     * @config
+     */
+    private static final String PAR_MEAN = "mean";
+
+    /**
+     * The minimum latency, in nanoseconds, added to the exponential part.
+     * Defaults to 0.
+     * 
+     * @config
+     */
+    private static final String PAR_MIN  = "min";
+
+    private final double        mean;
+
+    private final long          min;
+
+    public ExponentialLatency(String prefix) {
+        mean = Configuration.getDouble(prefix + "." + PAR_MEAN);
+        min = Configuration.getLong(prefix + "." + PAR_MIN, 0);
+    }
+
+    public long nextTime(int from, int to, ExtendedRandom r) {
+        // 1 - nextDouble() is in (0, 1]
+        return min + (long) (-mean * Math.log(1 - r.nextDouble()));
+    }
+}
@@ -0,0 +1,47 @@
+package easysim.latency;
+
+import easysim.util.ExtendedRandom;
+
+/**
+ * The latencies of messages in cycles, used by the nodes of a protocol when
+ * they send messages (see {@link easysim.core.Node}). A latency of -1 means
+ * that the message is not sent to the destination.
+ * <p>
+ * The model of a protocol is given by its parameter <code>latency</code>, and
+ * is {@link RangeLatency} by default. It is created once for all the nodes by
+ * {@link easysim.config.Configuration}, and must have a constructor taking the
+ * configuration prefix of the model as argument. It must not keep state that
+ * depends on the node it is used by, since the nodes may be run by several
+ * threads.
+ * <p>
+ * The models drawing latencies in nanoseconds, for the continuous-time engine,
+ * extend {@link ContinuousLatency}.
+ */
+public interface LatencyModel {
+
+    /**
+     * Returns the latency of a message sent from node <code>from</code> to
+     * node <code>to</code>.
+     *
+     * @param from the id of the sending node
+     * @param to the id of the destination node
+     * @param r the source of randomness of the sending node
+     * @return the latency in cycles
+     */
+    int next(int from, int to, ExtendedRandom r);
+
+    /**
+     * Fills the latencies of a message sent from node <code>from</code> to
+     * the <code>count</code> nodes whose ids are given from
+     * <code>to[offset]</code>, in one call for the whole multicast.
+     *
+     * @param from the id of the sending node
+     * @param to the ids of the destination nodes, e.g. the targets of an
+     *          {@link easysim.core.Adjacency}
+     * @param offset the index of the first destination in <code>to</code>
+     * @param count the number of destinations
+     * @param latencies the array to fill, from index 0
+     * @param r the source of randomness of the sending node
+     */
+    void next(int from, int[] to, int offset, int count, int[] latencies, ExtendedRandom r);
+}
@@ -0,0 +1,40 @@
+
+package easysim.latency;
+
+import easysim.config.Configuration;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Latencies following a log-normal distribution: the logarithm of the latency
+ * follows a normal distribution of mean <code>ln(median)</code> and standard
+ * deviation <code>sigma</code>.
+ */
+public class LogNormalLatency extends ContinuousLatency {
+
+    /**
+     * The median latency, in nanoseconds.
+     * 
+     * @config
+     */
+    private static final String PAR_MEDIAN = "median";
+
+    /**
+     * The standard deviation of the logarithm of the latency.
+     * 
+     * @config
+     */
+    private static final String PAR_SIGMA  = "sigma";
+
+    private final double        mu;
+
+    private final double        sigma;
+
+    public LogNormalLatency(String prefix) {
+        mu = Math.log(Configuration.getDouble(prefix + "." + PAR_MEDIAN));
+        sigma = Configuration.getDouble(prefix + "." + PAR_SIGMA);
+    }
+
+    public long nextTime(int from, int to, ExtendedRandom r) {
+        return (long) Math.exp(mu + sigma * r.nextGaussian());
+    }
+}
@@ -0,0 +1,162 @@
+package easysim.latency;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Latencies between sites given by a matrix, e.g. measured round-trip times
+ * between datacenters. The matrix is read from a file holding one line per
+ * site, each line holding the latencies from that site to all the sites,
+ * separated by spaces (empty lines and lines starting with <code>#</code> are
+ * ignored). A negative latency means that the sites are not linked. Node
+ * <code>i</code> is in site <code>i % m</code>, where <code>m</code> is the
+ * number of sites.
+ * <p>
+ * The latencies of the file are divided by {@value #PAR_CYCLE} and rounded to
+ * whole cycles (at least 1, so that the latency within a site is 1), and kept in an array of bytes if they all fit, of shorts
+ * otherwise. Drawing a latency is then a lookup, plus a uniform jitter if
+ * {@value #PAR_JITTER} is given.
+ */
+public class MatrixLatency implements LatencyModel {
+
+    /**
+     * The file of the matrix.
+     *
+     * @config
+     */
+    private static final String PAR_FILE   = "file";
+
+    /**
+     * The length of a cycle, in the unit of the file. Defaults to 1.
+     *
+     * @config
+     */
+    private static final String PAR_CYCLE  = "cycle";
+
+    /**
+     * The highest jitter added to the latencies, in cycles. Defaults to 0.
+     *
+     * @config
+     */
+    private static final String PAR_JITTER = "jitter";
+
+    // Number of sites
+    private final int           sites;
+
+    // The latencies in cycles, row after row (one of them is null)
+    private final byte[]        bytes;
+
+    private final short[]       shorts;
+
+    private final int           jitter;
+
+    public MatrixLatency(String prefix) {
+        String file = Configuration.getString(prefix + "." + PAR_FILE);
+        double cycle = Configuration.getDouble(prefix + "." + PAR_CYCLE, 1);
+        jitter = Configuration.getInt(prefix + "." + PAR_JITTER, 0);
+        if (cycle <= 0) {
+            throw new IllegalParameterException(prefix + "." + PAR_CYCLE, "should be positive");
+        }
+        if (jitter < 0) {
+            throw new IllegalParameterException(prefix + "." + PAR_JITTER, "should not be negative");
+        }
+        int[] matrix;
+        try {
+            matrix = read(file, cycle);
+        } catch (IOException e) {
+            throw new IllegalParameterException(prefix + "." + PAR_FILE, e.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalParameterException(prefix + "." + PAR_FILE, e.toString());
+        }
+        sites = (int) Math.round(Math.sqrt(matrix.length));
+        if (sites == 0 || sites * sites != matrix.length) {
+            throw new IllegalParameterException(prefix + "." + PAR_FILE, "The matrix of " + file
+                    + " is not square");
+        }
+        int max = 0;
+        for (int i = 0; i < matrix.length; i++) {
+            max = Math.max(max, matrix[i]);
+        }
+        if (max + jitter <= Byte.MAX_VALUE) {
+            bytes = new byte[matrix.length];
+            shorts = null;
+            for (int i = 0; i < matrix.length; i++) {
+                bytes[i] = (byte) matrix[i];
+            }
+        } else if (max + jitter <= Short.MAX_VALUE) {
+            bytes = null;
+            shorts = new short[matrix.length];
+            for (int i = 0; i < matrix.length; i++) {
+                shorts[i] = (short) matrix[i];
+            }
+        } else {
+            throw new IllegalParameterException(prefix + "." + PAR_CYCLE, "The latencies of " + file
+                    + " exceed " + Short.MAX_VALUE + " cycles");
+        }
+    }
+
+    public int next(int from, int to, ExtendedRandom r) {
+        int i = (from % sites) * sites + to % sites;
+        int latency = (bytes != null) ? bytes[i] : shorts[i];
+        if (jitter > 0 && latency >= 0) {
+            latency += r.nextInt(jitter + 1);
+        }
+        return latency;
+    }
+
+    public void next(int from, int[] to, int offset, int count, int[] latencies, ExtendedRandom r) {
+        int row = (from % sites) * sites;
+        if (bytes != null) {
+            for (int i = 0; i < count; i++) {
+                latencies[i] = bytes[row + to[offset + i] % sites];
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                latencies[i] = shorts[row + to[offset + i] % sites];
+            }
+        }
+        if (jitter > 0) {
+            for (int i = 0; i < count; i++) {
+                if (latencies[i] >= 0) {
+                    latencies[i] += r.nextInt(jitter + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the latencies of the file in cycles, row after row.
+     */
+    private static int[] read(String file, double cycle) throws IOException {
+        int[] values = new int[1024];
+        int n = 0;
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                for (int i = 0; i < fields.length; i++) {
+                    if (n == values.length) {
+                        values = Arrays.copyOf(values, n * 2);
+                    }
+                    double latency = Double.parseDouble(fields[i]);
+                    values[n++] = (latency < 0) ? -1 : (int) Math.max(1, Math.min(
+                            Math.round(latency / cycle), Integer.MAX_VALUE / 2));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return Arrays.copyOf(values, n);
+    }
+}
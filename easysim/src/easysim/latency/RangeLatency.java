@@ -0,0 +1,73 @@
+package easysim.latency;
+
+import java.util.Arrays;
+
+import easysim.config.Configuration;
+import easysim.util.ExtendedRandom;
+
+/**
+ * The default latencies of the nodes of a protocol, given by parameters of the
+ * protocol. The latency of a message to each destination is drawn uniformly
+ * in <code>[1, latencyRange]</code> cycles. If <code>perMessageLatency</code>
+ * is present, a single latency is drawn in <code>[0, latencyRange[</code> for
+ * all the destinations of a message. If <code>constantLatency</code> is
+ * present, the latency is always 1.
+ */
+public class RangeLatency implements LatencyModel {
+
+    /**
+     * The highest latency, in cycles.
+     *
+     * @config
+     */
+    private static final String PAR_RANGE       = "latencyRange";
+
+    /**
+     * If present, the latency is the same for all the destinations of a
+     * message.
+     *
+     * @config
+     */
+    private static final String PAR_PER_MESSAGE = "perMessageLatency";
+
+    /**
+     * If present, the latency is 1 for all messages.
+     *
+     * @config
+     */
+    private static final String PAR_CONSTANT    = "constantLatency";
+
+    private final int           range;
+
+    private final boolean       perMessage;
+
+    private final boolean       constant;
+
+    /**
+     * Reads the parameters of the given protocol.
+     */
+    public RangeLatency(String prefix) {
+        range = Configuration.getInt(prefix + "." + PAR_RANGE);
+        perMessage = Configuration.contains(prefix + "." + PAR_PER_MESSAGE);
+        constant = Configuration.contains(prefix + "." + PAR_CONSTANT);
+    }
+
+    public int next(int from, int to, ExtendedRandom r) {
+        if (constant) {
+            return 1;
+        }
+        return perMessage ? r.nextInt(range) : r.nextInt(range) + 1;
+    }
+
+    public void next(int from, int[] to, int offset, int count, int[] latencies, ExtendedRandom r) {
+        if (constant) {
+            Arrays.fill(latencies, 0, count, 1);
+        } else if (perMessage) {
+            Arrays.fill(latencies, 0, count, r.nextInt(range));
+        } else {
+            for (int i = 0; i < count; i++) {
+                latencies[i] = r.nextInt(range) + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+
+package easysim.latency;
+
+import easysim.config.Configuration;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Latencies drawn uniformly in <code>[min, max]</code> nanoseconds.
+ */
+public class UniformLatency extends ContinuousLatency {
+
+    /**
+     * The lowest latency, in nanoseconds. Defaults to 0.
+     * 
+     * @config
+     */
+    private static final String PAR_MIN = "min";
+
+    /**
+     * The highest latency, in nanoseconds.
+     * 
+     * @config
+     */
+    private static final String PAR_MAX = "max";
+
+    private final long          min;
+
+    private final long          max;
+
+    public UniformLatency(String prefix) {
+        min = Configuration.getLong(prefix + "." + PAR_MIN, 0);
+        max = Configuration.getLong(prefix + "." + PAR_MAX);
+    }
+
+    public long nextTime(int from, int to, ExtendedRandom r) {
+        return min + (long) (r.nextDouble() * (max - min + 1));
+    }
+}
@@ -0,0 +1,309 @@
+
+package easysim.rangesim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import easysim.SimulationContext;
+import easysim.Simulator;
+import easysim.config.Configuration;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Runs the experiments of all the points of a set of ranges in the current
+ * JVM, on a bounded pool of worker threads.
+ * <p>
+ * Each experiment runs within its own {@link SimulationContext}, with the
+ * base configuration in which the range parameters are set to the values of
+ * its point: the experiments running concurrently do not share any
+ * configuration, network or simulator state. What an experiment prints on
+ * the standard output is recorded in its {@link RangeResult}.
+ * <p>
+ * Components that keep state in static fields (instead of context slots)
+ * are shared by the experiments, and cannot be used by experiments running
+ * concurrently.
+ * <p>
+ * If a branch cycle is set (see {@link #setBranch(int)}), the experiment of
+ * the first point is first run up to the end of that cycle only, and saved in
+ * memory. The experiments of all the points are then continued from copies of
+ * this snapshot, each with the values of its point, instead of being run from
+ * the start: the range parameters must not be used before the branch cycle.
+ * The lines printed up to the branch cycle are recorded in all the results,
+ * which are the same as if the experiments were run from the start (if the
+ * range parameters are indeed not used before).
+ */
+public class RangeExecutor
+{
+
+//--------------------------------------------------------------------------
+//Types
+//--------------------------------------------------------------------------
+
+/**
+ * Receives the results of the experiments.
+ */
+public interface Handler
+{
+
+/**
+ * Called for each result, in the order of the points.
+ */
+void result(RangeResult result);
+}
+
+//--------------------------------------------------------------------------
+//Fields
+//--------------------------------------------------------------------------
+
+/** The configuration shared by all the experiments */
+private final Properties base;
+
+/** Names of range parameters */
+private final String[] pars;
+
+/** Values to be simulated, for each parameter */
+private final String[][] values;
+
+/** Number of worker threads */
+private final int threads;
+
+/** The cycle at the end of which the experiments branch, or -1 */
+private int branch = -1;
+
+//--------------------------------------------------------------------------
+//Initialization
+//--------------------------------------------------------------------------
+
+/**
+ * Creates an executor for the cross product of the given values.
+ * @param base the configuration shared by all the experiments
+ * @param pars the names of the range parameters
+ * @param values the values of each range parameter
+ * @param threads the number of experiments run concurrently
+ */
+public RangeExecutor(Properties base, String[] pars, String[][] values,
+		int threads)
+{
+	this.base = base;
+	this.pars = pars;
+	this.values = values;
+	this.threads = threads;
+}
+
+//--------------------------------------------------------------------------
+//Methods
+//--------------------------------------------------------------------------
+
+/**
+ * Sets the cycle at the end of which the experiments branch from a common
+ * run, or -1 to run each experiment from the start (the default).
+ */
+public void setBranch(int cycle)
+{
+	branch = cycle;
+}
+
+// --------------------------------------------------------------------
+
+/**
+ * Runs all the experiments and returns their results, in the order of the
+ * points.
+ */
+public List<RangeResult> run()
+{
+	final List<RangeResult> results = new ArrayList<RangeResult>();
+	run(new Handler() {
+		public void result(RangeResult result)
+		{
+			results.add(result);
+		}
+	});
+	return results;
+}
+
+// --------------------------------------------------------------------
+
+/**
+ * Runs all the experiments. The handler is called by the calling thread
+ * for each result, in the order of the points, as soon as the result and
+ * the ones of all the previous points are available.
+ */
+public void run(Handler handler)
+{
+	// The standard output of each experiment is sent to its result
+	PrintStream stdout = System.out;
+	System.setOut(SimulationContext.routingStream(stdout));
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	try {
+		String[] point = new String[pars.length];
+		for (int j = 0; j < pars.length; j++)
+			point[j] = values[j][0];
+		RangeResult trunk = null;
+		if (branch >= 0)
+			trunk = trunk(point);
+		List<Future<RangeResult>> futures = new ArrayList<Future<RangeResult>>();
+		int[] idx = new int[values.length]; // Initialized to 0
+		int index = 0;
+		while (idx[0] < values[0].length) {
+			point = new String[pars.length];
+			for (int j = 0; j < pars.length; j++)
+				point[j] = values[j][idx[j]];
+			futures.add(pool.submit(experiment(index++, point, trunk)));
+			RangeSimulator.nextValues(idx, values);
+		}
+		for (Future<RangeResult> f : futures)
+			handler.result(f.get());
+	} catch (InterruptedException e) {
+		throw new RuntimeException(e);
+	} catch (ExecutionException e) {
+		throw new RuntimeException(e.getCause());
+	} finally {
+		pool.shutdownNow();
+		System.setOut(stdout);
+	}
+}
+
+// --------------------------------------------------------------------
+
+/**
+ * Runs the experiment of the given point up to the branch cycle, on the
+ * calling thread. Returns its result, holding the snapshot of the branch
+ * cycle.
+ */
+private RangeResult trunk(String[] point)
+{
+	final RangeResult trunk = new RangeResult(-1, pars, point);
+	final Properties p = config(point);
+	System.err.println("Experiment: running up to cycle " + branch);
+	SimulationContext context = new SimulationContext();
+	context.setOut(new PrintStream(new LineRecorder(trunk), true));
+	long start = System.currentTimeMillis();
+	context.run(new Runnable() {
+		public void run()
+		{
+			Configuration.setConfig(p);
+			trunk.seed = Configuration.getLong(Simulator.PAR_SEED,
+					System.currentTimeMillis());
+			Simulator.setRandom(new ExtendedRandom(trunk.seed));
+			trunk.snapshot = Simulator.runUntil(branch);
+		}
+	});
+	if (trunk.snapshot == null)
+		throw new IllegalStateException("The experiments end before cycle "
+				+ branch);
+	trunk.time = System.currentTimeMillis() - start;
+	System.err.println("Experiment: branching after " + trunk.time + " ms ("
+			+ trunk.snapshot.length + " bytes)");
+	return trunk;
+}
+
+// --------------------------------------------------------------------
+
+/**
+ * Returns the task running the experiment of the given point, from the
+ * snapshot of the given trunk if not null.
+ */
+private Callable<RangeResult> experiment(final int index, final String[] point,
+		final RangeResult trunk)
+{
+	return new Callable<RangeResult>() {
+		public RangeResult call()
+		{
+			final RangeResult result = new RangeResult(index, pars, point);
+			final Properties p = config(point);
+			System.err.println("Experiment: " + result.getRanges());
+			if (trunk != null) {
+				result.seed = trunk.seed;
+				result.addLines(trunk);
+			}
+
+			SimulationContext context = new SimulationContext();
+			context.setOut(new PrintStream(new LineRecorder(result), true));
+			long start = System.currentTimeMillis();
+			try {
+				context.run(new Runnable() {
+					public void run()
+					{
+						Configuration.setConfig(p);
+						if (trunk != null) {
+							Simulator.nextExperiment(trunk.snapshot);
+							return;
+						}
+						result.seed = Configuration.getLong(Simulator.PAR_SEED,
+								System.currentTimeMillis());
+						Simulator.setRandom(new ExtendedRandom(result.seed));
+						Simulator.nextExperiment();
+					}
+				});
+			} catch (RuntimeException e) {
+				result.failure = e;
+			} catch (Error e) {
+				result.failure = e;
+			}
+			result.time = System.currentTimeMillis() - start;
+			return result;
+		}
+	};
+}
+
+// --------------------------------------------------------------------
+
+/**
+ * Returns the configuration of the experiment of the given point.
+ */
+private Properties config(String[] point)
+{
+	Properties p = new Properties();
+	p.putAll(base);
+	for (int j = 0; j < pars.length; j++)
+		p.setProperty(pars[j], point[j]);
+	return p;
+}
+
+// --------------------------------------------------------------------
+
+/**
+ * Records each line written into a result, with the current cycle of the
+ * experiment.
+ */
+private static class LineRecorder extends OutputStream
+{
+
+private final RangeResult result;
+
+private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+LineRecorder(RangeResult result)
+{
+	this.result = result;
+}
+
+@Override
+public void write(int b)
+{
+	if (b == '\n') {
+		result.addLine(line.toString(), Simulator.getCycle());
+		line.reset();
+	} else if (b != '\r') {
+		line.write(b);
+	}
+}
+
+@Override
+public void write(byte[] b, int off, int len)
+{
+	for (int i = off; i < off + len; i++)
+		write(b[i]);
+}
+}
+
+}
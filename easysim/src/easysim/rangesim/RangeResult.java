@@ -0,0 +1,218 @@
+
+package easysim.rangesim;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of the experiment of one point of the ranges, run by a
+ * {@link RangeExecutor}: the values of the range parameters, and what the
+ * experiment printed on the standard output.
+ * <p>
+ * The lines of the form <code>name: value</code>, as printed by observers,
+ * are recorded as {@link Observation}s.
+ */
+public class RangeResult
+{
+
+//--------------------------------------------------------------------------
+//Types
+//--------------------------------------------------------------------------
+
+/**
+ * A line printed by an observer.
+ */
+public static final class Observation
+{
+
+/** The name of the observer (the part of the line before ':'). */
+public final String name;
+
+/** The cycle during which the line was printed. */
+public final int cycle;
+
+/** The printed value (the part of the line after ':'). */
+public final String value;
+
+Observation(String name, int cycle, String value)
+{
+	this.name = name;
+	this.cycle = cycle;
+	this.value = value;
+}
+
+public String toString()
+{
+	return name + ":" + value;
+}
+}
+
+//--------------------------------------------------------------------------
+//Fields
+//--------------------------------------------------------------------------
+
+/** The index of the point, in the order of the cross product of ranges */
+public final int index;
+
+/** The values of the range parameters */
+private final Map<String,String> parameters;
+
+/** The seed of the experiment */
+long seed;
+
+/** The lines printed, observations or not */
+private final List<String> lines = new ArrayList<String>();
+
+/** The cycle during which each line was printed */
+private final List<Integer> cycles = new ArrayList<Integer>();
+
+/** The observations */
+private final List<Observation> observations = new ArrayList<Observation>();
+
+/** The exception that stopped the experiment, if any */
+Throwable failure;
+
+/** The duration of the experiment, in milliseconds */
+long time;
+
+/** The snapshot of the branch cycle, if this is the result of a common run */
+byte[] snapshot;
+
+//--------------------------------------------------------------------------
+//Initialization
+//--------------------------------------------------------------------------
+
+RangeResult(int index, String[] pars, String[] values)
+{
+	this.index = index;
+	Map<String,String> map = new LinkedHashMap<String,String>();
+	for (int i=0; i < pars.length; i++)
+		map.put(pars[i], values[i]);
+	parameters = Collections.unmodifiableMap(map);
+}
+
+//--------------------------------------------------------------------------
+//Methods
+//--------------------------------------------------------------------------
+
+/**
+ * Records a line printed at the given cycle.
+ */
+void addLine(String line, int cycle)
+{
+	lines.add(line);
+	cycles.add(cycle);
+	String[] parts = line.split(":", -1);
+	if (parts.length == 2)
+		observations.add(new Observation(parts[0], cycle, parts[1]));
+}
+
+/**
+ * Records the lines of another result, as if they were printed by this
+ * experiment.
+ */
+void addLines(RangeResult other)
+{
+	lines.addAll(other.lines);
+	cycles.addAll(other.cycles);
+	observations.addAll(other.observations);
+}
+
+/** Returns the values of the range parameters, in the order of the ranges. */
+public Map<String,String> getParameters()
+{
+	return parameters;
+}
+
+/** Returns the seed of the random source of the experiment. */
+public long getSeed()
+{
+	return seed;
+}
+
+/** Returns all the lines printed by the experiment. */
+public List<String> getLines()
+{
+	return Collections.unmodifiableList(lines);
+}
+
+/** Returns the observations printed by the experiment. */
+public List<Observation> getObservations()
+{
+	return Collections.unmodifiableList(observations);
+}
+
+/** Returns the observations printed by the given observer. */
+public List<Observation> getObservations(String name)
+{
+	List<Observation> result = new ArrayList<Observation>();
+	for (Observation o : observations) {
+		if (o.name.equals(name))
+			result.add(o);
+	}
+	return result;
+}
+
+/**
+ * Returns the exception that stopped the experiment, or null if it
+ * completed.
+ */
+public Throwable getFailure()
+{
+	return failure;
+}
+
+/** Returns the duration of the experiment, in milliseconds. */
+public long getTime()
+{
+	return time;
+}
+
+/**
+ * Returns the values of the range parameters in the format used to tag
+ * observations: each parameter followed by its value, separated by spaces.
+ */
+public String getRanges()
+{
+	StringBuilder log = new StringBuilder();
+	for (Map.Entry<String,String> e : parameters.entrySet()) {
+		log.append(e.getKey());
+		log.append(" ");
+		log.append(e.getValue());
+		log.append(" ");
+	}
+	return log.toString();
+}
+
+/**
+ * Prints the lines of the experiment as the forked simulators print them
+ * through a {@link TaggedOutputStream}: the values of the range parameters
+ * are inserted in each observation, and the cycle too for the given
+ * observers.
+ */
+public void print(PrintStream out, Set<String> timed)
+{
+	// The forked simulators get the ranges as a trimmed parameter
+	String ranges = getRanges().trim();
+	for (int i=0; i < lines.size(); i++) {
+		String line = lines.get(i);
+		String[] parts = line.split(":", -1);
+		if (parts.length == 2) {
+			out.print(parts[0]);
+			out.print(": ");
+			out.print(ranges);
+			if (timed.contains(parts[0]))
+				out.print(" TIME " + cycles.get(i) + " ");
+			out.println(parts[1]);
+		} else {
+			out.println(line);
+		}
+	}
+}
+
+}
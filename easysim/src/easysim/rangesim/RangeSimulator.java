@@ -22,8 +22,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import easysim.Simulator;
 import easysim.config.Configuration;
@@ -69,10 +71,31 @@ range.2 CHURN;0.05,0.10,0.20
  * specified values.
  * <p>
  * A separate Java virtual machine is invoked to run each of the
- * experiments. An attempt is done to run the same JVM version as
- * the one running the Range Simulator; if this is not possible
+ * experiments, one at a time. An attempt is done to run the same JVM
+ * version as the one running the Range Simulator; if this is not possible
  * (for example due to path problems), the command shell mechanism
  * is used to run the first JVM version found in the path.
+ * <p>
+ * If {@value #PAR_THREADS} is specified, the experiments are run in this
+ * JVM instead, by a {@link RangeExecutor} on the given number of threads,
+ * each experiment within its own simulation context. The output of each
+ * experiment is printed once it completes, in the order of the
+ * experiments, in the same format as the forked JVMs. This requires the
+ * components of the simulation not to keep their state in static fields,
+ * and, with more than one thread, the controls not to write to files
+ * whose names do not depend on the range parameters (the experiments would
+ * write to the same files concurrently). The time diagram (see
+ * {@link Simulator}) is not supported in this mode.
+ * <p>
+ * If {@value #PAR_BRANCH} is specified (which requires {@value #PAR_THREADS}),
+ * the experiment of the first point is run once up to the end of the given
+ * cycle, and the experiments of all the points continue from copies of
+ * its state at that time (see {@link RangeExecutor#setBranch(int)}). This
+ * saves the initialization and the first cycles of each experiment when
+ * the range parameters are only used after the branch cycle (protocol or
+ * control parameters, for example, but not the network size). All the
+ * experiments then share the random source of the first one up to the
+ * branch cycle.
  * </p>
  * It is possible to specify options for the forked JVM using the
  * {@value #PAR_JVM} parameter on the command line. For example,
@@ -111,6 +134,21 @@ private static final String PAR_RANGE = "range";
  */
 private static final String PAR_JVM = "jvm.options";
 
+/**
+ * If present, the experiments are run in this JVM instead of in forked
+ * JVMs, this number of them concurrently.
+ * @config
+ */
+private static final String PAR_THREADS = "rangesim.threads";
+
+/**
+ * If present, the experiments branch from a common run at the end of the
+ * given cycle, instead of being run from the start. Requires
+ * {@value #PAR_THREADS}.
+ * @config
+ */
+private static final String PAR_BRANCH = "rangesim.branch";
+
 
 // --------------------------------------------------------------------------
 // Static variables
@@ -162,6 +200,28 @@ public static void main(String[] args)
 	// Parse range parameters
 	parseRanges();
 
+	if (Configuration.contains(PAR_THREADS)) {
+		try {
+			if (Configuration.contains(Simulator.TIME_DIAGRAM))
+				throw new IllegalParameterException(PAR_THREADS,
+						"not supported with " + Simulator.TIME_DIAGRAM);
+			runExperiments(properties);
+		} catch (MissingParameterException e) {
+			System.err.println(e + "");
+			System.exit(1);
+		} catch (IllegalParameterException e) {
+			System.err.println(e + "");
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	if (Configuration.contains(PAR_BRANCH)) {
+		System.err.println(new IllegalParameterException(PAR_BRANCH,
+				"requires " + PAR_THREADS) + "");
+		System.exit(1);
+	}
+
 	// Shutdown thread management
 	Thread t = new ShutdownThread();
 	Runtime.getRuntime().addShutdownHook(t);
@@ -226,7 +286,7 @@ private static void parseRanges()
  * array. The index array is treated as a vector of digits; the first is
  * managed managed as a vector of digits.
  */
-private static void nextValues(int[] idx, String[][] values)
+static void nextValues(int[] idx, String[][] values)
 {
 	idx[idx.length - 1]++;
 	for (int j = idx.length - 1; j > 0; j--) {
@@ -239,6 +299,45 @@ private static void nextValues(int[] idx, String[][] values)
 
 // --------------------------------------------------------------------
 
+/**
+ * Runs the experiments in this JVM, and prints their output as the forked
+ * JVMs do.
+ */
+private static void runExperiments(Properties properties)
+{
+	System.out.println("#### Starting experiments");
+
+	int threads = Configuration.getInt(PAR_THREADS);
+	if (threads < 1)
+		throw new IllegalParameterException(PAR_THREADS, "should be positive");
+
+	// The observers whose output is tagged with the time
+	final Set<String> timed = new HashSet<String>();
+	String[] obs = Configuration.getString(TaggedOutputStream.PAR_TIME, "")
+			.split(" :,");
+	for (int i=0; i < obs.length; i++)
+		timed.add("control." + obs[i]);
+
+	RangeExecutor executor = new RangeExecutor(properties, pars, values, threads);
+	executor.setBranch(Configuration.getInt(PAR_BRANCH, -1));
+
+	// Since multiple experiments are managed here, the value
+	// of standard variable for multiple experiments is ignored
+	executor.run(new RangeExecutor.Handler() {
+		public void result(RangeResult result)
+		{
+			System.out.println("\n\n");
+			result.print(System.out, timed);
+			if (result.getFailure() != null) {
+				System.err.println("Experiment " + result.getRanges() + "failed:");
+				result.getFailure().printStackTrace();
+			}
+		}
+	});
+}
+
+// --------------------------------------------------------------------
+
 public static void doExperiments(Properties properties, String[] args)
 {
 	
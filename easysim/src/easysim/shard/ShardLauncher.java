@@ -0,0 +1,209 @@
+
+package easysim.shard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import easysim.Simulator;
+import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.config.MissingParameterException;
+import easysim.config.ParsedProperties;
+
+/**
+ * Runs a simulation whose nodes are split between {@value Simulator#PAR_SHARDS}
+ * worker processes on this host (see {@link easysim.core.ShardExecutor}).
+ * Each worker is a {@link Simulator} run in a forked JVM, with the same
+ * configuration and the parameter {@value Simulator#PAR_SHARD} set to its
+ * shard. Workers on other hosts can be started by hand in the same way (see
+ * the <code>simulation.shard.hosts</code> parameter of {@link Simulator}).
+ * <p>
+ * The forked JVMs inherit the classpath of this JVM, and the options given by
+ * {@value #PAR_JVM}. Their standard error is the one of this JVM. Their
+ * standard output is collected, and printed once all of them are done, shard
+ * after shard, each one after a line <code>#### Shard k</code>.
+ * <p>
+ * Usage:
+<pre>
+java easysim.shard.ShardLauncher config.file simulation.shards=4
+</pre>
+ */
+public class ShardLauncher
+{
+
+//--------------------------------------------------------------------------
+//Configuration parameters
+//--------------------------------------------------------------------------
+
+/**
+ * Options of the forked JVMs, separated by spaces.
+ * @config
+ */
+private static final String PAR_JVM = "jvm.options";
+
+//--------------------------------------------------------------------------
+//Methods
+//--------------------------------------------------------------------------
+
+/**
+ * Starts the workers, waits for them, and prints their output.
+ */
+public static void main(String[] args)
+{
+	if (args.length == 0 || args[0].equals("--help")) {
+		System.err.println("Usage:");
+		System.err.println("  easysim.shard.ShardLauncher <configfile> <property>*");
+		System.exit(1);
+	}
+
+	// The configuration consumes the arguments
+	String[] argv = args.clone();
+	int shards;
+	String opt;
+	try {
+		Properties properties = new ParsedProperties(args);
+		Configuration.setConfig(properties);
+		shards = Configuration.getInt(Simulator.PAR_SHARDS);
+		if (shards < 1)
+			throw new IllegalParameterException(Simulator.PAR_SHARDS,
+					"should be positive");
+		opt = Configuration.getString(PAR_JVM, null);
+	} catch (MissingParameterException e) {
+		System.err.println(e + "");
+		System.exit(1);
+		return;
+	} catch (IllegalParameterException e) {
+		System.err.println(e + "");
+		System.exit(1);
+		return;
+	}
+
+	String filesep = System.getProperty("file.separator");
+	List<String> command = new ArrayList<String>();
+	command.add(System.getProperty("java.home") + filesep + "bin" + filesep
+			+ "java");
+	command.add("-cp");
+	command.add(System.getProperty("java.class.path"));
+	if (opt != null) {
+		String[] options = opt.split(" ");
+		for (int i = 0; i < options.length; i++)
+			command.add(options[i]);
+	}
+	command.add("easysim.Simulator");
+	for (int i = 0; i < argv.length; i++)
+		command.add(argv[i]);
+	int last = command.size();
+	command.add("");
+
+	final Process[] workers = new Process[shards];
+	Thread killer = new Thread() {
+		public void run()
+		{
+			System.err.println("Terminating simulation.");
+			for (int k = 0; k < workers.length; k++) {
+				if (workers[k] != null)
+					workers[k].destroy();
+			}
+		}
+	};
+	Runtime.getRuntime().addShutdownHook(killer);
+
+	// Start all the workers, and collect their output
+	Collector[] outputs = new Collector[shards];
+	for (int k = 0; k < shards; k++) {
+		command.set(last, Simulator.PAR_SHARD + "=" + k);
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		try {
+			workers[k] = pb.start();
+		} catch (IOException e) {
+			System.err.println("Unable to launch a Java virtual machine: " + e);
+			System.exit(1);
+		}
+		outputs[k] = new Collector(workers[k].getInputStream());
+		outputs[k].start();
+	}
+
+	// A failing worker blocks the others: stop all of them
+	int status = 0;
+	for (int k = 0; k < shards; k++) {
+		int code = waitFor(workers[k]);
+		if (code != 0 && status == 0) {
+			System.err.println("Shard " + k + " failed");
+			status = code;
+			for (int j = 0; j < shards; j++)
+				workers[j].destroy();
+		}
+	}
+	for (int k = 0; k < shards; k++) {
+		workers[k] = null;
+		System.out.println("#### Shard " + k);
+		System.out.print(outputs[k].get());
+	}
+	Runtime.getRuntime().removeShutdownHook(killer);
+	System.exit(status);
+}
+
+// --------------------------------------------------------------------
+
+private static int waitFor(Process p)
+{
+	while (true) {
+		try {
+			return p.waitFor();
+		} catch (InterruptedException e) {
+			// Wait again
+		}
+	}
+}
+
+// --------------------------------------------------------------------
+
+/**
+ * Reads the standard output of a worker until it ends.
+ */
+private static class Collector extends Thread
+{
+
+private final InputStream in;
+
+private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+Collector(InputStream in)
+{
+	this.in = in;
+}
+
+public void run()
+{
+	byte[] b = new byte[1 << 16];
+	try {
+		int n;
+		while ((n = in.read(b)) != -1)
+			out.write(b, 0, n);
+	} catch (IOException e) {
+		// The worker has been killed
+	}
+}
+
+/**
+ * Returns the output of the worker, once it has been read.
+ */
+String get()
+{
+	while (isAlive()) {
+		try {
+			join();
+		} catch (InterruptedException e) {
+			// Wait again
+		}
+	}
+	return out.toString();
+}
+}
+
+}
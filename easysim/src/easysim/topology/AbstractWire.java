@@ -18,14 +18,36 @@
 
 package easysim.topology;
 
+import java.io.File;
+
 import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.core.Adjacency;
 import easysim.core.Control;
+import easysim.core.EdgeBuilder;
+import easysim.core.ImplicitTopology;
 import easysim.core.Network;
+import easysim.core.Node;
 
 /**
  * This class is the superclass of classes that define a certain topology. Note
  * that no connections are removed, they are only added. So it can be used in
  * combination with other initializers.
+ * <p>
+ * The links set by {@link #wire} are collected by an {@link EdgeBuilder}, and
+ * added to the nodes all at once when it returns.
+ * <p>
+ * If {@value #PAR_IMPLICIT} is given, the topologies whose links can be
+ * computed from the ids of the nodes (see {@link #topology}) are installed in
+ * the nodes as an {@link ImplicitTopology} instead, so that no links are
+ * stored. The links are then not printed, and the nodes must have no links
+ * yet.
+ * <p>
+ * If {@value #PAR_CACHE} is given, the links are saved in that directory once
+ * wired (see {@link TopologyCache}), and later wirings of a network of the
+ * same size with the same parameters read them from there instead of calling
+ * {@link #wire}. The cache is only used when the nodes have no links yet.
+ * Links read from the cache are printed in order of source node.
  */
 public abstract class AbstractWire implements Control
 {
@@ -40,6 +62,37 @@ public abstract class AbstractWire implements Control
    */
   private static final String PAR_UNDIR = "undirected";
 
+  /**
+   * If false, the links are not printed when they are added. Defaults to
+   * true.
+   * 
+   * @config
+   */
+  private static final String PAR_LOG   = "log";
+
+  /**
+   * If present, the links are computed from the ids of the nodes instead of
+   * being stored, if the topology supports it.
+   * 
+   * @config
+   */
+  private static final String PAR_IMPLICIT = "implicit";
+
+  /**
+   * The directory of the topology cache. If not present, topologies are not
+   * cached.
+   * 
+   * @config
+   */
+  private static final String PAR_CACHE = "cache";
+
+  /**
+   * The number of threads of the wires that wire in parallel, such as
+   * {@link RandomWire} and {@link WireFromFile}, which does not change the
+   * topology (see {@link TopologyCache}).
+   */
+  private static final String PAR_THREADS = "threads";
+
   // --------------------------------------------------------------------------
   // Fields
   // --------------------------------------------------------------------------
@@ -47,6 +100,24 @@ public abstract class AbstractWire implements Control
   /** If true, edges are added in an undirected fashion. */
   public final boolean        undir;
 
+  /** If true, each link is printed when it is added. */
+  public final boolean        log;
+
+  /** If true, the topology is installed as an {@link ImplicitTopology}. */
+  public final boolean        implicit;
+
+  /** The name of parameter {@value #PAR_IMPLICIT}. */
+  private final String        implicitName;
+
+  /** The configuration prefix of this wire. */
+  private final String        prefix;
+
+  /** The topology cache, or null. */
+  private final TopologyCache cache;
+
+  /** The links set by the current call to {@link #wire}. */
+  private EdgeBuilder         builder;
+
   // --------------------------------------------------------------------------
   // Initialization
   // --------------------------------------------------------------------------
@@ -59,6 +130,12 @@ public abstract class AbstractWire implements Control
    */
   protected AbstractWire(String prefix) {
     undir = Configuration.contains(prefix + "." + PAR_UNDIR);
+    log = Configuration.getBoolean(prefix + "." + PAR_LOG, true);
+    implicitName = prefix + "." + PAR_IMPLICIT;
+    implicit = Configuration.contains(implicitName);
+    this.prefix = prefix;
+    String dir = Configuration.getString(prefix + "." + PAR_CACHE, null);
+    cache = (dir == null) ? null : new TopologyCache(dir);
   }
 
   // --------------------------------------------------------------------------
@@ -66,12 +143,45 @@ public abstract class AbstractWire implements Control
   // --------------------------------------------------------------------------
 
   /**
-   * Calls method {@link #wire} to create links between nodes in the network.
+   * Calls method {@link #wire} to create links between nodes in the network,
+   * and adds them to the nodes.
    */
   public final boolean execute() {
     if (Network.size() == 0)
       return false;
-    wire();
+    if (implicit)
+    {
+      install();
+      return false;
+    }
+    String key = null;
+    File file = null;
+    if (cache != null && isEmpty())
+    {
+      key = TopologyCache.key(this, prefix, prefix + "." + PAR_LOG, prefix
+          + "." + PAR_CACHE, prefix + "." + PAR_THREADS);
+      file = cache.file(this, key);
+      Adjacency adjacency = cache.load(file, key);
+      if (adjacency != null)
+      {
+        adjacency.install();
+        if (log)
+          print(adjacency);
+        return false;
+      }
+    }
+    builder = new EdgeBuilder();
+    try
+    {
+      wire();
+      Adjacency adjacency = builder.wire(log);
+      if (file != null)
+        cache.store(file, adjacency, key);
+    }
+    finally
+    {
+      builder = null;
+    }
     return false;
   }
 
@@ -81,21 +191,98 @@ public abstract class AbstractWire implements Control
    */
   public abstract void wire();
 
+  /**
+   * Returns the topology wired by {@link #wire} as an
+   * {@link ImplicitTopology} of <code>n</code> nodes, taking {@link #undir}
+   * into account, or null if it cannot be computed from the ids of the nodes.
+   * Returns null by default.
+   */
+  protected ImplicitTopology topology(int n)
+  {
+    return null;
+  }
+
+  /**
+   * Returns what the topology wired by {@link #wire} depends on, besides the
+   * parameters of this wire and the size of the network, e.g. the contents of
+   * a file or a random seed. The topology cache reads the links of the same
+   * topology again only if this does not change. Returns an empty string by
+   * default.
+   */
+  protected String cacheKey()
+  {
+    return "";
+  }
+
   // --------------------------------------------------------------------------
   // Utility methods
   // --------------------------------------------------------------------------
 
   /**
-   * Sets link between the specified nodes.
+   * Returns whether the nodes have no links.
+   */
+  private static boolean isEmpty()
+  {
+    Node[] nodes = Network.nodes();
+    for (int i = 0; i < Network.size(); ++i)
+    {
+      if (nodes[i].getNeighborCount() > 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Prints the links of the given adjacency, in order of source node.
+   */
+  private static void print(Adjacency adjacency)
+  {
+    for (int i = 0; i < adjacency.size(); ++i)
+    {
+      for (int k = 0; k < adjacency.degree(i); ++k)
+        System.out.println(i + " linked to " + adjacency.target(i, k));
+    }
+  }
+
+  /**
+   * Installs the implicit topology in all the nodes.
+   */
+  private void install()
+  {
+    final int n = Network.size();
+    ImplicitTopology topology = topology(n);
+    if (topology == null)
+      throw new IllegalParameterException(implicitName, getClass()
+          .getSimpleName() + " has no implicit topology");
+    Node[] nodes = Network.nodes();
+    for (int i = 0; i < n; ++i)
+    {
+      if (nodes[i].getNeighborCount() > 0)
+        throw new IllegalParameterException(implicitName,
+            "an implicit topology cannot be added to existing links");
+    }
+    for (int i = 0; i < n; ++i)
+      nodes[i].setTopology(topology);
+  }
+
+  /**
+   * Sets link between the specified nodes. Within {@link #wire}, the link is
+   * only added when it returns, and true is returned even if the link already
+   * exists.
    * <p>
-   * The behaviour of this method is affected by parameter {@link #wireDirected}.
-   * If it is false, then the opposite link is set too.
+   * The behaviour of this method is affected by parameter {@link #undir}.
+   * If it is true, then the opposite link is set too.
    */
   public boolean setLink(int i, int j) {
+    if (builder == null) {
+      if (undir)
+        Network.get(j).addNeighbor(Network.get(i));
+      return Network.get(i).addNeighbor(Network.get(j));
+    }
     if (undir)
-      Network.node[j].addNeighbor(Network.node[i]);
-
-    return Network.node[i].addNeighbor(Network.node[j]);
+      builder.add(j, i);
+    builder.add(i, j);
+    return true;
   }
 
 }
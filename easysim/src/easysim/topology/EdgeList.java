@@ -0,0 +1,525 @@
+package easysim.topology;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A list of links, such as the links of a file, in the order of the file, as
+ * read by {@link WireFromFile}, or the links generated by a {@link RandomWire}.
+ * When read from a file, links from or to nodes whose ids are not lower than
+ * the given number of nodes are ignored (see {@link #isOutOfRange()}).
+ * <p>
+ * A text file holds one line per node, beginning with the id of the node
+ * followed by the ids of its neighbors, separated by whitespace. Lines
+ * starting with a "#" character and empty lines are ignored. The file is
+ * memory-mapped and split into chunks at line boundaries, which are parsed
+ * in parallel, directly from the bytes.
+ * <p>
+ * A binary file starts with a header of 16 bytes: the characters
+ * <code>EDGE</code>, the version of the format (1) as a little-endian int,
+ * and the number of links as a little-endian long. The links follow, each as
+ * two little-endian ints: the source and the target. Binary files are
+ * recognized by their first bytes, and can be written from text files by
+ * {@link #main(String[])}.
+ */
+public final class EdgeList
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  /** The first bytes of a binary file, "EDGE", read as a big-endian int. */
+  public static final int     MAGIC     = 0x45444745;
+
+  /** The version of the binary format. */
+  public static final int     VERSION   = 1;
+
+  private static final int    HEADER    = 16;
+
+  /** Files are not split into chunks smaller than this. */
+  private static final long   MIN_CHUNK = 1 << 20;
+
+  /** Chunks are mapped separately, and must be smaller than this. */
+  private static final long   MAX_CHUNK = 1 << 30;
+
+  private int[]               from;
+
+  private int[]               to;
+
+  private int                 size;
+
+  private boolean             outOfRange;
+
+  // ==================== initialization ==============================
+  // ==================================================================
+
+  /** Creates an empty list, with room for <code>capacity</code> links. */
+  EdgeList(int capacity)
+  {
+    from = new int[Math.max(16, capacity)];
+    to = new int[from.length];
+  }
+
+  // ===================== public methods ==============================
+  // ===================================================================
+
+  /** Returns the number of links. */
+  public int size()
+  {
+    return size;
+  }
+
+  /** Returns the source of link <code>e</code>. */
+  public int from(int e)
+  {
+    return from[e];
+  }
+
+  /** Returns the target of link <code>e</code>. */
+  public int to(int e)
+  {
+    return to[e];
+  }
+
+  /**
+   * Returns whether some links of the file were ignored because their nodes
+   * were out of range.
+   */
+  public boolean isOutOfRange()
+  {
+    return outOfRange;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Reads the links between the first <code>nodes</code> nodes from the given
+   * file, text or binary, with at most <code>threads</code> threads (of the
+   * common fork-join pool).
+   */
+  public static EdgeList read(String file, int nodes, int threads)
+      throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try
+    {
+      FileChannel channel = raf.getChannel();
+      long length = channel.size();
+      if (length >= HEADER && readInt(channel, 0) == MAGIC)
+        return readBinary(file, channel, length, nodes, threads);
+      return readText(file, channel, length, nodes, threads);
+    }
+    finally
+    {
+      raf.close();
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Writes the links to the given file in the binary format.
+   */
+  public void write(String file) throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try
+    {
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+      buffer.putInt(MAGIC);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(VERSION);
+      buffer.putLong(size);
+      for (int e = 0; e < size; ++e)
+      {
+        if (buffer.remaining() < 8)
+        {
+          buffer.flip();
+          while (buffer.hasRemaining())
+            channel.write(buffer);
+          buffer.clear();
+        }
+        buffer.putInt(from[e]);
+        buffer.putInt(to[e]);
+      }
+      buffer.flip();
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+    }
+    finally
+    {
+      raf.close();
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Converts a text file to a binary file. The arguments are the names of
+   * the text file and of the binary file.
+   */
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length != 2)
+    {
+      System.err.println("Usage: EdgeList <text file> <binary file>");
+      System.exit(1);
+    }
+    EdgeList links = read(args[0], Integer.MAX_VALUE, Runtime.getRuntime()
+        .availableProcessors());
+    links.write(args[1]);
+    System.err.println(links.size() + " links written to " + args[1]);
+  }
+
+  // ===================== private methods =============================
+  // ===================================================================
+
+  private static EdgeList readText(String file, FileChannel channel,
+      long length, final int nodes, int threads) throws IOException
+  {
+    int parts = (int) Math.max(Math.min(threads, length / MIN_CHUNK),
+        (length + MAX_CHUNK - 1) / MAX_CHUNK);
+    parts = Math.max(1, parts);
+    // Each chunk starts at the beginning of a line
+    long[] bounds = new long[parts + 1];
+    bounds[parts] = length;
+    for (int p = 1; p < parts; ++p)
+      bounds[p] = lineStart(channel, Math.max(bounds[p - 1], length * p
+          / parts), length);
+    List<Callable<EdgeList>> tasks = new ArrayList<Callable<EdgeList>>();
+    for (int p = 0; p < parts; ++p)
+    {
+      final long start = bounds[p];
+      final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+          start, bounds[p + 1] - start);
+      tasks.add(new Callable<EdgeList>() {
+        public EdgeList call() throws IOException
+        {
+          return parse(buffer, start, nodes);
+        }
+      });
+    }
+    return concat(file, run(tasks));
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the position following the first line terminator at or after
+   * <code>position</code>, or <code>length</code> if there is none.
+   */
+  private static long lineStart(FileChannel channel, long position,
+      long length) throws IOException
+  {
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    while (position < length)
+    {
+      buffer.clear();
+      int n = channel.read(buffer, position);
+      if (n <= 0)
+        break;
+      for (int i = 0; i < n; ++i)
+      {
+        byte c = buffer.get(i);
+        if (c == '\n' || c == '\r')
+          return position + i + 1;
+      }
+      position += n;
+    }
+    return length;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Parses the lines of a chunk of a text file starting at position
+   * <code>start</code> of the file.
+   */
+  private static EdgeList parse(ByteBuffer b, long start, int nodes)
+  {
+    final int n = b.limit();
+    EdgeList links = new EdgeList(n / 8);
+    int p = 0;
+    while (p < n)
+    {
+      if (b.get(p) == '#')
+      {
+        p = lineEnd(b, p);
+        continue;
+      }
+      int source = -1;
+      boolean first = true;
+      while (p < n)
+      {
+        byte c = b.get(p);
+        if (c == '\n' || c == '\r')
+        {
+          ++p;
+          break;
+        }
+        if (c == ' ' || c == '\t' || c == '\f')
+        {
+          ++p;
+          continue;
+        }
+        // A token: an int, as parsed by Integer.parseInt
+        int q = p;
+        boolean negative = (c == '-');
+        if (c == '-' || c == '+')
+          ++q;
+        long value = 0;
+        int digits = 0;
+        while (q < n)
+        {
+          c = b.get(q);
+          if (c < '0' || c > '9')
+            break;
+          value = 10 * value + (c - '0');
+          if (value > 1L << 31)
+            break;
+          ++digits;
+          ++q;
+        }
+        if (negative)
+          value = -value;
+        if (digits == 0 || value > Integer.MAX_VALUE
+            || value < Integer.MIN_VALUE || (q < n && !isSpace(b.get(q))))
+          throw new NumberFormatException("For input string: \""
+              + token(b, p) + "\" at byte " + (start + p));
+        p = q;
+        if (first)
+        {
+          first = false;
+          if (value < 0 || value >= nodes)
+          {
+            links.outOfRange = true;
+            p = lineEnd(b, p);
+            break;
+          }
+          source = (int) value;
+        }
+        else if (value < 0 || value >= nodes)
+          links.outOfRange = true;
+        else
+          links.add(source, (int) value);
+      }
+    }
+    return links;
+  }
+
+  // ------------------------------------------------------------------
+
+  private static boolean isSpace(byte c)
+  {
+    return c == ' ' || c == '\t' || c == '\f' || c == '\n' || c == '\r';
+  }
+
+  // ------------------------------------------------------------------
+
+  /** Returns the position following the end of the line of position p. */
+  private static int lineEnd(ByteBuffer b, int p)
+  {
+    final int n = b.limit();
+    while (p < n)
+    {
+      byte c = b.get(p++);
+      if (c == '\n' || c == '\r')
+        break;
+    }
+    return p;
+  }
+
+  // ------------------------------------------------------------------
+
+  private static String token(ByteBuffer b, int p)
+  {
+    StringBuilder s = new StringBuilder();
+    while (p < b.limit() && !isSpace(b.get(p)))
+      s.append((char) (b.get(p++) & 0xff));
+    return s.toString();
+  }
+
+  // ------------------------------------------------------------------
+
+  private static EdgeList readBinary(String file, FileChannel channel,
+      long length, final int nodes, int threads) throws IOException
+  {
+    ByteBuffer header = ByteBuffer.allocate(HEADER - 4).order(
+        ByteOrder.LITTLE_ENDIAN);
+    channel.read(header, 4);
+    header.flip();
+    int version = header.getInt();
+    long count = header.getLong();
+    if (version != VERSION)
+      throw new IOException(file + ": unknown version " + version);
+    if (count < 0 || length != HEADER + 8 * count)
+      throw new IOException(file + ": " + count + " links expected in "
+          + length + " bytes");
+    if (count > Integer.MAX_VALUE - 8)
+      throw new IOException(file + ": too many links (" + count + ")");
+    // The links are read in place, and compacted afterwards
+    final EdgeList links = new EdgeList((int) count);
+    int parts = (int) Math.max(Math.min(threads, 8 * count / MIN_CHUNK),
+        (8 * count + MAX_CHUNK - 1) / MAX_CHUNK);
+    parts = Math.max(1, parts);
+    final int[] kept = new int[parts];
+    List<Callable<EdgeList>> tasks = new ArrayList<Callable<EdgeList>>();
+    for (int p = 0; p < parts; ++p)
+    {
+      final int part = p;
+      final int start = (int) (count * p / parts);
+      final int end = (int) (count * (p + 1) / parts);
+      final IntBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+          HEADER + 8L * start, 8L * (end - start)).order(
+          ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+      tasks.add(new Callable<EdgeList>() {
+        public EdgeList call()
+        {
+          int k = start;
+          for (int e = 0; e < end - start; ++e)
+          {
+            int i = buffer.get(2 * e);
+            int j = buffer.get(2 * e + 1);
+            if (i < 0 || i >= nodes || j < 0 || j >= nodes)
+              continue;
+            links.from[k] = i;
+            links.to[k] = j;
+            ++k;
+          }
+          kept[part] = k - start;
+          return null;
+        }
+      });
+    }
+    run(tasks);
+    for (int p = 0; p < parts; ++p)
+    {
+      int start = (int) (count * p / parts);
+      System.arraycopy(links.from, start, links.from, links.size, kept[p]);
+      System.arraycopy(links.to, start, links.to, links.size, kept[p]);
+      links.size += kept[p];
+    }
+    links.outOfRange = (links.size < count);
+    return links;
+  }
+
+  // ------------------------------------------------------------------
+
+  private static int readInt(FileChannel channel, long position)
+      throws IOException
+  {
+    ByteBuffer b = ByteBuffer.allocate(4);
+    while (b.hasRemaining() && channel.read(b, position + b.position()) > 0)
+      ;
+    return b.hasRemaining() ? 0 : b.getInt(0);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Runs the given tasks, in the calling thread if there is only one, and
+   * returns their results in order.
+   */
+  private static List<EdgeList> run(List<Callable<EdgeList>> tasks)
+      throws IOException
+  {
+    List<EdgeList> results = new ArrayList<EdgeList>();
+    try
+    {
+      if (tasks.size() == 1)
+        results.add(tasks.get(0).call());
+      else
+        for (Future<EdgeList> f : ForkJoinPool.commonPool().invokeAll(tasks))
+          results.add(f.get());
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw rethrow(e.getCause());
+    }
+    catch (Exception e)
+    {
+      throw rethrow(e);
+    }
+    return results;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Throws the given exception of a task if it is unchecked or an
+   * IOException, and returns it wrapped otherwise.
+   */
+  private static IllegalStateException rethrow(Throwable e) throws IOException
+  {
+    if (e instanceof IOException)
+      throw (IOException) e;
+    if (e instanceof RuntimeException)
+      throw (RuntimeException) e;
+    if (e instanceof Error)
+      throw (Error) e;
+    return new IllegalStateException(e);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the links of the given lists, one after the other.
+   */
+  private static EdgeList concat(String file, List<EdgeList> parts)
+      throws IOException
+  {
+    if (parts.size() == 1)
+      return parts.get(0);
+    long total = 0;
+    for (EdgeList l : parts)
+      total += l.size;
+    if (total > Integer.MAX_VALUE - 8)
+      throw new IOException(file + ": too many links (" + total + ")");
+    EdgeList links = new EdgeList((int) total);
+    for (EdgeList l : parts)
+    {
+      System.arraycopy(l.from, 0, links.from, links.size, l.size);
+      System.arraycopy(l.to, 0, links.to, links.size, l.size);
+      links.size += l.size;
+      links.outOfRange |= l.outOfRange;
+    }
+    return links;
+  }
+
+  // ------------------------------------------------------------------
+
+  /** Appends a link from node i to node j. */
+  void add(int i, int j)
+  {
+    if (size == from.length)
+    {
+      int capacity = (int) Math.min(Integer.MAX_VALUE - 8, 2L * size);
+      if (capacity == size)
+        throw new IllegalStateException("Too many links");
+      from = Arrays.copyOf(from, capacity);
+      to = Arrays.copyOf(to, capacity);
+    }
+    from[size] = i;
+    to[size] = j;
+    ++size;
+  }
+
+}
@@ -0,0 +1,204 @@
+package easysim.topology;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import easysim.Simulator;
+import easysim.SimulationContext;
+import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.core.Network;
+import easysim.util.ExtendedRandom;
+import easysim.util.SplitRandom;
+
+/**
+ * The superclass of the random topologies, whose links are generated in
+ * parallel. The nodes are split into blocks of {@value #BLOCK} consecutive
+ * nodes, and the links of the nodes of each block are generated with the
+ * random stream of the block (see {@link SplitRandom#split}), derived from the
+ * seed of the experiment and the prefix of the wire. The blocks are spread
+ * over {@value #PAR_THREADS} threads, and their links are then set in order of
+ * block, so that the topology only depends on the seed, and not on the number
+ * of threads.
+ * <p>
+ * The links are set at once when they are all generated (see
+ * {@link AbstractWire}). For large graphs, parameter <code>log</code> should be
+ * false, since printing the links takes much longer than generating them.
+ */
+public abstract class RandomWire extends AbstractWire
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  /**
+   * The number of threads generating the links. Defaults to the number of
+   * processors.
+   *
+   * @config
+   */
+  private static final String PAR_THREADS = "threads";
+
+  /** The number of nodes of a block. */
+  protected static final int  BLOCK       = 4096;
+
+  private final String        prefix;
+
+  private final int           threads;
+
+  // ==================== initialization ==============================
+  // ==================================================================
+
+  /**
+   * Standard constructor that reads the configuration parameters. Normally
+   * invoked by the simulation engine.
+   *
+   * @param prefix the configuration prefix for this class
+   */
+  protected RandomWire(String prefix)
+  {
+    super(prefix);
+    this.prefix = prefix;
+    threads = Configuration.getInt(prefix + "." + PAR_THREADS, Runtime
+        .getRuntime().availableProcessors());
+    if (threads < 1)
+      throw new IllegalParameterException(prefix + "." + PAR_THREADS,
+          "should be positive");
+  }
+
+  // ===================== public methods ==============================
+  // ===================================================================
+
+  /**
+   * Generates the links of all the blocks, and sets them.
+   */
+  public final void wire()
+  {
+    final int n = Network.size();
+    final long seed = SplitRandom.hash(Simulator.getRandom().getLastSeed(),
+        Long.MIN_VALUE + prefix.hashCode());
+    prepare(n, seed);
+    int blocks = (n + BLOCK - 1) / BLOCK;
+    List<EdgeList> parts = parallel(blocks, new IntFunction<EdgeList>() {
+      public EdgeList apply(int b)
+      {
+        EdgeList links = new EdgeList(0);
+        int end = (int) Math.min(n, (long) (b + 1) * BLOCK);
+        generate(b * BLOCK, end, n, SplitRandom.split(seed, b), links);
+        return links;
+      }
+    });
+    for (EdgeList links : parts)
+    {
+      for (int e = 0; e < links.size(); ++e)
+        setLink(links.from(e), links.to(e));
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the seed of the experiment, which the links depend on.
+   */
+  protected String cacheKey()
+  {
+    return "seed=" + Simulator.getRandom().getLastSeed();
+  }
+
+  // ===================== protected methods ===========================
+  // ===================================================================
+
+  /**
+   * Prepares the generation of the links of a network of <code>n</code>
+   * nodes with the given seed, before the blocks are generated. Does nothing
+   * by default.
+   */
+  protected void prepare(int n, long seed)
+  {
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Generates the links from the nodes <code>start</code> to
+   * <code>end - 1</code> of a network of <code>n</code> nodes, with the given
+   * random stream, and adds them to <code>links</code>. Links from a node to
+   * itself, and duplicate links, may be added: they are ignored when the
+   * links are set. This method is run by several threads at the same time,
+   * and must only read the state of the wire and of its arguments.
+   */
+  protected abstract void generate(int start, int end, int n,
+      ExtendedRandom r, EdgeList links);
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the results of <code>task</code> for the items <code>0</code> to
+   * <code>count - 1</code>, in order. The items are split into at most
+   * {@value #PAR_THREADS} groups of consecutive items, run in parallel within
+   * the {@link SimulationContext} of the calling thread.
+   */
+  protected final <V> List<V> parallel(final int count,
+      final IntFunction<V> task)
+  {
+    int groups = Math.max(1, Math.min(threads, count));
+    final SimulationContext context = SimulationContext.current();
+    List<Callable<List<V>>> tasks = new ArrayList<Callable<List<V>>>();
+    for (int g = 0; g < groups; ++g)
+    {
+      final int start = (int) ((long) count * g / groups);
+      final int end = (int) ((long) count * (g + 1) / groups);
+      tasks.add(new Callable<List<V>>() {
+        public List<V> call() throws Exception
+        {
+          return context.call(new Callable<List<V>>() {
+            public List<V> call()
+            {
+              List<V> results = new ArrayList<V>();
+              for (int i = start; i < end; ++i)
+                results.add(task.apply(i));
+              return results;
+            }
+          });
+        }
+      });
+    }
+    List<V> results = new ArrayList<V>();
+    try
+    {
+      if (groups == 1)
+        return tasks.get(0).call();
+      for (Future<List<V>> f : ForkJoinPool.commonPool().invokeAll(tasks))
+        results.addAll(f.get());
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+    catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+    catch (RuntimeException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      throw new IllegalStateException(e);
+    }
+    return results;
+  }
+
+}
@@ -0,0 +1,179 @@
+package easysim.topology;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import easysim.config.Configuration;
+import easysim.core.Adjacency;
+import easysim.core.Network;
+
+/**
+ * A directory of topologies built by {@link AbstractWire}s, so that the
+ * experiments and the simulations that wire the same network the same way
+ * read the links from a file instead of wiring it again (see
+ * {@link Adjacency#read}).
+ * <p>
+ * A topology is identified by a key made of the class of the wire, all its
+ * parameters (such as <code>k</code> and <code>undirected</code>) except
+ * those that do not change the topology, the size of the network, and what
+ * else the wire depends on (see
+ * {@link AbstractWire#cacheKey()}). The file of a topology is named after
+ * the class of the wire and a hash of the key, and holds the key, so that a
+ * topology is never read for another key. Files are written under a
+ * temporary name and then renamed, so that simulations running at the same
+ * time never read a partial file.
+ */
+final class TopologyCache
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  private final File dir;
+
+  // ==================== initialization ==============================
+  // ==================================================================
+
+  /**
+   * Creates a cache in the given directory, which is created when a topology
+   * is first saved.
+   */
+  TopologyCache(String dir)
+  {
+    this.dir = new File(dir);
+  }
+
+  // ===================== methods =====================================
+  // ===================================================================
+
+  /**
+   * Returns the key of the topology wired by the given wire, configured
+   * with the given prefix, in the current network. The given parameters,
+   * which do not change the topology, are left out. The parameters that are
+   * numeric expressions are given by their value, so that the key changes
+   * with the variables they use (see {@link Configuration#getNumber}).
+   */
+  static String key(AbstractWire wire, String prefix, String... ignored)
+  {
+    StringBuilder key = new StringBuilder(wire.getClass().getName());
+    key.append("\nnetwork.size=").append(Network.size());
+    String[] names = Configuration.getNames(prefix);
+    Arrays.sort(names);
+    for (int i = 0; i < names.length; ++i)
+    {
+      if (Arrays.asList(ignored).contains(names[i]))
+        continue;
+      Number value = Configuration.getNumber(names[i]);
+      key.append('\n').append(names[i]).append('=').append(
+          (value != null) ? value : Configuration.getString(names[i], ""));
+    }
+    String more = wire.cacheKey();
+    if (more != null && more.length() > 0)
+      key.append('\n').append(more);
+    return key.toString();
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the file of the topology of the given wire with the given key.
+   */
+  File file(AbstractWire wire, String key)
+  {
+    return new File(dir, wire.getClass().getSimpleName() + "-" + hash(key)
+        + ".adj");
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the topology of the given file, or null if there is none for
+   * the given key, or if it cannot be read.
+   */
+  Adjacency load(File file, String key)
+  {
+    if (!file.isFile())
+      return null;
+    try
+    {
+      Adjacency adjacency = Adjacency.read(file, key);
+      if (adjacency != null && adjacency.size() == Network.size())
+        return adjacency;
+    }
+    catch (IOException e)
+    {
+      System.err.println("TopologyCache warning: " + e.getMessage());
+    }
+    return null;
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Saves the given topology to the given file. A topology that cannot be
+   * saved is only reported.
+   */
+  void store(File file, Adjacency adjacency, String key)
+  {
+    File tmp = null;
+    try
+    {
+      if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+        throw new IOException("cannot create directory " + dir);
+      tmp = File.createTempFile(file.getName(), ".tmp", dir);
+      adjacency.write(tmp, key);
+      try
+      {
+        Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e)
+      {
+        Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+      tmp = null;
+    }
+    catch (IOException e)
+    {
+      System.err.println("TopologyCache warning: cannot save " + file + ": "
+          + e.getMessage());
+    }
+    finally
+    {
+      if (tmp != null)
+        tmp.delete();
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the first 16 bytes of the SHA-256 hash of the given key, in
+   * hexadecimal.
+   */
+  private static String hash(String key)
+  {
+    try
+    {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+          key.getBytes(StandardCharsets.UTF_8));
+      StringBuilder s = new StringBuilder();
+      for (int i = 0; i < 16; ++i)
+        s.append(String.format("%02x", digest[i] & 0xff));
+      return s.toString();
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
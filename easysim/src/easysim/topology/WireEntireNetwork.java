@@ -18,6 +18,7 @@
 
 package easysim.topology;
 
+import easysim.core.ImplicitTopology;
 import easysim.core.Network;
 
 /**
@@ -70,6 +71,38 @@ public class WireEntireNetwork extends AbstractWire {
     }
   }
 
+  /**
+   * Returns the complete graph: the neighbors of each node are all the nodes,
+   * in increasing order of id.
+   */
+  protected ImplicitTopology topology(int n) {
+    return new Complete(n);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * The complete graph of n nodes.
+   */
+  private static final class Complete implements ImplicitTopology {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int         n;
+
+    Complete(int n) {
+      this.n = n;
+    }
+
+    public int degree(int i) {
+      return n;
+    }
+
+    public int neighbor(int i, int k) {
+      return k;
+    }
+  }
+
   // --------------------------------------------------------------------------
 
 }
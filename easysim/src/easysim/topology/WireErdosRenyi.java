@@ -0,0 +1,83 @@
+package easysim.topology;
+
+import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Wires a random graph G(n,p) of Erd&#337;s and R&eacute;nyi: each link
+ * between two distinct nodes is set with probability <code>p</code>. If the
+ * graph is undirected, each pair of nodes is drawn once. The links are drawn
+ * by geometric skipping, which draws the number of pairs to skip before the
+ * next link instead of drawing each pair, so that the time is proportional to
+ * the number of links (Batagelj and Brandes, 2005). The nodes are drawn in
+ * parallel (see {@link RandomWire}).
+ */
+public class WireErdosRenyi extends RandomWire
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  /**
+   * The probability of each link.
+   * 
+   * @config
+   */
+  private static final String PAR_PROB = "p";
+
+  private final double        p;
+
+  // ==================== initialization ==============================
+  // ==================================================================
+
+  /**
+   * Standard constructor that reads the configuration parameters. Invoked by
+   * the simulation engine.
+   * 
+   * @param prefix the configuration prefix for this class
+   */
+  public WireErdosRenyi(String prefix)
+  {
+    super(prefix);
+    p = Configuration.getDouble(prefix + "." + PAR_PROB);
+    if (p < 0 || p > 1)
+      throw new IllegalParameterException(prefix + "." + PAR_PROB,
+          "should be between 0 and 1");
+  }
+
+  // ===================== methods =====================================
+  // ===================================================================
+
+  protected void generate(int start, int end, int n, ExtendedRandom r,
+      EdgeList links)
+  {
+    if (p == 0)
+      return;
+    final double logq = Math.log(1 - p);
+    for (int i = start; i < end; ++i)
+    {
+      // The candidates are the nodes after i if undirected, all the other
+      // nodes otherwise
+      long length = undir ? n - 1 - i : n - 1;
+      long position = -1;
+      while (true)
+      {
+        if (p == 1)
+          ++position;
+        else
+          position += 1 + (long) Math.floor(Math.log(1 - r.nextDouble())
+              / logq);
+        if (position >= length)
+          break;
+        int j = (int) position;
+        if (undir)
+          j += i + 1;
+        else if (j >= i)
+          ++j;
+        links.add(i, j);
+      }
+    }
+  }
+
+}
@@ -18,12 +18,11 @@
 
 package easysim.topology;
 
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.util.StringTokenizer;
 
 import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
 import easysim.core.Network;
 
 /**
@@ -34,6 +33,10 @@ import easysim.core.Network;
  * list of neighbors, separated by whitespace. All node IDs larger than the
  * actual network size will be discarded, but it does not trigger an error.
  * Lines starting with a "#" character and empty lines are ignored.
+ * <p>
+ * The file may also be in the binary format of {@link EdgeList}, which is
+ * recognized by its first bytes, for graphs with many links. Text files are
+ * parsed in parallel by {@value #PAR_THREADS} threads.
  */
 public class WireFromFile extends AbstractWire
 {
@@ -48,8 +51,18 @@ public class WireFromFile extends AbstractWire
    */
   private static final String PAR_FILE = "file";
 
+  /**
+   * The number of threads parsing the file. Defaults to the number of
+   * processors.
+   * 
+   * @config
+   */
+  private static final String PAR_THREADS = "threads";
+
   private final String        file;
 
+  private final int           threads;
+
   // ==================== initialization ==============================
   // ==================================================================
 
@@ -64,6 +77,11 @@ public class WireFromFile extends AbstractWire
 
     super(prefix);
     file = Configuration.getString(prefix + "." + PAR_FILE);
+    threads = Configuration.getInt(prefix + "." + PAR_THREADS, Runtime
+        .getRuntime().availableProcessors());
+    if (threads < 1)
+      throw new IllegalParameterException(prefix + "." + PAR_THREADS,
+          "should be positive");
   }
 
   // ===================== public methods ==============================
@@ -80,35 +98,10 @@ public class WireFromFile extends AbstractWire
   {
     try
     {
-      FileReader fr = new FileReader(file);
-      LineNumberReader lnr = new LineNumberReader(fr);
-      String line;
-      boolean wasOutOfRange = false;
-      while ((line = lnr.readLine()) != null)
-      {
-        if (line.startsWith("#"))
-          continue;
-        StringTokenizer st = new StringTokenizer(line);
-        if (!st.hasMoreTokens())
-          continue;
-        int from = Integer.parseInt(st.nextToken());
-        if (from < 0 || from >= Network.size())
-        {
-          wasOutOfRange = true;
-          continue;
-        }
-        while (st.hasMoreTokens())
-        {
-          int to = Integer.parseInt(st.nextToken());
-          if (to < 0 || to >= Network.size())
-          {
-            wasOutOfRange = true;
-            continue;
-          }
-          setLink(from, to);
-        }
-      }
-      if (wasOutOfRange)
+      EdgeList links = EdgeList.read(file, Network.size(), threads);
+      for (int e = 0; e < links.size(); ++e)
+        setLink(links.from(e), links.to(e));
+      if (links.isOutOfRange())
         System.err.println("WireFromFile warning: in " + file + " "
             + "some nodes were out of range and so ignored.");
     }
@@ -118,4 +111,14 @@ public class WireFromFile extends AbstractWire
     }
   }
 
+  /**
+   * Returns the path, length and modification time of the file, so that
+   * cached topologies are read again when the file changes.
+   */
+  protected String cacheKey()
+  {
+    File f = new File(file);
+    return f.getAbsolutePath() + " " + f.length() + " " + f.lastModified();
+  }
+
 }
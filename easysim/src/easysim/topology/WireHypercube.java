@@ -18,6 +18,7 @@
 
 package easysim.topology;
 
+import easysim.core.ImplicitTopology;
 import easysim.core.Network;
 
 /**
@@ -85,6 +86,68 @@ public class WireHypercube extends AbstractWire
     }
   }
 
+  /**
+   * Returns the hypercube: the neighbors of node i are i xor 2^d, in
+   * decreasing order of d, and if undirected, those lower than i first.
+   */
+  protected ImplicitTopology topology(int n)
+  {
+    return new Hypercube(n, undir);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * The hypercube of n nodes.
+   */
+  private static final class Hypercube implements ImplicitTopology
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int         n;
+
+    private final boolean     undir;
+
+    // Highest dimension, 0 if there are no links
+    private final int         highestone;
+
+    Hypercube(int n, boolean undir)
+    {
+      this.n = n;
+      this.undir = undir;
+      highestone = (n <= 1) ? 0 : Integer.highestOneBit(n - 1);
+    }
+
+    public int degree(int i)
+    {
+      int d = 0;
+      for (int mask = highestone; mask > 0; mask >>= 1)
+      {
+        if ((i ^ mask) < n)
+          ++d;
+      }
+      return d;
+    }
+
+    public int neighbor(int i, int k)
+    {
+      // In the undirected case, the lower neighbors come first
+      for (int pass = undir ? 0 : 1; pass < 2; ++pass)
+      {
+        for (int mask = highestone; mask > 0; mask >>= 1)
+        {
+          int j = i ^ mask;
+          if (j >= n || (undir && (j < i) != (pass == 0)))
+            continue;
+          if (k-- == 0)
+            return j;
+        }
+      }
+      throw new IndexOutOfBoundsException("Index: " + k + ", Node: " + i);
+    }
+  }
+
   // --------------------------------------------------------------------------
 
 }
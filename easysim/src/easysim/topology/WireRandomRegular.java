@@ -0,0 +1,102 @@
+package easysim.topology;
+
+import java.util.List;
+import java.util.function.IntFunction;
+
+import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.util.ExtendedRandom;
+import easysim.util.SplitRandom;
+
+/**
+ * Wires a random regular graph: each node is linked to the images of its id
+ * by <code>k</code> random cyclic permutations of the nodes, so that each node
+ * has <code>k</code> out-links and <code>k</code> in-links. If the graph is
+ * undirected, <code>k</code> must be even, and <code>k / 2</code> permutations
+ * are used, so that each node has <code>k</code> neighbors. Links that two
+ * permutations have in common are only set once, so that a few nodes may have
+ * fewer links. The permutations are drawn in parallel (see {@link RandomWire}).
+ */
+public class WireRandomRegular extends RandomWire
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  /**
+   * The degree of the nodes.
+   * 
+   * @config
+   */
+  private static final String PAR_DEGREE = "k";
+
+  private final int           k;
+
+  /** The permutations of the current wiring. */
+  private int[][]             permutations;
+
+  // ==================== initialization ==============================
+  // ==================================================================
+
+  /**
+   * Standard constructor that reads the configuration parameters. Invoked by
+   * the simulation engine.
+   * 
+   * @param prefix the configuration prefix for this class
+   */
+  public WireRandomRegular(String prefix)
+  {
+    super(prefix);
+    k = Configuration.getInt(prefix + "." + PAR_DEGREE);
+    if (k < 0 || (undir && k % 2 != 0))
+      throw new IllegalParameterException(prefix + "." + PAR_DEGREE, undir
+          ? "should be even and non-negative for an undirected graph"
+          : "should be non-negative");
+  }
+
+  // ===================== methods =====================================
+  // ===================================================================
+
+  /**
+   * Draws the permutations in parallel, with Sattolo's algorithm.
+   */
+  protected void prepare(final int n, final long seed)
+  {
+    List<int[]> p = parallel(undir ? k / 2 : k, new IntFunction<int[]>() {
+      public int[] apply(int round)
+      {
+        // Streams not used by the blocks
+        ExtendedRandom r = SplitRandom.split(seed, -1 - round);
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; ++i)
+          permutation[i] = i;
+        for (int i = n - 1; i > 0; --i)
+        {
+          int j = r.nextInt(i);
+          int t = permutation[i];
+          permutation[i] = permutation[j];
+          permutation[j] = t;
+        }
+        return permutation;
+      }
+    });
+    permutations = p.toArray(new int[p.size()][]);
+  }
+
+  // ------------------------------------------------------------------
+
+  protected void generate(int start, int end, int n, ExtendedRandom r,
+      EdgeList links)
+  {
+    for (int i = start; i < end; ++i)
+    {
+      for (int p = 0; p < permutations.length; ++p)
+      {
+        int j = permutations[p][i];
+        if (j != i)
+          links.add(i, j);
+      }
+    }
+  }
+
+}
@@ -19,6 +19,7 @@
 package easysim.topology;
 
 import easysim.config.Configuration;
+import easysim.core.ImplicitTopology;
 import easysim.core.Network;
 
 /**
@@ -95,4 +96,57 @@ public class WireRegRootedTree extends AbstractWire
     }
   }
 
+  /**
+   * Returns the tree: the neighbors of node i are i*k+1,...,i*k+k, and if
+   * undirected, its parent (i-1)/k before them.
+   */
+  protected ImplicitTopology topology(int n)
+  {
+    return new Tree(n, k, undir);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * The regular rooted tree of n nodes.
+   */
+  private static final class Tree implements ImplicitTopology
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int         n;
+
+    private final int         arity;
+
+    private final boolean     undir;
+
+    Tree(int n, int k, boolean undir)
+    {
+      this.n = n;
+      this.arity = k;
+      this.undir = undir;
+    }
+
+    public int degree(int i)
+    {
+      if (arity == 0)
+        return 0;
+      long first = (long) i * arity + 1;
+      int children = (int) Math.max(0, Math.min(n, first + arity) - first);
+      return (undir && i > 0) ? children + 1 : children;
+    }
+
+    public int neighbor(int i, int k)
+    {
+      if (undir && i > 0)
+      {
+        if (k == 0)
+          return (i - 1) / arity;
+        --k;
+      }
+      return i * arity + 1 + k;
+    }
+  }
+
 }
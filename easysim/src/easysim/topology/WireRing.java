@@ -18,6 +18,7 @@
 
 package easysim.topology;
 
+import easysim.core.ImplicitTopology;
 import easysim.core.Network;
 
 /**
@@ -73,6 +74,48 @@ public class WireRing extends AbstractWire
     }
   }
 
+  /**
+   * Returns the ring: the neighbor of node i is node i + 1, and if undirected,
+   * the neighbors of node i are i - 1 and i + 1 (1 and n - 1 for node 0).
+   */
+  protected ImplicitTopology topology(int n)
+  {
+    return new Ring(n, undir);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * The ring of n nodes.
+   */
+  private static final class Ring implements ImplicitTopology
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int         n;
+
+    private final boolean     undir;
+
+    Ring(int n, boolean undir)
+    {
+      this.n = n;
+      this.undir = undir;
+    }
+
+    public int degree(int i)
+    {
+      return (undir && n > 2) ? 2 : 1;
+    }
+
+    public int neighbor(int i, int k)
+    {
+      if (undir && n > 2 && (k == 0) != (i == 0))
+        return (i + n - 1) % n;
+      return (i + 1) % n;
+    }
+  }
+
   // --------------------------------------------------------------------------
 
 }
@@ -0,0 +1,102 @@
+package easysim.topology;
+
+import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.util.ExtendedRandom;
+import easysim.util.SplitRandom;
+
+/**
+ * Wires a scale-free graph by the preferential attachment of Barab&aacute;si
+ * and Albert: node <code>i</code> is linked to <code>k</code> nodes among the
+ * nodes <code>0</code> to <code>i</code>, each drawn with a probability
+ * proportional to its degree.
+ * <p>
+ * The links are drawn in parallel as in the generator of Sanders and Schulz
+ * (2016). Link <code>e</code> is the <code>(e % k)</code>-th link of node
+ * <code>e / k</code>, and its target is drawn from the endpoints of the links
+ * before it: a random position is drawn in <code>[0, 2e]</code>, which is
+ * either the source of link <code>e'</code>, known, or the target of an
+ * earlier link <code>e'</code>, which is drawn in the same way. Since the
+ * position drawn for a link is a hash of its index and of the seed (see
+ * {@link SplitRandom#hash}), the target of each link can be computed
+ * independently. Links from a node to itself, and duplicate links, are
+ * ignored, so that nodes may have fewer than <code>k</code> links (in
+ * particular, node 0 has none).
+ */
+public class WireScaleFreeBA extends RandomWire
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  /**
+   * The number of links of each new node.
+   * 
+   * @config
+   */
+  private static final String PAR_DEGREE = "k";
+
+  private final int           k;
+
+  /** The seed of the hash of the current wiring. */
+  private long                seed;
+
+  // ==================== initialization ==============================
+  // ==================================================================
+
+  /**
+   * Standard constructor that reads the configuration parameters. Invoked by
+   * the simulation engine.
+   * 
+   * @param prefix the configuration prefix for this class
+   */
+  public WireScaleFreeBA(String prefix)
+  {
+    super(prefix);
+    k = Configuration.getInt(prefix + "." + PAR_DEGREE);
+    if (k < 0)
+      throw new IllegalParameterException(prefix + "." + PAR_DEGREE,
+          "should be non-negative");
+  }
+
+  // ===================== methods =====================================
+  // ===================================================================
+
+  protected void prepare(int n, long seed)
+  {
+    this.seed = seed;
+  }
+
+  // ------------------------------------------------------------------
+
+  protected void generate(int start, int end, int n, ExtendedRandom r,
+      EdgeList links)
+  {
+    for (int i = start; i < end; ++i)
+    {
+      for (int c = 0; c < k; ++c)
+      {
+        int j = target((long) i * k + c);
+        if (j != i)
+          links.add(i, j);
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Returns the target of link <code>e</code>.
+   */
+  private int target(long e)
+  {
+    while (true)
+    {
+      long position = (SplitRandom.hash(seed, e) >>> 1) % (2 * e + 1);
+      if (position % 2 == 0)
+        return (int) (position / 2 / k);
+      e = position / 2;
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+package easysim.topology;
+
+import easysim.config.Configuration;
+import easysim.config.IllegalParameterException;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Wires a small-world graph of Watts and Strogatz: each node is linked to the
+ * <code>k</code> nodes that follow it on a ring, and each of these links is
+ * then rewired with probability <code>beta</code> to a node drawn uniformly
+ * among the other nodes. If the graph is undirected, each node is thus linked
+ * to its <code>k</code> closest nodes on each side before rewiring. Links that
+ * become duplicates are only set once. The nodes are rewired in parallel (see
+ * {@link RandomWire}).
+ */
+public class WireWS extends RandomWire
+{
+
+  // ========================= fields =================================
+  // ==================================================================
+
+  /**
+   * The number of links of each node on the ring.
+   * 
+   * @config
+   */
+  private static final String PAR_DEGREE = "k";
+
+  /**
+   * The probability of rewiring each link.
+   * 
+   * @config
+   */
+  private static final String PAR_BETA   = "beta";
+
+  private final int           k;
+
+  private final double        beta;
+
+  // ==================== initialization ==============================
+  // ==================================================================
+
+  /**
+   * Standard constructor that reads the configuration parameters. Invoked by
+   * the simulation engine.
+   * 
+   * @param prefix the configuration prefix for this class
+   */
+  public WireWS(String prefix)
+  {
+    super(prefix);
+    k = Configuration.getInt(prefix + "." + PAR_DEGREE);
+    beta = Configuration.getDouble(prefix + "." + PAR_BETA);
+    if (k < 0)
+      throw new IllegalParameterException(prefix + "." + PAR_DEGREE,
+          "should be non-negative");
+    if (beta < 0 || beta > 1)
+      throw new IllegalParameterException(prefix + "." + PAR_BETA,
+          "should be between 0 and 1");
+  }
+
+  // ===================== methods =====================================
+  // ===================================================================
+
+  protected void generate(int start, int end, int n, ExtendedRandom r,
+      EdgeList links)
+  {
+    if (n < 2)
+      return;
+    for (int i = start; i < end; ++i)
+    {
+      for (int c = 1; c <= k; ++c)
+      {
+        int j = (int) ((i + (long) c) % n);
+        if (beta > 0 && r.nextDouble() < beta)
+        {
+          j = r.nextInt(n - 1);
+          if (j >= i)
+            ++j;
+        }
+        if (j != i)
+          links.add(i, j);
+      }
+    }
+  }
+
+}
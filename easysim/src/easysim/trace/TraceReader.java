@@ -0,0 +1,188 @@
+
+package easysim.trace;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static easysim.trace.TraceWriter.BLOCK_HEADER;
+import static easysim.trace.TraceWriter.CHUNK;
+import static easysim.trace.TraceWriter.FILE_HEADER;
+import static easysim.trace.TraceWriter.INT_COLUMNS;
+
+/**
+ * Reads the events of a file written by a {@link TraceWriter}. Only the
+ * blocks index is kept in memory: the events of a window of cycles and nodes
+ * are read on demand from the memory-mapped file, skipping the blocks that do
+ * not intersect the window.
+ */
+public class TraceReader {
+
+    /**
+     * Receives the events read by
+     * {@link TraceReader#read(int, int, int, int, Visitor)}.
+     */
+    public interface Visitor {
+
+        /**
+         * Called for each event. The definition is the <code>length</code>
+         * first elements of <code>def</code>, an array which is reused for the
+         * next events.
+         */
+        void event(int kind, int[] def, int length);
+    }
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer[] chunks;
+
+    private final int nodes;
+
+    private final int cycles;
+
+    // Blocks index
+    private final long[] offsets;
+
+    private final int[] sizes;
+
+    private final int[] minCycles, maxCycles, minNodes, maxNodes;
+
+    private int events = 0;
+
+    // Buffers of a block
+    private final byte[] heads = new byte[TraceWriter.BLOCK_SIZE];
+
+    private final byte[] colors = new byte[TraceWriter.BLOCK_SIZE];
+
+    private final byte[] types = new byte[TraceWriter.BLOCK_SIZE];
+
+    private final int[][] fields = new int[INT_COLUMNS][TraceWriter.BLOCK_SIZE];
+
+    private final int[] def = new int[TraceWriter.MAX_LENGTH];
+
+    /**
+     * Opens the given file and reads its blocks index.
+     */
+    public TraceReader(String path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != TraceWriter.MAGIC || header.getInt() != TraceWriter.VERSION) {
+            file.close();
+            throw new IOException("Not a time diagram trace: " + path);
+        }
+        int blocks = header.getInt();
+        nodes = header.getInt();
+        cycles = header.getInt();
+
+        chunks = new MappedByteBuffer[(int) ((channel.size() + CHUNK - 1) / CHUNK)];
+        offsets = new long[blocks];
+        sizes = new int[blocks];
+        minCycles = new int[blocks];
+        maxCycles = new int[blocks];
+        minNodes = new int[blocks];
+        maxNodes = new int[blocks];
+        long position = FILE_HEADER;
+        int b = 0;
+        while (b < blocks) {
+            ByteBuffer chunk = chunk(position);
+            int offset = (int) (position % CHUNK);
+            if (CHUNK - offset < BLOCK_HEADER || chunk.getInt(offset) == 0) {
+                // Empty end of chunk
+                position += CHUNK - offset;
+                continue;
+            }
+            offsets[b] = position;
+            sizes[b] = chunk.getInt(offset);
+            minCycles[b] = chunk.getInt(offset + 4);
+            maxCycles[b] = chunk.getInt(offset + 8);
+            minNodes[b] = chunk.getInt(offset + 12);
+            maxNodes[b] = chunk.getInt(offset + 16);
+            events += sizes[b];
+            position += TraceWriter.blockBytes(sizes[b]);
+            b++;
+        }
+    }
+
+    /** Returns the number of nodes appearing in the trace. */
+    public int getNodes() {
+        return nodes;
+    }
+
+    /** Returns the number of cycles covered by the trace. */
+    public int getCycles() {
+        return cycles;
+    }
+
+    /** Returns the number of events of the trace. */
+    public int getEvents() {
+        return events;
+    }
+
+    /**
+     * Reads, in the order in which they were written, the events that
+     * intersect the given window, bounds included: the cycles of an event
+     * range from its sending cycle to its receiving cycle, and its nodes from
+     * its sending node to its receiving node.
+     */
+    public synchronized void read(int fromCycle, int toCycle, int fromNode, int toNode, Visitor visitor) {
+        for (int b = 0; b < offsets.length; b++) {
+            if (minCycles[b] > toCycle || maxCycles[b] < fromCycle
+                    || minNodes[b] > toNode || maxNodes[b] < fromNode) {
+                continue;
+            }
+            int size = sizes[b];
+            ByteBuffer chunk = chunk(offsets[b]).duplicate();
+            chunk.position((int) (offsets[b] % CHUNK) + BLOCK_HEADER);
+            chunk.get(heads, 0, size).get(colors, 0, size).get(types, 0, size);
+            chunk.position((chunk.position() + 3) & ~3);
+            IntBuffer ints = chunk.asIntBuffer();
+            for (int c = 0; c < INT_COLUMNS; c++) {
+                ints.get(fields[c], 0, size);
+            }
+            for (int i = 0; i < size; i++) {
+                int from = fields[0][i], to = fields[1][i];
+                int sent = fields[2][i], received = fields[3][i];
+                if (Math.min(sent, received) > toCycle || Math.max(sent, received) < fromCycle
+                        || Math.min(from, to) > toNode || Math.max(from, to) < fromNode) {
+                    continue;
+                }
+                int length = heads[i] >> 2;
+                for (int c = 0; c < INT_COLUMNS; c++) {
+                    def[c < 5 ? c : c + 2] = fields[c][i];
+                }
+                def[5] = colors[i];
+                def[6] = types[i];
+                visitor.event(heads[i] & 3, def, length);
+            }
+        }
+    }
+
+    /**
+     * Closes the file.
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private ByteBuffer chunk(long position) {
+        int c = (int) (position / CHUNK);
+        if (chunks[c] == null) {
+            long base = (long) c * CHUNK;
+            try {
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, base,
+                        Math.min(CHUNK, channel.size() - base));
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot read the trace file", e);
+            }
+        }
+        return chunks[c];
+    }
+}
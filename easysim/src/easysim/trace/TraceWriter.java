@@ -0,0 +1,238 @@
+
+package easysim.trace;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams the events of a time diagram (arrows, circles and acks) to a binary
+ * file, so that the trace does not have to be kept in memory.
+ * <p>
+ * An event is the <code>int[]</code> definition built by
+ * {@link easysim.TimeDiagram}: sending node, receiving node, sending cycle,
+ * receiving cycle, id, color, message type, and up to three fields depending
+ * on the message type. Events are buffered in blocks of {@link #BLOCK_SIZE}
+ * events, and each block is written column by column:
+ * <ul>
+ * <li>a header of {@link #BLOCK_HEADER} bytes: number of events, first and
+ * last cycle, first and last node of the block;</li>
+ * <li>one byte per event for the kind and the length of the definition, the
+ * color and the message type;</li>
+ * <li>padding to a multiple of 4 bytes;</li>
+ * <li>one <code>int</code> per event for each of the 8 other fields (unused
+ * fields are 0).</li>
+ * </ul>
+ * The file starts with a header of {@link #FILE_HEADER} bytes (magic number,
+ * version, number of blocks, number of nodes, number of cycles), followed by
+ * the blocks. It is written through memory-mapped chunks of {@link #CHUNK}
+ * bytes, and a block never spans two chunks: the end of a chunk that cannot
+ * hold the next block is left empty (a block header of 0 events, or less than
+ * {@link #BLOCK_HEADER} bytes).
+ * <p>
+ * The file can be read by a {@link TraceReader} once {@link #flush()} has
+ * been called, even if more events are written afterwards. It should be
+ * closed once complete, to release it and trim the unused end of its last
+ * chunk.
+ */
+public class TraceWriter {
+
+    /** Kind of the events drawn as arrows. */
+    public static final int ARROW = 0;
+
+    /** Kind of the events drawn as circles. */
+    public static final int CIRCLE = 1;
+
+    /** Kind of the events drawn as acks. */
+    public static final int ACK = 2;
+
+    /** Maximum length of an event definition. */
+    public static final int MAX_LENGTH = 10;
+
+    static final int MAGIC = 0x45535444; // "ESTD"
+
+    static final int VERSION = 1;
+
+    static final int FILE_HEADER = 32;
+
+    static final int BLOCK_HEADER = 20;
+
+    static final int BLOCK_SIZE = 4096;
+
+    static final int CHUNK = 1 << 24;
+
+    // Number of int columns (all the fields but color and type)
+    static final int INT_COLUMNS = MAX_LENGTH - 2;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    // Chunk being written, and absolute position of its first byte
+    private MappedByteBuffer chunk;
+
+    private long chunkBase;
+
+    // Pending block
+    private final byte[] heads = new byte[BLOCK_SIZE];
+
+    private final byte[] colors = new byte[BLOCK_SIZE];
+
+    private final byte[] types = new byte[BLOCK_SIZE];
+
+    private final int[][] fields = new int[INT_COLUMNS][BLOCK_SIZE];
+
+    private int size = 0;
+
+    private int minCycle, maxCycle, minNode, maxNode;
+
+    // Totals
+    private int blocks = 0;
+
+    private int nodes = 0;
+
+    private int cycles = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Creates (or truncates) the given file.
+     */
+    public TraceWriter(String path) throws IOException {
+        this(path, false);
+    }
+
+    /**
+     * Creates (or truncates) the given file, or, if <code>append</code> is
+     * true, reopens a trace closed by {@link #close()} to add events after
+     * the ones it already contains.
+     */
+    public TraceWriter(String path, boolean append) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+        long end = FILE_HEADER;
+        if (append) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                file.close();
+                throw new IOException("Not a time diagram trace: " + path);
+            }
+            blocks = header.getInt();
+            nodes = header.getInt();
+            cycles = header.getInt();
+            end = channel.size();
+        } else {
+            file.setLength(0);
+        }
+        chunkBase = end / CHUNK * CHUNK;
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkBase, CHUNK);
+        chunk.position((int) (end - chunkBase));
+        writeHeader();
+    }
+
+    /**
+     * Adds an event of the given kind, defined by the <code>length</code>
+     * first elements of <code>def</code>.
+     */
+    public synchronized void add(int kind, int[] def, int length) {
+        if (closed) {
+            throw new IllegalStateException("Trace closed");
+        }
+        if (size == 0) {
+            minCycle = minNode = Integer.MAX_VALUE;
+            maxCycle = maxNode = Integer.MIN_VALUE;
+        }
+        heads[size] = (byte) (kind | length << 2);
+        colors[size] = (byte) def[5];
+        types[size] = (byte) def[6];
+        for (int c = 0; c < INT_COLUMNS; c++) {
+            int f = c < 5 ? c : c + 2;
+            fields[c][size] = f < length ? def[f] : 0;
+        }
+        minNode = Math.min(minNode, Math.min(def[0], def[1]));
+        maxNode = Math.max(maxNode, Math.max(def[0], def[1]));
+        minCycle = Math.min(minCycle, Math.min(def[2], def[3]));
+        maxCycle = Math.max(maxCycle, Math.max(def[2], def[3]));
+        if (++size == BLOCK_SIZE) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the pending events and the file header, so that a
+     * {@link TraceReader} opened afterwards sees all the events added so far.
+     */
+    public synchronized void flush() {
+        if (size > 0) {
+            writeBlock();
+        }
+        writeHeader();
+    }
+
+    /**
+     * Flushes the trace and truncates the file to its used length. No event
+     * can be added afterwards.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        long end = chunkBase + chunk.position();
+        chunk = null;
+        channel.truncate(end);
+        file.close();
+    }
+
+    static int blockBytes(int size) {
+        return BLOCK_HEADER + ((3 * size + 3) & ~3) + 4 * INT_COLUMNS * size;
+    }
+
+    private void writeBlock() {
+        int bytes = blockBytes(size);
+        if (chunk.remaining() < bytes) {
+            // Leave the end of the chunk empty and move to the next one
+            if (chunk.remaining() >= 4) {
+                chunk.putInt(0);
+            }
+            chunkBase += CHUNK;
+            try {
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkBase, CHUNK);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot extend the trace file", e);
+            }
+        }
+        chunk.putInt(size).putInt(minCycle).putInt(maxCycle).putInt(minNode).putInt(maxNode);
+        chunk.put(heads, 0, size).put(colors, 0, size).put(types, 0, size);
+        while ((chunk.position() & 3) != 0) {
+            chunk.put((byte) 0);
+        }
+        IntBuffer ints = chunk.asIntBuffer();
+        for (int c = 0; c < INT_COLUMNS; c++) {
+            ints.put(fields[c], 0, size);
+        }
+        chunk.position(chunk.position() + 4 * INT_COLUMNS * size);
+
+        blocks++;
+        nodes = Math.max(nodes, maxNode + 1);
+        cycles = Math.max(cycles, maxCycle + 1);
+        size = 0;
+    }
+
+    private void writeHeader() {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(blocks).putInt(nodes).putInt(cycles);
+        header.flip();
+        try {
+            channel.write(header, 0);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write the trace file header", e);
+        }
+    }
+}
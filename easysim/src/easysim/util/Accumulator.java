@@ -0,0 +1,173 @@
+package easysim.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+import easysim.SimulationContext;
+
+/**
+ * Statistics (or any other mergeable state, see
+ * {@link IncrementalStats#merge}) collected by several threads without
+ * synchronization, and combined when they are read. Each thread updates its
+ * own copy, returned by {@link #get()}, and {@link #combine()} merges all of
+ * them. For instance, nodes run by several threads (see
+ * {@link easysim.core.CycleExecutor}) can record statistics that an observer
+ * reads at the end of the cycle, and the combined statistics of several
+ * experiments can be merged in turn.
+ * <p>
+ * {@link #reduce} computes statistics over the nodes in parallel, each
+ * partition of the nodes being added to its own copy, and the copies being
+ * merged in the order of the partitions, so that the result does not depend
+ * on the scheduling of the threads.
+ */
+public final class Accumulator<S> {
+
+    private final Supplier<S>                factory;
+
+    private final BiConsumer<S, S>           merge;
+
+    // The copy of each thread, and all the copies in order of creation
+    private final ThreadLocal<Copy<S>>       local  = new ThreadLocal<Copy<S>>();
+
+    private final List<S>                    copies = new ArrayList<S>();
+
+    // Incremented by clear(), to drop the copies of all the threads
+    private volatile int                     generation;
+
+    /**
+     * The copy of a thread, and the generation in which it was created.
+     */
+    private static final class Copy<S> {
+
+        final S   value;
+
+        final int generation;
+
+        Copy(S value, int generation) {
+            this.value = value;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Creates an accumulator whose copies are created by
+     * <code>factory</code>, and merged by <code>merge</code>, which adds the
+     * second one to the first one (e.g. <code>IncrementalStats::merge</code>).
+     */
+    public Accumulator(Supplier<S> factory, BiConsumer<S, S> merge) {
+        this.factory = factory;
+        this.merge = merge;
+    }
+
+    /**
+     * Returns the copy of the current thread, to be updated by this thread
+     * only.
+     */
+    public S get() {
+        Copy<S> c = local.get();
+        if (c == null || c.generation != generation) {
+            synchronized (copies) {
+                c = new Copy<S>(factory.get(), generation);
+                copies.add(c.value);
+            }
+            local.set(c);
+        }
+        return c.value;
+    }
+
+    /**
+     * Returns a new object merging the copies of all the threads, in the order
+     * in which they were created. The threads must not update their copies
+     * meanwhile.
+     */
+    public S combine() {
+        S result = factory.get();
+        synchronized (copies) {
+            for (S s : copies) {
+                merge.accept(result, s);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forgets the copies of all the threads, which start again from new
+     * copies.
+     */
+    public void clear() {
+        synchronized (copies) {
+            copies.clear();
+            generation++;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Computes statistics over the items <code>0</code> to
+     * <code>size - 1</code> (e.g. the ids of the nodes), split into
+     * <code>parts</code> partitions of consecutive items. The items of each
+     * partition are added by <code>add</code> to a copy created by
+     * <code>factory</code>, in parallel, and the copies are then merged by
+     * <code>merge</code> in the order of the partitions. The partitions are
+     * run within the {@link SimulationContext} of the calling thread. With one
+     * partition, the items are added by the calling thread, in order.
+     */
+    public static <S> S reduce(int size, int parts, final Supplier<S> factory,
+            final ObjIntConsumer<S> add, BiConsumer<S, S> merge) {
+        if (parts <= 1 || size <= 1) {
+            S s = factory.get();
+            for (int i = 0; i < size; i++) {
+                add.accept(s, i);
+            }
+            return s;
+        }
+        parts = Math.min(parts, size);
+        final int partSize = (size + parts - 1) / parts;
+        final SimulationContext context = SimulationContext.current();
+        List<Callable<S>> tasks = new ArrayList<Callable<S>>();
+        for (int from = 0; from < size; from += partSize) {
+            final int start = from;
+            final int end = Math.min(size, from + partSize);
+            tasks.add(new Callable<S>() {
+                public S call() throws Exception {
+                    return context.call(new Callable<S>() {
+                        public S call() {
+                            S s = factory.get();
+                            for (int i = start; i < end; i++) {
+                                add.accept(s, i);
+                            }
+                            return s;
+                        }
+                    });
+                }
+            });
+        }
+        S result = factory.get();
+        try {
+            for (Future<S> f : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                merge.accept(result, f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        return result;
+    }
+}
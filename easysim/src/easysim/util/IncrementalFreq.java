@@ -124,6 +124,20 @@ public void add( int i, int k ) {
 
 // --------------------------------------------------------------------
 
+/**
+ * Adds all the items of <code>other</code> to the input set, as if they had
+ * been added by {@link #add(int,int)}. <code>other</code> is not modified.
+ */
+public void merge( IncrementalFreq other ) {
+
+	for(int i=other.freq.length-1; i>=0; --i)
+	{
+		if( other.freq[i]!=0 ) add(i,other.freq[i]);
+	}
+}
+
+// --------------------------------------------------------------------
+
 /** Returns number of processed data items.
 * This is the number of items over which the class holds statistics.
 */
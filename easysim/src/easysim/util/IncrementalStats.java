@@ -22,6 +22,11 @@ package easysim.util;
  * A class that can keep track of some statistics like variance, average, min,
  * max incrementally. That is, when adding a new data item, it updates the
  * statistics.
+ * <p>
+ * Statistics collected separately, e.g. by several threads (see
+ * {@link Accumulator}) or in several experiments, can be combined by
+ * {@link #merge}. Since the statistics are kept as sums, merging is exact
+ * whenever the sums are, e.g. for integer items.
  */
 public class IncrementalStats {
 
@@ -106,6 +111,33 @@ public class IncrementalStats {
 
     // --------------------------------------------------------------------
 
+    /** Updates the statistics as if all the elements added to
+     * <code>other</code> had been added to this object. <code>other</code>
+     * is not modified. Subclasses that keep more information can only be
+     * merged with objects of their own class.
+     * @throws IllegalArgumentException if <code>other</code> cannot be
+     * merged with this object */
+    public void merge( IncrementalStats other ) {
+
+        if( other.n == 0 ) return;
+
+        if( other.min < min ) {
+            min = other.min;
+            countmin = other.countmin;
+        } else if( other.min == min ) countmin += other.countmin;
+
+        if( other.max > max ) {
+            max = other.max;
+            countmax = other.countmax;
+        } else if( other.max == max ) countmax += other.countmax;
+
+        n += other.n;
+        sum += other.sum;
+        sqrsum += other.sqrsum;
+    }
+
+    // --------------------------------------------------------------------
+
     /** The number of data items processed so far */
     public int getN() { return n; }
 
@@ -74,10 +74,29 @@ public void add(double item, int k)
 	}
 }
 
+/**
+ * Merges the statistics of another <code>MedianStats</code> object, including
+ * its elements.
+ * 
+ * @throws IllegalArgumentException if <code>other</code> is not a
+ *         <code>MedianStats</code>
+ */
+public void merge(IncrementalStats other)
+{
+	if (!(other instanceof MedianStats))
+		throw new IllegalArgumentException("Cannot merge a "
+				+ other.getClass().getName() + " into a MedianStats");
+	super.merge(other);
+	data.addAll(((MedianStats) other).data);
+}
+
 public void reset()
 {
 	super.reset();
-	if (data != null)
+	// Also called by the constructor of the superclass
+	if (data == null)
+		data = new ArrayList<Double>();
+	else
 		data.clear();
 }
 /*
@@ -22,12 +22,19 @@ package easysim.util;
  * This class provides extended statistical informations about the inspected 
  * distribution. In particular, it provides functions to compute the skewness
  * (the 3rd degree moment) and the kurtosis (4th degree moment).
+ * <p>
+ * The central moments are updated incrementally (Welford's method extended to
+ * the 3rd and 4th moments), and merged with the formulas of Chan et al. and
+ * Pebay, so that they stay accurate when the items are large compared to
+ * their deviations, and when statistics collected separately are merged.
  *
  * @author  Gian Paolo Jesi
  */
 public class MomentStats extends IncrementalStats {
     
-    private double cubicsum, quadsum; // incremental sums
+    // running mean, and sums of the 2nd, 3rd and 4th powers of the deviations
+    // from the mean
+    private double mean, m2, m3, m4;
     
     /** Calls {@link #reset} */
     public MomentStats() {
@@ -36,17 +43,53 @@ public class MomentStats extends IncrementalStats {
     
     public void reset() {
         super.reset();
-        cubicsum = quadsum = 0.0;
+        mean = m2 = m3 = m4 = 0.0;
     }
     
     public void add(double item, int k) {
         for(int i=0; i<k; ++i)
 	{
         	super.add(item,1);
-        	cubicsum += item * item * item;
-        	quadsum += item * cubicsum;
+        	int n = getN();
+        	double delta = item - mean;
+        	double deltaN = delta / n;
+        	double deltaN2 = deltaN * deltaN;
+        	double term = delta * deltaN * (n - 1);
+        	mean += deltaN;
+        	m4 += term * deltaN2 * ((double) n * n - 3 * n + 3)
+        			+ 6 * deltaN2 * m2 - 4 * deltaN * m3;
+        	m3 += term * deltaN * (n - 2) - 3 * deltaN * m2;
+        	m2 += term;
     	}
     }
+    
+    /** Merges the statistics of another <code>MomentStats</code> object,
+     * including its central moments.
+     * @throws IllegalArgumentException if <code>other</code> is not a
+     * <code>MomentStats</code> */
+    public void merge(IncrementalStats stats) {
+        if (!(stats instanceof MomentStats))
+            throw new IllegalArgumentException("Cannot merge a "
+                    + stats.getClass().getName() + " into a MomentStats");
+        MomentStats other = (MomentStats) stats;
+        double na = getN(), nb = other.getN(), n = na + nb;
+        if (nb == 0)
+            return;
+        double delta = other.mean - mean;
+        double delta2 = delta * delta;
+        double newM4 = m4 + other.m4
+                + delta2 * delta2 * na * nb * (na * na - na * nb + nb * nb) / (n * n * n)
+                + 6 * delta2 * (na * na * other.m2 + nb * nb * m2) / (n * n)
+                + 4 * delta * (na * other.m3 - nb * m3) / n;
+        double newM3 = m3 + other.m3
+                + delta2 * delta * na * nb * (na - nb) / (n * n)
+                + 3 * delta * (na * other.m2 - nb * m2) / n;
+        m2 += other.m2 + delta2 * na * nb / n;
+        m3 = newM3;
+        m4 = newM4;
+        mean += delta * nb / n;
+        super.merge(other);
+    }
    
     /** Outputs on a single line the superclass statistics postfixed by the 
      * current skewness and kurtosis.
@@ -63,8 +106,7 @@ public class MomentStats extends IncrementalStats {
      */ 
     public double getSkewness() {
         int n = this.getN();
-        double m3 = (((double)n) / (n-1)) * (cubicsum/n - Math.pow(getAverage(), 3) );
-        return ( m3 / Math.pow(getStD(), 3 ) );
+        return Math.sqrt(n) * m3 / Math.pow(m2, 1.5);
     }
     
     /** Computes the kurtosis on the node values distribution and 
@@ -75,8 +117,7 @@ public class MomentStats extends IncrementalStats {
      */ 
     public double getKurtosis(){
         int n = this.getN();
-        double m4 = (((double)n) / (n-1)) * (quadsum/n - Math.pow(getAverage(), 4) );
-        return ( m4 / Math.pow(getStD(), 4) )-3;
+        return n * m4 / (m2 * m2) - 3;
     }
 
 }
@@ -0,0 +1,115 @@
+
+package easysim.util;
+
+/**
+ * A growable first-in first-out queue stored in a circular array. Elements are
+ * accessed through their index from the head of the queue, so no node object
+ * is allocated per element (unlike <code>java.util.LinkedList</code>).
+ */
+public class RingBuffer<E>
+{
+
+  private static final int INITIAL_CAPACITY = 8;
+
+  // elements.length is a power of two
+  private Object[]         elements         = new Object[INITIAL_CAPACITY];
+
+  // Index of the first element
+  private int              head             = 0;
+
+  // Number of elements
+  private int              size             = 0;
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * Appends an element at the end of the queue.
+   */
+  public void addLast(E e)
+  {
+    if (size == elements.length)
+      grow();
+    elements[(head + size) & (elements.length - 1)] = e;
+    size++;
+  }
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * Removes and returns the first element, or <code>null</code> if the queue
+   * is empty.
+   */
+  public E pollFirst()
+  {
+    if (size == 0)
+      return null;
+    E e = (E) elements[head];
+    elements[head] = null;
+    head = (head + 1) & (elements.length - 1);
+    size--;
+    return e;
+  }
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * Returns the first element, or <code>null</code> if the queue is empty.
+   */
+  public E peekFirst()
+  {
+    return (size == 0) ? null : (E) elements[head];
+  }
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * Returns the i-th element from the head of the queue.
+   */
+  public E get(int i)
+  {
+    if (i < 0 || i >= size)
+      throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+    return (E) elements[(head + i) & (elements.length - 1)];
+  }
+
+  // -------------------------------------------------------------------------
+
+  public int size()
+  {
+    return size;
+  }
+
+  // -------------------------------------------------------------------------
+
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * Removes all elements. The capacity is kept.
+   */
+  public void clear()
+  {
+    while (size > 0)
+      pollFirst();
+    head = 0;
+  }
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * Doubles the capacity, moving the elements at the start of the new array.
+   */
+  private void grow()
+  {
+    Object[] a = new Object[elements.length << 1];
+    int n = elements.length - head;
+    System.arraycopy(elements, head, a, 0, n);
+    System.arraycopy(elements, 0, a, n, head);
+    elements = a;
+    head = 0;
+  }
+}
@@ -0,0 +1,90 @@
+
+package easysim.util;
+
+/**
+ * A source of randomness based on the SplitMix64 generator. Unlike
+ * <code>java.util.Random</code>, its state is not shared between threads, and
+ * independent streams can be derived from one seed and a stream index (see
+ * {@link #split}). It is used to give each node its own stream, so that the
+ * draws of a node do not depend on the order in which nodes are run.
+ * <p>
+ * An instance must not be used by several threads at the same time.
+ */
+public class SplitRandom extends ExtendedRandom
+{
+
+  private static final long serialVersionUID = 1L;
+
+  /** Increment of the SplitMix64 generator (golden ratio). */
+  private static final long GAMMA            = 0x9E3779B97F4A7C15L;
+
+  private long              state;
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * Creates a generator with the given seed.
+   */
+  public SplitRandom(long seed)
+  {
+    super(seed);
+  }
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * Returns the generator of stream <code>index</code> derived from the given
+   * seed. The same seed and index always give the same stream.
+   */
+  public static SplitRandom split(long seed, long index)
+  {
+    return new SplitRandom(mix(mix(seed) + GAMMA * (index + 1)));
+  }
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * Returns the first value of stream <code>index</code> derived from the
+   * given seed, as <code>split(seed, index).nextLong()</code> does, without
+   * creating the generator: a random function of the index.
+   */
+  public static long hash(long seed, long index)
+  {
+    return mix(mix(mix(seed) + GAMMA * (index + 1)) + GAMMA);
+  }
+
+  // -------------------------------------------------------------------------
+
+  public void setSeed(long seed)
+  {
+    super.setSeed(seed);
+    state = seed;
+  }
+
+  // -------------------------------------------------------------------------
+
+  public long nextLong()
+  {
+    state += GAMMA;
+    return mix(state);
+  }
+
+  // -------------------------------------------------------------------------
+
+  protected int next(int bits)
+  {
+    return (int) (nextLong() >>> (64 - bits));
+  }
+
+  // -------------------------------------------------------------------------
+
+  /**
+   * The SplitMix64 finalizer.
+   */
+  private static long mix(long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
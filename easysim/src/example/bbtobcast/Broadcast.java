@@ -5,6 +5,7 @@ import example.mstobcast.BroadcastMessage;
 import easysim.Simulator;
 import easysim.TimeDiagram;
 import easysim.config.Configuration;
+import easysim.config.IntParam;
 import easysim.core.Message;
 import easysim.core.Node;
 import java.util.ArrayList;
@@ -16,9 +17,15 @@ import java.util.ArrayList;
  */
 public class Broadcast extends Node<Message> {
 
+    private static final long serialVersionUID = 1L;
+
     // ------------------------------------------------------------------------
     // Global configuration fields
     // ------------------------------------------------------------------------
+    // Number of cycles of the simulation
+    private final IntParam cycles = Configuration.intParam("simulation.cycles");
+    // How many messages can be delivered per cycle (-1: no limit)?
+    private final IntParam maxMessagesToDeliver = Configuration.intParam("protocol.ubtobcast.maxMessagesToDeliver");
     // ------------------------------------------------------------------------
     // Fields
     // ------------------------------------------------------------------------
@@ -28,6 +35,7 @@ public class Broadcast extends Node<Message> {
     //All
     private Integer nextRelId = 0;
     private Integer seqNbToDeliver = 0;
+    private int lastRun = -1;
     ArrayList<BroadcastMessage> receivedMessages = new ArrayList();
     ArrayList<BroadcastMessage> messagesToDeliver = new ArrayList();
     ArrayList<SequenceMessage> receivedSeqMessages = new ArrayList();
@@ -39,12 +47,15 @@ public class Broadcast extends Node<Message> {
 
     public Broadcast(String prefix) {
         super(prefix);
+        setAlwaysActive(true);
     }
 
     @Override
     public void cycleHandler() {
-        if (id != 0 && Math.random() < 0.31) {
-            send(new BroadcastMessage(this.nextRelId++), neighbors);
+        boolean firstRun = lastRun != Simulator.getCycle();
+        lastRun = Simulator.getCycle();
+        if (id != 0 && firstRun && getRandom().nextDouble() < 0.31) {
+            sendToNeighbors(new BroadcastMessage(this.nextRelId++));
         }
         // Handle incoming messages
         Message m;
@@ -53,7 +64,7 @@ public class Broadcast extends Node<Message> {
             switch (m.getType()) {
                 case Message.TYPE.DATA:
                     if (this.id == 0) {
-                        send(new SequenceMessage(m.sendingNode, m.getRelId(), this.nextSequenceId++), neighbors);
+                        sendToNeighbors(new SequenceMessage(m.sendingNode, m.getRelId(), this.nextSequenceId++));
                     }
                     receivedMessages.add((BroadcastMessage) m);
                     break;
@@ -65,7 +76,6 @@ public class Broadcast extends Node<Message> {
             }
         }
 
-        int maxMessagesToDeliver = Configuration.getInt("protocol.ubtobcast.maxMessagesToDeliver");
         int nbDeliveredMessages = 0;
         int i = 0;
         while (i < receivedMessages.size()) {
@@ -82,7 +92,7 @@ public class Broadcast extends Node<Message> {
         messagesToDeliver.sort(
                 (BroadcastMessage m1, BroadcastMessage m2)
                 -> Integer.compare(m1.getSeqNb(), m2.getSeqNb()));
-        while ((maxMessagesToDeliver == -1 || nbDeliveredMessages < maxMessagesToDeliver)
+        while ((maxMessagesToDeliver.get() == -1 || nbDeliveredMessages < maxMessagesToDeliver.get())
                 && deliveredMessages.size() < messagesToDeliver.size()
                 && seqNbToDeliver.equals(messagesToDeliver.get(deliveredMessages.size()).getSeqNb())) {
             BroadcastMessage dm = messagesToDeliver.get(deliveredMessages.size());
@@ -93,7 +103,7 @@ public class Broadcast extends Node<Message> {
             TimeDiagram.addAck(dm, this);
         }
 
-        if (Simulator.getCycle() == Configuration.getInt("simulation.cycles") - 1) {
+        if (firstRun && Simulator.getCycle() == cycles.get() - 1) {
             printReport();
         }
     }
@@ -4,6 +4,8 @@ import easysim.core.Message;
 
 public class SequenceMessage extends Message {
 
+    private static final long serialVersionUID = 1L;
+
     public int hops = 0;
     private int toFindNodeFrom;
     private int toFindRelId;
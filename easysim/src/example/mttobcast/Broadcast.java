@@ -3,6 +3,7 @@ package example.mttobcast;
 import easysim.Simulator;
 import easysim.TimeDiagram;
 import easysim.config.Configuration;
+import easysim.config.IntParam;
 import easysim.core.Node;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -14,14 +15,19 @@ import java.util.LinkedList;
  */
 public class Broadcast extends Node<BroadcastMessage> {
 
+    private static final long serialVersionUID = 1L;
+
     // ------------------------------------------------------------------------
     // Global configuration fields
     // ------------------------------------------------------------------------
+    // Number of cycles of the simulation
+    private final IntParam cycles = Configuration.intParam("simulation.cycles");
     // ------------------------------------------------------------------------
     // Fields
     // ------------------------------------------------------------------------
     private int cntAck = 0;
     private int seqNb  = 0;
+    private int lastRun = -1;
 
     // ------------------------------------------------------------------------
     // Fields for statistics
@@ -35,14 +41,22 @@ public class Broadcast extends Node<BroadcastMessage> {
     }
 
     public void cycleHandler() {  
+        boolean firstRun = lastRun != Simulator.getCycle();
+        lastRun = Simulator.getCycle();
+        // Reports at the last cycle, even if the simulation only runs the
+        // nodes with work (all the nodes are run at cycle 0)
+        if ( Simulator.getCycle() == 0 ) {
+            wakeUpAt(cycles.get()-1);
+        }
         // Initialize with a first broadcast
-        if ( Simulator.getCycle() == 0 && id == 0 ) {
+        if ( firstRun && Simulator.getCycle() == 0 && id == 0 ) {
             // Broadcast a message
-            send(new BroadcastMessage(BroadcastMessage.TYPE.DATA, 0, id), neighbors);
+            sendToNeighbors(new BroadcastMessage(BroadcastMessage.TYPE.DATA, 0, id));
         }
 
-        // Handle incoming messages
+        // Handle incoming messages (the ACKs are sent as a batch)
         BroadcastMessage m;
+        beginBatch();
         while ((m = receive()) != null) {
             // If this is a DATA message from the previous node or a ACK message
             if ( (m.getType() == BroadcastMessage.TYPE.DATA && isPrevious(m.getIdSrc())) || (m.getType() == BroadcastMessage.TYPE.ACK)) {
@@ -59,21 +73,22 @@ public class Broadcast extends Node<BroadcastMessage> {
                 TimeDiagram.addAck(m, this);
                 // If necessary, send a ACK message
                 if ( ! isPrevious(m.getIdSrc()) ) {
-                    send(new BroadcastMessage(BroadcastMessage.TYPE.ACK, m.getSeqNb(), id), neighbors[getNext(m.getIdSrc())]);
+                    add(getNeighbor(getNext(m.getIdSrc())), new BroadcastMessage(BroadcastMessage.TYPE.ACK, m.getSeqNb(), id));
                 }
             }
         }
+        commit();
         
         // If every node have received the message
-        if ( this.cntAck >= neighbors.length ) {
+        if ( this.cntAck >= getNeighborCount() ) {
             // Broadcast a message
-            send(new BroadcastMessage(BroadcastMessage.TYPE.DATA, this.seqNb+1, id), neighbors);
+            sendToNeighbors(new BroadcastMessage(BroadcastMessage.TYPE.DATA, this.seqNb+1, id));
             // Reset the ACK counter
             this.cntAck = 0;
         }
         
         // Print the trace
-        if ( Simulator.getCycle() == Configuration.getInt("simulation.cycles")-1 ) {
+        if ( firstRun && Simulator.getCycle() == cycles.get()-1 ) {
             String receivedMessage = "";
             for(Integer msg: this.receivedMessages) receivedMessage += " "+msg;
             System.out.println("[Node "+id+"]");
@@ -83,11 +98,11 @@ public class Broadcast extends Node<BroadcastMessage> {
     }
     
     private boolean isPrevious(int idSrc) {
-        return (idSrc+1)%neighbors.length == id;
+        return (idSrc+1)%getNeighborCount() == id;
     }
 
     private int getNext(int idSrc) {
-        return (idSrc+1)%neighbors.length;
+        return (idSrc+1)%getNeighborCount();
     }
 
     // ------------------------------------------------------------------------
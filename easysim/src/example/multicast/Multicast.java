@@ -12,6 +12,8 @@ import easysim.core.Node;
 public class Multicast extends Node<MulticastMessage>
 {
 
+  private static final long serialVersionUID = 1L;
+
   // ------------------------------------------------------------------------
   // Global configuration fields
   // ------------------------------------------------------------------------
@@ -20,6 +22,10 @@ public class Multicast extends Node<MulticastMessage>
   // Fields
   // ------------------------------------------------------------------------
 
+  // Last cycle at which a message was injected (the cycleHandler may be run
+  // several times per cycle by the continuous-time engine)
+  private int lastInjection = -1;
+
   // ------------------------------------------------------------------------
   // Fields for statistics
   // ------------------------------------------------------------------------
@@ -32,8 +38,15 @@ public class Multicast extends Node<MulticastMessage>
 
   public void cycleHandler() {
     // Node 0 injects a new message in the system
-    if (id == 0 && (Simulator.getCycle() % 4 == 0)) {
-      send(new MulticastMessage(), neighbors);
+    if (id == 0) {
+      int cycle = Simulator.getCycle();
+      if (cycle % 4 == 0 && lastInjection != cycle) {
+        lastInjection = cycle;
+        sendToNeighbors(new MulticastMessage());
+        // Needed to be run at the next injection if only the nodes with work
+        // are run (all the nodes are run at cycle 0)
+        wakeUpAt(cycle + 4);
+      }
     }
     // Handle incoming messages
     MulticastMessage m;
@@ -43,9 +56,11 @@ public class Multicast extends Node<MulticastMessage>
         m.hops++;
         if (id != 0) {
           // All nodes forward, but p0
-          send(m, neighbors);
+          sendToNeighbors(m);
         }
       }
+      // Reused once forwarded, if messages are pooled
+      release(m);
     }
   }
 
@@ -1,12 +1,22 @@
 package example.multicast;
 
 import easysim.core.Message;
+import easysim.core.Poolable;
+
+public class MulticastMessage extends Message implements Poolable {
+
+	private static final long serialVersionUID = 1L;
 
-public class MulticastMessage extends Message {
 	public int hops = 0;
 
     @Override
     public int getType() {
         return Message.TYPE.UNDEFINED;
     }
+
+    @Override
+    protected void copyFrom(Message m) {
+        super.copyFrom(m);
+        hops = ((MulticastMessage) m).hops;
+    }
 }
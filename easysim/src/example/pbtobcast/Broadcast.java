@@ -3,6 +3,7 @@ package example.pbtobcast;
 import easysim.Simulator;
 import easysim.TimeDiagram;
 import easysim.config.Configuration;
+import easysim.config.IntParam;
 import easysim.core.Node;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -14,9 +15,14 @@ import java.util.LinkedList;
  */
 public class Broadcast extends Node<BroadcastMessage> {
 
+    private static final long serialVersionUID = 1L;
+
     // ------------------------------------------------------------------------
     // Global configuration fields
     // ------------------------------------------------------------------------
+    // Number of cycles of the simulation
+    private final IntParam cycles = Configuration.intParam("simulation.cycles");
+
     public final int ID_SEQUENCER = 0;
     // ------------------------------------------------------------------------
     // Fields
@@ -24,6 +30,7 @@ public class Broadcast extends Node<BroadcastMessage> {
     private int                 seqNb       = 0;
     private boolean             isWaiting   = false;
     private LinkedList<Integer> waitingLine = new LinkedList<>(); 
+    private int                 lastRun     = -1;
 
     // ------------------------------------------------------------------------
     // Fields for statistics
@@ -34,13 +41,16 @@ public class Broadcast extends Node<BroadcastMessage> {
 
     public Broadcast(String prefix) {
         super(prefix);
+        setAlwaysActive(true);
     }
 
     public void cycleHandler() {        
+        boolean firstRun = lastRun != Simulator.getCycle();
+        lastRun = Simulator.getCycle();
         // If random and you are not waiting for a ACK message and you are not the sequencer
-        if ( Math.random() < 0.75  && ! this.isWaiting && id != this.ID_SEQUENCER ) {
+        if ( firstRun && getRandom().nextDouble() < 0.75  && ! this.isWaiting && id != this.ID_SEQUENCER ) {
             // Send a REQ message to the sequencer
-            send(new BroadcastMessage(BroadcastMessage.TYPE.REQ, -1, id), neighbors[this.ID_SEQUENCER]);
+            send(new BroadcastMessage(BroadcastMessage.TYPE.REQ, -1, id), getNeighbor(this.ID_SEQUENCER));
             // Wait for the ACK message
             this.isWaiting = true;
         }
@@ -56,7 +66,7 @@ public class Broadcast extends Node<BroadcastMessage> {
             // If this is a ACK message and you are not the sequencer
             if ( m.getType() == BroadcastMessage.TYPE.ACK && id != this.ID_SEQUENCER ) {
                 // Send the broadcast
-                send(new BroadcastMessage(BroadcastMessage.TYPE.DATA, m.getSeqNb()), neighbors);
+                sendToNeighbors(new BroadcastMessage(BroadcastMessage.TYPE.DATA, m.getSeqNb()));
                 // You are not waiting for a ACK message anymore
                 this.isWaiting = false;
             }
@@ -82,13 +92,13 @@ public class Broadcast extends Node<BroadcastMessage> {
             // Increment the sequence number
             this.seqNb++;
             // Send a ACK message to the initial sender
-            send(new BroadcastMessage(BroadcastMessage.TYPE.ACK, this.seqNb), neighbors[idDest]);
+            send(new BroadcastMessage(BroadcastMessage.TYPE.ACK, this.seqNb), getNeighbor(idDest));
             // Wait for a DATA message
             this.isWaiting = true;
         }
         
         // Print the trace
-        if ( Simulator.getCycle() == Configuration.getInt("simulation.cycles")-1 ) {
+        if ( firstRun && Simulator.getCycle() == cycles.get()-1 ) {
             String receivedMessage = "";
             for(Integer msg: this.receivedMessages) receivedMessage += " "+msg;
             System.out.println("[Node "+id+"]");
@@ -4,6 +4,8 @@ import easysim.core.Message;
 
 public class BroadcastMessage extends Message {
 
+    private static final long serialVersionUID = 1L;
+
     public        int hops = 0;
     private final int type;       // The type of the message
     private       int seqNb;      // The sequence number of the message
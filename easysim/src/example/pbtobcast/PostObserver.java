@@ -80,6 +80,9 @@ public class PostObserver implements Control {
         IncrementalStats nbReceivedMessagesStats = new IncrementalStats();
         
         for (int i = 0; i < Network.size(); i++) {
+            if (!Network.isLocal(i)) {
+                continue;
+            }
             Broadcast protocol = (Broadcast) Network.get(i);
             nbReceivedMessagesStats.add(protocol.nbReceivedMessages);
         }
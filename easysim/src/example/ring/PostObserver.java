@@ -88,6 +88,8 @@ public class PostObserver implements Control
     IncrementalStats nbReceivedMessagesStats = new IncrementalStats();
     for (int i = 0; i < Network.size(); i++)
     {
+      if (!Network.isLocal(i))
+        continue;
       Ring protocol = (Ring) Network.get(i);
       nbReceivedMessagesStats.add(protocol.nbReceivedMessages);
     }
@@ -1,6 +1,7 @@
 
 package example.ring;
 
+import easysim.Simulator;
 import easysim.core.Node;
 
 /**
@@ -11,6 +12,8 @@ import easysim.core.Node;
 public class Ring extends Node<RingMessage>
 {
 
+  private static final long serialVersionUID = 1L;
+
   // ------------------------------------------------------------------------
   // Global configuration fields
   // ------------------------------------------------------------------------
@@ -19,6 +22,10 @@ public class Ring extends Node<RingMessage>
   // Fields
   // ------------------------------------------------------------------------
 
+  // Last cycle at which a message was injected (the cycleHandler may be run
+  // several times per cycle by the continuous-time engine)
+  private int lastInjection = -1;
+
   // ------------------------------------------------------------------------
   // Fields for statistics
   // ------------------------------------------------------------------------
@@ -33,7 +40,15 @@ public class Ring extends Node<RingMessage>
   public void cycleHandler() {
     // Node 0 injects a new message in the system
     if (id == 0) {
-      send(new RingMessage(), neighbors);
+      if (Simulator.getCycle() == 0) {
+        // Injects at every cycle, even if only active nodes are run (all the
+        // nodes are run at cycle 0)
+        setAlwaysActive(true);
+      }
+      if (lastInjection != Simulator.getCycle()) {
+        lastInjection = Simulator.getCycle();
+        sendToNeighbors(new RingMessage());
+      }
     }
     // Handle incoming messages
     RingMessage m;
@@ -41,8 +56,10 @@ public class Ring extends Node<RingMessage>
       nbReceivedMessages++;
       if (id != 0) {
         // All nodes forward, but p0
-        send(m, neighbors);
+        sendToNeighbors(m);
       }
+      // Reused once forwarded, if messages are pooled
+      release(m);
     }
   }
 
@@ -1,8 +1,11 @@
 package example.ring;
 
 import easysim.core.Message;
+import easysim.core.Poolable;
 
-public class RingMessage extends Message {
+public class RingMessage extends Message implements Poolable {
+
+    private static final long serialVersionUID = 1L;
 
     @Override
     public int getType() {
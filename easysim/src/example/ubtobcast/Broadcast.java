@@ -3,6 +3,7 @@ package example.ubtobcast;
 import easysim.Simulator;
 import easysim.TimeDiagram;
 import easysim.config.Configuration;
+import easysim.config.IntParam;
 import easysim.core.Node;
 import java.util.ArrayList;
 
@@ -13,15 +14,23 @@ import java.util.ArrayList;
  */
 public class Broadcast extends Node<BroadcastMessage> {
 
+    private static final long serialVersionUID = 1L;
+
     // ------------------------------------------------------------------------
     // Global configuration fields
     // ------------------------------------------------------------------------
+    // Number of cycles of the simulation
+    private final IntParam cycles = Configuration.intParam("simulation.cycles");
+    // How many messages can be delivered per cycle (-1: no limit)?
+    private final IntParam maxMessagesToDeliver = Configuration.intParam("protocol.ubtobcast.maxMessagesToDeliver");
+
 
     // ------------------------------------------------------------------------
     // Fields
     // ------------------------------------------------------------------------
     private Integer currentId = 0;
     private Integer currentSequenceId = 0;
+    private int lastRun = -1;
     ArrayList<BroadcastMessage> receivedMessages = new ArrayList();
     ArrayList<BroadcastMessage> deliveredMessages = new ArrayList();
     // ------------------------------------------------------------------------
@@ -31,13 +40,16 @@ public class Broadcast extends Node<BroadcastMessage> {
 
     public Broadcast(String prefix) {
         super(prefix);
+        setAlwaysActive(true);
     }
 
     @Override
     public void cycleHandler() {
-        if (Math.random() < 0.35) {
+        boolean firstRun = lastRun != Simulator.getCycle();
+        lastRun = Simulator.getCycle();
+        if (firstRun && getRandom().nextDouble() < 0.35) {
             BroadcastMessage toSend = new BroadcastMessage();
-            send(toSend , neighbors[0]);
+            send(toSend , getNeighbor(0));
         }
         // Handle incoming messages
         BroadcastMessage m;
@@ -47,19 +59,18 @@ public class Broadcast extends Node<BroadcastMessage> {
             if (id == 0 && m.getSeqNb() == -1) {
                 m.setSeqNb(currentSequenceId++);
                 m.hops++;
-                send(m, neighbors);
+                sendToNeighbors(m);
             } else {
                 receivedMessages.add(m);
             }
         }
 
         if (deliveredMessages.size() < receivedMessages.size()) {
-            int maxMessagesToDeliver = Configuration.getInt("protocol.ubtobcast.maxMessagesToDeliver");
             int nbDeliveredMessages = 0;
             receivedMessages.sort(
                     (BroadcastMessage m1, BroadcastMessage m2)
                     -> Integer.compare(m1.getSeqNb(), m2.getSeqNb()));
-            while ((maxMessagesToDeliver == -1 || nbDeliveredMessages < maxMessagesToDeliver)
+            while ((maxMessagesToDeliver.get() == -1 || nbDeliveredMessages < maxMessagesToDeliver.get())
                     && deliveredMessages.size() < receivedMessages.size()
                     && currentId.equals(receivedMessages.get(deliveredMessages.size()).getSeqNb())) {
                 BroadcastMessage dm = receivedMessages.get(deliveredMessages.size());
@@ -71,7 +82,7 @@ public class Broadcast extends Node<BroadcastMessage> {
             }
         }
 
-        if (Simulator.getCycle() == Configuration.getInt("simulation.cycles") - 1) {
+        if (firstRun && Simulator.getCycle() == cycles.get() - 1) {
             printReport();
         }
     }
@@ -4,6 +4,8 @@ import easysim.core.Message;
 
 public class BroadcastMessage extends Message {
 
+    private static final long serialVersionUID = 1L;
+
     public int hops = 0;
     private int seqNb;
     
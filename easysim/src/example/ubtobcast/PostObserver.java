@@ -8,6 +8,8 @@ import easysim.Simulator;
 import easysim.config.Configuration;
 import easysim.core.Control;
 import easysim.core.Network;
+import easysim.core.Node;
+import easysim.util.Accumulator;
 import easysim.util.IncrementalStats;
 
 /**
@@ -21,6 +23,9 @@ public class PostObserver implements Control {
 
     private static final String NB_RECEIVED_MESSAGES = "nbReceivedMessages";
 
+    // Number of partitions of the nodes reduced in parallel (1 by default)
+    private static final String THREADS              = "threads";
+
     // /////////////////////////////////////////////////////////////////////
     // Fields
     // /////////////////////////////////////////////////////////////////////
@@ -29,6 +34,8 @@ public class PostObserver implements Control {
 
     private boolean             nbReceivedMessages;
 
+    private final int           threads;
+
     private FileOutputStream    nbReceivedMessagesFos;
 
     // /////////////////////////////////////////////////////////////////////
@@ -42,6 +49,7 @@ public class PostObserver implements Control {
         this.name = name;
         nbReceivedMessages = Configuration.contains(name + ".observe."
                 + NB_RECEIVED_MESSAGES);
+        threads = Configuration.getInt(name + "." + THREADS, 1);
 
         try {
             // initialize output streams
@@ -76,12 +84,16 @@ public class PostObserver implements Control {
 
     private void nbReceivedMessageObservation(long time) {
         
-        IncrementalStats nbReceivedMessagesStats = new IncrementalStats();
-        
-        for (int i = 0; i < Network.size(); i++) {
-            Broadcast protocol = (Broadcast) Network.get(i);
-            nbReceivedMessagesStats.add(protocol.nbReceivedMessages);
-        }
+        final Node[] nodes = Network.nodes();
+        IncrementalStats nbReceivedMessagesStats = Accumulator.reduce(
+                Network.size(), threads, IncrementalStats::new,
+                (stats, i) -> {
+                    // Only the nodes of this shard, if the network is sharded
+                    if (Network.isLocal(i)) {
+                        stats.add(((Broadcast) nodes[i]).nbReceivedMessages);
+                    }
+                },
+                IncrementalStats::merge);
         
         PrintStream pstr = new PrintStream(nbReceivedMessagesFos);
         if (time == 0) {
@@ -0,0 +1,96 @@
+
+
+package easysim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Runs the tests of the classes given as arguments, and exits with status 1
+ * if one of them fails. A test is a public instance method without
+ * parameters whose name starts with <code>test</code>, of a class with a
+ * public constructor without parameters; it fails by throwing. Each test is
+ * run on a new instance of its class, in the order of the names. What a test
+ * prints on the standard error (the progress of the simulations it runs) is
+ * only shown if it fails.
+ * <p>
+ * The tests are run by <code>ant test</code>.
+ */
+public final class TestRunner
+{
+
+  /** Disable instance construction */
+  private TestRunner()
+  {
+  }
+
+  // ------------------------------------------------------------------------
+
+  public static void main(String[] args) throws Exception
+  {
+    PrintStream err = System.err;
+    int run = 0;
+    int failed = 0;
+    for (String name : args)
+    {
+      Class<?> c = Class.forName(name);
+      Method[] methods = c.getMethods();
+      Arrays.sort(methods, new Comparator<Method>()
+      {
+        public int compare(Method a, Method b)
+        {
+          return a.getName().compareTo(b.getName());
+        }
+      });
+      for (Method m : methods)
+      {
+        if (!m.getName().startsWith("test")
+            || m.getParameterTypes().length > 0
+            || Modifier.isStatic(m.getModifiers()))
+          continue;
+        ++run;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(log, true));
+        Throwable failure = null;
+        long start = System.currentTimeMillis();
+        try
+        {
+          m.invoke(c.getConstructor().newInstance());
+        }
+        catch (InvocationTargetException e)
+        {
+          failure = e.getCause();
+        }
+        catch (Exception e)
+        {
+          failure = e;
+        }
+        finally
+        {
+          System.setErr(err);
+        }
+        String test = c.getName() + "." + m.getName() + " ("
+            + (System.currentTimeMillis() - start) + " ms)";
+        if (failure == null)
+        {
+          System.out.println("ok   " + test);
+        }
+        else
+        {
+          ++failed;
+          System.out.println("FAIL " + test);
+          err.write(log.toByteArray());
+          failure.printStackTrace();
+        }
+      }
+    }
+    System.out.println(run + " tests, " + failed + " failures");
+    if (failed > 0 || run == 0)
+      System.exit(1);
+  }
+}
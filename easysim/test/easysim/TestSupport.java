@@ -0,0 +1,384 @@
+
+package easysim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import easysim.config.Configuration;
+import easysim.core.Network;
+import easysim.trace.TraceReader;
+import easysim.util.ExtendedRandom;
+
+/**
+ * Checks and in-process simulations for the tests (see {@link TestRunner}).
+ * <p>
+ * Each simulation is run within its own {@link SimulationContext}, so that a
+ * test can run several of them, one after the other or at the same time. What
+ * a simulation prints on the standard output is captured, and its time
+ * diagram can be recorded. The observers of the examples print on the
+ * standard error, which is captured too, but only for the simulations run one
+ * at a time.
+ */
+public final class TestSupport
+{
+
+  /** The seed of the simulations, unless set otherwise. */
+  public static final long SEED = 1234567890L;
+
+  /** Disable instance construction */
+  private TestSupport()
+  {
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * The outcome of a simulation run by {@link TestSupport#run}.
+   */
+  public static final class Result
+  {
+
+    /** The lines printed by the simulation on the standard output. */
+    public final List<String> out;
+
+    /**
+     * The lines printed by the controls of the simulation on the standard
+     * error, i.e. those starting with <code>control.</code>.
+     */
+    public final List<String> observations;
+
+    /**
+     * The events of the time diagram of the simulation, grouped by receiving
+     * node in increasing id order, each group in the order in which the node
+     * received them; or null if the time diagram was not recorded. Each event
+     * is its kind followed by its definition (see
+     * {@link easysim.trace.TraceWriter}).
+     */
+    public final List<String> deliveries;
+
+    Result(List<String> out, List<String> observations,
+        List<String> deliveries)
+    {
+      this.out = out;
+      this.observations = observations;
+      this.deliveries = deliveries;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Throws an AssertionError with the given message if the condition does
+   * not hold.
+   */
+  public static void check(boolean condition, String message)
+  {
+    if (!condition)
+      throw new AssertionError(message);
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Throws an AssertionError if the given objects are not equal.
+   */
+  public static void checkEquals(Object expected, Object actual, String what)
+  {
+    if (expected == null ? actual != null : !expected.equals(actual))
+      throw new AssertionError(what + ": expected <" + expected
+          + "> but was <" + actual + ">");
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Throws an AssertionError showing the first difference if the given lists
+   * of lines are not equal.
+   */
+  public static void checkLines(List<String> expected, List<String> actual,
+      String what)
+  {
+    int n = Math.min(expected.size(), actual.size());
+    for (int i = 0; i < n; ++i)
+    {
+      if (!expected.get(i).equals(actual.get(i)))
+        throw new AssertionError(what + ", line " + (i + 1) + ": expected <"
+            + expected.get(i) + "> but was <" + actual.get(i) + ">");
+    }
+    if (expected.size() != actual.size())
+      throw new AssertionError(what + ": expected " + expected.size()
+          + " lines but was " + actual.size());
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the configuration of a network of the given size, running the
+   * given protocol class under the name <code>protocol.name</code> for the
+   * given number of cycles, with all messages sent and received at each
+   * cycle. Latencies are drawn in [1, 4], and the network is complete.
+   */
+  public static Properties protocol(String name, String className, int size,
+      int cycles)
+  {
+    Properties p = new Properties();
+    p.setProperty(Simulator.PAR_SEED, "" + SEED);
+    p.setProperty("simulation.cycles", "" + cycles);
+    p.setProperty("network.size", "" + size);
+    p.setProperty("protocol." + name, className);
+    p.setProperty("protocol." + name + ".latencyRange", "4");
+    p.setProperty("protocol." + name + ".maxMessagesToSend", "-1");
+    p.setProperty("protocol." + name + ".maxMessagesToReceive", "-1");
+    p.setProperty("protocol." + name + ".maxMessagesToDeliver", "-1");
+    p.setProperty("init.0_wire", "WireEntireNetwork");
+    p.setProperty("init.0_wire.protocol", name);
+    return p;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns a copy of the given configuration, with the given
+   * <code>name=value</code> parameters added or replaced.
+   */
+  public static Properties with(Properties p, String... parameters)
+  {
+    Properties copy = new Properties();
+    copy.putAll(p);
+    for (String parameter : parameters)
+    {
+      int i = parameter.indexOf('=');
+      if (i < 0)
+        copy.setProperty(parameter, "");
+      else
+        copy.setProperty(parameter.substring(0, i), parameter.substring(i + 1));
+    }
+    return copy;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Runs one experiment of the given configuration, and returns what it
+   * printed. If <code>trace</code> is true, its time diagram is recorded
+   * too.
+   */
+  public static Result run(Properties p, boolean trace)
+  {
+    final Properties config = with(p);
+    File file = null;
+    File svg = null;
+    try
+    {
+      if (trace)
+      {
+        file = File.createTempFile("easysim", ".trace");
+        svg = File.createTempFile("easysim", ".svg");
+        config.setProperty("simulation.timeDiagram", "");
+        config.setProperty(TimeDiagram.PAR_FILE, file.getPath());
+        config.setProperty(TimeDiagram.PAR_EXPORT, "svg");
+        config.setProperty(TimeDiagram.PAR_EXPORT_FILE, svg.getPath());
+        if (!config.containsKey("simulation.uniform"))
+          config.setProperty("simulation.uniform", "true");
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteArrayOutputStream err = new ByteArrayOutputStream();
+      synchronized (TestSupport.class)
+      {
+        PrintStream stderr = System.err;
+        System.setErr(new PrintStream(new TeeOutputStream(err, stderr), true));
+        try
+        {
+          run(config, new PrintStream(out, true));
+        }
+        finally
+        {
+          System.setErr(stderr);
+        }
+      }
+      List<String> observations = new ArrayList<String>();
+      for (String line : lines(err.toString()))
+      {
+        if (line.startsWith("control."))
+          observations.add(line);
+      }
+      return new Result(lines(out.toString()), observations,
+          trace ? read(file) : null);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    finally
+    {
+      if (file != null)
+        file.delete();
+      if (svg != null)
+        svg.delete();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Runs one experiment of the given configuration within a new context,
+   * with its standard output sent to the given stream.
+   */
+  public static void run(final Properties config, PrintStream out)
+  {
+    synchronized (TestSupport.class)
+    {
+      if (!SimulationContext.isRoutingStream(System.out))
+        System.setOut(SimulationContext.routingStream(System.out));
+    }
+    SimulationContext context = new SimulationContext();
+    context.setOut(out);
+    context.run(new Runnable()
+    {
+      public void run()
+      {
+        Configuration.setConfig(config);
+        Simulator.setRandom(new ExtendedRandom(Configuration.getLong(
+            Simulator.PAR_SEED, SEED)));
+        Simulator.nextExperiment();
+      }
+    });
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Creates the network of the given configuration within a new context, but
+   * does not run its initializers, and then calls the given task within the
+   * same context, with its standard output sent to the given stream. Returns
+   * the result of the task.
+   */
+  public static <V> V network(final Properties config, PrintStream out,
+      final Callable<V> task)
+  {
+    synchronized (TestSupport.class)
+    {
+      if (!SimulationContext.isRoutingStream(System.out))
+        System.setOut(SimulationContext.routingStream(System.out));
+    }
+    SimulationContext context = new SimulationContext();
+    context.setOut(out);
+    return context.call(new Callable<V>()
+    {
+      public V call() throws Exception
+      {
+        Configuration.setConfig(config);
+        Simulator.setRandom(new ExtendedRandom(Configuration.getLong(
+            Simulator.PAR_SEED, SEED)));
+        Network.reset();
+        return task.call();
+      }
+    });
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Writes to two streams.
+   */
+  private static final class TeeOutputStream extends OutputStream
+  {
+
+    private final OutputStream first;
+
+    private final OutputStream second;
+
+    TeeOutputStream(OutputStream first, OutputStream second)
+    {
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      first.write(b);
+      second.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      first.write(b, off, len);
+      second.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+      first.flush();
+      second.flush();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the lines of the given text, each ended by a line separator
+   * (except possibly the last one).
+   */
+  public static List<String> lines(String text)
+  {
+    List<String> lines = new ArrayList<String>(Arrays.asList(text.split(
+        "\r?\n", -1)));
+    // What follows the last line separator
+    if (lines.get(lines.size() - 1).isEmpty())
+      lines.remove(lines.size() - 1);
+    return lines;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the events of the given time diagram file, grouped by receiving
+   * node.
+   */
+  private static List<String> read(File file) throws IOException
+  {
+    final Map<Integer, List<String>> byNode = new TreeMap<Integer, List<String>>();
+    TraceReader reader = new TraceReader(file.getPath());
+    try
+    {
+      reader.read(0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE,
+          new TraceReader.Visitor()
+          {
+            public void event(int kind, int[] def, int length)
+            {
+              StringBuilder event = new StringBuilder().append(kind);
+              for (int i = 0; i < length; ++i)
+                event.append(' ').append(def[i]);
+              List<String> events = byNode.get(def[1]);
+              if (events == null)
+              {
+                events = new ArrayList<String>();
+                byNode.put(def[1], events);
+              }
+              events.add(event.toString());
+            }
+          });
+    }
+    finally
+    {
+      reader.close();
+    }
+    List<String> events = new ArrayList<String>();
+    for (List<String> node : byNode.values())
+      events.addAll(node);
+    return events;
+  }
+}
@@ -0,0 +1,204 @@
+
+package easysim;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+
+import easysim.trace.TraceReader;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks the SVG and PNG files exported by {@link TimeDiagramExport} without
+ * a display, with the events drawn or as a heatmap.
+ */
+public class TimeDiagramExportTest
+{
+
+  static
+  {
+    System.setProperty("java.awt.headless", "true");
+  }
+
+  private static final String HEATMAP_TITLE = "Messages received per node";
+
+  private static Properties broadcast()
+  {
+    return with(protocol("ubtobcast", "example.ubtobcast.Broadcast", 6, 12),
+        "simulation.timeDiagram", "simulation.uniform=true");
+  }
+
+  /**
+   * Runs the broadcast with its time diagram exported in the given format to
+   * a new temporary file, streamed to a trace file if <code>trace</code> is
+   * not null, and returns the exported file.
+   */
+  private static File export(String format, int heatmap, File trace)
+      throws IOException
+  {
+    File file = File.createTempFile("easysim", "." + format);
+    Properties p = with(broadcast(), TimeDiagram.PAR_EXPORT + "=" + format,
+        TimeDiagram.PAR_EXPORT_FILE + "=" + file.getPath(),
+        TimeDiagram.PAR_HEATMAP + "=" + heatmap);
+    if (trace != null)
+      p = with(p, TimeDiagram.PAR_FILE + "=" + trace.getPath());
+    TestSupport.run(p, new PrintStream(new ByteArrayOutputStream()));
+    check(file.length() > 0, "empty " + format + " file");
+    return file;
+  }
+
+  /**
+   * Returns the number of events of the time diagram of the broadcast.
+   */
+  private static int events() throws IOException
+  {
+    File trace = File.createTempFile("easysim", ".trace");
+    File svg = null;
+    try
+    {
+      svg = export("svg", Integer.MAX_VALUE, trace);
+      TraceReader reader = new TraceReader(trace.getPath());
+      try
+      {
+        return reader.getEvents();
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    finally
+    {
+      trace.delete();
+      if (svg != null)
+        svg.delete();
+    }
+  }
+
+  /**
+   * Parses the given SVG file, and returns it.
+   */
+  private static Document svg(File file) throws Exception
+  {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Document svg = factory.newDocumentBuilder().parse(file);
+    checkEquals("svg", svg.getDocumentElement().getLocalName(), "root");
+    return svg;
+  }
+
+  /**
+   * Reads the given PNG file, and checks that something is drawn on it.
+   */
+  private static BufferedImage png(File file) throws IOException
+  {
+    BufferedImage image = ImageIO.read(file);
+    check(image != null, "unreadable PNG file");
+    check(image.getWidth() > 0 && image.getHeight() > 0, "empty PNG image");
+    boolean drawn = false;
+    for (int x = 0; x < image.getWidth() && !drawn; ++x)
+    {
+      for (int y = 0; y < image.getHeight() && !drawn; ++y)
+        drawn = (image.getRGB(x, y) & 0xffffff) != 0xffffff;
+    }
+    check(drawn, "blank PNG image");
+    return image;
+  }
+
+  private static boolean same(BufferedImage a, BufferedImage b)
+  {
+    if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight())
+      return false;
+    for (int x = 0; x < a.getWidth(); ++x)
+    {
+      for (int y = 0; y < a.getHeight(); ++y)
+      {
+        if (a.getRGB(x, y) != b.getRGB(x, y))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testSvg() throws Exception
+  {
+    int events = events();
+    check(events > 0, "no events");
+
+    // As many events as the threshold: they are drawn
+    File file = export("svg", events, null);
+    try
+    {
+      Document svg = svg(file);
+      check(svg.getElementsByTagNameNS("*", "line").getLength() > 0,
+          "no lines drawn");
+      check(!svg.getDocumentElement().getTextContent().contains(
+          HEATMAP_TITLE), "heatmap drawn below the threshold");
+    }
+    finally
+    {
+      file.delete();
+    }
+
+    // More events than the threshold: a heatmap, also from a trace file
+    File trace = File.createTempFile("easysim", ".trace");
+    for (File t : new File[] { null, trace })
+    {
+      file = export("svg", events - 1, t);
+      try
+      {
+        Document svg = svg(file);
+        check(svg.getDocumentElement().getTextContent().contains(
+            HEATMAP_TITLE), "no heatmap above the threshold");
+        check(svg.getElementsByTagNameNS("*", "line").getLength() == 0,
+            "events drawn in the heatmap");
+        check(svg.getElementsByTagNameNS("*", "rect").getLength() > 1,
+            "no heatmap cells");
+      }
+      finally
+      {
+        file.delete();
+      }
+    }
+    trace.delete();
+  }
+
+  public void testPng() throws IOException
+  {
+    int events = events();
+    File trace = File.createTempFile("easysim", ".trace");
+    File drawn = export("png", events, null);
+    File heatmap = export("png", events - 1, null);
+    File streamed = export("png", events - 1, trace);
+    try
+    {
+      BufferedImage d = png(drawn);
+      BufferedImage h = png(heatmap);
+      checkEquals(d.getWidth(), h.getWidth(), "width");
+      checkEquals(d.getHeight(), h.getHeight(), "height");
+      check(!same(d, h), "same image with and without the heatmap");
+      check(same(h, png(streamed)), "different heatmap from a trace file");
+    }
+    finally
+    {
+      trace.delete();
+      drawn.delete();
+      heatmap.delete();
+      streamed.delete();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+
+package easysim.config;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import easysim.SimulationContext;
+
+import static easysim.TestSupport.checkEquals;
+
+/**
+ * Checks the default values of the parameters read by {@link Configuration}.
+ */
+public class ConfigurationTest
+{
+
+  private static <V> V call(final Properties p, final Callable<V> task)
+  {
+    return new SimulationContext().call(new Callable<V>()
+    {
+      public V call() throws Exception
+      {
+        Configuration.setConfig(p);
+        return task.call();
+      }
+    });
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testStringDefaults()
+  {
+    final Properties p = new Properties();
+    p.setProperty("protocol.a", "example.ring.Ring");
+    p.setProperty("protocol.a.name", " value ");
+    p.setProperty("protocol.a.empty", "");
+    call(p, new Callable<Void>()
+    {
+      public Void call()
+      {
+        checkEquals("value", Configuration.getString("protocol.a.name",
+            "default"), "present parameter");
+        checkEquals("", Configuration.getString("protocol.a.empty",
+            "default"), "empty parameter");
+        checkEquals("default", Configuration.getString("protocol.a.nam",
+            "default"), "missing parameter");
+        checkEquals(null, Configuration.getString("protocol.a.nam", null),
+            "missing parameter without default");
+        checkEquals(3, Configuration.getInt("protocol.a.size", 3),
+            "missing int parameter");
+        return null;
+      }
+    });
+  }
+}
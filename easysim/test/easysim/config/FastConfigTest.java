@@ -0,0 +1,43 @@
+
+package easysim.config;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import easysim.SimulationContext;
+
+import static easysim.TestSupport.checkEquals;
+
+/**
+ * Checks that {@link FastConfig} reads the configuration of each simulation
+ * context.
+ */
+public class FastConfigTest
+{
+
+  private static int numLinkables(String linkable) throws Exception
+  {
+    final Properties p = new Properties();
+    p.setProperty("protocol.a", "example.ring.Ring");
+    p.setProperty("protocol.b", "example.ring.Ring");
+    if (linkable != null)
+      p.setProperty("protocol.a.linkable", linkable);
+    return new SimulationContext().call(new Callable<Integer>()
+    {
+      public Integer call()
+      {
+        Configuration.setConfig(p);
+        return FastConfig.numLinkables(Configuration.lookupPid("a"));
+      }
+    });
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testLinksPerContext() throws Exception
+  {
+    checkEquals(2, numLinkables("a b"), "linkables of a");
+    checkEquals(0, numLinkables(null), "linkables of a in a new context");
+    checkEquals(1, numLinkables("b"), "linkables of a in a third context");
+  }
+}
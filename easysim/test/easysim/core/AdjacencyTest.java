@@ -0,0 +1,171 @@
+
+package easysim.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import easysim.TestSupport;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.checkLines;
+import static easysim.TestSupport.lines;
+import static easysim.TestSupport.protocol;
+
+/**
+ * Checks the neighbors read by the nodes from the compressed sparse row
+ * {@link Adjacency} built by an {@link EdgeBuilder}.
+ */
+public class AdjacencyTest
+{
+
+  private static final int SIZE = 5;
+
+  private static Properties config()
+  {
+    return protocol("example", "example.ring.Ring", SIZE, 1);
+  }
+
+  /**
+   * Returns the ids of the neighbors of node i, as given by the node.
+   */
+  static List<Integer> neighbors(int i)
+  {
+    Node node = Network.get(i);
+    List<Integer> ids = new ArrayList<Integer>();
+    for (int k = 0; k < node.getNeighborCount(); ++k)
+    {
+      ids.add(node.getNeighborId(k));
+      checkEquals(node.getNeighborId(k), node.getNeighbor(k).id,
+          "neighbor " + k + " of node " + i);
+    }
+    checkEquals(ids.size(), node.getNeighborIds().remaining(),
+        "neighbor ids of node " + i);
+    return ids;
+  }
+
+  /**
+   * Returns the given neighbor ids.
+   */
+  static List<Integer> ids(Integer... ids)
+  {
+    return Arrays.asList(ids);
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testNeighborsInOrderOfAddition()
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TestSupport.network(config(), new PrintStream(out, true),
+        new Callable<Void>()
+        {
+          @SuppressWarnings("unchecked")
+          public Void call()
+          {
+            Network.get(3).addNeighbor(Network.get(0));
+            EdgeBuilder builder = new EdgeBuilder();
+            builder.add(1, 4);
+            builder.add(1, 2);
+            builder.add(3, 1);
+            // Not in increasing order of source node, with duplicates
+            builder.add(0, 2);
+            builder.add(1, 4);
+            builder.add(3, 0);
+            builder.add(3, 2);
+            checkEquals(7, builder.size(), "links added");
+            Adjacency adjacency = builder.wire(true);
+            checkEquals(SIZE, adjacency.size(), "nodes");
+            checkEquals(6, adjacency.links(), "links");
+            checkEquals(ids(2), neighbors(0), "neighbors of node 0");
+            checkEquals(ids(4, 2), neighbors(1), "neighbors of node 1");
+            checkEquals(ids(), neighbors(2), "neighbors of node 2");
+            checkEquals(ids(0, 1, 2), neighbors(3), "neighbors of node 3");
+            checkEquals(ids(), neighbors(4), "neighbors of node 4");
+            for (int i = 0; i < SIZE; ++i)
+            {
+              checkEquals(Network.get(i).getNeighborCount(), adjacency
+                  .degree(i), "degree of node " + i);
+              for (int k = 0; k < adjacency.degree(i); ++k)
+                checkEquals(Network.get(i).getNeighborId(k), adjacency.target(
+                    i, k), "neighbor " + k + " of node " + i);
+            }
+            return null;
+          }
+        });
+    checkLines(Arrays.asList("1 linked to 4", "1 linked to 2",
+        "3 linked to 1", "0 linked to 2", "3 linked to 2"), lines(out
+        .toString()), "links printed");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testAddNeighborAfterWiring()
+  {
+    TestSupport.network(config(), new PrintStream(new ByteArrayOutputStream()),
+        new Callable<Void>()
+        {
+          @SuppressWarnings("unchecked")
+          public Void call()
+          {
+            EdgeBuilder builder = new EdgeBuilder();
+            for (int i = 0; i < SIZE; ++i)
+              builder.add(i, (i + 1) % SIZE);
+            Adjacency adjacency = builder.wire(false);
+            check(Network.get(2).addNeighbor(Network.get(4)), "link added");
+            check(!Network.get(2).addNeighbor(Network.get(3)),
+                "duplicate link added");
+            checkEquals(ids(3, 4), neighbors(2), "neighbors of node 2");
+            // The adjacency and the other nodes are not modified
+            checkEquals(ids(4), neighbors(3), "neighbors of node 3");
+            checkEquals(1, adjacency.degree(2), "degree of node 2");
+            checkEquals(3, adjacency.target(2, 0), "neighbor of node 2");
+            return null;
+          }
+        });
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testWriteAndRead() throws Exception
+  {
+    final File file = File.createTempFile("easysim", ".adj");
+    try
+    {
+      TestSupport.network(config(), new PrintStream(
+          new ByteArrayOutputStream()), new Callable<Void>()
+      {
+        public Void call() throws Exception
+        {
+          EdgeBuilder builder = new EdgeBuilder();
+          builder.add(0, 3);
+          builder.add(0, 1);
+          builder.add(4, 2);
+          Adjacency adjacency = builder.wire(false);
+          adjacency.write(file, "test topology");
+          checkEquals(null, Adjacency.read(file, "other topology"),
+              "adjacency read with another key");
+          Adjacency read = Adjacency.read(file, "test topology");
+          checkEquals(Arrays.toString(adjacency.offsets()), Arrays
+              .toString(read.offsets()), "offsets");
+          checkEquals(Arrays.toString(adjacency.targets()), Arrays
+              .toString(read.targets()), "targets");
+          Adjacency of = Adjacency.of(Network.nodes(), SIZE);
+          checkEquals(Arrays.toString(adjacency.targets()), Arrays
+              .toString(of.targets()), "targets of the nodes");
+          return null;
+        }
+      });
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+
+package easysim.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import easysim.TestSupport;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkLines;
+import static easysim.TestSupport.run;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks that an experiment resumed from a checkpoint continues as the
+ * experiment that saved it.
+ */
+public class CheckpointTest
+{
+
+  private static final int SAVED = 9;
+
+  /**
+   * Returns the observations of the cycles after the saved one.
+   */
+  private static List<String> after(List<String> observations)
+  {
+    List<String> lines = new ArrayList<String>();
+    for (String line : observations)
+    {
+      if (Integer.parseInt(line.split(" : ")[1]) > SAVED)
+        lines.add(line);
+    }
+    return lines;
+  }
+
+  /**
+   * Returns the output, without the wiring printed by the initializers, which
+   * are not run when resuming.
+   */
+  private static List<String> withoutWiring(List<String> out)
+  {
+    List<String> lines = new ArrayList<String>();
+    for (String line : out)
+    {
+      if (!line.contains(" linked to "))
+        lines.add(line);
+    }
+    return lines;
+  }
+
+  private static void checkResume(Properties p) throws IOException
+  {
+    File file = File.createTempFile("easysim", ".checkpoint");
+    try
+    {
+      TestSupport.Result straight = run(with(p, "simulation.checkpoint="
+          + file.getPath(), "simulation.checkpoint.cycles=" + SAVED), false);
+      check(file.length() > 0, "no checkpoint saved");
+      TestSupport.Result resumed = run(with(p, "simulation.resume="
+          + file.getPath()), false);
+      List<String> expected = after(straight.observations);
+      check(expected.size() > 10, "only " + expected.size() + " observations");
+      checkLines(expected, after(resumed.observations), "observations");
+      checkLines(withoutWiring(straight.out), withoutWiring(resumed.out),
+          "output");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testResumeUbtobcast() throws IOException
+  {
+    checkResume(SchedulingTest.example("ubtobcast", 11, 30));
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testResumeWheel() throws IOException
+  {
+    checkResume(with(SchedulingTest.example("ubtobcast", 11, 30),
+        "protocol.example.inQueue=wheel"));
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testResumeActiveSet() throws IOException
+  {
+    checkResume(with(SchedulingTest.example("multicast", "Multicast", 7, 40),
+        "simulation.activeSet"));
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testResumeWithThreads() throws IOException
+  {
+    checkResume(with(SchedulingTest.example("mttobcast", 9, 30),
+        "simulation.threads=3"));
+  }
+}
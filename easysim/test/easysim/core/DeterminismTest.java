@@ -0,0 +1,160 @@
+
+package easysim.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Properties;
+
+import easysim.SimulationContext;
+import easysim.Simulator;
+import easysim.TestSupport;
+import easysim.config.Configuration;
+import easysim.util.ExtendedRandom;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.checkLines;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.run;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks that the cycles run with <code>simulation.threads</code> give the
+ * same messages, in the same order, and the same output as the cycles run by
+ * the main thread, and that they release the threads and the standard output
+ * when a node fails.
+ */
+public class DeterminismTest
+{
+
+  public static class Ping extends Message
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int getType()
+    {
+      return Message.TYPE.DATA;
+    }
+  }
+
+  /**
+   * Sends a message to the next node at each cycle, and fails at cycle 3.
+   */
+  public static class Failing extends Node<Ping>
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    public Failing(String prefix)
+    {
+      super(prefix);
+      setAlwaysActive(true);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void cycleHandler()
+    {
+      if (Simulator.getCycle() == 3 && id == 1)
+        throw new IllegalStateException("failure of node 1");
+      while (receive() != null)
+        ;
+      send(new Ping(), Network.get((id + 1) % Network.size()));
+    }
+  }
+
+  private static Properties ubtobcast()
+  {
+    return with(protocol("ubtobcast", "example.ubtobcast.Broadcast", 13, 40),
+        "protocol.ubtobcast.perMessageLatency",
+        "protocol.ubtobcast.maxMessagesToSend=2",
+        "protocol.ubtobcast.maxMessagesToReceive=2",
+        "protocol.ubtobcast.maxMessagesToDeliver=1",
+        "control.1_observer=example.ubtobcast.PostObserver",
+        "control.1_observer.protocol=ubtobcast",
+        "control.1_observer.observe.nbReceivedMessages");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testThreadsDeliverAsSingleThread()
+  {
+    TestSupport.Result single = run(ubtobcast(), true);
+    check(single.deliveries.size() > 100, "only "
+        + single.deliveries.size() + " messages in the trace");
+    check(single.out.size() > 40, "only " + single.out.size()
+        + " lines of output");
+    for (int threads = 2; threads <= 4; ++threads)
+    {
+      TestSupport.Result parallel = run(with(ubtobcast(),
+          "simulation.threads=" + threads), true);
+      checkLines(single.deliveries, parallel.deliveries, "trace with "
+          + threads + " threads");
+      checkLines(single.out, parallel.out, "output with " + threads
+          + " threads");
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testWheelThreadsDeliverAsSingleThread()
+  {
+    Properties p = with(ubtobcast(), "protocol.ubtobcast.inQueue=wheel");
+    List<String> single = run(p, true).deliveries;
+    List<String> parallel = run(with(p, "simulation.threads=3"), true).deliveries;
+    checkLines(single, parallel, "trace with 3 threads");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testSeedChangesTrace()
+  {
+    List<String> a = run(ubtobcast(), true).deliveries;
+    List<String> b = run(with(ubtobcast(), "random.seed=42"), true).deliveries;
+    check(!a.equals(b), "the trace does not depend on the seed");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testFailureRestoresStdout()
+  {
+    final Properties p = with(protocol("failing", Failing.class.getName(), 8,
+        10), "simulation.threads=2");
+    PrintStream plain = new PrintStream(new ByteArrayOutputStream(), true);
+    synchronized (TestSupport.class)
+    {
+      PrintStream stdout = System.out;
+      System.setOut(plain);
+      try
+      {
+        String failure = null;
+        try
+        {
+          new SimulationContext().run(new Runnable()
+          {
+            public void run()
+            {
+              Configuration.setConfig(p);
+              Simulator.setRandom(new ExtendedRandom(1));
+              Simulator.nextExperiment();
+            }
+          });
+        }
+        catch (RuntimeException e)
+        {
+          for (Throwable t = e; t != null; t = t.getCause())
+            failure = t.getMessage();
+        }
+        checkEquals("failure of node 1", failure, "failure");
+        check(System.out == plain, "standard output not restored");
+      }
+      finally
+      {
+        System.setOut(stdout);
+      }
+    }
+  }
+}
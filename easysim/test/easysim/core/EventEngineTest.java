@@ -0,0 +1,131 @@
+
+package easysim.core;
+
+import easysim.Simulator;
+import easysim.TestSupport;
+
+import java.util.List;
+import java.util.Properties;
+
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks the runs of the cycleHandler by the {@link EventEngine}.
+ */
+public class EventEngineTest
+{
+
+  private static final int CYCLES = 8;
+
+  /** Number of runs of the cycleHandler of each node, by cycle. */
+  static int[][]           runs;
+
+  /** Number of messages received by each node, by cycle. */
+  static int[][]           received;
+
+  public static class Ping extends Message
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int getType()
+    {
+      return Message.TYPE.DATA;
+    }
+  }
+
+  /**
+   * At its first run, node 0 asks to be woken up at cycles 3, 5 and 3 again,
+   * and sends two messages to node 1, which arrive at cycle 2.
+   */
+  public static class Counter extends Node<Ping>
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    public Counter(String prefix)
+    {
+      super(prefix);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void cycleHandler()
+    {
+      int cycle = Simulator.getCycle();
+      if (id == 0 && cycle == 0 && runs[0][0] == 0)
+      {
+        wakeUpAt(3);
+        wakeUpAt(5);
+        wakeUpAt(3);
+        Node<Ping> to = Network.get(1);
+        send(new Ping(), to, 2);
+        send(new Ping(), to, 2);
+      }
+      runs[id][cycle]++;
+      while (receive() != null)
+        received[id][cycle]++;
+    }
+  }
+
+  private static void run(int size)
+  {
+    runs = new int[size][CYCLES];
+    received = new int[size][CYCLES];
+    TestSupport.run(with(protocol("counter", Counter.class.getName(), size,
+        CYCLES), "simulation.engine=event"), false);
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testWakeUpsRunOnce()
+  {
+    run(2);
+    checkEquals(1, runs[0][0], "runs of node 0 at cycle 0");
+    checkEquals(0, runs[0][2], "runs of node 0 at cycle 2");
+    checkEquals(1, runs[0][3], "runs of node 0 at cycle 3");
+    checkEquals(0, runs[0][4], "runs of node 0 at cycle 4");
+    checkEquals(1, runs[0][5], "runs of node 0 at cycle 5");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testOneRunPerMessage()
+  {
+    run(2);
+    checkEquals(2, runs[1][2], "runs of node 1 at cycle 2");
+    checkEquals(2, received[1][2], "messages received by node 1 at cycle 2");
+    checkEquals(0, runs[1][3], "runs of node 1 at cycle 3");
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the number of reports printed by the nodes of an example.
+   */
+  private static int reports(List<String> out)
+  {
+    int n = 0;
+    for (String line : out)
+      if (line.matches("\\[?Node \\d+(:|\\])?"))
+        n++;
+    return n;
+  }
+
+  public void testReportsOnceAtLastCycle()
+  {
+    String[] names = { "ubtobcast", "mstobcast", "pbtobcast", "mttobcast" };
+    for (String name : names)
+    {
+      Properties p = SchedulingTest.example(name, 11, 30);
+      checkEquals(11, reports(TestSupport.run(p, false).out), "reports of "
+          + name + " with the round-based engine");
+      checkEquals(11, reports(TestSupport.run(with(p,
+          "simulation.engine=event"), false).out), "reports of " + name
+          + " with the event engine");
+    }
+  }
+}
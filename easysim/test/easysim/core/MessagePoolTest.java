@@ -0,0 +1,112 @@
+
+package easysim.core;
+
+import java.util.Properties;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks that only the {@link Poolable} messages are reused by the pools.
+ */
+public class MessagePoolTest
+{
+
+  public static class Plain extends Message
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int getType()
+    {
+      return Message.TYPE.DATA;
+    }
+  }
+
+  public static class Pooled extends Message implements Poolable
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    int                       hops;
+
+    @Override
+    public int getType()
+    {
+      return Message.TYPE.DATA;
+    }
+
+    @Override
+    protected void copyFrom(Message m)
+    {
+      super.copyFrom(m);
+      hops = ((Pooled) m).hops;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testPlainMessagesNotReused()
+  {
+    MessagePool pool = new MessagePool(4, false);
+    Plain released = new Plain();
+    pool.release(released);
+    checkEquals(0, pool.available(Plain.class), "free plain messages");
+    Plain message = new Plain();
+    check(pool.copy(message) != released, "plain message reused");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testPoolableMessagesReused()
+  {
+    MessagePool pool = new MessagePool(4, false);
+    Pooled released = new Pooled();
+    pool.release(released);
+    checkEquals(1, pool.available(Pooled.class), "free pooled messages");
+    Pooled message = new Pooled();
+    message.id = 7;
+    message.hops = 3;
+    Pooled copy = (Pooled) pool.copy(message);
+    check(copy == released, "pooled message not reused");
+    checkEquals(7, copy.id, "id of the copy");
+    checkEquals(3, copy.hops, "hops of the copy");
+    checkEquals(0, pool.available(Pooled.class), "free pooled messages");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testDebugNeverReuses()
+  {
+    MessagePool pool = new MessagePool(4, true);
+    pool.release(new Pooled());
+    checkEquals(0, pool.available(Pooled.class), "free pooled messages");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testAutoKeepsUnmarkedMessages()
+  {
+    // ubtobcast keeps the messages it receives in its lists
+    Properties p = SchedulingTest.example("ubtobcast", 11, 30);
+    SchedulingTest.checkSameOutput(p, "protocol.example.pool=auto");
+    SchedulingTest.checkSameOutput(with(p, "protocol.example.pool.debug"),
+        "protocol.example.pool=auto");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testPooledExamples()
+  {
+    Properties ring = with(SchedulingTest.example("ring", "Ring", 8, 20),
+        "init.0_wire=WireRing", "init.0_wire.k=1");
+    SchedulingTest.checkSameOutput(ring, "protocol.example.pool=auto");
+    SchedulingTest.checkSameOutput(ring, "protocol.example.pool=release");
+    Properties multicast = SchedulingTest.example("multicast", "Multicast", 7,
+        40);
+    SchedulingTest.checkSameOutput(multicast, "protocol.example.pool=auto");
+    SchedulingTest.checkSameOutput(multicast, "protocol.example.pool=release");
+  }
+}
@@ -0,0 +1,105 @@
+
+package easysim.core;
+
+import java.util.List;
+import java.util.Properties;
+
+import easysim.TestSupport;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkLines;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.run;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks that the examples give the same output when the nodes are only run
+ * when they have something to do.
+ */
+public class SchedulingTest
+{
+
+  static Properties example(String name, String node, int size, int cycles)
+  {
+    return with(protocol("example", "example." + name + "." + node, size,
+        cycles), "protocol.example.maxMessagesToSend=2",
+        "protocol.example.maxMessagesToReceive=2",
+        // Read by the examples whatever the name of their protocol
+        "protocol.ubtobcast.maxMessagesToDeliver=1",
+        "control.1_observer=example." + name + ".PostObserver",
+        "control.1_observer.protocol=example",
+        "control.1_observer.observe.nbReceivedMessages");
+  }
+
+  static Properties example(String name, int size, int cycles)
+  {
+    return example(name, "Broadcast", size, cycles);
+  }
+
+  static void checkSameOutput(Properties p, String mode)
+  {
+    TestSupport.Result expected = run(p, false);
+    TestSupport.Result actual = run(with(p, mode), false);
+    check(expected.observations.size() > 10, "only "
+        + expected.observations.size() + " observations");
+    checkLines(expected.observations, actual.observations, "observations with "
+        + mode);
+    checkLines(expected.out, actual.out, "output with " + mode);
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testEventDrivenRandomSenders()
+  {
+    checkSameOutput(example("ubtobcast", 11, 30), "simulation.eventDriven");
+    checkSameOutput(example("pbtobcast", 11, 30), "simulation.eventDriven");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testEventDrivenFinalReports()
+  {
+    List<String> out = run(with(example("mttobcast", 9, 17),
+        "simulation.eventDriven"), false).out;
+    check(out.contains("[Node 8]"), "no report of node 8 in " + out);
+    checkSameOutput(example("mttobcast", 9, 17), "simulation.eventDriven");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testActiveSetRandomSenders()
+  {
+    checkSameOutput(example("ubtobcast", 11, 30), "simulation.activeSet");
+    checkSameOutput(example("mstobcast", 11, 30), "simulation.activeSet");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testActiveSetFinalReports()
+  {
+    List<String> out = run(with(example("mttobcast", 9, 17),
+        "simulation.activeSet"), false).out;
+    check(out.contains("[Node 8]"), "no report of node 8 in " + out);
+    checkSameOutput(example("mttobcast", 9, 17), "simulation.activeSet");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testActiveSetWakeUps()
+  {
+    checkSameOutput(with(example("ring", "Ring", 7, 40),
+        "init.0_wire=WireRing", "init.0_wire.k=1"),
+        "simulation.activeSet");
+    checkSameOutput(example("multicast", "Multicast", 7, 40),
+        "simulation.activeSet");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testActiveSetFarWakeUps()
+  {
+    // The wake-ups for the last cycle do not fit in the calendar wheels
+    checkSameOutput(example("mttobcast", 9, 3 * TimingWheelInQueue.MAX_SLOTS),
+        "simulation.activeSet");
+  }
+}
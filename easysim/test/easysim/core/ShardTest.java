@@ -0,0 +1,175 @@
+
+package easysim.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import easysim.Simulator;
+import easysim.TestSupport;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.lines;
+import static easysim.TestSupport.run;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks that a simulation split between several shards gives the same
+ * per-node reports as the same simulation run in a single process. The
+ * workers are run in this JVM, each one within its own context.
+ */
+public class ShardTest
+{
+
+  /** Number of nodes created by {@link Counted}. */
+  static final AtomicInteger created = new AtomicInteger();
+
+  /**
+   * The node of the ub example, counting the nodes created.
+   */
+  public static class Counted extends example.ubtobcast.Broadcast
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    public Counted(String prefix)
+    {
+      super(prefix);
+      created.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the final report of each node of the given output of the ub
+   * example, by node.
+   */
+  private static TreeMap<String, String> reports(List<String> out)
+  {
+    TreeMap<String, String> reports = new TreeMap<String, String>();
+    for (int i = 0; i < out.size(); ++i)
+    {
+      String line = out.get(i);
+      if (line.startsWith("Node ") && line.endsWith(":"))
+      {
+        String report = out.get(i + 1) + "\n" + out.get(i + 2) + "\n"
+            + out.get(i + 3);
+        check(reports.put(line, report) == null, "two reports of " + line);
+        i += 3;
+      }
+    }
+    return reports;
+  }
+
+  /**
+   * Returns a base port such that the given number of consecutive ports are
+   * likely free.
+   */
+  private static int freePort(int shards) throws IOException
+  {
+    while (true)
+    {
+      ServerSocket socket = new ServerSocket(0);
+      int port = socket.getLocalPort();
+      socket.close();
+      if (port + shards <= 65535)
+        return port;
+    }
+  }
+
+  /**
+   * Runs the workers of the given configuration concurrently, and returns the
+   * reports of all of them.
+   */
+  private static TreeMap<String, String> runShards(Properties p, int shards)
+      throws Exception
+  {
+    int port = freePort(shards);
+    Thread[] workers = new Thread[shards];
+    final ByteArrayOutputStream[] outs = new ByteArrayOutputStream[shards];
+    final Throwable[] failures = new Throwable[shards];
+    for (int k = 0; k < shards; ++k)
+    {
+      final int shard = k;
+      final Properties config = with(p, Simulator.PAR_SHARDS + "=" + shards,
+          Simulator.PAR_SHARD + "=" + k, "simulation.shard.port=" + port);
+      outs[k] = new ByteArrayOutputStream();
+      workers[k] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            TestSupport.run(config, new PrintStream(outs[shard], true));
+          }
+          catch (Throwable e)
+          {
+            failures[shard] = e;
+          }
+        }
+      };
+      workers[k].start();
+    }
+    TreeMap<String, String> reports = new TreeMap<String, String>();
+    for (int k = 0; k < shards; ++k)
+    {
+      workers[k].join();
+      if (failures[k] != null)
+        throw new AssertionError("shard " + k + " failed: " + failures[k]);
+      TreeMap<String, String> shard = reports(lines(outs[k].toString()));
+      check(!shard.isEmpty(), "no report from shard " + k);
+      for (String node : shard.keySet())
+        check(!reports.containsKey(node), node + " reported by two shards");
+      reports.putAll(shard);
+    }
+    return reports;
+  }
+
+  private static void checkShards(Properties p, int shards) throws Exception
+  {
+    TreeMap<String, String> expected = reports(run(p, false).out);
+    checkEquals(Integer.parseInt(p.getProperty("network.size")),
+        expected.size(), "reports");
+    checkEquals(expected, runShards(p, shards), "reports with " + shards
+        + " shards");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testTwoShards() throws Exception
+  {
+    checkShards(SchedulingTest.example("ubtobcast", 11, 30), 2);
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testThreeShards() throws Exception
+  {
+    checkShards(SchedulingTest.example("ubtobcast", 13, 30), 3);
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testBlocks() throws Exception
+  {
+    checkShards(with(SchedulingTest.example("ubtobcast", 11, 30),
+        "simulation.shard.partition=blocks"), 2);
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testWorkersOnlyCreateTheirNodes() throws Exception
+  {
+    Properties p = with(SchedulingTest.example("ubtobcast", 13, 30),
+        "protocol.example=" + Counted.class.getName());
+    created.set(0);
+    TreeMap<String, String> reports = runShards(p, 3);
+    checkEquals(13, created.get(), "nodes created by 3 shards");
+    checkEquals(13, reports.size(), "reports");
+  }
+}
@@ -0,0 +1,185 @@
+
+package easysim.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static easysim.TestSupport.checkEquals;
+
+/**
+ * Checks a {@link TimingWheelInQueue} against a reference model, a list of
+ * the messages in transit scanned for the lowest due cycle, on random
+ * sequences of operations: messages due far beyond the wheel (in the overflow
+ * map) or before its first slot, wheels grown up to
+ * {@link TimingWheelInQueue#MAX_SLOTS} slots, and due cycles up to
+ * <code>Integer.MAX_VALUE</code>.
+ */
+public class TimingWheelInQueueTest
+{
+
+  public static class Numbered extends Message
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int getType()
+    {
+      return Message.TYPE.DATA;
+    }
+  }
+
+  /**
+   * The specification of the wheel: the message delivered is the first added
+   * of the messages with the lowest due cycle.
+   */
+  private static final class Model
+  {
+
+    private final List<Message> messages = new ArrayList<Message>();
+
+    void add(Message m)
+    {
+      messages.add(m);
+    }
+
+    Message poll(int cycle)
+    {
+      int best = -1;
+      for (int i = 0; i < messages.size(); ++i)
+      {
+        int due = InQueue.dueCycle(messages.get(i));
+        if (due <= cycle
+            && (best < 0 || due < InQueue.dueCycle(messages.get(best))))
+          best = i;
+      }
+      return best < 0 ? null : messages.remove(best);
+    }
+
+    int nextDue()
+    {
+      int min = Integer.MAX_VALUE;
+      for (Message m : messages)
+        min = Math.min(min, InQueue.dueCycle(m));
+      return min;
+    }
+
+    int size()
+    {
+      return messages.size();
+    }
+
+    void clear()
+    {
+      messages.clear();
+    }
+  }
+
+  /**
+   * Runs the given number of random steps from the given cycle. At each step,
+   * a few messages are added, due at most <code>horizon</code> cycles later,
+   * and some or all of the due messages are polled.
+   */
+  private static void check(long seed, int start, int steps, int horizon)
+  {
+    Random r = new Random(seed);
+    TimingWheelInQueue<Message> wheel = new TimingWheelInQueue<Message>();
+    Model model = new Model();
+    int id = 0;
+    int cycle = start;
+    String what = "seed " + seed;
+    for (int step = 0; step < steps; ++step)
+    {
+      int adds = r.nextInt(4);
+      for (int a = 0; a < adds; ++a)
+      {
+        long due;
+        switch (r.nextInt(10))
+        {
+          case 0:
+            // Before the current cycle, thus before the first slot
+            due = (long) cycle - r.nextInt(20);
+            break;
+          case 1:
+            // Beyond the largest wheel
+            due = (long) cycle + TimingWheelInQueue.MAX_SLOTS
+                + r.nextInt(2 * TimingWheelInQueue.MAX_SLOTS);
+            break;
+          case 2:
+            // Around the largest wheel
+            due = (long) cycle + TimingWheelInQueue.MAX_SLOTS - 8
+                + r.nextInt(16);
+            break;
+          default:
+            due = (long) cycle + r.nextInt(horizon);
+        }
+        Message m = new Numbered();
+        m.id = id++;
+        m.sendingCycle = cycle;
+        m.latency = (int) (Math.min(due, Integer.MAX_VALUE) - cycle);
+        wheel.add(m);
+        model.add(m);
+      }
+      checkEquals(model.size(), wheel.size(), what + ", size at " + cycle);
+      checkEquals(model.nextDue(), wheel.nextDue(), what + ", next due at "
+          + cycle);
+
+      // Receive all the due messages, or only some of them
+      int polls = r.nextInt(3) == 0 ? r.nextInt(3) : Integer.MAX_VALUE;
+      for (int p = 0; p < polls; ++p)
+      {
+        Message expected = model.poll(cycle);
+        Message actual = wheel.poll(cycle);
+        checkEquals(expected == null ? null : expected.id, actual == null
+            ? null : actual.id, what + ", message at " + cycle);
+        if (expected == null)
+          break;
+      }
+      checkEquals(model.size(), wheel.size(), what + ", size after " + cycle);
+
+      if (r.nextInt(500) == 0)
+      {
+        wheel.clear();
+        model.clear();
+      }
+      if (cycle == Integer.MAX_VALUE)
+        break;
+      // Sometimes skip to the next due cycle, as the event-driven engine
+      int next = r.nextInt(5) == 0 ? model.nextDue() : cycle + 1;
+      cycle = Math.max(cycle + 1, Math.min(next, cycle + 3000));
+    }
+
+    // Drain the messages left
+    while (model.size() > 0)
+    {
+      int due = model.nextDue();
+      checkEquals(due, wheel.nextDue(), what + ", next due when draining");
+      Message expected = model.poll(due);
+      checkEquals(expected.id, wheel.poll(due).id, what + ", drained message");
+    }
+    checkEquals(0, wheel.size(), what + ", size when drained");
+    checkEquals(Integer.MAX_VALUE, wheel.nextDue(), what + ", next due when "
+        + "drained");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testShortLatencies()
+  {
+    for (long seed = 0; seed < 20; ++seed)
+      check(seed, 0, 2000, 5);
+  }
+
+  public void testLongLatencies()
+  {
+    for (long seed = 100; seed < 120; ++seed)
+      check(seed, 0, 2000, 3 * TimingWheelInQueue.MAX_SLOTS);
+  }
+
+  public void testDueCyclesNearMaxValue()
+  {
+    for (long seed = 200; seed < 220; ++seed)
+      check(seed, Integer.MAX_VALUE - 5000, 6000, 300);
+  }
+}
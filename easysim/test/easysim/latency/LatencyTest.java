@@ -0,0 +1,135 @@
+
+package easysim.latency;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+import easysim.SimulationContext;
+import easysim.Simulator;
+import easysim.TestSupport;
+import easysim.config.Configuration;
+import easysim.core.Message;
+import easysim.core.Network;
+import easysim.core.Node;
+
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks the latencies drawn by the latency models, with both engines.
+ */
+public class LatencyTest
+{
+
+  /** The time at which node 1 received its message, in nanoseconds. */
+  static long arrival;
+
+  /** The latency in cycles of the message received by node 1. */
+  static int  latency;
+
+  public static class Ping extends Message
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int getType()
+    {
+      return Message.TYPE.DATA;
+    }
+  }
+
+  /**
+   * At the first cycle, node 0 sends a message to node 1, with the latency
+   * drawn by the latency model of the protocol.
+   */
+  public static class Sender extends Node<Ping>
+  {
+
+    private static final long serialVersionUID = 1L;
+
+    public Sender(String prefix)
+    {
+      super(prefix);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void cycleHandler()
+    {
+      if (id == 0 && Simulator.getCycle() == 0)
+        send(new Ping(), (Node<Ping>) Network.get(1));
+      Ping ping = receive();
+      if (ping != null)
+      {
+        arrival = Simulator.getTime();
+        latency = ping.latency;
+      }
+    }
+  }
+
+  private static void run(String... parameters)
+  {
+    arrival = -1;
+    latency = -1;
+    TestSupport.run(with(with(protocol("sender", Sender.class.getName(), 2, 6),
+        "protocol.sender.latency=" + UniformLatency.class.getName(),
+        "protocol.sender.latency.min=2500000",
+        "protocol.sender.latency.max=2500000"), parameters), false);
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testContinuousLatencyWithEventEngine()
+  {
+    run("simulation.engine=event");
+    checkEquals(2500000L, arrival, "arrival time");
+    checkEquals(2, latency, "latency in cycles");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testContinuousLatencyRoundedToCycles()
+  {
+    run();
+    checkEquals(3000000L, arrival, "arrival time");
+    checkEquals(3, latency, "latency in cycles");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testMatrixLatencyAtLeastOneCycle() throws IOException
+  {
+    File file = File.createTempFile("easysim", ".matrix");
+    try
+    {
+      FileWriter out = new FileWriter(file);
+      out.write("# two sites\n0 35\n35 0\n");
+      out.close();
+      final Properties p = new Properties();
+      p.setProperty("matrix.file", file.getPath());
+      p.setProperty("matrix.cycle", "10");
+      final int[] latencies = new int[4];
+      new SimulationContext().run(new Runnable()
+      {
+        public void run()
+        {
+          Configuration.setConfig(p);
+          LatencyModel model = new MatrixLatency("matrix");
+          model.next(0, new int[] { 0, 1, 2, 3 }, 0, 4, latencies, null);
+        }
+      });
+      checkEquals(1, latencies[0], "latency within site 0");
+      checkEquals(4, latencies[1], "latency from site 0 to site 1");
+      checkEquals(1, latencies[2], "latency within site 0");
+      checkEquals(4, latencies[3], "latency from site 0 to site 1");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+
+package easysim.rangesim;
+
+import java.util.List;
+import java.util.Properties;
+
+import easysim.TestSupport;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkLines;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks that the experiments branched from a common run give the same
+ * results as the experiments run from the start.
+ */
+public class BranchTest
+{
+
+  private static final String PAR = "protocol.ubtobcast.maxMessagesToDeliver";
+
+  private static final String[] VALUES = { "1", "2", "3", "-1" };
+
+  private static List<RangeResult> run(Properties p, int branch, int threads)
+  {
+    RangeExecutor executor = new RangeExecutor(p, new String[] { PAR },
+        new String[][] { VALUES }, threads);
+    executor.setBranch(branch);
+    List<RangeResult> results = executor.run();
+    TestSupport.checkEquals(VALUES.length, results.size(), "results");
+    for (RangeResult result : results)
+      check(result.getFailure() == null, "experiment failed: "
+          + result.getFailure());
+    return results;
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testBranchEqualsStraightRun()
+  {
+    Properties p = with(protocol("ubtobcast", "example.ubtobcast.Broadcast",
+        11, 40), "protocol.ubtobcast.maxMessagesToSend=2",
+        "protocol.ubtobcast.maxMessagesToReceive=2");
+    List<RangeResult> straight = run(p, -1, 2);
+    List<RangeResult> branched = run(p, 15, 2);
+    for (int i = 0; i < VALUES.length; i++)
+    {
+      checkEquals(straight.get(i), branched.get(i));
+    }
+    // The parameter is indeed used after the branch cycle
+    check(!straight.get(0).getLines().equals(straight.get(3).getLines()),
+        "same output for " + VALUES[0] + " and " + VALUES[3]);
+  }
+
+  private static void checkEquals(RangeResult expected, RangeResult actual)
+  {
+    String point = PAR + "=" + expected.getParameters().get(PAR);
+    TestSupport.checkEquals(expected.getSeed(), actual.getSeed(), "seed of "
+        + point);
+    check(expected.getLines().size() > 10, "only "
+        + expected.getLines().size() + " lines for " + point);
+    checkLines(expected.getLines(), actual.getLines(), "output of " + point);
+  }
+}
@@ -0,0 +1,171 @@
+
+package easysim.topology;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.checkLines;
+
+/**
+ * Checks the links read by {@link EdgeList} from text and binary files.
+ */
+public class EdgeListTest
+{
+
+  /**
+   * Writes the given text to a new temporary file.
+   */
+  private static File write(String text) throws IOException
+  {
+    File file = File.createTempFile("easysim", ".txt");
+    OutputStream out = new FileOutputStream(file);
+    try
+    {
+      out.write(text.getBytes("US-ASCII"));
+    }
+    finally
+    {
+      out.close();
+    }
+    return file;
+  }
+
+  /**
+   * Returns the links of the given list, as "from to" lines.
+   */
+  private static List<String> links(EdgeList links)
+  {
+    List<String> lines = new ArrayList<String>();
+    for (int e = 0; e < links.size(); ++e)
+      lines.add(links.from(e) + " " + links.to(e));
+    return lines;
+  }
+
+  /**
+   * Returns the links between the first nodes of the given text, parsed line
+   * by line with the standard library.
+   */
+  private static List<String> expected(String text, int nodes)
+  {
+    List<String> lines = new ArrayList<String>();
+    for (String line : text.split("\r\n|\r|\n"))
+    {
+      if (line.startsWith("#"))
+        continue;
+      String[] tokens = line.trim().split("[ \t\f]+");
+      if (tokens[0].isEmpty() || Integer.parseInt(tokens[0]) >= nodes)
+        continue;
+      for (int i = 1; i < tokens.length; ++i)
+      {
+        if (Integer.parseInt(tokens[i]) < nodes)
+          lines.add(tokens[0] + " " + tokens[i]);
+      }
+    }
+    return lines;
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testText() throws IOException
+  {
+    String text = "# comment 9 9\n0 1 2\n\n1\t2  3\r\n2 0\r7 1\n3 0 9\n 4 0";
+    File file = write(text);
+    try
+    {
+      EdgeList links = EdgeList.read(file.getPath(), 5, 1);
+      checkLines(expected(text, 5), links(links), "links");
+      checkEquals(7, links.size(), "number of links");
+      check(links.isOutOfRange(), "out of range links not reported");
+      check(!EdgeList.read(file.getPath(), 10, 1).isOutOfRange(),
+          "links reported out of range");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testInvalidToken() throws IOException
+  {
+    File file = write("0 1\n1 2x\n");
+    try
+    {
+      EdgeList.read(file.getPath(), 5, 1);
+      throw new AssertionError("invalid token parsed");
+    }
+    catch (NumberFormatException e)
+    {
+      check(e.getMessage().contains("\"2x\""), e.getMessage());
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testChunks() throws IOException
+  {
+    // Large enough to be split into chunks parsed in parallel
+    Random r = new Random(1);
+    StringBuilder text = new StringBuilder();
+    int line = 0;
+    while (text.length() < 3 << 20)
+    {
+      if (line % 1000 == 0)
+        text.append("# nodes from ").append(line).append('\n');
+      text.append(r.nextInt(100000));
+      for (int k = r.nextInt(20); k > 0; --k)
+        text.append(r.nextBoolean() ? ' ' : '\t').append(r.nextInt(100000));
+      text.append(line % 7 == 0 ? "\r\n" : "\n");
+      ++line;
+    }
+    File file = write(text.toString());
+    try
+    {
+      List<String> expected = expected(text.toString(), 80000);
+      checkLines(expected, links(EdgeList.read(file.getPath(), 80000, 4)),
+          "links read by 4 threads");
+      checkLines(expected, links(EdgeList.read(file.getPath(), 80000, 1)),
+          "links read by 1 thread");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testBinary() throws IOException
+  {
+    String text = "0 1 2 3\n1 2\n3 0 1\n2 3\n";
+    File file = write(text);
+    File binary = File.createTempFile("easysim", ".edges");
+    try
+    {
+      EdgeList.read(file.getPath(), Integer.MAX_VALUE, 1).write(
+          binary.getPath());
+      checkLines(expected(text, 4), links(EdgeList.read(binary.getPath(), 4,
+          2)), "links of the binary file");
+      EdgeList links = EdgeList.read(binary.getPath(), 3, 2);
+      checkLines(expected(text, 3), links(links), "links between 3 nodes");
+      check(links.isOutOfRange(), "out of range links not reported");
+    }
+    finally
+    {
+      file.delete();
+      binary.delete();
+    }
+  }
+}
@@ -0,0 +1,132 @@
+
+package easysim.topology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import easysim.TestSupport;
+import easysim.core.Network;
+import easysim.core.Node;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.checkLines;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.run;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks that the implicit topologies give the nodes the same neighbors, in
+ * the same order, as the links wired explicitly.
+ */
+public class ImplicitTopologyTest
+{
+
+  /**
+   * Wires a network of the given size with the given wire, and returns the
+   * neighbor ids of each node.
+   */
+  static List<List<Integer>> neighbors(final String wire, int size,
+      String... parameters)
+  {
+    Properties p = with(with(protocol("example", "example.ring.Ring", size, 1),
+        "init.0_wire=" + wire), parameters);
+    return TestSupport.network(p, new PrintStream(new ByteArrayOutputStream()),
+        new Callable<List<List<Integer>>>()
+        {
+          public List<List<Integer>> call() throws Exception
+          {
+            AbstractWire w = (AbstractWire) Class.forName(
+                "easysim.topology." + wire).getConstructor(String.class)
+                .newInstance("init.0_wire");
+            w.execute();
+            List<List<Integer>> neighbors = new ArrayList<List<Integer>>();
+            for (int i = 0; i < Network.size(); ++i)
+            {
+              Node node = Network.get(i);
+              check((node.getTopology() != null) == w.implicit,
+                  "topology of node " + i);
+              List<Integer> ids = new ArrayList<Integer>();
+              for (int k = 0; k < node.getNeighborCount(); ++k)
+                ids.add(node.getNeighborId(k));
+              checkEquals(ids.size(), node.getNeighborIds().remaining(),
+                  "neighbor ids of node " + i);
+              neighbors.add(ids);
+            }
+            return neighbors;
+          }
+        });
+  }
+
+  static void checkImplicit(String wire, int size, String... parameters)
+  {
+    List<List<Integer>> expected = neighbors(wire, size, parameters);
+    String[] implicit = new String[parameters.length + 1];
+    System.arraycopy(parameters, 0, implicit, 0, parameters.length);
+    implicit[parameters.length] = "init.0_wire.implicit";
+    List<List<Integer>> actual = neighbors(wire, size, implicit);
+    checkEquals(expected, actual, "neighbors with " + wire + " of " + size
+        + " nodes");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testEntireNetwork()
+  {
+    checkImplicit("WireEntireNetwork", 1);
+    checkImplicit("WireEntireNetwork", 7);
+    checkImplicit("WireEntireNetwork", 7, "init.0_wire.undirected");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testRing()
+  {
+    checkImplicit("WireRing", 2);
+    checkImplicit("WireRing", 9);
+    checkImplicit("WireRing", 2, "init.0_wire.undirected");
+    checkImplicit("WireRing", 9, "init.0_wire.undirected");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testHypercube()
+  {
+    checkImplicit("WireHypercube", 16);
+    checkImplicit("WireHypercube", 13);
+    checkImplicit("WireHypercube", 13, "init.0_wire.undirected");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testRegRootedTree()
+  {
+    checkImplicit("WireRegRootedTree", 15, "init.0_wire.k=2");
+    checkImplicit("WireRegRootedTree", 20, "init.0_wire.k=3");
+    checkImplicit("WireRegRootedTree", 20, "init.0_wire.k=3",
+        "init.0_wire.undirected");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testSameSimulation()
+  {
+    Properties p = with(protocol("example", "example.multicast.Multicast", 16,
+        40), "init.0_wire=WireHypercube", "init.0_wire.log=false",
+        "protocol.example.maxMessagesToSend=2",
+        "protocol.example.maxMessagesToReceive=2",
+        "control.1_observer=example.multicast.PostObserver",
+        "control.1_observer.protocol=example",
+        "control.1_observer.observe.nbReceivedMessages");
+    TestSupport.Result expected = run(p, false);
+    TestSupport.Result actual = run(with(p, "init.0_wire.implicit"), false);
+    check(expected.observations.size() > 10, "only "
+        + expected.observations.size() + " observations");
+    checkLines(expected.observations, actual.observations, "observations");
+    checkLines(expected.out, actual.out, "output");
+  }
+}
@@ -0,0 +1,225 @@
+
+package easysim.topology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import easysim.TestSupport;
+import easysim.core.Network;
+import easysim.core.Node;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks the degrees of the random topologies, on networks of several blocks
+ * of nodes (see {@link RandomWire}).
+ */
+public class RandomWireTest
+{
+
+  private static final int SIZE = 10000;
+
+  /**
+   * Wires a network of the given size with the given wire, and returns the
+   * neighbor ids of each node. Checks that there are no self-loops or
+   * duplicate links.
+   */
+  static int[][] wire(final String wire, int size, String... parameters)
+  {
+    Properties p = with(with(protocol("example", "example.ring.Ring", size, 1),
+        "init.0_wire=" + wire, "init.0_wire.log=false"), parameters);
+    return TestSupport.network(p, new PrintStream(new ByteArrayOutputStream()),
+        new Callable<int[][]>()
+        {
+          public int[][] call() throws Exception
+          {
+            ((AbstractWire) Class.forName("easysim.topology." + wire)
+                .getConstructor(String.class).newInstance("init.0_wire"))
+                .execute();
+            int[][] neighbors = new int[Network.size()][];
+            for (int i = 0; i < Network.size(); ++i)
+            {
+              Node node = Network.get(i);
+              neighbors[i] = new int[node.getNeighborCount()];
+              for (int k = 0; k < neighbors[i].length; ++k)
+              {
+                neighbors[i][k] = node.getNeighborId(k);
+                check(neighbors[i][k] != i, "self-loop of node " + i);
+              }
+              int[] sorted = neighbors[i].clone();
+              Arrays.sort(sorted);
+              for (int k = 1; k < sorted.length; ++k)
+                check(sorted[k] != sorted[k - 1], "duplicate link " + i
+                    + " -> " + sorted[k]);
+            }
+            return neighbors;
+          }
+        });
+  }
+
+  static int links(int[][] neighbors)
+  {
+    int links = 0;
+    for (int[] ids : neighbors)
+      links += ids.length;
+    return links;
+  }
+
+  static int[] inDegrees(int[][] neighbors)
+  {
+    int[] degrees = new int[neighbors.length];
+    for (int[] ids : neighbors)
+    {
+      for (int j : ids)
+        degrees[j]++;
+    }
+    return degrees;
+  }
+
+  /**
+   * Checks that the links are undirected.
+   */
+  static void checkUndirected(int[][] neighbors)
+  {
+    for (int i = 0; i < neighbors.length; ++i)
+    {
+      for (int j : neighbors[i])
+      {
+        int[] back = neighbors[j].clone();
+        Arrays.sort(back);
+        check(Arrays.binarySearch(back, i) >= 0, "link " + i + " -> " + j
+            + " without " + j + " -> " + i);
+      }
+    }
+  }
+
+  /**
+   * Checks that the given count is within the given relative tolerance of
+   * the expected count.
+   */
+  static void checkNear(double expected, double actual, double tolerance,
+      String what)
+  {
+    check(Math.abs(actual - expected) <= tolerance * expected, what
+        + ": expected about " + expected + " but was " + actual);
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testRandomRegular()
+  {
+    int[][] directed = wire("WireRandomRegular", SIZE, "init.0_wire.k=4");
+    int[] in = inDegrees(directed);
+    for (int i = 0; i < SIZE; ++i)
+    {
+      check(directed[i].length <= 4, "out-degree of node " + i);
+      check(in[i] <= 4, "in-degree of node " + i);
+    }
+    checkNear(4 * SIZE, links(directed), 0.01, "links");
+
+    int[][] undirected = wire("WireRandomRegular", SIZE, "init.0_wire.k=4",
+        "init.0_wire.undirected");
+    checkUndirected(undirected);
+    for (int i = 0; i < SIZE; ++i)
+      check(undirected[i].length <= 4, "degree of node " + i);
+    checkNear(4 * SIZE, links(undirected), 0.01, "undirected links");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testErdosRenyi()
+  {
+    double p = 0.001;
+    double pairs = (double) SIZE * (SIZE - 1);
+    // Within 5 standard deviations
+    double tolerance = 5 / Math.sqrt(pairs * p);
+    checkNear(pairs * p, links(wire("WireErdosRenyi", SIZE,
+        "init.0_wire.p=" + p)), tolerance, "links");
+    int[][] undirected = wire("WireErdosRenyi", SIZE, "init.0_wire.p=" + p,
+        "init.0_wire.undirected");
+    checkUndirected(undirected);
+    checkNear(pairs * p, links(undirected), tolerance * Math.sqrt(2),
+        "undirected links");
+    checkEquals(0, links(wire("WireErdosRenyi", SIZE, "init.0_wire.p=0")),
+        "links with p=0");
+    int n = SIZE / 10;
+    checkEquals(n * (n - 1), links(wire("WireErdosRenyi", n,
+        "init.0_wire.p=1")), "links with p=1");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testScaleFreeBA()
+  {
+    int[][] neighbors = wire("WireScaleFreeBA", SIZE, "init.0_wire.k=3");
+    checkEquals(0, neighbors[0].length, "links of node 0");
+    for (int i = 0; i < SIZE; ++i)
+    {
+      check(neighbors[i].length <= Math.min(3, i), "out-degree of node " + i);
+      for (int j : neighbors[i])
+        check(j < i, "link " + i + " -> " + j + " to a later node");
+    }
+    checkNear(3 * SIZE, links(neighbors), 0.05, "links");
+    // Preferential attachment gives hubs
+    int max = 0;
+    for (int d : inDegrees(neighbors))
+      max = Math.max(max, d);
+    check(max > 30, "highest in-degree " + max);
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testWattsStrogatz()
+  {
+    int[][] lattice = wire("WireWS", SIZE, "init.0_wire.k=3",
+        "init.0_wire.beta=0");
+    for (int i = 0; i < SIZE; ++i)
+    {
+      int[] expected = { (i + 1) % SIZE, (i + 2) % SIZE, (i + 3) % SIZE };
+      checkEquals(Arrays.toString(expected), Arrays.toString(lattice[i]),
+          "neighbors of node " + i);
+    }
+
+    int[][] rewired = wire("WireWS", SIZE, "init.0_wire.k=3",
+        "init.0_wire.beta=0.2");
+    int kept = 0;
+    for (int i = 0; i < SIZE; ++i)
+    {
+      check(rewired[i].length <= 3, "out-degree of node " + i);
+      for (int j : rewired[i])
+      {
+        int d = (j - i + SIZE) % SIZE;
+        if (d >= 1 && d <= 3)
+          kept++;
+      }
+    }
+    checkNear(0.8 * 3 * SIZE, kept, 0.02, "links not rewired");
+    checkNear(3 * SIZE, links(rewired), 0.01, "links");
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testSameWithThreads()
+  {
+    String[][] wires = { { "WireRandomRegular", "init.0_wire.k=4" },
+        { "WireErdosRenyi", "init.0_wire.p=0.001" },
+        { "WireScaleFreeBA", "init.0_wire.k=3" },
+        { "WireWS", "init.0_wire.k=3", "init.0_wire.beta=0.2" } };
+    for (String[] w : wires)
+    {
+      String[] one = Arrays.copyOfRange(w, 1, w.length + 1);
+      String[] four = one.clone();
+      one[one.length - 1] = "init.0_wire.threads=1";
+      four[four.length - 1] = "init.0_wire.threads=4";
+      checkEquals(Arrays.deepToString(wire(w[0], SIZE, one)), Arrays
+          .deepToString(wire(w[0], SIZE, four)), w[0]
+          + " with 1 and 4 threads");
+    }
+  }
+}
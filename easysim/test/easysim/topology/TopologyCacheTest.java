@@ -0,0 +1,232 @@
+
+package easysim.topology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import easysim.TestSupport;
+import easysim.core.Adjacency;
+import easysim.core.Network;
+import easysim.core.Node;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.checkLines;
+import static easysim.TestSupport.lines;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks that the {@link TopologyCache} reads a topology back only for the
+ * same wiring.
+ */
+public class TopologyCacheTest
+{
+
+  private File dir;
+
+  /** The links printed by the last wiring. */
+  private List<String> printed;
+
+  /**
+   * Wires a network of the given size with a regular rooted tree cached in
+   * {@link #dir}, and returns the neighbor ids of each node.
+   */
+  private List<List<Integer>> wire(int size, String... parameters)
+  {
+    Properties p = with(with(protocol("example", "example.ring.Ring", size, 1),
+        "init.0_wire=WireRegRootedTree", "init.0_wire.k=2",
+        "init.0_wire.cache=" + dir.getPath()), parameters);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    List<List<Integer>> neighbors = TestSupport.network(p, new PrintStream(
+        out, true), new Callable<List<List<Integer>>>()
+    {
+      public List<List<Integer>> call()
+      {
+        new WireRegRootedTree("init.0_wire").execute();
+        List<List<Integer>> neighbors = new ArrayList<List<Integer>>();
+        for (int i = 0; i < Network.size(); ++i)
+        {
+          Node node = Network.get(i);
+          List<Integer> ids = new ArrayList<Integer>();
+          for (int k = 0; k < node.getNeighborCount(); ++k)
+            ids.add(node.getNeighborId(k));
+          neighbors.add(ids);
+        }
+        return neighbors;
+      }
+    });
+    printed = lines(out.toString());
+    return neighbors;
+  }
+
+  /**
+   * Returns the files of the cache.
+   */
+  private File[] files()
+  {
+    File[] files = dir.listFiles();
+    return (files == null) ? new File[0] : files;
+  }
+
+  /**
+   * Replaces the topology of the given cache file by a star centered on node
+   * 0, under the same key.
+   */
+  private static void replace(File file, int size) throws Exception
+  {
+    check(Adjacency.read(file, key(file)) != null, "no topology in " + file);
+    int[] offsets = new int[size + 1];
+    int[] targets = new int[size - 1];
+    for (int i = 1; i < size; ++i)
+      targets[i - 1] = i;
+    for (int i = 1; i <= size; ++i)
+      offsets[i] = size - 1;
+    new Adjacency(offsets, targets).write(file, key(file));
+  }
+
+  /**
+   * Returns the key stored in the given cache file.
+   */
+  private static String key(File file) throws Exception
+  {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try
+    {
+      in.readInt();
+      in.readInt();
+      int length = Integer.reverseBytes(in.readInt());
+      byte[] key = new byte[length];
+      in.readFully(key);
+      return new String(key, "UTF-8");
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  private void withCache(Callable<Void> test) throws Exception
+  {
+    dir = File.createTempFile("easysim", ".cache");
+    dir.delete();
+    try
+    {
+      test.call();
+    }
+    finally
+    {
+      for (File file : files())
+        file.delete();
+      dir.delete();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testMissThenHit() throws Exception
+  {
+    withCache(new Callable<Void>()
+    {
+      public Void call() throws Exception
+      {
+        List<List<Integer>> wired = wire(10);
+        List<String> links = printed;
+        checkEquals(1, files().length, "cached topologies");
+        check(links.size() > 0, "no links printed");
+        checkEquals(wired, wire(10), "neighbors read from the cache");
+        checkLines(links, printed, "links printed from the cache");
+        // Ignored by the key
+        checkEquals(wired, wire(10, "init.0_wire.log=false"),
+            "neighbors without log");
+        checkEquals(0, printed.size(), "links printed without log");
+        checkEquals(1, files().length, "cached topologies");
+
+        // The topology is indeed read from the file
+        replace(files()[0], 10);
+        List<List<Integer>> star = wire(10);
+        checkEquals(9, star.get(0).size(), "neighbors of node 0 in the star");
+        checkEquals(0, star.get(1).size(), "neighbors of node 1 in the star");
+        return null;
+      }
+    });
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testOtherWiringsMiss() throws Exception
+  {
+    withCache(new Callable<Void>()
+    {
+      public Void call() throws Exception
+      {
+        wire(10);
+        replace(files()[0], 10);
+        // Another size, degree or direction is wired again
+        checkEquals(2, wire(11).get(0).size(), "neighbors of node 0");
+        checkEquals(2, files().length, "cached topologies");
+        checkEquals(3, wire(10, "init.0_wire.k=3").get(0).size(),
+            "neighbors of node 0 with k=3");
+        checkEquals(3, files().length, "cached topologies");
+        checkEquals(3, wire(10, "init.0_wire.undirected").get(1).size(),
+            "neighbors of node 1, undirected");
+        checkEquals(4, files().length, "cached topologies");
+        return null;
+      }
+    });
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testOtherKeyInFile() throws Exception
+  {
+    withCache(new Callable<Void>()
+    {
+      public Void call() throws Exception
+      {
+        List<List<Integer>> wired = wire(10);
+        File file = files()[0];
+        // Same file name, but another key: the topology is wired again
+        new Adjacency(new int[11], new int[0]).write(file, "another key");
+        checkEquals(wired, wire(10), "neighbors");
+        check(!key(file).equals("another key"), "file not written again");
+        checkEquals(wired, wire(10), "neighbors read from the cache");
+        return null;
+      }
+    });
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testKeyOfExpressions() throws Exception
+  {
+    withCache(new Callable<Void>()
+    {
+      public Void call() throws Exception
+      {
+        wire(10, "K=20", "init.0_wire.k=K/10");
+        checkEquals(1, files().length, "cached topologies");
+        // Same value: read from the cache
+        wire(10, "init.0_wire.k=2");
+        checkEquals(1, files().length, "cached topologies with k=2");
+        wire(10, "K=4", "init.0_wire.k=K/2");
+        checkEquals(1, files().length, "cached topologies with k=K/2");
+        // Another value of the variable: wired again
+        checkEquals(3, wire(10, "K=30", "init.0_wire.k=K/10").get(0).size(),
+            "neighbors of node 0 with K=30");
+        checkEquals(2, files().length, "cached topologies with K=30");
+        // The number of threads does not change the topology
+        wire(10, "init.0_wire.k=2", "init.0_wire.threads=4");
+        checkEquals(2, files().length, "cached topologies with 4 threads");
+        return null;
+      }
+    });
+  }
+}
@@ -0,0 +1,263 @@
+
+package easysim.trace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import easysim.TimeDiagram;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+import static easysim.TestSupport.checkLines;
+import static easysim.TestSupport.protocol;
+import static easysim.TestSupport.run;
+import static easysim.TestSupport.with;
+
+/**
+ * Checks that the events written by a {@link TraceWriter} are read back by a
+ * {@link TraceReader}, in full or within a window of cycles and nodes.
+ */
+public class TraceTest
+{
+
+  private static final int NODES = 50;
+
+  private static final int CYCLES = 300;
+
+  /**
+   * Returns random events, more than fit in a block, with their cycles
+   * increasing as in a simulation.
+   */
+  private static List<int[]> events(Random r, int count)
+  {
+    List<int[]> events = new ArrayList<int[]>();
+    for (int i = 0; i < count; ++i)
+    {
+      int length = 7 + r.nextInt(TraceWriter.MAX_LENGTH - 6);
+      int[] def = new int[length + 1];
+      def[0] = r.nextInt(NODES);
+      def[1] = r.nextInt(NODES);
+      def[2] = i * CYCLES / count;
+      def[3] = def[2] + r.nextInt(5);
+      def[4] = i;
+      def[5] = r.nextInt(12);
+      def[6] = r.nextInt(4);
+      for (int f = 7; f < length; ++f)
+        def[f] = r.nextInt();
+      // The kind, after the definition
+      def[length] = r.nextInt(3);
+      events.add(def);
+    }
+    return events;
+  }
+
+  private static void write(TraceWriter writer, List<int[]> events)
+  {
+    for (int[] def : events)
+      writer.add(def[def.length - 1], def, def.length - 1);
+  }
+
+  /**
+   * Returns the given event as a "kind fields" line.
+   */
+  private static String line(int kind, int[] def, int length)
+  {
+    StringBuilder line = new StringBuilder().append(kind);
+    for (int i = 0; i < length; ++i)
+      line.append(' ').append(def[i]);
+    return line.toString();
+  }
+
+  /**
+   * Returns the events of the given list that intersect the given window.
+   */
+  private static List<String> expected(List<int[]> events, int fromCycle,
+      int toCycle, int fromNode, int toNode)
+  {
+    List<String> lines = new ArrayList<String>();
+    for (int[] def : events)
+    {
+      if (Math.min(def[2], def[3]) <= toCycle
+          && Math.max(def[2], def[3]) >= fromCycle
+          && Math.min(def[0], def[1]) <= toNode
+          && Math.max(def[0], def[1]) >= fromNode)
+        lines.add(line(def[def.length - 1], def, def.length - 1));
+    }
+    return lines;
+  }
+
+  /**
+   * Returns the events read within the given window.
+   */
+  private static List<String> read(TraceReader reader, int fromCycle,
+      int toCycle, int fromNode, int toNode)
+  {
+    final List<String> lines = new ArrayList<String>();
+    reader.read(fromCycle, toCycle, fromNode, toNode,
+        new TraceReader.Visitor()
+        {
+          public void event(int kind, int[] def, int length)
+          {
+            lines.add(line(kind, def, length));
+          }
+        });
+    return lines;
+  }
+
+  /**
+   * Returns the length of a closed trace of the given number of events,
+   * written without intermediate flushes.
+   */
+  private static long length(int events)
+  {
+    long length = TraceWriter.FILE_HEADER;
+    for (int i = 0; i < events; i += TraceWriter.BLOCK_SIZE)
+      length += TraceWriter.blockBytes(Math.min(TraceWriter.BLOCK_SIZE,
+          events - i));
+    return length;
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testRoundTrip() throws IOException
+  {
+    Random r = new Random(7);
+    List<int[]> events = events(r, 3 * TraceWriter.BLOCK_SIZE + 123);
+    File file = File.createTempFile("easysim", ".trace");
+    try
+    {
+      TraceWriter writer = new TraceWriter(file.getPath());
+      write(writer, events);
+      writer.close();
+      writer.close();
+      checkEquals(length(events.size()), file.length(), "trace length");
+
+      TraceReader reader = new TraceReader(file.getPath());
+      try
+      {
+        checkEquals(events.size(), reader.getEvents(), "events");
+        checkEquals(NODES, reader.getNodes(), "nodes");
+        int cycles = 0;
+        for (int[] def : events)
+          cycles = Math.max(cycles, def[3] + 1);
+        checkEquals(cycles, reader.getCycles(), "cycles");
+        checkLines(expected(events, 0, Integer.MAX_VALUE, 0,
+            Integer.MAX_VALUE), read(reader, 0, Integer.MAX_VALUE, 0,
+            Integer.MAX_VALUE), "all events");
+
+        // Windows within a block, across blocks, and out of the trace
+        int[][] windows = { { 10, 12, 5, 9 }, { 70, 160, 0, 0 },
+            { 0, CYCLES, 20, 20 }, { 150, 150, 0, NODES },
+            { 40, 30, 0, NODES }, { CYCLES + 10, CYCLES + 20, 0, NODES } };
+        for (int[] w : windows)
+        {
+          List<String> expected = expected(events, w[0], w[1], w[2], w[3]);
+          checkLines(expected, read(reader, w[0], w[1], w[2], w[3]),
+              "window " + Arrays.toString(w));
+        }
+        for (int i = 0; i < 20; ++i)
+        {
+          int fromCycle = r.nextInt(CYCLES);
+          int fromNode = r.nextInt(NODES);
+          int toCycle = fromCycle + r.nextInt(30);
+          int toNode = fromNode + r.nextInt(10);
+          checkLines(expected(events, fromCycle, toCycle, fromNode, toNode),
+              read(reader, fromCycle, toCycle, fromNode, toNode), "window "
+                  + fromCycle + "-" + toCycle + " x " + fromNode + "-"
+                  + toNode);
+        }
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  public void testAppend() throws IOException
+  {
+    Random r = new Random(11);
+    List<int[]> events = events(r, TraceWriter.BLOCK_SIZE + 10);
+    List<int[]> more = events(r, 500);
+    File file = File.createTempFile("easysim", ".trace");
+    try
+    {
+      TraceWriter writer = new TraceWriter(file.getPath());
+      write(writer, events);
+      writer.close();
+      writer = new TraceWriter(file.getPath(), true);
+      write(writer, more);
+      writer.close();
+
+      List<int[]> all = new ArrayList<int[]>(events);
+      all.addAll(more);
+      TraceReader reader = new TraceReader(file.getPath());
+      try
+      {
+        checkEquals(all.size(), reader.getEvents(), "events");
+        checkLines(expected(all, 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE),
+            read(reader, 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE),
+            "appended events");
+        checkLines(expected(all, 100, 120, 10, 30),
+            read(reader, 100, 120, 10, 30), "appended window");
+      }
+      finally
+      {
+        reader.close();
+      }
+
+      // Without appending, the trace starts over
+      writer = new TraceWriter(file.getPath());
+      write(writer, more);
+      writer.close();
+      checkEquals(length(more.size()), file.length(), "trace length");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  public void testClosedAtTheEndOfTheExperiment() throws IOException
+  {
+    File file = File.createTempFile("easysim", ".trace");
+    File svg = File.createTempFile("easysim", ".svg");
+    try
+    {
+      Properties p = with(protocol("ubtobcast", "example.ubtobcast.Broadcast",
+          10, 20), "simulation.timeDiagram", "simulation.uniform=true",
+          TimeDiagram.PAR_FILE + "=" + file.getPath(),
+          TimeDiagram.PAR_EXPORT + "=svg",
+          TimeDiagram.PAR_EXPORT_FILE + "=" + svg.getPath());
+      run(p, new PrintStream(new ByteArrayOutputStream()));
+
+      // Trimmed to its events, instead of a whole chunk
+      TraceReader reader = new TraceReader(file.getPath());
+      try
+      {
+        check(reader.getEvents() > 0, "no events recorded");
+        checkEquals(length(reader.getEvents()), file.length(), "trace length");
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    finally
+    {
+      file.delete();
+      svg.delete();
+    }
+  }
+}
@@ -0,0 +1,286 @@
+
+package easysim.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+import static easysim.TestSupport.check;
+import static easysim.TestSupport.checkEquals;
+
+/**
+ * Checks that the statistics of the partitions of a data set, merged, are
+ * those of the whole data set added in a single pass: exactly for the counts,
+ * extrema, medians and frequencies, and up to rounding errors for the
+ * moments.
+ */
+public class StatsMergeTest
+{
+
+  private static final double TOLERANCE = 1e-9;
+
+  /**
+   * Returns random data: small integers, with many repeated values, or
+   * doubles spread over several orders of magnitude.
+   */
+  private static double[] data(Random r, int size, boolean integers)
+  {
+    double[] data = new double[size];
+    for (int i = 0; i < size; ++i)
+    {
+      if (integers)
+        data[i] = r.nextInt(20);
+      else
+        data[i] = r.nextGaussian() * Math.pow(10, r.nextInt(4)) + 3;
+    }
+    return data;
+  }
+
+  /**
+   * Returns random increasing bounds splitting <code>size</code> items in
+   * <code>parts</code> partitions, some of them possibly empty.
+   */
+  private static int[] bounds(Random r, int size, int parts)
+  {
+    int[] bounds = new int[parts + 1];
+    for (int p = 1; p < parts; ++p)
+      bounds[p] = r.nextInt(size + 1);
+    bounds[parts] = size;
+    Arrays.sort(bounds);
+    return bounds;
+  }
+
+  /**
+   * Adds the data to a single object, and to one object per partition merged
+   * in a new object, and returns both.
+   */
+  private static <S> List<S> pass(double[] data, int[] bounds,
+      Supplier<S> factory, BiConsumer<S, Double> add, BiConsumer<S, S> merge)
+  {
+    S single = factory.get();
+    for (double item : data)
+      add.accept(single, item);
+    S merged = factory.get();
+    for (int p = 0; p + 1 < bounds.length; ++p)
+    {
+      S part = factory.get();
+      for (int i = bounds[p]; i < bounds[p + 1]; ++i)
+        add.accept(part, data[i]);
+      merge.accept(merged, part);
+    }
+    List<S> both = new ArrayList<S>();
+    both.add(single);
+    both.add(merged);
+    return both;
+  }
+
+  private static void checkClose(double expected, double actual, String what)
+  {
+    double error = Math.abs(expected - actual);
+    if (!(error <= TOLERANCE * Math.max(1, Math.abs(expected))))
+      throw new AssertionError(what + ": expected <" + expected
+          + "> but was <" + actual + ">");
+  }
+
+  private static void checkSame(IncrementalStats expected,
+      IncrementalStats actual, boolean integers, String what)
+  {
+    checkEquals(expected.getN(), actual.getN(), what + ", n");
+    checkEquals(expected.getMin(), actual.getMin(), what + ", min");
+    checkEquals(expected.getMax(), actual.getMax(), what + ", max");
+    checkEquals(expected.getMinCount(), actual.getMinCount(), what
+        + ", min count");
+    checkEquals(expected.getMaxCount(), actual.getMaxCount(), what
+        + ", max count");
+    if (integers)
+    {
+      // The sums of small integers are exact
+      checkEquals(expected.getSum(), actual.getSum(), what + ", sum");
+      checkEquals(expected.getSqrSum(), actual.getSqrSum(), what + ", sqrsum");
+      checkEquals(expected.getVar(), actual.getVar(), what + ", variance");
+    }
+    else
+    {
+      checkClose(expected.getSum(), actual.getSum(), what + ", sum");
+      checkClose(expected.getSqrSum(), actual.getSqrSum(), what + ", sqrsum");
+      // Truncated to two decimals
+      check(Math.abs(expected.getVar() - actual.getVar()) <= 0.01 + TOLERANCE
+          * expected.getVar(), what + ", variance: expected <"
+          + expected.getVar() + "> but was <" + actual.getVar() + ">");
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testIncrementalStats()
+  {
+    Random r = new Random(1);
+    for (int run = 0; run < 100; ++run)
+    {
+      boolean integers = run % 2 == 0;
+      double[] data = data(r, 1 + r.nextInt(500), integers);
+      List<IncrementalStats> s = pass(data, bounds(r, data.length,
+          1 + r.nextInt(8)), IncrementalStats::new, IncrementalStats::add,
+          IncrementalStats::merge);
+      checkSame(s.get(0), s.get(1), integers, "run " + run);
+    }
+  }
+
+  public void testMomentStats()
+  {
+    Random r = new Random(2);
+    for (int run = 0; run < 100; ++run)
+    {
+      boolean integers = run % 2 == 0;
+      double[] data = data(r, 2 + r.nextInt(500), integers);
+      List<MomentStats> s = pass(data, bounds(r, data.length,
+          1 + r.nextInt(8)), MomentStats::new, MomentStats::add,
+          MomentStats::merge);
+      String what = "run " + run;
+      checkSame(s.get(0), s.get(1), integers, what);
+      checkClose(s.get(0).getSkewness(), s.get(1).getSkewness(), what
+          + ", skewness");
+      checkClose(s.get(0).getKurtosis(), s.get(1).getKurtosis(), what
+          + ", kurtosis");
+
+      // Both are the moments of the data, computed in two passes
+      double mean = 0;
+      for (double item : data)
+        mean += item;
+      mean /= data.length;
+      double m2 = 0, m3 = 0, m4 = 0;
+      for (double item : data)
+      {
+        double d = item - mean;
+        m2 += d * d;
+        m3 += d * d * d;
+        m4 += d * d * d * d;
+      }
+      int n = data.length;
+      if (m2 > 0)
+      {
+        checkClose(Math.sqrt(n) * m3 / Math.pow(m2, 1.5),
+            s.get(1).getSkewness(), what + ", two-pass skewness");
+        checkClose(n * m4 / (m2 * m2) - 3, s.get(1).getKurtosis(), what
+            + ", two-pass kurtosis");
+      }
+    }
+  }
+
+  public void testMedianStats()
+  {
+    Random r = new Random(3);
+    for (int run = 0; run < 100; ++run)
+    {
+      boolean integers = run % 2 == 0;
+      double[] data = data(r, 1 + r.nextInt(500), integers);
+      List<MedianStats> s = pass(data, bounds(r, data.length,
+          1 + r.nextInt(8)), MedianStats::new, MedianStats::add,
+          MedianStats::merge);
+      checkSame(s.get(0), s.get(1), integers, "run " + run);
+      checkEquals(s.get(0).getMedian(), s.get(1).getMedian(), "run " + run
+          + ", median");
+    }
+  }
+
+  public void testIncompatibleMerge()
+  {
+    MomentStats moments = new MomentStats();
+    try
+    {
+      moments.merge(new IncrementalStats());
+      throw new AssertionError("IncrementalStats merged into a MomentStats");
+    }
+    catch (IllegalArgumentException e)
+    {
+      // expected
+    }
+  }
+
+  public void testIncrementalFreq()
+  {
+    Random r = new Random(4);
+    for (int run = 0; run < 100; ++run)
+    {
+      // With and without a capacity
+      final int max = run % 2 == 0 ? -1 : 10;
+      double[] data = data(r, 1 + r.nextInt(500), true);
+      List<IncrementalFreq> s = pass(data, bounds(r, data.length,
+          1 + r.nextInt(8)), () -> new IncrementalFreq(max),
+          (f, item) -> f.add(item.intValue()), IncrementalFreq::merge);
+      String what = "run " + run;
+      checkEquals(s.get(0).getN(), s.get(1).getN(), what + ", n");
+      for (int i = 0; i < 25; ++i)
+        checkEquals(s.get(0).getFreq(i), s.get(1).getFreq(i), what
+            + ", frequency of " + i);
+      checkEquals(s.get(0).toString(), s.get(1).toString(), what);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  public void testReduce()
+  {
+    Random r = new Random(5);
+    for (int run = 0; run < 20; ++run)
+    {
+      boolean integers = run % 2 == 0;
+      final double[] data = data(r, 1 + r.nextInt(2000), integers);
+      ObjIntConsumer<MomentStats> add = (s, i) -> s.add(data[i]);
+      MomentStats single = Accumulator.reduce(data.length, 1,
+          MomentStats::new, add, MomentStats::merge);
+      for (int parts = 2; parts <= 9; ++parts)
+      {
+        String what = "run " + run + ", " + parts + " partitions";
+        MomentStats merged = Accumulator.reduce(data.length, parts,
+            MomentStats::new, add, MomentStats::merge);
+        checkSame(single, merged, integers, what);
+        checkClose(single.getSkewness(), merged.getSkewness(), what
+            + ", skewness");
+        checkClose(single.getKurtosis(), merged.getKurtosis(), what
+            + ", kurtosis");
+        // Merged in the order of the partitions, whatever the threads
+        MomentStats again = Accumulator.reduce(data.length, parts,
+            MomentStats::new, add, MomentStats::merge);
+        checkEquals(merged.toString(), again.toString(), what
+            + ", repeated");
+      }
+    }
+  }
+
+  public void testCombine() throws InterruptedException
+  {
+    final double[] data = data(new Random(6), 10000, true);
+    final Accumulator<MedianStats> stats = new Accumulator<MedianStats>(
+        MedianStats::new, MedianStats::merge);
+    MedianStats single = new MedianStats();
+    for (double item : data)
+      single.add(item);
+    for (int round = 0; round < 2; ++round)
+    {
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; ++t)
+      {
+        final int first = t;
+        threads[t] = new Thread(() ->
+        {
+          for (int i = first; i < data.length; i += 4)
+            stats.get().add(data[i]);
+        });
+        threads[t].start();
+      }
+      for (Thread t : threads)
+        t.join();
+      MedianStats combined = stats.combine();
+      checkSame(single, combined, true, "round " + round);
+      checkEquals(single.getMedian(), combined.getMedian(), "round " + round
+          + ", median");
+      // The next round starts from new copies
+      stats.clear();
+    }
+  }
+}